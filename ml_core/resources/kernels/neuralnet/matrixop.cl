@@ -124,6 +124,156 @@ __kernel void adamAdaptWeights(
     weights[index] = w - ((eta * m * invOneMinusBeta1) / ( sqrt( v *invOneMinusBeta2 ) + epsilon)) ; 
 }
 
+/*
+parameters: x,y,z,w -> eta, beta1, beta2, epsilon
+corrections: x,y -> 1 / (1 - beta1Corr), 1 / (1 - beta2Corr)
+One fused step of the adam algorithm, the moment, the velocity and the
+weights are updated by the same work item.
+*/
+__kernel void adamStep(
+    const float4 parameters,
+    const float2 corrections,
+    const float weightDecay,
+    const __global float* gradient,
+    __global float* moment,
+    __global float* velocity,
+    __global float* weights,
+    const int maxIndex
+)
+{
+    int index = get_global_id(0);
+    if (index < maxIndex) {
+        float g = gradient[index];
+        float m = parameters.y * moment[index] + (1 - parameters.y) * g;
+        float v = parameters.z * velocity[index] + (1 - parameters.z) * g * g;
+        float w = weights[index];
+        moment[index] = m;
+        velocity[index] = v;
+        weights[index] = w + parameters.x * (m * corrections.x / (sqrt(v * corrections.y) + parameters.w) - weightDecay * w);
+    }
+}
+
+__kernel void momentumStep(
+    const float eta,
+    const float momentum,
+    const __global float* gradient,
+    __global float* velocity,
+    __global float* weights,
+    const int maxIndex
+)
+{
+    int index = get_global_id(0);
+    if (index < maxIndex) {
+        float v = momentum * velocity[index] + gradient[index];
+        velocity[index] = v;
+        weights[index] += eta * v;
+    }
+}
+
+/*
+parameters: x,y,z -> eta, decay, epsilon
+*/
+__kernel void rmsPropStep(
+    const float4 parameters,
+    const __global float* gradient,
+    __global float* meanSquare,
+    __global float* weights,
+    const int maxIndex
+)
+{
+    int index = get_global_id(0);
+    if (index < maxIndex) {
+        float g = gradient[index];
+        float s = parameters.y * meanSquare[index] + (1 - parameters.y) * g * g;
+        meanSquare[index] = s;
+        weights[index] += parameters.x * g / (sqrt(s) + parameters.z);
+    }
+}
+
+/*
+one work item per column, columns: x,y -> columns, slices
+*/
+__kernel void softMax(
+    __global float* m,
+    const int3 dim,
+    const int2 columns,
+    const int rows,
+    const int maxIndex
+)
+{
+    int index = get_global_id(0);
+    if (index < maxIndex) {
+        int c = index % columns.x;
+        int s = (index / columns.x) % columns.y;
+        int h = index / (columns.x * columns.y);
+        int base = rcshToIndex((int4)(0, c, s, h), dim);
+        float maxValue = -MAXFLOAT;
+        for (int r = 0; r < rows; ++r) {
+            maxValue = fmax(maxValue, m[base + r]);
+        }
+        float sum = 0;
+        for (int r = 0; r < rows; ++r) {
+            float e = exp(m[base + r] - maxValue);
+            m[base + r] = e;
+            sum += e;
+        }
+        float invSum = 1 / sum;
+        for (int r = 0; r < rows; ++r) {
+            m[base + r] *= invSum;
+        }
+    }
+}
+
+/*
+one work item per column, columns: x,y -> columns, slices
+the loss is only written if hasLoss is not 0.
+*/
+__kernel void softMaxCrossEntropy(
+    __global float* m,
+    const __global float* y,
+    __global float* deltas,
+    __global float* loss,
+    const int3 dim,
+    const int2 columns,
+    const int rows,
+    const int hasLoss,
+    const int maxIndex
+)
+{
+    int index = get_global_id(0);
+    if (index < maxIndex) {
+        int c = index % columns.x;
+        int s = (index / columns.x) % columns.y;
+        int h = index / (columns.x * columns.y);
+        int base = rcshToIndex((int4)(0, c, s, h), dim);
+        float maxValue = -MAXFLOAT;
+        for (int r = 0; r < rows; ++r) {
+            maxValue = fmax(maxValue, m[base + r]);
+        }
+        float sum = 0;
+        float ySum = 0;
+        float yShifted = 0;
+        for (int r = 0; r < rows; ++r) {
+            float shifted = m[base + r] - maxValue;
+            float yr = y[base + r];
+            float e = exp(shifted);
+            m[base + r] = e;
+            sum += e;
+            ySum += yr;
+            yShifted += yr * shifted;
+        }
+        float invSum = 1 / sum;
+        for (int r = 0; r < rows; ++r) {
+            float p = m[base + r] * invSum;
+            m[base + r] = p;
+            deltas[base + r] = p - y[base + r];
+        }
+        if (hasLoss != 0) {
+            loss[index] = ySum * log(sum) - yShifted;
+        }
+    }
+}
+
 __kernel void dotsubtract(
     const __global float* op1,
     const __global float* op2,
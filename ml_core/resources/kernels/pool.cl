@@ -26,10 +26,15 @@ int rcshToIndex(int4 rcsh, int3 dim){
     return rcsh.x + rcsh.y*dim.x + rcsh.z*dim.y +rcsh.w*dim.z;
 }
 
+/*
+The mask stores the location of the maximum in its pool window as one unsigned
+byte: row r and column c of the window are stored as r + c * fDim.x.
+fDim: x,y -> rowSize, columnSize of the pool window.
+*/
 __kernel void maxpool(
     const __global float* I,
     __global float* O,
-    __global int* M,
+    __global uchar* M,
     // the dimensions of the the input matrix.
     const int3 iDim,
     // the scale of the max pool filter.
@@ -46,13 +51,12 @@ __kernel void maxpool(
     int slice = rcsh.z;
     int hyperSlice = rcsh.w;
     
-    float m = -100000.0f;
+    float m = -FLT_MAX;
     
-    int maskIndex = 0;
     int cell = 0;
-    for(int r = 0; r < fDim.x; ++r )
+    for (int c = 0; c < fDim.y; ++c )
     {
-        for (int c =0; c < fDim.y; ++c )
+        for(int r = 0; r < fDim.x; ++r )
         {        
             int iIndex = rcshToIndex( (int4)(iRow+r,iCol+c,slice,hyperSlice) , iDim);
             float value = I[iIndex];
@@ -66,51 +70,46 @@ __kernel void maxpool(
     }
     
     O[index] = m ;
-    M[index] = cell;
+    M[index] = (uchar)cell;
 }
 
+/*
+Every work item writes one cell of the unpooled output, the cells that did not
+hold the maximum of their pool window are set to zero.
+*/
 __kernel void backpropMaxpool(
     __global float* I,
     __global float* O,
-    __global int* M,
+    const __global uchar* M,
     // the dimensions of the the input matrix.
     const int3 iDim,
     // the scale of the max pool filter.
     const int2 fDim,
     // the dimensions of the output matrix.
-    const int3 oDim
+    const int3 oDim,
+    // the dimensions of the mask matrix.
+    const int3 mDim
 )
 {
     int index = get_global_id(0);
     int4 rcsh = indexToRCSH(index, oDim);
     
-    int gCol = rcsh.x; 
-    int gRow = rcsh.y;
-    int slice = rcsh.z;
-    int hyperSlice = rcsh.w;
-    
-    int iRB = gRow / fDim.x;
-    int iCB = gCol / fDim.y;
-
-    int iIndex = rcshToIndex( (int4)(iRB,iCB,slice,hyperSlice),iDim);
-    int cell = M[iIndex];
-
-    int2 oCoord = (int2)( cell%fDim.x, cell/fDim.x );
-    int2 iCoord = (int2)( gRow%fDim.y, gCol%fDim.x );
-
-    int oIndex = rcshToIndex( (int4)(gRow,gCol,slice,hyperSlice),oDim);
-
-    if(oCoord.x == iCoord.x && oCoord.y == iCoord.y){
-        O[oIndex] = I[iIndex];
-    }else{
-        O[oIndex] = 0;
+    int pRow = rcsh.x / fDim.x;
+    int pCol = rcsh.y / fDim.y;
+    float value = 0;
+    if (pRow < iDim.x && pCol < iDim.y / iDim.x) {
+        int iIndex = rcshToIndex( (int4)(pRow,pCol,rcsh.z,rcsh.w),iDim);
+        int mIndex = rcshToIndex( (int4)(pRow,pCol,rcsh.z,rcsh.w),mDim);
+        int cell = (rcsh.x % fDim.x) + (rcsh.y % fDim.y) * fDim.x;
+        value = M[mIndex] == cell ? I[iIndex] : 0;
     }
+    O[index] = value;
 }
 
 __kernel void maxRotationPool(
     const __global float* I,
     __global float* O,
-    __global int* M,
+    __global uchar* M,
     // the dimensions of the the input matrix.
     const int3 iDim,
     // the scale of the max pool filter.
@@ -131,14 +130,14 @@ __kernel void maxRotationPool(
     int slice = rcsh.z * 2;
     int hyperSlice = rcsh.w;
     
-    float m = -100000.0f;
-    float rot;
+    float m = -FLT_MAX;
+    float rot = 0;
     
     int cell = 0;
     if( hyperSlice < batchSize ){
-        for(int r = 0; r < fDim.x; ++r )
+        for (int c = 0; c < fDim.y; ++c )
         {
-            for (int c =0; c < fDim.y; ++c )
+            for(int r = 0; r < fDim.x; ++r )
             {        
                 int ivIndex = rcshToIndex( (int4)(iRow+r,iCol+c,slice,hyperSlice) , iDim);
                 float value = I[ivIndex];
@@ -152,7 +151,7 @@ __kernel void maxRotationPool(
             }
         }
     
-        M[index] = cell;
+        M[index] = (uchar)cell;
         int ovIndex = rcshToIndex((int4)(rcsh.xy, slice, rcsh.w),oDim);
         O[ovIndex] = m ;
         O[ovIndex + oDim.y] = rot;
@@ -162,7 +161,7 @@ __kernel void maxRotationPool(
 __kernel void backpropMaxRotationPool(
     __global float* I,
     __global float* O,
-    __global int* M,
+    const __global uchar* M,
     // the dimensions of the the input matrix.
     const int3 iDim,
     // the scale of the max pool filter.
@@ -176,26 +175,14 @@ __kernel void backpropMaxRotationPool(
     int index = get_global_id(0);
     int4 rcsh = indexToRCSH(index, oDim);
     
-    int gCol = rcsh.x; 
-    int gRow = rcsh.y;
-    int slice = rcsh.z;
-    int hyperSlice = rcsh.w;
-    
-    int iRB = gRow / fDim.x;
-    int iCB = gCol / fDim.y;
-
-    int mIndex = rcshToIndex( (int4)(iRB,iCB,slice/2,hyperSlice),mDim);
-    int cell = M[mIndex];
-
-    int2 oCoord = (int2)( cell%fDim.x, cell/fDim.x );
-    int2 iCoord = (int2)( gRow%fDim.y, gCol%fDim.x );
-
-    int oIndex = rcshToIndex( (int4)(gRow,gCol,slice,hyperSlice),oDim);
-
-    if(oCoord.x == iCoord.x && oCoord.y == iCoord.y){
-        int iIndex = rcshToIndex( (int4)(iRB,iCB,slice,hyperSlice),iDim);
-        O[oIndex] = I[iIndex];
-    }else{
-        O[oIndex] = 0;
+    int pRow = rcsh.x / fDim.x;
+    int pCol = rcsh.y / fDim.y;
+    float value = 0;
+    if (pRow < iDim.x && pCol < iDim.y / iDim.x) {
+        int iIndex = rcshToIndex( (int4)(pRow,pCol,rcsh.z,rcsh.w),iDim);
+        int mIndex = rcshToIndex( (int4)(pRow,pCol,rcsh.z/2,rcsh.w),mDim);
+        int cell = (rcsh.x % fDim.x) + (rcsh.y % fDim.y) * fDim.x;
+        value = M[mIndex] == cell ? I[iIndex] : 0;
     }
+    O[index] = value;
 }
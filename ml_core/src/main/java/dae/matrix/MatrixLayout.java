@@ -0,0 +1,72 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix;
+
+/**
+ * The order in which the cells of an fmatrix are stored in its host buffer.
+ * The hyperslices are always stored one after the other, the layout defines
+ * the order of the cells within a hyperslice.
+ *
+ * Both layouts are accessed with the same row, column, slice and hyperslice
+ * coordinates, the layout only changes the strided view of the matrix. A
+ * matrix is converted from one layout to the other with copyInto or
+ * copyIntoSlice.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public enum MatrixLayout {
+    /**
+     * Every slice is stored in column major order and the slices follow each
+     * other. This is the default layout.
+     */
+    PLANAR,
+    /**
+     * The slices of a cell are stored next to each other (channels last), the
+     * cells are stored in column major order. The layout is meant for data
+     * that is exchanged with code that expects channels last storage.
+     *
+     * The cpu kernels are written for the planar layout. The convolution
+     * engines work on planar copies of interleaved operands and pooling
+     * visits the cells one by one, so this layout is not faster than the
+     * planar layout. Only the cpu backend supports this layout.
+     */
+    INTERLEAVED;
+
+    /**
+     * Returns the distance between two rows in a hyperslice.
+     *
+     * @param rows the number of rows.
+     * @param columns the number of columns.
+     * @param slices the number of slices.
+     * @return the row stride.
+     */
+    public int getRowStride(int rows, int columns, int slices) {
+        return this == PLANAR ? 1 : slices;
+    }
+
+    /**
+     * Returns the distance between two columns in a hyperslice.
+     *
+     * @param rows the number of rows.
+     * @param columns the number of columns.
+     * @param slices the number of slices.
+     * @return the column stride.
+     */
+    public int getColumnStride(int rows, int columns, int slices) {
+        return this == PLANAR ? rows : rows * slices;
+    }
+
+    /**
+     * Returns the distance between two slices in a hyperslice.
+     *
+     * @param rows the number of rows.
+     * @param columns the number of columns.
+     * @param slices the number of slices.
+     * @return the slice stride.
+     */
+    public int getSliceStride(int rows, int columns, int slices) {
+        return this == PLANAR ? rows * columns : 1;
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Describes how the cells of a matrix are laid out in a host buffer: the
+ * index of cell (r, c, s, h) is offset + r * rowStride + c * columnStride + s *
+ * sliceStride + h * hyperSliceStride. The zero padding is virtual, cells
+ * outside the dimensions of the view read as zero.
+ *
+ * Every view on an fmatrix (transposed, zero padded, reshaped or sub matrix)
+ * can be described by a strided view, so that the cpu kernels can run their
+ * loops on the host buffer without going through the get and set methods of
+ * the view.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public final class StridedView {
+
+    private final FloatBuffer data;
+    private final int offset;
+
+    private final int rows;
+    private final int columns;
+    private final int slices;
+    private final int hyperSlices;
+
+    private final int rowStride;
+    private final int columnStride;
+    private final int sliceStride;
+    private final int hyperSliceStride;
+
+    private final int zeroPadding;
+
+    /**
+     * Creates a new strided view.
+     *
+     * @param data the host buffer with the cells.
+     * @param offset the index of the first cell in the host buffer.
+     * @param rows the number of rows.
+     * @param columns the number of columns.
+     * @param slices the number of slices.
+     * @param hyperSlices the number of hyperslices.
+     * @param rowStride the distance between two rows.
+     * @param columnStride the distance between two columns.
+     * @param sliceStride the distance between two slices.
+     * @param hyperSliceStride the distance between two hyperslices.
+     * @param zeroPadding the virtual zero padding around every slice.
+     */
+    public StridedView(FloatBuffer data, int offset,
+            int rows, int columns, int slices, int hyperSlices,
+            int rowStride, int columnStride, int sliceStride, int hyperSliceStride,
+            int zeroPadding) {
+        this.data = data;
+        this.offset = offset;
+        this.rows = rows;
+        this.columns = columns;
+        this.slices = slices;
+        this.hyperSlices = hyperSlices;
+        this.rowStride = rowStride;
+        this.columnStride = columnStride;
+        this.sliceStride = sliceStride;
+        this.hyperSliceStride = hyperSliceStride;
+        this.zeroPadding = zeroPadding;
+    }
+
+    /**
+     * Creates a strided view on cells that are stored in column major order
+     * from the given offset.
+     *
+     * @param data the host buffer with the cells.
+     * @param offset the index of the first cell in the host buffer.
+     * @param rows the number of rows.
+     * @param columns the number of columns.
+     * @param slices the number of slices.
+     * @param hyperSlices the number of hyperslices.
+     * @param zeroPadding the virtual zero padding around every slice.
+     * @return the strided view.
+     */
+    public static StridedView columnMajor(FloatBuffer data, int offset,
+            int rows, int columns, int slices, int hyperSlices, int zeroPadding) {
+        int sliceSize = rows * columns;
+        return new StridedView(data, offset, rows, columns, slices, hyperSlices,
+                1, rows, sliceSize, sliceSize * slices, zeroPadding);
+    }
+
+    /**
+     * Returns the host buffer with the cells of this view.
+     *
+     * @return the host buffer.
+     */
+    public FloatBuffer getData() {
+        return data;
+    }
+
+    /**
+     * Returns the index of the first cell in the host buffer.
+     *
+     * @return the offset of the view.
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getNrOfRows() {
+        return rows;
+    }
+
+    public int getNrOfColumns() {
+        return columns;
+    }
+
+    public int getNrOfSlices() {
+        return slices;
+    }
+
+    public int getNrOfHyperSlices() {
+        return hyperSlices;
+    }
+
+    public int getRowStride() {
+        return rowStride;
+    }
+
+    public int getColumnStride() {
+        return columnStride;
+    }
+
+    public int getSliceStride() {
+        return sliceStride;
+    }
+
+    public int getHyperSliceStride() {
+        return hyperSliceStride;
+    }
+
+    public int getZeroPadding() {
+        return zeroPadding;
+    }
+
+    /**
+     * Checks if the host buffer is backed by an array.
+     *
+     * @return true if the host buffer has an array.
+     */
+    public boolean hasArray() {
+        return data.hasArray();
+    }
+
+    /**
+     * Returns the array of the host buffer. Use getArrayOffset to find the
+     * first cell of the view in this array.
+     *
+     * @return the array.
+     */
+    public float[] getArray() {
+        return data.array();
+    }
+
+    /**
+     * Returns the index of the first cell of the view in the array of the host
+     * buffer.
+     *
+     * @return the index of the first cell in the array.
+     */
+    public int getArrayOffset() {
+        return data.arrayOffset() + offset;
+    }
+
+    /**
+     * Checks if the cells of this view are stored in column major order, without
+     * gaps, from the start of the host buffer.
+     *
+     * @return true if the view is contiguous.
+     */
+    public boolean isContiguous() {
+        int sliceSize = rows * columns;
+        return offset == 0
+                && (rows <= 1 || rowStride == 1)
+                && (columns <= 1 || columnStride == rows)
+                && (slices <= 1 || sliceStride == sliceSize)
+                && (hyperSlices <= 1 || hyperSliceStride == sliceSize * slices)
+                && data.limit() >= sliceSize * slices * hyperSlices;
+    }
+
+    /**
+     * Returns the index of a cell in the host buffer. The cell must be inside
+     * the dimensions of the view.
+     *
+     * @param row the row of the cell.
+     * @param column the column of the cell.
+     * @param slice the slice of the cell.
+     * @param hyperSlice the hyperslice of the cell.
+     * @return the index of the cell in the host buffer.
+     */
+    public int index(int row, int column, int slice, int hyperSlice) {
+        return offset + row * rowStride + column * columnStride
+                + slice * sliceStride + hyperSlice * hyperSliceStride;
+    }
+
+    /**
+     * Checks if a cell is inside the dimensions of this view.
+     *
+     * @param row the row of the cell.
+     * @param column the column of the cell.
+     * @param slice the slice of the cell.
+     * @param hyperSlice the hyperslice of the cell.
+     * @return true if the cell is stored in the host buffer.
+     */
+    public boolean contains(int row, int column, int slice, int hyperSlice) {
+        return row >= 0 && row < rows && column >= 0 && column < columns
+                && slice >= 0 && slice < slices && hyperSlice >= 0 && hyperSlice < hyperSlices;
+    }
+
+    /**
+     * Gets a cell of the view, the cells in the zero padding or outside the
+     * view are zero.
+     *
+     * @param row the row of the cell.
+     * @param column the column of the cell.
+     * @param slice the slice of the cell.
+     * @param hyperSlice the hyperslice of the cell.
+     * @return the value of the cell.
+     */
+    public float get(int row, int column, int slice, int hyperSlice) {
+        return contains(row, column, slice, hyperSlice)
+                ? data.get(index(row, column, slice, hyperSlice)) : 0;
+    }
+
+    /**
+     * Sets a cell of the view, cells outside the view are ignored.
+     *
+     * @param row the row of the cell.
+     * @param column the column of the cell.
+     * @param slice the slice of the cell.
+     * @param hyperSlice the hyperslice of the cell.
+     * @param value the new value of the cell.
+     */
+    public void set(int row, int column, int slice, int hyperSlice, float value) {
+        if (contains(row, column, slice, hyperSlice)) {
+            data.put(index(row, column, slice, hyperSlice), value);
+        }
+    }
+
+    /**
+     * Returns the transposed view, the rows and the columns are swapped.
+     *
+     * @return the transposed view.
+     */
+    public StridedView transpose() {
+        return new StridedView(data, offset, columns, rows, slices, hyperSlices,
+                columnStride, rowStride, sliceStride, hyperSliceStride, zeroPadding);
+    }
+
+    /**
+     * Returns the same view with another virtual zero padding.
+     *
+     * @param padding the new zero padding.
+     * @return the padded view.
+     */
+    public StridedView pad(int padding) {
+        return new StridedView(data, offset, rows, columns, slices, hyperSlices,
+                rowStride, columnStride, sliceStride, hyperSliceStride, padding);
+    }
+
+    /**
+     * Returns a view on a block of cells of this view.
+     *
+     * @param row the first row of the block.
+     * @param column the first column of the block.
+     * @param slice the first slice of the block.
+     * @param hyperSlice the first hyperslice of the block.
+     * @param nrOfRows the number of rows in the block.
+     * @param nrOfColumns the number of columns in the block.
+     * @param nrOfSlices the number of slices in the block.
+     * @param nrOfHyperSlices the number of hyperslices in the block.
+     * @return the view on the block.
+     */
+    public StridedView block(int row, int column, int slice, int hyperSlice,
+            int nrOfRows, int nrOfColumns, int nrOfSlices, int nrOfHyperSlices) {
+        if (row < 0 || column < 0 || slice < 0 || hyperSlice < 0
+                || row + nrOfRows > rows || column + nrOfColumns > columns
+                || slice + nrOfSlices > slices || hyperSlice + nrOfHyperSlices > hyperSlices) {
+            throw new IllegalArgumentException("The block is not inside the view.");
+        }
+        return new StridedView(data, index(row, column, slice, hyperSlice),
+                nrOfRows, nrOfColumns, nrOfSlices, nrOfHyperSlices,
+                rowStride, columnStride, sliceStride, hyperSliceStride, 0);
+    }
+
+    @Override
+    public String toString() {
+        return "[ " + rows + " , " + columns + " , " + slices + " , " + hyperSlices + " ] offset "
+                + offset + " strides [ " + rowStride + " , " + columnStride + " , "
+                + sliceStride + " , " + hyperSliceStride + " ] padding " + zeroPadding;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.cpu;
+
+/**
+ * The loops of an activation function on plain float arrays. The cpu backend
+ * selects the kernel once per operation, the loops themselves evaluate the
+ * activation function inline without a call per element.
+ *
+ * Every loop processes the elements from (inclusive) to (exclusive) so that
+ * the work can be split over multiple threads.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public interface ActivationKernel {
+
+    /**
+     * Adds a bias and applies the activation function in place: a = f(a +
+     * bias).
+     *
+     * @param a the array.
+     * @param bias the bias to add before the activation function is applied.
+     * @param from the first element.
+     * @param to the element after the last element.
+     */
+    public void activate(float[] a, float bias, int from, int to);
+
+    /**
+     * Multiplies the errors with the derivative of the activation function: r
+     * = e * f'(o). The derivative is expressed in terms of the output of the
+     * activation function.
+     *
+     * @param e the errors.
+     * @param o the outputs of the activation function.
+     * @param r the result.
+     * @param from the first element.
+     * @param to the element after the last element.
+     */
+    public void derive(float[] e, float[] o, float[] r, int from, int to);
+}
@@ -0,0 +1,320 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.cpu;
+
+import dae.neuralnet.activation.ActivationFunction;
+import dae.neuralnet.activation.FastMath;
+import dae.neuralnet.activation.Function;
+import java.util.EnumMap;
+
+/**
+ * Keeps track of the activation kernels of the cpu backend. Every activation
+ * function of ActivationFunction has a specialized kernel, the kernel is
+ * selected once per operation so the loops over the cells are monomorphic.
+ *
+ * A new activation function gets its own loops by registering a kernel for
+ * it. An activation function without a registered kernel falls back to a
+ * kernel that calls the functions of the ActivationFunction per element. A
+ * registered kernel can also replace one of the default kernels.
+ *
+ * The sigmoid, tanh and softmax activations also have a fast math kernel that
+ * uses the approximations of FastMath instead of the double precision
+ * functions of java.lang.Math. The fast math kernels are used by a cpu
+ * backend that is created in fast math mode.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public final class ActivationKernels {
+
+    /**
+     * The slope of the leaky relu activation for negative inputs.
+     */
+    private static final float LEAKYSLOPE = 0.001f;
+
+    private static final EnumMap<ActivationFunction, ActivationKernel> DEFAULTS = new EnumMap<>(ActivationFunction.class);
+    private static final EnumMap<ActivationFunction, ActivationKernel> FAST = new EnumMap<>(ActivationFunction.class);
+    private static volatile EnumMap<ActivationFunction, ActivationKernel> kernels;
+
+    static {
+        DEFAULTS.put(ActivationFunction.IDENTITY, new Identity());
+        DEFAULTS.put(ActivationFunction.SIGMOID, new Sigmoid());
+        DEFAULTS.put(ActivationFunction.CESIGMOID, new CESigmoid());
+        DEFAULTS.put(ActivationFunction.TANH, new Tanh());
+        DEFAULTS.put(ActivationFunction.RELU, new Relu());
+        DEFAULTS.put(ActivationFunction.LEAKYRELU, new LeakyRelu());
+        DEFAULTS.put(ActivationFunction.SOFTMAX, new Exp());
+        kernels = new EnumMap<>(DEFAULTS);
+
+        FAST.put(ActivationFunction.SIGMOID, new FastSigmoid());
+        FAST.put(ActivationFunction.CESIGMOID, new FastCESigmoid());
+        FAST.put(ActivationFunction.TANH, new FastTanh());
+        FAST.put(ActivationFunction.SOFTMAX, new FastExp());
+    }
+
+    private ActivationKernels() {
+
+    }
+
+    /**
+     * Registers the kernel of an activation function. An existing kernel for
+     * the activation function is replaced.
+     *
+     * @param function the activation function.
+     * @param kernel the kernel that implements the activation function.
+     */
+    public static synchronized void register(ActivationFunction function, ActivationKernel kernel) {
+        if (kernel == null) {
+            throw new IllegalArgumentException("The kernel for " + function + " can not be null.");
+        }
+        EnumMap<ActivationFunction, ActivationKernel> copy = new EnumMap<>(kernels);
+        copy.put(function, kernel);
+        kernels = copy;
+    }
+
+    /**
+     * Restores the default kernel of an activation function.
+     *
+     * @param function the activation function.
+     */
+    public static synchronized void reset(ActivationFunction function) {
+        EnumMap<ActivationFunction, ActivationKernel> copy = new EnumMap<>(kernels);
+        ActivationKernel kernel = DEFAULTS.get(function);
+        if (kernel != null) {
+            copy.put(function, kernel);
+        } else {
+            copy.remove(function);
+        }
+        kernels = copy;
+    }
+
+    /**
+     * Returns the kernel of an activation function.
+     *
+     * @param function the activation function.
+     * @return the registered kernel, or a kernel that evaluates the functions
+     * of the activation function per element.
+     */
+    public static ActivationKernel get(ActivationFunction function) {
+        ActivationKernel kernel = kernels.get(function);
+        return kernel != null ? kernel : new FunctionKernel(function.getActivation(), function.getDerivedActivation());
+    }
+
+    /**
+     * Returns the kernel of an activation function.
+     *
+     * @param function the activation function.
+     * @param fastMath true if the fast math kernel should be used if the
+     * activation function has one.
+     * @return the kernel.
+     */
+    public static ActivationKernel get(ActivationFunction function, boolean fastMath) {
+        ActivationKernel kernel = fastMath ? FAST.get(function) : null;
+        return kernel != null ? kernel : get(function);
+    }
+
+    /**
+     * Copies the errors, for activation functions where the derivative is 1
+     * or where the derivative is already part of the errors.
+     */
+    private static void copyErrors(float[] e, float[] r, int from, int to) {
+        if (e != r) {
+            System.arraycopy(e, from, r, from, to - from);
+        }
+    }
+
+    private static final class Identity implements ActivationKernel {
+
+        @Override
+        public void activate(float[] a, float bias, int from, int to) {
+            if (bias != 0) {
+                for (int i = from; i < to; ++i) {
+                    a[i] += bias;
+                }
+            }
+        }
+
+        @Override
+        public void derive(float[] e, float[] o, float[] r, int from, int to) {
+            copyErrors(e, r, from, to);
+        }
+    }
+
+    private static class Sigmoid implements ActivationKernel {
+
+        @Override
+        public void activate(float[] a, float bias, int from, int to) {
+            for (int i = from; i < to; ++i) {
+                a[i] = 1 / (1 + (float) Math.exp(-(a[i] + bias)));
+            }
+        }
+
+        @Override
+        public void derive(float[] e, float[] o, float[] r, int from, int to) {
+            for (int i = from; i < to; ++i) {
+                float x = o[i];
+                r[i] = e[i] * x * (1 - x);
+            }
+        }
+    }
+
+    /**
+     * The sigmoid for the cross entropy cost function, the derivative is
+     * already part of the errors of the cost function.
+     */
+    private static final class CESigmoid extends Sigmoid {
+
+        @Override
+        public void derive(float[] e, float[] o, float[] r, int from, int to) {
+            copyErrors(e, r, from, to);
+        }
+    }
+
+    private static final class Tanh implements ActivationKernel {
+
+        @Override
+        public void activate(float[] a, float bias, int from, int to) {
+            for (int i = from; i < to; ++i) {
+                a[i] = (float) Math.tanh(a[i] + bias);
+            }
+        }
+
+        @Override
+        public void derive(float[] e, float[] o, float[] r, int from, int to) {
+            for (int i = from; i < to; ++i) {
+                float x = o[i];
+                r[i] = e[i] * (1 - x * x);
+            }
+        }
+    }
+
+    private static final class Relu implements ActivationKernel {
+
+        @Override
+        public void activate(float[] a, float bias, int from, int to) {
+            for (int i = from; i < to; ++i) {
+                a[i] = Math.max(a[i] + bias, 0);
+            }
+        }
+
+        @Override
+        public void derive(float[] e, float[] o, float[] r, int from, int to) {
+            for (int i = from; i < to; ++i) {
+                r[i] = o[i] < 0 ? 0 : e[i];
+            }
+        }
+    }
+
+    private static final class LeakyRelu implements ActivationKernel {
+
+        @Override
+        public void activate(float[] a, float bias, int from, int to) {
+            for (int i = from; i < to; ++i) {
+                float x = a[i] + bias;
+                a[i] = x < 0 ? LEAKYSLOPE * x : x;
+            }
+        }
+
+        @Override
+        public void derive(float[] e, float[] o, float[] r, int from, int to) {
+            for (int i = from; i < to; ++i) {
+                r[i] = o[i] < 0 ? LEAKYSLOPE * e[i] : e[i];
+            }
+        }
+    }
+
+    /**
+     * The exponential part of the softmax activation, the normalization is
+     * done per row by softMaxPerRow.
+     */
+    private static final class Exp implements ActivationKernel {
+
+        @Override
+        public void activate(float[] a, float bias, int from, int to) {
+            for (int i = from; i < to; ++i) {
+                a[i] = (float) Math.exp(a[i] + bias);
+            }
+        }
+
+        @Override
+        public void derive(float[] e, float[] o, float[] r, int from, int to) {
+            copyErrors(e, r, from, to);
+        }
+    }
+
+    private static class FastSigmoid extends Sigmoid {
+
+        @Override
+        public void activate(float[] a, float bias, int from, int to) {
+            for (int i = from; i < to; ++i) {
+                a[i] = FastMath.sigmoid(a[i] + bias);
+            }
+        }
+    }
+
+    private static final class FastCESigmoid extends FastSigmoid {
+
+        @Override
+        public void derive(float[] e, float[] o, float[] r, int from, int to) {
+            copyErrors(e, r, from, to);
+        }
+    }
+
+    private static final class FastTanh implements ActivationKernel {
+
+        @Override
+        public void activate(float[] a, float bias, int from, int to) {
+            for (int i = from; i < to; ++i) {
+                a[i] = FastMath.tanh(a[i] + bias);
+            }
+        }
+
+        @Override
+        public void derive(float[] e, float[] o, float[] r, int from, int to) {
+            for (int i = from; i < to; ++i) {
+                float x = o[i];
+                r[i] = e[i] * (1 - x * x);
+            }
+        }
+    }
+
+    private static final class FastExp implements ActivationKernel {
+
+        @Override
+        public void activate(float[] a, float bias, int from, int to) {
+            for (int i = from; i < to; ++i) {
+                a[i] = FastMath.exp(a[i] + bias);
+            }
+        }
+
+        @Override
+        public void derive(float[] e, float[] o, float[] r, int from, int to) {
+            copyErrors(e, r, from, to);
+        }
+    }
+
+    /**
+     * The fallback kernel that evaluates the functions per element.
+     */
+    private static final class FunctionKernel implements ActivationKernel {
+
+        private final Function f;
+        private final Function df;
+
+        FunctionKernel(Function f, Function df) {
+            this.f = f;
+            this.df = df;
+        }
+
+        @Override
+        public void activate(float[] a, float bias, int from, int to) {
+            ArrayKernels.biasApply(f, bias, a, from, to);
+        }
+
+        @Override
+        public void derive(float[] e, float[] o, float[] r, int from, int to) {
+            ArrayKernels.multiplyDerived(df, e, o, r, from, to);
+        }
+    }
+}
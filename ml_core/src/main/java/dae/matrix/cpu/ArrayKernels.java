@@ -0,0 +1,389 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.cpu;
+
+import dae.neuralnet.activation.FastMath;
+import dae.neuralnet.activation.Function;
+
+/**
+ * Elementwise and reduction kernels on plain float arrays.
+ *
+ * The kernels are simple counted loops without calls or branches, so the just
+ * in time compiler can unroll them and map them onto the vector instructions
+ * of the processor. The reductions keep eight independent partial sums which
+ * breaks the dependency chain of a single accumulator.
+ *
+ * Every kernel processes the elements from (inclusive) to (exclusive) so that
+ * the work can be split over multiple threads.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public final class ArrayKernels {
+
+    private ArrayKernels() {
+
+    }
+
+    /**
+     * Calculates r = a + b.
+     *
+     * @param a the first operand.
+     * @param b the second operand.
+     * @param r the result.
+     * @param from the first element.
+     * @param to the element after the last element.
+     */
+    public static void add(float[] a, float[] b, float[] r, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            r[i] = a[i] + b[i];
+        }
+    }
+
+    /**
+     * Calculates r = fa * a + fb * b.
+     *
+     * @param fa the factor for the first operand.
+     * @param a the first operand.
+     * @param fb the factor for the second operand.
+     * @param b the second operand.
+     * @param r the result.
+     * @param from the first element.
+     * @param to the element after the last element.
+     */
+    public static void linear(float fa, float[] a, float fb, float[] b, float[] r, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            r[i] = fa * a[i] + fb * b[i];
+        }
+    }
+
+    /**
+     * Calculates r = a - b.
+     *
+     * @param a the first operand.
+     * @param b the second operand.
+     * @param r the result.
+     * @param from the first element.
+     * @param to the element after the last element.
+     */
+    public static void subtract(float[] a, float[] b, float[] r, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            r[i] = a[i] - b[i];
+        }
+    }
+
+    /**
+     * Calculates r = a * b.
+     *
+     * @param a the first operand.
+     * @param b the second operand.
+     * @param r the result.
+     * @param from the first element.
+     * @param to the element after the last element.
+     */
+    public static void multiply(float[] a, float[] b, float[] r, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            r[i] = a[i] * b[i];
+        }
+    }
+
+    /**
+     * Calculates r = factor * a.
+     *
+     * @param a the operand.
+     * @param factor the factor.
+     * @param r the result.
+     * @param from the first element.
+     * @param to the element after the last element.
+     */
+    public static void scale(float[] a, float factor, float[] r, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            r[i] = a[i] * factor;
+        }
+    }
+
+    /**
+     * Calculates y = y + alpha * x for n elements.
+     *
+     * @param alpha the factor.
+     * @param x the array to add.
+     * @param xOffset the offset in the x array.
+     * @param y the array to add to.
+     * @param yOffset the offset in the y array.
+     * @param n the number of elements.
+     */
+    public static void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int n) {
+        for (int i = 0; i < n; ++i) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    /**
+     * Calculates the new velocity of the adam algorithm: r = beta2 * v + (1 -
+     * beta2) * g * g.
+     *
+     * @param beta2 the beta2 factor.
+     * @param v the previous velocity.
+     * @param g the gradient.
+     * @param r the result.
+     * @param from the first element.
+     * @param to the element after the last element.
+     */
+    public static void adamVelocity(float beta2, float[] v, float[] g, float[] r, int from, int to) {
+        float oneMinusBeta2 = 1 - beta2;
+        for (int i = from; i < to; ++i) {
+            r[i] = beta2 * v[i] + oneMinusBeta2 * g[i] * g[i];
+        }
+    }
+
+    /**
+     * Adapts the weights with the bias corrected moment and velocity of the
+     * adam algorithm.
+     *
+     * @param w the weights.
+     * @param m the moment.
+     * @param v the velocity.
+     * @param eta the learning rate.
+     * @param invOneMinusBeta1 the moment bias correction.
+     * @param invOneMinusBeta2 the velocity bias correction.
+     * @param epsilon the epsilon value.
+     * @param from the first element.
+     * @param to the element after the last element.
+     */
+    public static void adamUpdate(float[] w, float[] m, float[] v, float eta,
+            float invOneMinusBeta1, float invOneMinusBeta2, float epsilon, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            w[i] -= (eta * m[i] * invOneMinusBeta1) / ((float) Math.sqrt(v[i] * invOneMinusBeta2) + epsilon);
+        }
+    }
+
+    /**
+     * Executes one fused step of the adam algorithm, the moment, the velocity
+     * and the weights are updated in the same loop.
+     *
+     * @param w the weights.
+     * @param g the gradient.
+     * @param m the moment.
+     * @param v the velocity.
+     * @param eta the learning rate.
+     * @param beta1 the decay of the moment.
+     * @param beta2 the decay of the velocity.
+     * @param invOneMinusBeta1 the moment bias correction.
+     * @param invOneMinusBeta2 the velocity bias correction.
+     * @param epsilon the epsilon value.
+     * @param weightDecay the decoupled weight decay.
+     * @param from the first element.
+     * @param to the element after the last element.
+     */
+    public static void adamStep(float[] w, float[] g, float[] m, float[] v, float eta, float beta1, float beta2,
+            float invOneMinusBeta1, float invOneMinusBeta2, float epsilon, float weightDecay, int from, int to) {
+        float oneMinusBeta1 = 1 - beta1;
+        float oneMinusBeta2 = 1 - beta2;
+        for (int i = from; i < to; ++i) {
+            float gi = g[i];
+            float mi = beta1 * m[i] + oneMinusBeta1 * gi;
+            float vi = beta2 * v[i] + oneMinusBeta2 * gi * gi;
+            m[i] = mi;
+            v[i] = vi;
+            w[i] += eta * (mi * invOneMinusBeta1 / ((float) Math.sqrt(vi * invOneMinusBeta2) + epsilon) - weightDecay * w[i]);
+        }
+    }
+
+    /**
+     * Executes one fused step of gradient descent with momentum.
+     *
+     * @param w the weights.
+     * @param g the gradient.
+     * @param v the velocity.
+     * @param eta the learning rate.
+     * @param momentum the momentum.
+     * @param from the first element.
+     * @param to the element after the last element.
+     */
+    public static void momentumStep(float[] w, float[] g, float[] v, float eta, float momentum, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            float vi = momentum * v[i] + g[i];
+            v[i] = vi;
+            w[i] += eta * vi;
+        }
+    }
+
+    /**
+     * Executes one fused step of the rmsprop algorithm.
+     *
+     * @param w the weights.
+     * @param g the gradient.
+     * @param s the running mean of the squared gradient.
+     * @param eta the learning rate.
+     * @param decay the decay of the mean square.
+     * @param epsilon the epsilon value.
+     * @param from the first element.
+     * @param to the element after the last element.
+     */
+    public static void rmsPropStep(float[] w, float[] g, float[] s, float eta, float decay, float epsilon, int from, int to) {
+        float oneMinusDecay = 1 - decay;
+        for (int i = from; i < to; ++i) {
+            float gi = g[i];
+            float si = decay * s[i] + oneMinusDecay * gi * gi;
+            s[i] = si;
+            w[i] += eta * gi / ((float) Math.sqrt(si) + epsilon);
+        }
+    }
+
+    /**
+     * Applies the sigmoid function in place.
+     *
+     * @param a the array.
+     * @param from the first element.
+     * @param to the element after the last element.
+     */
+    public static void sigmoid(float[] a, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            a[i] = 1 / (1 + (float) Math.exp(-a[i]));
+        }
+    }
+
+    /**
+     * Applies a function in place.
+     *
+     * @param f the function to apply.
+     * @param a the array.
+     * @param from the first element.
+     * @param to the element after the last element.
+     */
+    public static void apply(Function f, float[] a, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            a[i] = f.evaluate(a[i]);
+        }
+    }
+
+    /**
+     * Adds a bias and applies a function in place.
+     *
+     * @param f the function to apply.
+     * @param bias the bias to add before the function is applied.
+     * @param a the array.
+     * @param from the first element.
+     * @param to the element after the last element.
+     */
+    public static void biasApply(Function f, float bias, float[] a, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            a[i] = f.evaluate(a[i] + bias);
+        }
+    }
+
+    /**
+     * Calculates r = e * df(o), the errors multiplied with the derivative of
+     * the activation function.
+     *
+     * @param df the derivative of the activation function.
+     * @param e the errors.
+     * @param o the outputs of the activation function.
+     * @param r the result.
+     * @param from the first element.
+     * @param to the element after the last element.
+     */
+    public static void multiplyDerived(Function df, float[] e, float[] o, float[] r, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            r[i] = e[i] * df.evaluate(o[i]);
+        }
+    }
+
+    /**
+     * Applies the softmax function in place on n consecutive elements. The
+     * maximum is subtracted before the exponential is calculated.
+     *
+     * @param a the array.
+     * @param offset the offset of the first element.
+     * @param n the number of elements.
+     * @param fastMath true if the exponential of FastMath should be used.
+     */
+    public static void softMax(float[] a, int offset, int n, boolean fastMath) {
+        float max = -Float.MAX_VALUE;
+        for (int i = offset; i < offset + n; ++i) {
+            max = Math.max(max, a[i]);
+        }
+        float sum = 0;
+        for (int i = offset; i < offset + n; ++i) {
+            float e = fastMath ? FastMath.exp(a[i] - max) : (float) Math.exp(a[i] - max);
+            a[i] = e;
+            sum += e;
+        }
+        float invSum = 1 / sum;
+        for (int i = offset; i < offset + n; ++i) {
+            a[i] *= invSum;
+        }
+    }
+
+    /**
+     * Applies the softmax function in place on n consecutive logits and
+     * calculates the deltas d = softmax(x) - y and the cross entropy loss. The
+     * loss is calculated from the log of the sum of the exponentials, not from
+     * the log of the probabilities.
+     *
+     * @param x the logits, the softmax of the logits is stored in this array.
+     * @param xOffset the offset of the first logit.
+     * @param y the desired outputs.
+     * @param yOffset the offset of the first desired output.
+     * @param d the deltas.
+     * @param dOffset the offset of the first delta.
+     * @param n the number of elements.
+     * @param fastMath true if the exponential of FastMath should be used.
+     * @return the cross entropy loss.
+     */
+    public static float softMaxCrossEntropy(float[] x, int xOffset, float[] y, int yOffset, float[] d, int dOffset, int n, boolean fastMath) {
+        float max = -Float.MAX_VALUE;
+        for (int i = 0; i < n; ++i) {
+            max = Math.max(max, x[xOffset + i]);
+        }
+        float sum = 0;
+        float ySum = 0;
+        float yShifted = 0;
+        for (int i = 0; i < n; ++i) {
+            float shifted = x[xOffset + i] - max;
+            float yi = y[yOffset + i];
+            float e = fastMath ? FastMath.exp(shifted) : (float) Math.exp(shifted);
+            x[xOffset + i] = e;
+            sum += e;
+            ySum += yi;
+            yShifted += yi * shifted;
+        }
+        float invSum = 1 / sum;
+        for (int i = 0; i < n; ++i) {
+            float p = x[xOffset + i] * invSum;
+            x[xOffset + i] = p;
+            d[dOffset + i] = p - y[yOffset + i];
+        }
+        // -sum(y * (x - lse)) with lse = max + log(sum).
+        return ySum * (float) Math.log(sum) - yShifted;
+    }
+
+    /**
+     * Calculates the sum of n consecutive elements.
+     *
+     * @param a the array.
+     * @param offset the offset of the first element.
+     * @param n the number of elements.
+     * @return the sum.
+     */
+    public static float sum(float[] a, int offset, int n) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0, s4 = 0, s5 = 0, s6 = 0, s7 = 0;
+        int i = offset;
+        int end = offset + n;
+        for (; i + 7 < end; i += 8) {
+            s0 += a[i];
+            s1 += a[i + 1];
+            s2 += a[i + 2];
+            s3 += a[i + 3];
+            s4 += a[i + 4];
+            s5 += a[i + 5];
+            s6 += a[i + 6];
+            s7 += a[i + 7];
+        }
+        for (; i < end; ++i) {
+            s0 += a[i];
+        }
+        return ((s0 + s1) + (s2 + s3)) + ((s4 + s5) + (s6 + s7));
+    }
+}
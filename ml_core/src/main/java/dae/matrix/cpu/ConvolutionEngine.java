@@ -0,0 +1,69 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.cpu;
+
+import dae.matrix.imatrix;
+
+/**
+ * An engine that implements the batch convolution operations of the cpu
+ * backend. The matrices follow the conventions of the FMatrixOp interface: the
+ * input is zero padded as defined by its zero padding, every filter slice is
+ * applied to input slice (filterSlice / filtersPerInputSlice) and every
+ * hyperslice is one entry of the batch.
+ *
+ * An engine returns false if it can not handle the given matrices, the caller
+ * then falls back to another engine.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public interface ConvolutionEngine {
+
+    /**
+     * Applies the filters on the input matrix. If the bias matrix is not null,
+     * the bias of a filter slice is added to every output cell of that slice.
+     *
+     * @param input the matrix to convolve.
+     * @param filter the filter to apply.
+     * @param bias a row matrix with a bias term per filter slice, can be null.
+     * @param stride the stride with which to advance the filter.
+     * @param output the matrix where the output is stored.
+     * @return true if the operation was executed, false otherwise.
+     */
+    public boolean batchConvolve(imatrix input, imatrix filter, imatrix bias, int stride, imatrix output);
+
+    /**
+     * Applies the flipped filters on the input matrix.
+     *
+     * @param input the matrix to correlate.
+     * @param filter the filter to apply.
+     * @param stride the stride with which to advance the filter.
+     * @param output the matrix where the output is stored.
+     * @return true if the operation was executed, false otherwise.
+     */
+    public boolean batchCorrelate(imatrix input, imatrix filter, int stride, imatrix output);
+
+    /**
+     * Calculates the gradient of the filters for every entry in the batch.
+     *
+     * @param input the input (with batch multiplicity).
+     * @param deltas the deltas( with batch multiplicity).
+     * @param stride the stride.
+     * @param kernel the kernel (with batch multiplicity).
+     * @return true if the operation was executed, false otherwise.
+     */
+    public boolean deltasBatchConvolve(imatrix input, imatrix deltas, int stride, imatrix kernel);
+
+    /**
+     * Correlates the zero padded deltas with the flipped filters and sums the
+     * result of all filters that belong to the same output slice.
+     *
+     * @param input the zero padded deltas.
+     * @param filter the filter matrix.
+     * @param stride the stride.
+     * @param output the output matrix.
+     * @return true if the operation was executed, false otherwise.
+     */
+    public boolean batchBackpropCorrelate(imatrix input, imatrix filter, int stride, imatrix output);
+}
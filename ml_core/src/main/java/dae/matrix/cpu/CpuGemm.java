@@ -0,0 +1,366 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.cpu;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A cache blocked single precision matrix multiplication on column major float
+ * arrays.
+ *
+ * The matrices are split in blocks of MC x KC (A) and KC x NC (B) that are
+ * packed into contiguous panels, the panels are multiplied with a 4x4 register
+ * blocked micro kernel. The blocks of the C matrix are distributed over the
+ * shared pool of the cpu backend with a fork join task.
+ *
+ * Transposed operands are handled while packing, so no transposed copy of the
+ * matrix is ever made.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public final class CpuGemm {
+
+    /**
+     * The dimensions of the register block of the micro kernel.
+     */
+    private static final int MR = 4;
+    private static final int NR = 4;
+    /**
+     * The dimensions of the cache blocks.
+     */
+    private static final int MC = 64;
+    private static final int KC = 256;
+    private static final int NC = 128;
+    /**
+     * Below this number of multiply adds a simple loop is faster than packing.
+     */
+    private static final long SMALL_WORK = 16 * 1024;
+    /**
+     * Below this number of multiply adds the work is not distributed over
+     * multiple threads.
+     */
+    private static final long PARALLEL_WORK = 256 * 1024;
+
+    private static final ThreadLocal<float[][]> PANELS = ThreadLocal.withInitial(()
+            -> new float[][]{new float[MC * KC], new float[NC * KC]});
+
+    private CpuGemm() {
+
+    }
+
+    /**
+     * Calculates C = alpha * op(A) * op(B) + beta * C, where op(X) is X or the
+     * transpose of X. All matrices are stored in column major order.
+     *
+     * @param transA true if A is stored transposed.
+     * @param transB true if B is stored transposed.
+     * @param M the number of rows of op(A) and C.
+     * @param N the number of columns of op(B) and C.
+     * @param K the number of columns of op(A) and rows of op(B).
+     * @param alpha the factor for the product.
+     * @param a the data of the A matrix.
+     * @param offA the offset of the A matrix in its array.
+     * @param lda the leading dimension of A.
+     * @param b the data of the B matrix.
+     * @param offB the offset of the B matrix in its array.
+     * @param ldb the leading dimension of B.
+     * @param beta the factor for the C matrix.
+     * @param c the data of the C matrix.
+     * @param offC the offset of the C matrix in its array.
+     * @param ldc the leading dimension of C.
+     */
+    public static void sgemm(boolean transA, boolean transB, int M, int N, int K,
+            float alpha, float[] a, int offA, int lda,
+            float[] b, int offB, int ldb,
+            float beta, float[] c, int offC, int ldc) {
+        if (M <= 0 || N <= 0) {
+            return;
+        }
+        scale(beta, c, offC, ldc, M, N);
+        if (alpha == 0 || K <= 0) {
+            return;
+        }
+        long work = (long) M * N * K;
+        if (work <= SMALL_WORK) {
+            simple(transA, transB, M, N, K, alpha, a, offA, lda, b, offB, ldb, c, offC, ldc);
+            return;
+        }
+        int mBlocks = (M + MC - 1) / MC;
+        int nBlocks = (N + NC - 1) / NC;
+        GemmTask task = new GemmTask(transA, transB, M, N, K, alpha,
+                a, offA, lda, b, offB, ldb, c, offC, ldc,
+                mBlocks, 0, mBlocks * nBlocks);
+        ForkJoinPool pool = CpuParallel.getPool();
+        if (work < PARALLEL_WORK || mBlocks * nBlocks == 1 || pool.getParallelism() == 1) {
+            task.compute();
+        } else if (ForkJoinTask.getPool() == pool) {
+            task.invoke();
+        } else {
+            pool.invoke(task);
+        }
+    }
+
+    private static void scale(float beta, float[] c, int offC, int ldc, int M, int N) {
+        if (beta == 1) {
+            return;
+        }
+        for (int j = 0; j < N; ++j) {
+            int start = offC + j * ldc;
+            int end = start + M;
+            if (beta == 0) {
+                // do not propagate NaN or infinity from the old values.
+                for (int i = start; i < end; ++i) {
+                    c[i] = 0;
+                }
+            } else {
+                for (int i = start; i < end; ++i) {
+                    c[i] *= beta;
+                }
+            }
+        }
+    }
+
+    private static void simple(boolean transA, boolean transB, int M, int N, int K,
+            float alpha, float[] a, int offA, int lda,
+            float[] b, int offB, int ldb,
+            float[] c, int offC, int ldc) {
+        for (int j = 0; j < N; ++j) {
+            int cColumn = offC + j * ldc;
+            for (int p = 0; p < K; ++p) {
+                float bpj = alpha * (transB ? b[offB + p * ldb + j] : b[offB + j * ldb + p]);
+                if (bpj == 0) {
+                    continue;
+                }
+                if (transA) {
+                    int aIndex = offA + p;
+                    for (int i = 0; i < M; ++i, aIndex += lda) {
+                        c[cColumn + i] += a[aIndex] * bpj;
+                    }
+                } else {
+                    int aColumn = offA + p * lda;
+                    for (int i = 0; i < M; ++i) {
+                        c[cColumn + i] += a[aColumn + i] * bpj;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Packs a block of mc x kc elements of op(A) in strips of MR rows. Every
+     * strip stores MR consecutive values per k, rows outside the matrix are
+     * padded with zeros.
+     */
+    private static void packA(boolean transA, float[] a, int offA, int lda,
+            int ic, int mc, int pc, int kc, float[] packed) {
+        int index = 0;
+        for (int ir = 0; ir < mc; ir += MR) {
+            int mr = Math.min(MR, mc - ir);
+            for (int p = 0; p < kc; ++p) {
+                int k = pc + p;
+                for (int i = 0; i < MR; ++i) {
+                    if (i < mr) {
+                        int row = ic + ir + i;
+                        packed[index++] = transA ? a[offA + row * lda + k] : a[offA + k * lda + row];
+                    } else {
+                        packed[index++] = 0;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Packs a block of kc x nc elements of op(B) in strips of NR columns.
+     * Every strip stores NR consecutive values per k, columns outside the
+     * matrix are padded with zeros.
+     */
+    private static void packB(boolean transB, float[] b, int offB, int ldb,
+            int pc, int kc, int jc, int nc, float[] packed) {
+        int index = 0;
+        for (int jr = 0; jr < nc; jr += NR) {
+            int nr = Math.min(NR, nc - jr);
+            for (int p = 0; p < kc; ++p) {
+                int k = pc + p;
+                for (int j = 0; j < NR; ++j) {
+                    if (j < nr) {
+                        int column = jc + jr + j;
+                        packed[index++] = transB ? b[offB + k * ldb + column] : b[offB + column * ldb + k];
+                    } else {
+                        packed[index++] = 0;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Multiplies a packed strip of A with a packed strip of B and accumulates
+     * alpha times the result into C.
+     */
+    private static void kernel(int kc, float[] pa, int ia, float[] pb, int ib,
+            float alpha, float[] c, int cIndex, int ldc, int mr, int nr) {
+        float c00 = 0, c10 = 0, c20 = 0, c30 = 0;
+        float c01 = 0, c11 = 0, c21 = 0, c31 = 0;
+        float c02 = 0, c12 = 0, c22 = 0, c32 = 0;
+        float c03 = 0, c13 = 0, c23 = 0, c33 = 0;
+        for (int p = 0; p < kc; ++p) {
+            float a0 = pa[ia];
+            float a1 = pa[ia + 1];
+            float a2 = pa[ia + 2];
+            float a3 = pa[ia + 3];
+            float b0 = pb[ib];
+            float b1 = pb[ib + 1];
+            float b2 = pb[ib + 2];
+            float b3 = pb[ib + 3];
+            c00 += a0 * b0;
+            c10 += a1 * b0;
+            c20 += a2 * b0;
+            c30 += a3 * b0;
+            c01 += a0 * b1;
+            c11 += a1 * b1;
+            c21 += a2 * b1;
+            c31 += a3 * b1;
+            c02 += a0 * b2;
+            c12 += a1 * b2;
+            c22 += a2 * b2;
+            c32 += a3 * b2;
+            c03 += a0 * b3;
+            c13 += a1 * b3;
+            c23 += a2 * b3;
+            c33 += a3 * b3;
+            ia += MR;
+            ib += NR;
+        }
+        if (mr == MR && nr == NR) {
+            int c0 = cIndex;
+            int c1 = c0 + ldc;
+            int c2 = c1 + ldc;
+            int c3 = c2 + ldc;
+            c[c0] += alpha * c00;
+            c[c0 + 1] += alpha * c10;
+            c[c0 + 2] += alpha * c20;
+            c[c0 + 3] += alpha * c30;
+            c[c1] += alpha * c01;
+            c[c1 + 1] += alpha * c11;
+            c[c1 + 2] += alpha * c21;
+            c[c1 + 3] += alpha * c31;
+            c[c2] += alpha * c02;
+            c[c2 + 1] += alpha * c12;
+            c[c2 + 2] += alpha * c22;
+            c[c2 + 3] += alpha * c32;
+            c[c3] += alpha * c03;
+            c[c3 + 1] += alpha * c13;
+            c[c3 + 2] += alpha * c23;
+            c[c3 + 3] += alpha * c33;
+        } else {
+            float[] block = {
+                c00, c10, c20, c30,
+                c01, c11, c21, c31,
+                c02, c12, c22, c32,
+                c03, c13, c23, c33};
+            for (int j = 0; j < nr; ++j) {
+                int column = cIndex + j * ldc;
+                for (int i = 0; i < mr; ++i) {
+                    c[column + i] += alpha * block[j * MR + i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes a range of MC x NC blocks of the C matrix. The range is split in
+     * half until a single block remains.
+     */
+    private static class GemmTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final boolean transA;
+        private final boolean transB;
+        private final int M;
+        private final int N;
+        private final int K;
+        private final float alpha;
+        private final float[] a;
+        private final int offA;
+        private final int lda;
+        private final float[] b;
+        private final int offB;
+        private final int ldb;
+        private final float[] c;
+        private final int offC;
+        private final int ldc;
+        private final int mBlocks;
+        private final int startBlock;
+        private final int endBlock;
+
+        GemmTask(boolean transA, boolean transB, int M, int N, int K,
+                float alpha, float[] a, int offA, int lda,
+                float[] b, int offB, int ldb,
+                float[] c, int offC, int ldc,
+                int mBlocks, int startBlock, int endBlock) {
+            this.transA = transA;
+            this.transB = transB;
+            this.M = M;
+            this.N = N;
+            this.K = K;
+            this.alpha = alpha;
+            this.a = a;
+            this.offA = offA;
+            this.lda = lda;
+            this.b = b;
+            this.offB = offB;
+            this.ldb = ldb;
+            this.c = c;
+            this.offC = offC;
+            this.ldc = ldc;
+            this.mBlocks = mBlocks;
+            this.startBlock = startBlock;
+            this.endBlock = endBlock;
+        }
+
+        private GemmTask split(int start, int end) {
+            return new GemmTask(transA, transB, M, N, K, alpha,
+                    a, offA, lda, b, offB, ldb, c, offC, ldc,
+                    mBlocks, start, end);
+        }
+
+        @Override
+        protected void compute() {
+            if (endBlock - startBlock > 1 && getPool() != null) {
+                int middle = (startBlock + endBlock) >>> 1;
+                invokeAll(split(startBlock, middle), split(middle, endBlock));
+                return;
+            }
+            float[][] panels = PANELS.get();
+            for (int block = startBlock; block < endBlock; ++block) {
+                int ic = (block % mBlocks) * MC;
+                int jc = (block / mBlocks) * NC;
+                computeBlock(ic, Math.min(MC, M - ic), jc, Math.min(NC, N - jc), panels[0], panels[1]);
+            }
+        }
+
+        private void computeBlock(int ic, int mc, int jc, int nc, float[] packedA, float[] packedB) {
+            for (int pc = 0; pc < K; pc += KC) {
+                int kc = Math.min(KC, K - pc);
+                packB(transB, b, offB, ldb, pc, kc, jc, nc, packedB);
+                packA(transA, a, offA, lda, ic, mc, pc, kc, packedA);
+                for (int jr = 0; jr < nc; jr += NR) {
+                    int nr = Math.min(NR, nc - jr);
+                    int ib = (jr / NR) * NR * kc;
+                    int cColumn = offC + (jc + jr) * ldc + ic;
+                    for (int ir = 0; ir < mc; ir += MR) {
+                        int mr = Math.min(MR, mc - ir);
+                        int ia = (ir / MR) * MR * kc;
+                        kernel(kc, packedA, ia, packedB, ib, alpha, c, cColumn + ir, ldc, mr, nr);
+                    }
+                }
+            }
+        }
+    }
+}
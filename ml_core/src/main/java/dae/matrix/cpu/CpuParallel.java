@@ -0,0 +1,152 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.cpu;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Distributes the loops of the cpu backend over a shared fork join pool. A
+ * loop is split in ranges of items (typically hyperslices or slices), a range
+ * is only split further if it contains more work than the grain size.
+ *
+ * The number of threads can be set with the system property
+ * dae.matrix.cpu.parallelism and the grain size with the system property
+ * dae.matrix.cpu.grain or with the setGrainSize method.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public final class CpuParallel {
+
+    /**
+     * The system property that defines the number of threads in the pool.
+     */
+    public static final String PARALLELISM_PROPERTY = "dae.matrix.cpu.parallelism";
+    /**
+     * The system property that defines the grain size.
+     */
+    public static final String GRAIN_PROPERTY = "dae.matrix.cpu.grain";
+    /**
+     * The default grain size, expressed in elements (or multiply adds) per
+     * task.
+     */
+    public static final long DEFAULT_GRAIN = 32 * 1024;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(
+            Math.max(1, Integer.getInteger(PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors())));
+
+    private static volatile long grainSize = Math.max(1, Long.getLong(GRAIN_PROPERTY, DEFAULT_GRAIN));
+
+    /**
+     * The body of a parallel loop.
+     */
+    @FunctionalInterface
+    public interface Range {
+
+        /**
+         * Executes the items from start (inclusive) to end (exclusive).
+         *
+         * @param start the first item.
+         * @param end the item after the last item.
+         */
+        void run(int start, int end);
+    }
+
+    private CpuParallel() {
+
+    }
+
+    /**
+     * Returns the pool that is shared by all the parallel operations of the
+     * cpu backend.
+     *
+     * @return the shared pool.
+     */
+    public static ForkJoinPool getPool() {
+        return POOL;
+    }
+
+    /**
+     * Sets the minimum amount of work (in elements) that justifies a separate
+     * task. Loops with less work than the grain size are executed on the
+     * calling thread.
+     *
+     * @param grain the new grain size.
+     */
+    public static void setGrainSize(long grain) {
+        if (grain < 1) {
+            throw new IllegalArgumentException("The grain size must be positive : " + grain);
+        }
+        grainSize = grain;
+    }
+
+    /**
+     * Returns the minimum amount of work (in elements) that justifies a
+     * separate task.
+     *
+     * @return the grain size.
+     */
+    public static long getGrainSize() {
+        return grainSize;
+    }
+
+    /**
+     * Executes the body for all the items from 0 to count. The items must be
+     * independent of each other.
+     *
+     * @param count the number of items.
+     * @param workPerItem an estimate of the work per item, in elements.
+     * @param body the body of the loop.
+     */
+    public static void forEach(int count, long workPerItem, Range body) {
+        if (count <= 0) {
+            return;
+        }
+        long grain = grainSize;
+        if (count == 1 || POOL.getParallelism() == 1 || count * Math.max(1, workPerItem) < 2 * grain) {
+            body.run(0, count);
+            return;
+        }
+        int itemsPerTask = (int) Math.max(1, Math.min(count, grain / Math.max(1, workPerItem)));
+        RangeTask task = new RangeTask(body, 0, count, itemsPerTask);
+        if (ForkJoinTask.getPool() == POOL) {
+            task.invoke();
+        } else {
+            POOL.invoke(task);
+        }
+    }
+
+    /**
+     * Splits a range of items in half until the range is small enough.
+     */
+    private static class RangeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Range body;
+        private final int start;
+        private final int end;
+        private final int itemsPerTask;
+
+        RangeTask(Range body, int start, int end, int itemsPerTask) {
+            this.body = body;
+            this.start = start;
+            this.end = end;
+            this.itemsPerTask = itemsPerTask;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= itemsPerTask) {
+                body.run(start, end);
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new RangeTask(body, start, middle, itemsPerTask),
+                        new RangeTask(body, middle, end, itemsPerTask));
+            }
+        }
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.cpu;
+
+import dae.matrix.imatrix;
+
+/**
+ * Calculates the batch convolution operations directly on the host arrays,
+ * without extra memory.
+ *
+ * Every output slice is split into an interior region, where all the filter
+ * taps fall inside the input, and a border region that overlaps the zero
+ * padding. Only the border cells check the bounds of the input. In the
+ * interior 3x3 and 5x5 filters are unrolled and four output columns are
+ * calculated per iteration.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public class DirectConvolution implements ConvolutionEngine {
+
+    private static final int COLUMNBLOCK = 4;
+
+    private final ThreadLocal<float[]> flipped = ThreadLocal.withInitial(() -> new float[25]);
+
+    /**
+     * Applies the filters on the input matrix.
+     *
+     * @param input the matrix to convolve.
+     * @param filter the filter to apply.
+     * @param bias a row matrix with a bias term per filter slice, can be null.
+     * @param stride the stride with which to advance the filter.
+     * @param output the matrix where the output is stored.
+     * @return true if the operation was executed, false otherwise.
+     */
+    @Override
+    public boolean batchConvolve(imatrix input, imatrix filter, imatrix bias, int stride, imatrix output) {
+        float[] in = FMatrixOpCpu.hostArray(input);
+        float[] f = FMatrixOpCpu.hostArray(filter);
+        float[] out = FMatrixOpCpu.hostArray(output);
+        if (in == null || f == null || out == null || output.isTransposed()) {
+            return false;
+        }
+        int fps = filter.getNrOfSlices() / input.getNrOfSlices();
+        int cells = output.getSliceSize();
+        int hyperSlices = Math.min(input.getNrOfHyperSlices(), output.getNrOfHyperSlices());
+        CpuParallel.forEach(hyperSlices, (long) output.getHyperSliceSize() * filter.getSliceSize(), (start, end) -> {
+            for (int h = start; h < end; ++h) {
+                for (int fs = 0; fs < filter.getNrOfSlices(); ++fs) {
+                    int inputOffset = h * input.getHyperSliceSize() + (fs / fps) * input.getSliceSize();
+                    int outputOffset = h * output.getHyperSliceSize() + fs * cells;
+                    float b = bias != null ? bias.get(fs, 0) : 0;
+                    for (int i = outputOffset; i < outputOffset + cells; ++i) {
+                        out[i] = b;
+                    }
+                    convolveSlice(input, in, inputOffset, filter, f, fs * filter.getSliceSize(),
+                            output, out, outputOffset, stride);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Calculates the filter gradients. For every filter tap only the range of
+     * deltas that maps inside the input is visited, so the zero padding never
+     * has to be checked.
+     *
+     * @param input the input (with batch multiplicity).
+     * @param deltas the deltas( with batch multiplicity).
+     * @param stride the stride.
+     * @param kernel the kernel (with batch multiplicity).
+     * @return true if the operation was executed, false otherwise.
+     */
+    @Override
+    public boolean deltasBatchConvolve(imatrix input, imatrix deltas, int stride, imatrix kernel) {
+        float[] in = FMatrixOpCpu.hostArray(input);
+        float[] d = FMatrixOpCpu.hostArray(deltas);
+        float[] k = FMatrixOpCpu.hostArray(kernel);
+        if (in == null || d == null || k == null || kernel.isTransposed()) {
+            return false;
+        }
+        int fps = deltas.getNrOfSlices() / input.getNrOfSlices();
+        int rows = input.getNrOfRows();
+        int columns = input.getNrOfColumns();
+        int zp = input.getZeroPadding();
+        int dRows = deltas.getNrOfRows();
+        int dColumns = deltas.getNrOfColumns();
+        int hyperSlices = Math.min(Math.min(input.getNrOfHyperSlices(), deltas.getNrOfHyperSlices()),
+                kernel.getNrOfHyperSlices());
+        CpuParallel.forEach(hyperSlices, (long) deltas.getHyperSliceSize() * kernel.getSliceSize(), (start, end) -> {
+            for (int h = start; h < end; ++h) {
+                for (int fs = 0; fs < deltas.getNrOfSlices(); ++fs) {
+                    int inputOffset = h * input.getHyperSliceSize() + (fs / fps) * input.getSliceSize();
+                    int deltaOffset = h * deltas.getHyperSliceSize() + fs * deltas.getSliceSize();
+                    int kernelOffset = h * kernel.getHyperSliceSize() + fs * kernel.getSliceSize();
+                    for (int kc = 0; kc < kernel.getNrOfColumns(); ++kc) {
+                        int c0 = firstInside(kc - zp, stride);
+                        int c1 = lastInside(columns - 1 - kc + zp, stride, dColumns);
+                        for (int kr = 0; kr < kernel.getNrOfRows(); ++kr) {
+                            int r0 = firstInside(kr - zp, stride);
+                            int r1 = lastInside(rows - 1 - kr + zp, stride, dRows);
+                            float sum = 0;
+                            for (int c = c0; c < c1; ++c) {
+                                int ip = inputOffset + (c * stride + kc - zp) * rows + r0 * stride + kr - zp;
+                                int dp = deltaOffset + c * dRows + r0;
+                                for (int r = r0; r < r1; ++r, ip += stride, ++dp) {
+                                    sum += in[ip] * d[dp];
+                                }
+                            }
+                            k[kernelOffset + kr + kc * kernel.getNrOfRows()] = sum;
+                        }
+                    }
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Applies the flipped filters on the input matrix.
+     *
+     * @param input the matrix to correlate.
+     * @param filter the filter to apply.
+     * @param stride the stride with which to advance the filter.
+     * @param output the matrix where the output is stored.
+     * @return true if the operation was executed, false otherwise.
+     */
+    @Override
+    public boolean batchCorrelate(imatrix input, imatrix filter, int stride, imatrix output) {
+        float[] in = FMatrixOpCpu.hostArray(input);
+        float[] f = FMatrixOpCpu.hostArray(filter);
+        float[] out = FMatrixOpCpu.hostArray(output);
+        if (in == null || f == null || out == null || output.isTransposed()) {
+            return false;
+        }
+        int fps = filter.getNrOfSlices() / input.getNrOfSlices();
+        int taps = filter.getSliceSize();
+        int cells = output.getSliceSize();
+        int hyperSlices = Math.min(input.getNrOfHyperSlices(), output.getNrOfHyperSlices());
+        CpuParallel.forEach(hyperSlices, (long) output.getHyperSliceSize() * filter.getSliceSize(), (start, end) -> {
+            // the buffer belongs to the thread that executes the range.
+            float[] flip = getFlipped(taps);
+            for (int h = start; h < end; ++h) {
+                for (int fs = 0; fs < filter.getNrOfSlices(); ++fs) {
+                    int inputOffset = h * input.getHyperSliceSize() + (fs / fps) * input.getSliceSize();
+                    int outputOffset = h * output.getHyperSliceSize() + fs * cells;
+                    for (int i = outputOffset; i < outputOffset + cells; ++i) {
+                        out[i] = 0;
+                    }
+                    int filterOffset = fs * taps;
+                    for (int t = 0; t < taps; ++t) {
+                        flip[t] = f[filterOffset + taps - 1 - t];
+                    }
+                    convolveSlice(input, in, inputOffset, filter, flip, 0, output, out, outputOffset, stride);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Correlates the zero padded deltas with the flipped filters and sums the
+     * result of all filters that belong to the same output slice.
+     *
+     * @param input the zero padded deltas.
+     * @param filter the filter matrix.
+     * @param stride the stride.
+     * @param output the output matrix.
+     * @return true if the operation was executed, false otherwise.
+     */
+    @Override
+    public boolean batchBackpropCorrelate(imatrix input, imatrix filter, int stride, imatrix output) {
+        float[] in = FMatrixOpCpu.hostArray(input);
+        float[] f = FMatrixOpCpu.hostArray(filter);
+        float[] out = FMatrixOpCpu.hostArray(output);
+        if (in == null || f == null || out == null || output.isTransposed()) {
+            return false;
+        }
+        int slicesPerOutput = filter.getNrOfSlices() / output.getNrOfSlices();
+        int taps = filter.getSliceSize();
+        int cells = output.getSliceSize();
+        int hyperSlices = Math.min(input.getNrOfHyperSlices(), output.getNrOfHyperSlices());
+        CpuParallel.forEach(hyperSlices, (long) output.getHyperSliceSize() * filter.getSliceSize() * slicesPerOutput, (start, end) -> {
+            // the buffer belongs to the thread that executes the range.
+            float[] flip = getFlipped(taps);
+            for (int h = start; h < end; ++h) {
+                for (int oSlice = 0; oSlice < output.getNrOfSlices(); ++oSlice) {
+                    int outputOffset = h * output.getHyperSliceSize() + oSlice * cells;
+                    for (int i = outputOffset; i < outputOffset + cells; ++i) {
+                        out[i] = 0;
+                    }
+                    for (int s = 0; s < slicesPerOutput; ++s) {
+                        int slice = oSlice * slicesPerOutput + s;
+                        int filterOffset = slice * taps;
+                        for (int t = 0; t < taps; ++t) {
+                            flip[t] = f[filterOffset + taps - 1 - t];
+                        }
+                        int inputOffset = h * input.getHyperSliceSize() + slice * input.getSliceSize();
+                        convolveSlice(input, in, inputOffset, filter, flip, 0, output, out, outputOffset, stride);
+                    }
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Returns the buffer for a flipped filter slice of this thread.
+     */
+    private float[] getFlipped(int taps) {
+        float[] flip = flipped.get();
+        if (flip.length < taps) {
+            flip = new float[taps];
+            flipped.set(flip);
+        }
+        return flip;
+    }
+
+    /**
+     * Returns the first output index for which index * stride + offset is not
+     * negative.
+     */
+    private static int firstInside(int offset, int stride) {
+        return offset >= 0 ? 0 : (-offset + stride - 1) / stride;
+    }
+
+    /**
+     * Returns one past the last output index for which index * stride is not
+     * bigger than limit, clamped to the number of outputs.
+     */
+    private static int lastInside(int limit, int stride, int outputs) {
+        return limit < 0 ? 0 : Math.min(outputs, limit / stride + 1);
+    }
+
+    /**
+     * Convolves one input slice with one filter slice and adds the result to
+     * one output slice.
+     */
+    private void convolveSlice(imatrix input, float[] in, int inputOffset,
+            imatrix filter, float[] f, int filterOffset,
+            imatrix output, float[] out, int outputOffset, int stride) {
+        int rows = input.getNrOfRows();
+        int columns = input.getNrOfColumns();
+        int zp = input.getZeroPadding();
+        int fRows = filter.getNrOfRows();
+        int fColumns = filter.getNrOfColumns();
+        int oRows = output.getNrOfRows();
+        int oColumns = output.getNrOfColumns();
+
+        // the interior region, all taps fall inside the input.
+        int r0 = Math.min(oRows, firstInside(-zp, stride));
+        int r1 = Math.max(r0, lastInside(rows - fRows + zp, stride, oRows));
+        int c0 = Math.min(oColumns, firstInside(-zp, stride));
+        int c1 = Math.max(c0, lastInside(columns - fColumns + zp, stride, oColumns));
+
+        if (r0 < r1 && c0 < c1) {
+            if (fRows == 3 && fColumns == 3) {
+                interior3x3(in, inputOffset, rows, f, filterOffset, out, outputOffset, oRows, r0, r1, c0, c1, stride, zp);
+            } else if (fRows == 5 && fColumns == 5) {
+                interior5x5(in, inputOffset, rows, f, filterOffset, out, outputOffset, oRows, r0, r1, c0, c1, stride, zp);
+            } else {
+                interior(in, inputOffset, rows, f, filterOffset, fRows, fColumns, out, outputOffset, oRows, r0, r1, c0, c1, stride, zp);
+            }
+        } else {
+            r1 = r0;
+            c1 = c0;
+        }
+
+        // the border region.
+        for (int oc = 0; oc < oColumns; ++oc) {
+            boolean borderColumn = oc < c0 || oc >= c1;
+            for (int or = 0; or < oRows; ++or) {
+                if (borderColumn || or < r0 || or >= r1) {
+                    out[outputOffset + oc * oRows + or] += border(in, inputOffset, rows, columns, zp,
+                            f, filterOffset, fRows, fColumns, or, oc, stride);
+                }
+            }
+        }
+    }
+
+    private static float border(float[] in, int inputOffset, int rows, int columns, int zp,
+            float[] f, int filterOffset, int fRows, int fColumns, int or, int oc, int stride) {
+        float sum = 0;
+        for (int fc = 0; fc < fColumns; ++fc) {
+            int ic = oc * stride + fc - zp;
+            if (ic < 0 || ic >= columns) {
+                continue;
+            }
+            for (int fr = 0; fr < fRows; ++fr) {
+                int ir = or * stride + fr - zp;
+                if (ir >= 0 && ir < rows) {
+                    sum += in[inputOffset + ic * rows + ir] * f[filterOffset + fr + fc * fRows];
+                }
+            }
+        }
+        return sum;
+    }
+
+    private static void interior(float[] in, int inputOffset, int rows,
+            float[] f, int filterOffset, int fRows, int fColumns,
+            float[] out, int outputOffset, int oRows,
+            int r0, int r1, int c0, int c1, int stride, int zp) {
+        for (int oc = c0; oc < c1; ++oc) {
+            int o = outputOffset + oc * oRows;
+            int columnBase = inputOffset + (oc * stride - zp) * rows - zp;
+            for (int or = r0; or < r1; ++or) {
+                int p = columnBase + or * stride;
+                float sum = 0;
+                for (int fc = 0; fc < fColumns; ++fc, p += rows) {
+                    int w = filterOffset + fc * fRows;
+                    for (int fr = 0; fr < fRows; ++fr) {
+                        sum += in[p + fr] * f[w + fr];
+                    }
+                }
+                out[o + or] += sum;
+            }
+        }
+    }
+
+    private static void interior3x3(float[] in, int inputOffset, int rows,
+            float[] f, int w, float[] out, int outputOffset, int oRows,
+            int r0, int r1, int c0, int c1, int stride, int zp) {
+        float w00 = f[w], w10 = f[w + 1], w20 = f[w + 2];
+        float w01 = f[w + 3], w11 = f[w + 4], w21 = f[w + 5];
+        float w02 = f[w + 6], w12 = f[w + 7], w22 = f[w + 8];
+        int columnStep = stride * rows;
+        int oc = c0;
+        for (; oc + COLUMNBLOCK <= c1; oc += COLUMNBLOCK) {
+            int o0 = outputOffset + oc * oRows;
+            int o1 = o0 + oRows;
+            int o2 = o1 + oRows;
+            int o3 = o2 + oRows;
+            int i0 = inputOffset + (oc * stride - zp) * rows - zp;
+            int i1 = i0 + columnStep;
+            int i2 = i1 + columnStep;
+            int i3 = i2 + columnStep;
+            for (int or = r0; or < r1; ++or) {
+                int ir = or * stride;
+                out[o0 + or] += dot3x3(in, i0 + ir, rows, w00, w10, w20, w01, w11, w21, w02, w12, w22);
+                out[o1 + or] += dot3x3(in, i1 + ir, rows, w00, w10, w20, w01, w11, w21, w02, w12, w22);
+                out[o2 + or] += dot3x3(in, i2 + ir, rows, w00, w10, w20, w01, w11, w21, w02, w12, w22);
+                out[o3 + or] += dot3x3(in, i3 + ir, rows, w00, w10, w20, w01, w11, w21, w02, w12, w22);
+            }
+        }
+        for (; oc < c1; ++oc) {
+            int o = outputOffset + oc * oRows;
+            int i = inputOffset + (oc * stride - zp) * rows - zp;
+            for (int or = r0; or < r1; ++or) {
+                out[o + or] += dot3x3(in, i + or * stride, rows, w00, w10, w20, w01, w11, w21, w02, w12, w22);
+            }
+        }
+    }
+
+    private static float dot3x3(float[] in, int p, int rows,
+            float w00, float w10, float w20,
+            float w01, float w11, float w21,
+            float w02, float w12, float w22) {
+        int p1 = p + rows;
+        int p2 = p1 + rows;
+        return in[p] * w00 + in[p + 1] * w10 + in[p + 2] * w20
+                + in[p1] * w01 + in[p1 + 1] * w11 + in[p1 + 2] * w21
+                + in[p2] * w02 + in[p2 + 1] * w12 + in[p2 + 2] * w22;
+    }
+
+    private static void interior5x5(float[] in, int inputOffset, int rows,
+            float[] f, int w, float[] out, int outputOffset, int oRows,
+            int r0, int r1, int c0, int c1, int stride, int zp) {
+        int columnStep = stride * rows;
+        int oc = c0;
+        for (; oc + COLUMNBLOCK <= c1; oc += COLUMNBLOCK) {
+            int o0 = outputOffset + oc * oRows;
+            int o1 = o0 + oRows;
+            int o2 = o1 + oRows;
+            int o3 = o2 + oRows;
+            int i0 = inputOffset + (oc * stride - zp) * rows - zp;
+            int i1 = i0 + columnStep;
+            int i2 = i1 + columnStep;
+            int i3 = i2 + columnStep;
+            for (int or = r0; or < r1; ++or) {
+                int ir = or * stride;
+                out[o0 + or] += dot5x5(in, i0 + ir, rows, f, w);
+                out[o1 + or] += dot5x5(in, i1 + ir, rows, f, w);
+                out[o2 + or] += dot5x5(in, i2 + ir, rows, f, w);
+                out[o3 + or] += dot5x5(in, i3 + ir, rows, f, w);
+            }
+        }
+        for (; oc < c1; ++oc) {
+            int o = outputOffset + oc * oRows;
+            int i = inputOffset + (oc * stride - zp) * rows - zp;
+            for (int or = r0; or < r1; ++or) {
+                out[o + or] += dot5x5(in, i + or * stride, rows, f, w);
+            }
+        }
+    }
+
+    private static float dot5x5(float[] in, int p, int rows, float[] f, int w) {
+        float sum = 0;
+        for (int fc = 0; fc < 5; ++fc, p += rows, w += 5) {
+            sum += in[p] * f[w] + in[p + 1] * f[w + 1] + in[p + 2] * f[w + 2]
+                    + in[p + 3] * f[w + 3] + in[p + 4] * f[w + 4];
+        }
+        return sum;
+    }
+}
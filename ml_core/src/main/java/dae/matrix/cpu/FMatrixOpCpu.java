@@ -4,16 +4,23 @@
  */
 package dae.matrix.cpu;
 
-import dae.matrix.float2;
 import dae.matrix.fmatrix;
 import static dae.matrix.fmatrix.equalDimension;
 import dae.matrix.gpu.GPU;
 import dae.matrix.imatrix;
-import dae.matrix.integer.intmatrix;
+import dae.matrix.StridedView;
+import dae.matrix.mdim2D;
+import dae.matrix.tmatrix;
+import dae.matrix.zpmatrix;
+import dae.matrix.integer.bytematrix;
+import dae.matrix.memory.HostBuffers;
+import dae.matrix.memory.Workspace;
 import dae.matrix.op.FMatrixOp;
 import dae.neuralnet.activation.ActivationFunction;
+import dae.neuralnet.activation.Function;
 import java.nio.FloatBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -24,6 +31,68 @@ import java.util.logging.Logger;
  */
 public class FMatrixOpCpu implements FMatrixOp {
 
+    private ConvolutionEngine convolutionEngine = new LayoutConvolution(new FftConvolution(new WinogradConvolution(new Im2ColConvolution())));
+
+    /**
+     * True if the activation functions use the approximations of FastMath.
+     */
+    private final boolean fastMath;
+
+    /**
+     * The interpolation tables of the kernel rotations, per rotated kernel
+     * matrix. The backend is shared between threads, so the caches are thread
+     * safe and compare the kernel matrices by identity.
+     */
+    private final WeakIdentityCache<imatrix, RotationTable> rotationTables = new WeakIdentityCache<>();
+    private final WeakIdentityCache<imatrix, RotationTable> inverseRotationTables = new WeakIdentityCache<>();
+
+    /**
+     * Creates a cpu backend with the exact activation functions.
+     */
+    public FMatrixOpCpu() {
+        this(false);
+    }
+
+    /**
+     * Creates a cpu backend.
+     *
+     * @param fastMath true if the sigmoid, tanh and softmax activations should
+     * use the approximations of FastMath, false for the exact functions.
+     */
+    public FMatrixOpCpu(boolean fastMath) {
+        this.fastMath = fastMath;
+    }
+
+    /**
+     * Checks if this backend uses the fast approximations of the activation
+     * functions.
+     *
+     * @return true if this backend is in fast math mode.
+     */
+    public boolean isFastMath() {
+        return fastMath;
+    }
+
+    /**
+     * Sets the engine that executes the batch convolution operations. If the
+     * engine is null or can not handle the matrices, the reference
+     * implementation is used.
+     *
+     * @param engine the new convolution engine.
+     */
+    public void setConvolutionEngine(ConvolutionEngine engine) {
+        this.convolutionEngine = engine;
+    }
+
+    /**
+     * Returns the engine that executes the batch convolution operations.
+     *
+     * @return the convolution engine.
+     */
+    public ConvolutionEngine getConvolutionEngine() {
+        return convolutionEngine;
+    }
+
     /**
      * Calculates the following product : alpha A * B + beta * C, where A*B is a
      * matrix multiplication. The result is stored in C.
@@ -36,23 +105,332 @@ public class FMatrixOpCpu implements FMatrixOp {
      */
     @Override
     public void sgemm(float alpha, imatrix A, imatrix B, float beta, imatrix C) {
-        C.multiply(beta);
+        // the layouts are local, the backend is shared between threads.
+        mdim2D aDim = new mdim2D();
+        mdim2D bDim = new mdim2D();
+        mdim2D cDim = new mdim2D();
+        mdim2D aArray = new mdim2D();
+        mdim2D bArray = new mdim2D();
+        mdim2D cArray = new mdim2D();
+        determineLayout(A, aDim);
+        determineLayout(B, bDim);
+        determineLayout(C, cDim);
+
+        // a smaller C matrix receives the upper left block of the product.
+        int M = Math.min(aDim.rows, cDim.rows);
+        int N = Math.min(bDim.columns, cDim.columns);
+        int K = aDim.columns;
+        if (bDim.rows != K) {
+            Logger.getLogger(FMatrixOpCpu.class.getName()).log(Level.INFO,
+                    "Multiply Error , inner dimension must agree: {0} != {1}",
+                    new Object[]{A.getSizeAsString(), B.getSizeAsString()});
+            return;
+        }
+        if (arrayLayout(A, aDim, -1, aArray) && arrayLayout(B, bDim, -1, bArray)
+                && arrayLayout(C, cDim, -1, cArray) && !cArray.transposed) {
+            CpuGemm.sgemm(aArray.transposed, bArray.transposed, M, N, K,
+                    alpha, A.getStridedView().getArray(), aArray.offset, aArray.ld,
+                    B.getStridedView().getArray(), bArray.offset, bArray.ld,
+                    beta, C.getStridedView().getArray(), cArray.offset, cArray.ld);
+        } else {
+            // views without a contiguous host buffer are copied first.
+            float[] a = toDense(A, aDim);
+            float[] b = toDense(B, bDim);
+            float[] c = toDense(C, cDim);
+            CpuGemm.sgemm(false, false, M, N, K, alpha, a, 0, aDim.rows, b, 0, K, beta, c, 0, cDim.rows);
+            fromDense(c, C, cDim);
+            Workspace workspace = Workspace.get();
+            workspace.giveBack(a);
+            workspace.giveBack(b);
+            workspace.giveBack(c);
+        }
+    }
 
-        if (A.getNrOfColumns() != B.getNrOfRows()) {
+    /**
+     * Calculates a strided batched matrix product, every hyperslice of the
+     * matrices is one entry of the batch : C[h] = alpha * A[h] * B[h] + beta *
+     * C[h]. A matrix with a single hyperslice is shared by all the entries in
+     * the batch, if C has a single hyperslice the products are accumulated into
+     * C.
+     *
+     * @param alpha a float value that defines the alpha value.
+     * @param A the matrix A.
+     * @param B the matrix B.
+     * @param beta a float value that defines the beta value.
+     * @param C the matrix C, where the result will be stored.
+     */
+    @Override
+    public void batchedSgemm(float alpha, imatrix A, imatrix B, float beta, imatrix C) {
+        if (isFoldable(A, B, C)) {
+            // the batch can be folded into the N or K dimension of one product.
+            sgemm(alpha, A, B, beta, C);
+            return;
+        }
+        int M = Math.min(A.getNrOfRows(), C.getNrOfRows());
+        int N = Math.min(B.getNrOfColumns(), C.getNrOfColumns());
+        int K = A.getNrOfColumns();
+        if (B.getNrOfRows() != K) {
             Logger.getLogger(FMatrixOpCpu.class.getName()).log(Level.INFO,
                     "Multiply Error , inner dimension must agree: {0} != {1}",
                     new Object[]{A.getSizeAsString(), B.getSizeAsString()});
             return;
         }
-        int maxRows = Math.min(A.getNrOfRows(), C.getNrOfRows());
-        int maxColumns = Math.min(B.getNrOfColumns(), C.getNrOfColumns());
-        for (int c_row = 0; c_row < maxRows; ++c_row) {
-            for (int c_column = 0; c_column < maxColumns; ++c_column) {
-                float sum = C.get(c_row, c_column);
-                for (int index = 0; index < A.getNrOfColumns(); ++index) {
-                    sum += A.get(c_row, index) * B.get(index, c_column);
+        int batch = Math.max(A.getNrOfHyperSlices(), Math.max(B.getNrOfHyperSlices(), C.getNrOfHyperSlices()));
+        mdim2D aArray = new mdim2D();
+        mdim2D bArray = new mdim2D();
+        mdim2D cArray = new mdim2D();
+        for (int h = 0; h < batch; ++h) {
+            // a shared C matrix is only scaled once.
+            float hbeta = (C.getNrOfHyperSlices() == 1 && h > 0) ? 1 : beta;
+            if (arrayLayout(A, null, h, aArray) && arrayLayout(B, null, h, bArray)
+                    && arrayLayout(C, null, h, cArray) && !cArray.transposed) {
+                CpuGemm.sgemm(aArray.transposed, bArray.transposed, M, N, K,
+                        alpha, A.getStridedView().getArray(), aArray.offset, aArray.ld,
+                        B.getStridedView().getArray(), bArray.offset, bArray.ld,
+                        hbeta, C.getStridedView().getArray(), cArray.offset, cArray.ld);
+            } else {
+                float[] a = toDense(A, h);
+                float[] b = toDense(B, h);
+                float[] c = toDense(C, h);
+                CpuGemm.sgemm(false, false, M, N, K, alpha, a, 0, A.getNrOfRows(), b, 0, K, hbeta, c, 0, C.getNrOfRows());
+                fromDense(c, C, h);
+                Workspace workspace = Workspace.get();
+                workspace.giveBack(a);
+                workspace.giveBack(b);
+                workspace.giveBack(c);
+            }
+        }
+    }
+
+    /**
+     * Checks if a batched product can be calculated as a single sgemm
+     * operation. This is the case when a single A matrix is multiplied with a
+     * batch of column vectors, or when the outer products of two batches of
+     * vectors are accumulated into a single C matrix.
+     */
+    private boolean isFoldable(imatrix A, imatrix B, imatrix C) {
+        if (A.getNrOfHyperSlices() == 1) {
+            return isVectorBatch(B) && isVectorBatch(C) && !B.isTransposed() && !C.isTransposed();
+        } else if (C.getNrOfHyperSlices() == 1) {
+            return isVectorBatch(A) && isVectorBatch(B) && !A.isTransposed() && B.isTransposed();
+        } else {
+            return false;
+        }
+    }
+
+    private boolean isVectorBatch(imatrix m) {
+        if (m.isTransposed()) {
+            return m.getNrOfRows() == 1 && m.getNrOfSlices() == 1;
+        } else {
+            return m.getNrOfColumns() == 1 && m.getNrOfSlices() == 1;
+        }
+    }
+
+    private float[] toDense(imatrix m, int h) {
+        int hs = m.getNrOfHyperSlices() > 1 ? h : 0;
+        float[] dense = Workspace.get().borrowFloats(m.getNrOfRows() * m.getNrOfColumns());
+        int index = 0;
+        for (int column = 0; column < m.getNrOfColumns(); ++column) {
+            for (int row = 0; row < m.getNrOfRows(); ++row) {
+                dense[index++] = m.get(row, column, 0, hs);
+            }
+        }
+        return dense;
+    }
+
+    private void fromDense(float[] dense, imatrix m, int h) {
+        int hs = m.getNrOfHyperSlices() > 1 ? h : 0;
+        int index = 0;
+        for (int column = 0; column < m.getNrOfColumns(); ++column) {
+            for (int row = 0; row < m.getNrOfRows(); ++row) {
+                m.set(row, column, 0, hs, dense[index++]);
+            }
+        }
+    }
+
+    /**
+     * Determines the 2D layout of a matrix for the sgemm operation. A batch
+     * matrix is interpreted as a matrix with the hyperslices as columns.
+     *
+     * @param m the matrix to analyze.
+     * @param dim the mdim2D object that will store the layout.
+     */
+    private void determineLayout(imatrix m, mdim2D dim) {
+        dim.transposed = m.isTransposed();
+        if (m.isBatchMatrix()) {
+            if (m.isTransposed()) {
+                dim.rows = m.getNrOfHyperSlices();
+                dim.columns = m.getNrOfColumns();
+                dim.ld = dim.columns;
+            } else {
+                dim.rows = m.getNrOfRows();
+                dim.columns = m.getNrOfHyperSlices();
+                dim.ld = dim.rows;
+            }
+        } else {
+            dim.rows = m.getNrOfRows();
+            dim.columns = m.getNrOfColumns();
+            dim.ld = m.isTransposed() ? dim.columns : dim.rows;
+        }
+    }
+
+    /**
+     * Checks if the 2D matrix that is used in a matrix product can be read
+     * directly from the host array of a matrix. The strided view of the matrix
+     * must have a unit stride along the rows or along the columns of the 2D
+     * matrix. The orientation, the leading dimension and the offset of the 2D
+     * matrix in the host array are stored in the result.
+     *
+     * @param m the matrix to check.
+     * @param dim the 2D layout of a matrix in a single product, null for an
+     * entry of a batched product.
+     * @param h the hyperslice of the entry in a batched product.
+     * @param result the object that stores the layout in the host array.
+     * @return true if the host array can be used directly.
+     */
+    private boolean arrayLayout(imatrix m, mdim2D dim, int h, mdim2D result) {
+        StridedView view = m.getStridedView();
+        if (view == null || !view.hasArray()) {
+            return false;
+        }
+        int rows;
+        int columns;
+        int rowStride;
+        int columnStride;
+        int first;
+        if (dim == null) {
+            rows = m.getNrOfRows();
+            columns = m.getNrOfColumns();
+            rowStride = view.getRowStride();
+            columnStride = view.getColumnStride();
+            first = view.index(0, 0, 0, m.getNrOfHyperSlices() > 1 ? h : 0);
+        } else {
+            rows = dim.rows;
+            columns = dim.columns;
+            first = view.index(0, 0, 0, 0);
+            if (m.isBatchMatrix() && dim.transposed) {
+                rowStride = view.getHyperSliceStride();
+                columnStride = view.getColumnStride();
+            } else if (m.isBatchMatrix()) {
+                rowStride = view.getRowStride();
+                columnStride = view.getHyperSliceStride();
+            } else {
+                rowStride = view.getRowStride();
+                columnStride = view.getColumnStride();
+            }
+        }
+        if (rows <= 1 || rowStride == 1) {
+            result.transposed = false;
+            result.ld = columns <= 1 ? Math.max(rows, 1) : columnStride;
+        } else if (columns <= 1 || columnStride == 1) {
+            result.transposed = true;
+            result.ld = rowStride;
+        } else {
+            return false;
+        }
+        result.rows = rows;
+        result.columns = columns;
+        result.offset = view.getData().arrayOffset() + first;
+        return true;
+    }
+
+    /**
+     * Returns the array of the host buffer of a matrix if the cells of the
+     * matrix are stored contiguously, in column major order and without
+     * padding, in that array.
+     *
+     * @param m the matrix to check.
+     * @return the host array or null if the array can not be indexed directly.
+     */
+    static float[] hostArray(imatrix m) {
+        StridedView view = m.getStridedView();
+        if (view != null && view.isContiguous() && view.hasArray() && view.getArrayOffset() == 0) {
+            return view.getArray();
+        } else {
+            return null;
+        }
+    }
+
+    private boolean hasContiguousHostData(imatrix m) {
+        return !(m instanceof zpmatrix) && hostArray(m) != null;
+    }
+
+    /**
+     * Returns the host array of an operand of an element by element operation
+     * if the cell with flat index i of the operand corresponds with the cell
+     * with flat index i of the result.
+     *
+     * @param m the operand.
+     * @param result the result of the operation.
+     * @return the host array or null if the operand must be accessed cell by
+     * cell.
+     */
+    private static float[] elementArray(imatrix m, imatrix result) {
+        if (m.isTransposed() || m instanceof zpmatrix
+                || m.getNrOfRows() != result.getNrOfRows()
+                || m.getNrOfColumns() != result.getNrOfColumns()
+                || m.getNrOfSlices() != result.getNrOfSlices()
+                || m.getNrOfHyperSlices() != result.getNrOfHyperSlices()) {
+            return null;
+        }
+        float[] array = hostArray(m);
+        return array != null && array.length >= cellCount(result) ? array : null;
+    }
+
+    /**
+     * Returns the host array of the result of an element by element operation
+     * if the result can be written directly. The result is marked as
+     * modified.
+     *
+     * @param result the result of the operation, may be null.
+     * @return the host array or null if the result must be written cell by
+     * cell.
+     */
+    private static float[] resultArray(imatrix result) {
+        if (result == null) {
+            return null;
+        }
+        result.markModified();
+        return result instanceof fmatrix ? elementArray(result, result) : null;
+    }
+
+    private static int cellCount(imatrix m) {
+        return m.getNrOfRows() * m.getNrOfColumns() * m.getNrOfSlices() * m.getNrOfHyperSlices();
+    }
+
+    private float getLogical(imatrix m, mdim2D dim, int row, int column) {
+        if (m.isBatchMatrix()) {
+            return dim.transposed ? m.get(0, column, 0, row) : m.get(row, 0, 0, column);
+        } else {
+            return m.get(row, column);
+        }
+    }
+
+    private float[] toDense(imatrix m, mdim2D dim) {
+        float[] dense = Workspace.get().borrowFloats(dim.rows * dim.columns);
+        int index = 0;
+        for (int column = 0; column < dim.columns; ++column) {
+            for (int row = 0; row < dim.rows; ++row) {
+                dense[index++] = getLogical(m, dim, row, column);
+            }
+        }
+        return dense;
+    }
+
+    private void fromDense(float[] dense, imatrix m, mdim2D dim) {
+        int index = 0;
+        for (int column = 0; column < dim.columns; ++column) {
+            for (int row = 0; row < dim.rows; ++row) {
+                float value = dense[index++];
+                if (m.isBatchMatrix()) {
+                    if (dim.transposed) {
+                        m.set(0, column, 0, row, value);
+                    } else {
+                        m.set(row, 0, 0, column, value);
+                    }
+                } else {
+                    m.set(row, column, value);
                 }
-                C.set(c_row, c_column, sum);
             }
         }
     }
@@ -91,6 +469,9 @@ public class FMatrixOpCpu implements FMatrixOp {
      */
     @Override
     public void batchConvolve(imatrix input, imatrix filter, int stride, imatrix output) {
+        if (convolutionEngine != null && convolutionEngine.batchConvolve(input, filter, null, stride, output)) {
+            return;
+        }
         int zeroPadding = input.getZeroPadding();
         int filtersPerInputSlice = filter.getNrOfSlices() / input.getNrOfSlices();
 
@@ -118,6 +499,9 @@ public class FMatrixOpCpu implements FMatrixOp {
      */
     @Override
     public void batchConvolve(imatrix input, imatrix filter, imatrix bias, int stride, imatrix output) {
+        if (convolutionEngine != null && convolutionEngine.batchConvolve(input, filter, bias, stride, output)) {
+            return;
+        }
         int zeroPadding = input.getZeroPadding();
         int filtersPerInputSlice = filter.getNrOfSlices() / input.getNrOfSlices();
 
@@ -142,6 +526,9 @@ public class FMatrixOpCpu implements FMatrixOp {
      */
     @Override
     public void deltasBatchConvolve(imatrix input, imatrix deltas, int stride, imatrix kernel) {
+        if (convolutionEngine != null && convolutionEngine.deltasBatchConvolve(input, deltas, stride, kernel)) {
+            return;
+        }
         int filtersPerInputSlice = deltas.getNrOfSlices() / input.getNrOfSlices();
         int zeroPadding = input.getZeroPadding();
         for (int h = 0; h < kernel.getNrOfHyperSlices(); ++h) {
@@ -162,48 +549,39 @@ public class FMatrixOpCpu implements FMatrixOp {
      * matrix. It is assumed that the dimensions of the output matrix are
      * dividers of the dimensions of the input matrix.
      *
+     * The slices of the batch are pooled in parallel, a slice that is stored
+     * in a plain array is pooled by the loops of PoolKernels.
+     *
      * @param input the input matrix.
      * @param output the output matrix.
+     * @param maskLayer a matrix with the dimensions of the pooled matrix that
+     * stores the location of the maximum in every pool window.
      */
     @Override
-    public void batchMaxPool(imatrix input, imatrix output, intmatrix maskLayer) {
-        // set all values to zero
-        maskLayer.reset();
-
+    public void batchMaxPool(imatrix input, imatrix output, bytematrix maskLayer) {
         int scaleX = input.getNrOfColumns() / output.getNrOfColumns();
         int scaleY = input.getNrOfRows() / output.getNrOfRows();
+        PoolKernels.checkWindow(scaleX, scaleY);
 
         int slices = Math.min(input.getNrOfSlices(), output.getNrOfSlices());
-
-        for (int h = 0; h < output.getNrOfHyperSlices(); ++h) {
-            for (int slice = 0; slice < slices; ++slice) {
-                for (int oc = 0; oc < output.getNrOfColumns(); ++oc) {
-                    for (int or = 0; or < output.getNrOfRows(); ++or) {
-                        float m = max(or, oc, slice, h, scaleX, scaleY, input, maskLayer);
-                        output.set(or, oc, slice, h, m);
-                    }
-                }
-            }
-        }
-    }
-
-    private float max(int or, int oc, int slice, int h, int filterCols, int filterRows, imatrix input, intmatrix maskLayer) {
-        float m = -Float.MAX_VALUE;
-        int cell = 0;
-        for (int c = 0; c < filterCols; ++c) {
-            for (int r = 0; r < filterRows; ++r) {
-                int ix = or * filterRows + r;
-                int iy = oc * filterRows + c;
-                float value = input.get(ix, iy, slice, h);
-                if (value > m) {
-                    m = value;
-                    cell = r + c * filterRows;
+        int hyperSlices = Math.min(input.getNrOfHyperSlices(), output.getNrOfHyperSlices());
+        float[] in = poolArray(input);
+        float[] out = poolArray(output);
+        byte[] mask = maskArray(maskLayer, output);
+
+        CpuParallel.forEach(hyperSlices * slices, input.getSliceSize(), (start, end) -> {
+            for (int i = start; i < end; ++i) {
+                int h = i / slices;
+                int slice = i % slices;
+                if (in != null && out != null && mask != null) {
+                    PoolKernels.maxPool(in, sliceOffset(input, slice, h), input.getNrOfRows(),
+                            out, sliceOffset(output, slice, h), output.getNrOfRows(), output.getNrOfColumns(),
+                            mask, maskOffset(maskLayer, slice, h), scaleX, scaleY);
+                } else {
+                    maxPoolCells(input, slice, output, slice, maskLayer, slice, h, scaleX, scaleY);
                 }
-
             }
-        }
-        maskLayer.set(or, oc, slice, h, cell);
-        return m;
+        });
     }
 
     /**
@@ -217,24 +595,36 @@ public class FMatrixOpCpu implements FMatrixOp {
      * value.
      */
     @Override
-    public void maxRotationPool(imatrix input, imatrix output, intmatrix maskLayer) {
-        // set all values to zero
-        maskLayer.reset();
-
+    public void maxRotationPool(imatrix input, imatrix output, bytematrix maskLayer) {
         int scaleX = input.getNrOfColumns() / output.getNrOfColumns();
         int scaleY = input.getNrOfRows() / output.getNrOfRows();
+        PoolKernels.checkWindow(scaleX, scaleY);
 
         int slices = maskLayer.getNrOfSlices();
-
-        for (int h = 0; h < output.getNrOfHyperSlices(); ++h) {
-            for (int slice = 0; slice < slices; ++slice) {
-                for (int oc = 0; oc < output.getNrOfColumns(); ++oc) {
-                    for (int or = 0; or < output.getNrOfRows(); ++or) {
-                        maxRotation(or, oc, slice, h, scaleX, scaleY, input, output, maskLayer);
-                    }
+        int hyperSlices = Math.min(input.getNrOfHyperSlices(), output.getNrOfHyperSlices());
+        float[] in = poolArray(input);
+        float[] out = poolArray(output);
+        byte[] mask = maskArray(maskLayer, output);
+        int[] offsets = PoolKernels.windowOffsets(scaleX, scaleY, input.getNrOfRows());
+
+        CpuParallel.forEach(hyperSlices * slices, 2 * input.getSliceSize(), (start, end) -> {
+            for (int i = start; i < end; ++i) {
+                int h = i / slices;
+                int slice = i % slices;
+                if (in != null && out != null && mask != null) {
+                    int maskOffset = maskOffset(maskLayer, slice, h);
+                    PoolKernels.maxPool(in, sliceOffset(input, 2 * slice, h), input.getNrOfRows(),
+                            out, sliceOffset(output, 2 * slice, h), output.getNrOfRows(), output.getNrOfColumns(),
+                            mask, maskOffset, scaleX, scaleY);
+                    PoolKernels.gather(in, sliceOffset(input, 2 * slice + 1, h), input.getNrOfRows(),
+                            out, sliceOffset(output, 2 * slice + 1, h), output.getNrOfRows(), output.getNrOfColumns(),
+                            mask, maskOffset, scaleX, scaleY, offsets);
+                } else {
+                    maxPoolCells(input, 2 * slice, output, 2 * slice, maskLayer, slice, h, scaleX, scaleY);
+                    gatherCells(input, 2 * slice + 1, output, 2 * slice + 1, maskLayer, slice, h, scaleX, scaleY);
                 }
             }
-        }
+        });
     }
 
     /**
@@ -247,51 +637,140 @@ public class FMatrixOpCpu implements FMatrixOp {
      * @param output the output matrix.
      */
     @Override
-    public void backpropMaxRotationPool(imatrix input, intmatrix maskLayer, imatrix output) {
+    public void backpropMaxRotationPool(imatrix input, bytematrix maskLayer, imatrix output) {
         int scaleX = output.getNrOfColumns() / input.getNrOfColumns();
         int scaleY = output.getNrOfRows() / input.getNrOfRows();
+        scatterSlices(input, maskLayer, 2, scaleX, scaleY, output);
+    }
 
+    /**
+     * Scatters the slices of a pooled matrix to the location of the maximum of
+     * their pool windows, the other cells of the unpooled slices are set to
+     * zero.
+     *
+     * @param input the pooled matrix.
+     * @param maskLayer the mask of the pooled matrix.
+     * @param slicesPerMask the number of slices of the pooled matrix that share
+     * a slice of the mask.
+     * @param scaleX the number of columns in the pool window.
+     * @param scaleY the number of rows in the pool window.
+     * @param output the unpooled matrix.
+     */
+    private void scatterSlices(imatrix input, bytematrix maskLayer, int slicesPerMask, int scaleX, int scaleY, imatrix output) {
+        PoolKernels.checkWindow(scaleX, scaleY);
         int slices = Math.min(input.getNrOfSlices(), output.getNrOfSlices());
         int hyperSlices = Math.min(input.getNrOfHyperSlices(), output.getNrOfHyperSlices());
-
-        for (int h = 0; h < hyperSlices; ++h) {
-            for (int slice = 0; slice < slices; ++slice) {
-                for (int ic = 0; ic < input.getNrOfColumns(); ++ic) {
-                    for (int ir = 0; ir < input.getNrOfRows(); ++ir) {
-                        int oc = ic * scaleX;
-                        int or = ir * scaleY;
-                        int cell = maskLayer.get(ir, ic, slice / 2, h);
-                        int x = cell / scaleY;
-                        int y = cell % scaleY;
-                        float v = input.get(ir, ic, slice, h);
-                        output.set(or + y, oc + x, slice, h, v);
-                    }
+        int outRows = output.getNrOfRows();
+        int outSliceSize = output.getSliceSize();
+        boolean unpooled = outRows >= input.getNrOfRows() * scaleY && output.getNrOfColumns() >= input.getNrOfColumns() * scaleX;
+        if (!unpooled && output.getHyperSliceSize() == input.getHyperSliceSize() * scaleX * scaleY) {
+            // a flat view on the unpooled matrix, the slices are stored with the scaled up dimensions of the input.
+            slices = input.getNrOfSlices();
+            outRows = input.getNrOfRows() * scaleY;
+            outSliceSize = input.getSliceSize() * scaleX * scaleY;
+            unpooled = true;
+        }
+        float[] in = poolArray(input);
+        float[] out = unpooled ? poolArray(output) : null;
+        byte[] mask = maskArray(maskLayer, input);
+        int[] offsets = PoolKernels.windowOffsets(scaleX, scaleY, outRows);
+        int unpooledRows = outRows;
+        int unpooledSliceSize = outSliceSize;
+        int unpooledSlices = slices;
+        boolean kernels = in != null && out != null && mask != null;
+
+        CpuParallel.forEach(hyperSlices * unpooledSlices, unpooledSliceSize, (start, end) -> {
+            for (int i = start; i < end; ++i) {
+                int h = i / unpooledSlices;
+                int slice = i % unpooledSlices;
+                if (kernels) {
+                    PoolKernels.scatter(in, sliceOffset(input, slice, h), input.getNrOfRows(), input.getNrOfColumns(),
+                            mask, maskOffset(maskLayer, slice / slicesPerMask, h),
+                            out, h * output.getHyperSliceSize() + slice * unpooledSliceSize, unpooledRows, unpooledSliceSize,
+                            scaleX, scaleY, offsets);
+                } else {
+                    scatterCells(input, slice, maskLayer, slice / slicesPerMask, h, scaleX, scaleY, output);
                 }
             }
+        });
+    }
+
+    /**
+     * Returns the host array of a matrix that is used by the pool kernels.
+     *
+     * @param m the matrix.
+     * @return the host array or null if the cells must be accessed one by one.
+     */
+    private float[] poolArray(imatrix m) {
+        return hasContiguousHostData(m) && !m.isTransposed() ? hostArray(m) : null;
+    }
+
+    /**
+     * Returns the host array of a mask if the slices of the mask have the
+     * layout of the slices of the pooled matrix.
+     *
+     * @param mask the mask.
+     * @param pooled the pooled matrix.
+     * @return the host array or null if the cells must be accessed one by one.
+     */
+    private static byte[] maskArray(bytematrix mask, imatrix pooled) {
+        if (mask.getNrOfRows() != pooled.getNrOfRows() || mask.getNrOfColumns() != pooled.getNrOfColumns()) {
+            return null;
         }
+        return mask.getHostArray();
+    }
+
+    private static int sliceOffset(imatrix m, int slice, int h) {
+        return h * m.getHyperSliceSize() + slice * m.getSliceSize();
     }
 
-    private void maxRotation(int or, int oc, int slice, int h, int filterCols, int filterRows, imatrix input, imatrix output, intmatrix maskLayer) {
-        float m = -Float.MAX_VALUE;
-        float rot = -Float.MAX_VALUE;
-        int cell = 0;
-        for (int c = 0; c < filterCols; ++c) {
-            for (int r = 0; r < filterRows; ++r) {
-                int ix = or * filterRows + r;
-                int iy = oc * filterRows + c;
-                float value = input.get(ix, iy, slice * 2, h);
+    private static int maskOffset(bytematrix mask, int slice, int h) {
+        return h * mask.getHyperSliceSize() + slice * mask.getSliceSize();
+    }
 
-                if (value > m) {
-                    m = value;
-                    rot = input.get(ix, iy, slice * 2 + 1, h);
-                    cell = r + c * filterRows;
+    private static void maxPoolCells(imatrix input, int inSlice, imatrix output, int outSlice, bytematrix maskLayer, int maskSlice, int h, int scaleX, int scaleY) {
+        for (int oc = 0; oc < output.getNrOfColumns(); ++oc) {
+            for (int or = 0; or < output.getNrOfRows(); ++or) {
+                float m = -Float.MAX_VALUE;
+                int cell = 0;
+                for (int c = 0; c < scaleX; ++c) {
+                    for (int r = 0; r < scaleY; ++r) {
+                        float value = input.get(or * scaleY + r, oc * scaleX + c, inSlice, h);
+                        if (value > m) {
+                            m = value;
+                            cell = r + c * scaleY;
+                        }
+                    }
                 }
+                output.set(or, oc, outSlice, h, m);
+                maskLayer.set(or, oc, maskSlice, h, cell);
+            }
+        }
+    }
 
+    private static void gatherCells(imatrix input, int inSlice, imatrix output, int outSlice, bytematrix maskLayer, int maskSlice, int h, int scaleX, int scaleY) {
+        for (int oc = 0; oc < output.getNrOfColumns(); ++oc) {
+            for (int or = 0; or < output.getNrOfRows(); ++or) {
+                int cell = maskLayer.get(or, oc, maskSlice, h);
+                float value = input.get(or * scaleY + cell % scaleY, oc * scaleX + cell / scaleY, inSlice, h);
+                output.set(or, oc, outSlice, h, value);
+            }
+        }
+    }
+
+    private static void scatterCells(imatrix input, int slice, bytematrix maskLayer, int maskSlice, int h, int scaleX, int scaleY, imatrix output) {
+        for (int oc = 0; oc < output.getNrOfColumns(); ++oc) {
+            for (int or = 0; or < output.getNrOfRows(); ++or) {
+                output.set(or, oc, slice, h, 0);
+            }
+        }
+        for (int ic = 0; ic < input.getNrOfColumns(); ++ic) {
+            for (int ir = 0; ir < input.getNrOfRows(); ++ir) {
+                int cell = maskLayer.get(ir, ic, maskSlice, h);
+                float v = input.get(ir, ic, slice, h);
+                output.set(ir * scaleY + cell % scaleY, ic * scaleX + cell / scaleY, slice, h, v);
             }
         }
-        output.set(or, oc, slice * 2, h, m);
-        output.set(or, oc, slice * 2 + 1, h, rot);
-        maskLayer.set(or, oc, slice, h, cell);
     }
 
     /**
@@ -305,6 +784,9 @@ public class FMatrixOpCpu implements FMatrixOp {
      */
     @Override
     public void batchCorrelate(imatrix input, imatrix filter, int stride, imatrix output) {
+        if (convolutionEngine != null && convolutionEngine.batchCorrelate(input, filter, stride, output)) {
+            return;
+        }
         int zeroPadding = input.getZeroPadding();
         int filtersPerInputSlice = filter.getNrOfSlices() / input.getNrOfSlices();
 
@@ -329,6 +811,9 @@ public class FMatrixOpCpu implements FMatrixOp {
      */
     @Override
     public void batchBackpropCorrelate(imatrix input, imatrix filter, int stride, imatrix output) {
+        if (convolutionEngine != null && convolutionEngine.batchBackpropCorrelate(input, filter, stride, output)) {
+            return;
+        }
         int slicesPerOutput = filter.getNrOfSlices() / output.getNrOfSlices();
         int zeroPadding = input.getZeroPadding();
         for (int oSlice = 0; oSlice < output.getNrOfSlices(); ++oSlice) {
@@ -345,38 +830,372 @@ public class FMatrixOpCpu implements FMatrixOp {
         }
     }
 
+    /**
+     * Applies a cross channel convolution on the input matrix. The patches of
+     * all the input slices are copied into one im2col matrix, the output of
+     * all the filters is then calculated with a single matrix multiplication
+     * per entry in the batch.
+     *
+     * @param input the matrix to convolve.
+     * @param filter the filter to apply.
+     * @param bias a row matrix with a bias term per output slice, can be null.
+     * @param stride the stride with which to advance the filter.
+     * @param output the matrix where the output is stored.
+     */
+    @Override
+    public void batchCrossConvolve(imatrix input, imatrix filter, imatrix bias, int stride, imatrix output) {
+        int inputSlices = input.getNrOfSlices();
+        int features = output.getNrOfSlices();
+        if (filter.getNrOfSlices() != inputSlices * features) {
+            throw new IllegalArgumentException("The filter needs " + (inputSlices * features) + " slices, not " + filter.getNrOfSlices());
+        }
+        Workspace workspace = Workspace.get();
+        fmatrix pi = planarCopy(input, workspace, true);
+        fmatrix pf = planarCopy(filter, workspace, true);
+        fmatrix po = planarCopy(output, workspace, false);
+        imatrix in = pi != null ? withPadding(pi, input.getZeroPadding()) : input;
+        imatrix out = po != null ? po : output;
+        float[] inArray = hostArray(in);
+        float[] filterArray = hostArray(pf != null ? pf : filter);
+        float[] outArray = hostArray(out);
+
+        int taps = filter.getSliceSize();
+        int k = taps * inputSlices;
+        int cells = out.getSliceSize();
+        float[] columns = workspace.borrowFloats(cells * k);
+        try {
+            int hyperSlices = Math.min(in.getNrOfHyperSlices(), out.getNrOfHyperSlices());
+            for (int h = 0; h < hyperSlices; ++h) {
+                int outputOffset = h * out.getHyperSliceSize();
+                if (bias != null) {
+                    for (int f = 0; f < features; ++f) {
+                        int start = outputOffset + f * cells;
+                        Arrays.fill(outArray, start, start + cells, bias.get(f, 0));
+                    }
+                }
+                Im2ColConvolution.im2col(in, inArray, 0, inputSlices, h, filter.getNrOfRows(), filter.getNrOfColumns(),
+                        out.getNrOfRows(), out.getNrOfColumns(), stride, false, columns);
+                // output (cells x features) = im2col (cells x taps*inputSlices) * filters (taps*inputSlices x features)
+                CpuGemm.sgemm(false, false, cells, features, k,
+                        1, columns, 0, cells,
+                        filterArray, 0, k,
+                        bias != null ? 1 : 0, outArray, outputOffset, cells);
+            }
+            if (po != null) {
+                copyInto(po, output);
+            }
+        } finally {
+            workspace.giveBack(columns);
+            giveBack(workspace, pi, pf, po);
+        }
+    }
+
+    /**
+     * Calculates the filter gradients of the cross channel convolution as the
+     * product of the transposed im2col matrix of all the input slices and the
+     * deltas.
+     *
+     * @param input the input (with batch multiplicity).
+     * @param deltas the deltas (with batch multiplicity).
+     * @param stride the stride.
+     * @param kernel the kernel (with batch multiplicity).
+     */
+    @Override
+    public void deltasBatchCrossConvolve(imatrix input, imatrix deltas, int stride, imatrix kernel) {
+        int inputSlices = input.getNrOfSlices();
+        int features = deltas.getNrOfSlices();
+        if (kernel.getNrOfSlices() != inputSlices * features) {
+            throw new IllegalArgumentException("The kernel needs " + (inputSlices * features) + " slices, not " + kernel.getNrOfSlices());
+        }
+        Workspace workspace = Workspace.get();
+        fmatrix pi = planarCopy(input, workspace, true);
+        fmatrix pd = planarCopy(deltas, workspace, true);
+        fmatrix pk = planarCopy(kernel, workspace, false);
+        imatrix in = pi != null ? withPadding(pi, input.getZeroPadding()) : input;
+        imatrix d = pd != null ? pd : deltas;
+        imatrix k = pk != null ? pk : kernel;
+        float[] inArray = hostArray(in);
+        float[] deltasArray = hostArray(d);
+        float[] kernelArray = hostArray(k);
+
+        int taps = k.getSliceSize();
+        int size = taps * inputSlices;
+        int cells = d.getSliceSize();
+        float[] columns = workspace.borrowFloats(cells * size);
+        try {
+            int hyperSlices = Math.min(Math.min(in.getNrOfHyperSlices(), d.getNrOfHyperSlices()), k.getNrOfHyperSlices());
+            for (int h = 0; h < hyperSlices; ++h) {
+                Im2ColConvolution.im2col(in, inArray, 0, inputSlices, h, k.getNrOfRows(), k.getNrOfColumns(),
+                        d.getNrOfRows(), d.getNrOfColumns(), stride, false, columns);
+                // kernel (taps*inputSlices x features) = im2col^T (taps*inputSlices x cells) * deltas (cells x features)
+                CpuGemm.sgemm(true, false, size, features, cells,
+                        1, columns, 0, cells,
+                        deltasArray, h * d.getHyperSliceSize(), cells,
+                        0, kernelArray, h * k.getHyperSliceSize(), size);
+            }
+            if (pk != null) {
+                copyInto(pk, kernel);
+            }
+        } finally {
+            workspace.giveBack(columns);
+            giveBack(workspace, pi, pd, pk);
+        }
+    }
+
+    /**
+     * Back propagates the deltas of a cross channel convolution. The filters
+     * are regrouped per output slice so that the correlation of all the
+     * deltas slices is a single matrix multiplication per entry in the batch.
+     *
+     * @param input the zero padded deltas.
+     * @param filter the filter matrix.
+     * @param stride the stride.
+     * @param output the output matrix.
+     */
+    @Override
+    public void batchBackpropCrossCorrelate(imatrix input, imatrix filter, int stride, imatrix output) {
+        int features = input.getNrOfSlices();
+        int outputSlices = output.getNrOfSlices();
+        if (filter.getNrOfSlices() != features * outputSlices) {
+            throw new IllegalArgumentException("The filter needs " + (features * outputSlices) + " slices, not " + filter.getNrOfSlices());
+        }
+        Workspace workspace = Workspace.get();
+        fmatrix pi = planarCopy(input, workspace, true);
+        fmatrix pf = planarCopy(filter, workspace, true);
+        fmatrix po = planarCopy(output, workspace, false);
+        imatrix in = pi != null ? withPadding(pi, input.getZeroPadding()) : input;
+        imatrix out = po != null ? po : output;
+        float[] inArray = hostArray(in);
+        float[] filterArray = hostArray(pf != null ? pf : filter);
+        float[] outArray = hostArray(out);
+
+        int taps = filter.getSliceSize();
+        int k = taps * features;
+        int cells = out.getSliceSize();
+        float[] columns = workspace.borrowFloats(cells * k);
+        float[] grouped = workspace.borrowFloats(k * outputSlices);
+        try {
+            // column s of the grouped filters contains filter slice f * outputSlices + s for every f.
+            for (int s = 0; s < outputSlices; ++s) {
+                for (int f = 0; f < features; ++f) {
+                    System.arraycopy(filterArray, (f * outputSlices + s) * taps, grouped, s * k + f * taps, taps);
+                }
+            }
+            int hyperSlices = Math.min(in.getNrOfHyperSlices(), out.getNrOfHyperSlices());
+            for (int h = 0; h < hyperSlices; ++h) {
+                Im2ColConvolution.im2col(in, inArray, 0, features, h, filter.getNrOfRows(), filter.getNrOfColumns(),
+                        out.getNrOfRows(), out.getNrOfColumns(), stride, true, columns);
+                // output (cells x outputSlices) = im2col (cells x taps*features) * grouped (taps*features x outputSlices)
+                CpuGemm.sgemm(false, false, cells, outputSlices, k,
+                        1, columns, 0, cells,
+                        grouped, 0, k,
+                        0, outArray, h * out.getHyperSliceSize(), cells);
+            }
+            if (po != null) {
+                copyInto(po, output);
+            }
+        } finally {
+            workspace.giveBack(grouped);
+            workspace.giveBack(columns);
+            giveBack(workspace, pi, pf, po);
+        }
+    }
+
+    /**
+     * Copies a matrix into a planar temporary of the workspace if its cells
+     * can not be indexed directly in its host array.
+     *
+     * @param m the matrix to check.
+     * @param workspace the workspace of the current thread.
+     * @param copy true if the cells of the matrix must be copied.
+     * @return the planar temporary or null if the matrix can be used as is.
+     */
+    private fmatrix planarCopy(imatrix m, Workspace workspace, boolean copy) {
+        if (hostArray(m) != null) {
+            return null;
+        }
+        fmatrix planar = workspace.borrowMatrix(m.getNrOfRows(), m.getNrOfColumns(),
+                m.getNrOfSlices(), m.getNrOfHyperSlices());
+        if (copy) {
+            copyInto(m, planar);
+        }
+        return planar;
+    }
+
+    private static imatrix withPadding(fmatrix m, int zeroPadding) {
+        return zeroPadding > 0 ? new zpmatrix(m, zeroPadding) : m;
+    }
+
+    private static void giveBack(Workspace workspace, fmatrix... temporaries) {
+        for (fmatrix m : temporaries) {
+            if (m != null) {
+                workspace.giveBack(m);
+            }
+        }
+    }
+
     /**
      * Scales up the input matrix to the dimensions of the output matrix. Only
-     * the cells that are defined in the masking layer are applied to output.
+     * the cells that are defined in the masking layer are applied to output,
+     * the other cells of the output are set to zero.
      *
      * @param input the input matrix.
-     * @param maskLayer a matrix with the same dimension as the input layer
-     * which can be used to determine which input pixels contributed to the
-     * output.
+     * @param maskLayer a matrix with the dimensions of the pooled matrix that
+     * stores the location of the maximum in every pool window.
      * @param scaleX the x-scale of the pool layer.
      * @param scaleY the y-scale of the pool layer.
      * @param output the output matrix.
      *
      */
     @Override
-    public void batchBackpropMaxPool(imatrix input, intmatrix maskLayer, int scaleX, int scaleY, imatrix output) {
-        int slices = Math.min(input.getNrOfSlices(), output.getNrOfSlices());
-        int hyperSlices = Math.min(input.getNrOfHyperSlices(), output.getNrOfHyperSlices());
+    public void batchBackpropMaxPool(imatrix input, bytematrix maskLayer, int scaleX, int scaleY, imatrix output) {
+        scatterSlices(input, maskLayer, 1, scaleX, scaleY, output);
+    }
 
-        for (int h = 0; h < hyperSlices; ++h) {
-            for (int slice = 0; slice < slices; ++slice) {
-                for (int ic = 0; ic < input.getNrOfColumns(); ++ic) {
-                    for (int ir = 0; ir < input.getNrOfRows(); ++ir) {
-                        int oc = ic * scaleX;
-                        int or = ir * scaleY;
-                        int cell = maskLayer.get(ir, ic, slice, h);
-                        int x = cell / scaleY;
-                        int y = cell % scaleY;
-                        float v = input.get(ir, ic, slice, h);
-                        output.set(or + y, oc + x, slice, h, v);
+    /**
+     * Convolves, activates and max pools the input in one pass. The work is
+     * split in tiles: a tile is the band of convolution cells that is pooled
+     * into one column of the output. The tile is calculated with an im2col
+     * matrix multiplication per input slice and is reduced to the pooled output
+     * and the mask before the next tile is calculated, so only one tile per
+     * thread is stored.
+     *
+     * The activation function must be non decreasing, see
+     * ActivationFunction.isNonDecreasing(). The maximum is then taken before
+     * the bias and the activation function are applied, so the activation
+     * function is only evaluated for the pooled cells. Other activation
+     * functions are rejected with an IllegalArgumentException.
+     *
+     * @param input the zero padded input matrix.
+     * @param filter the filters to apply.
+     * @param bias a row matrix with a bias term per filter slice.
+     * @param stride the stride with which to advance the filter.
+     * @param function the activation function.
+     * @param output the pooled output matrix.
+     * @param maskLayer the location of the maximum in every pool window.
+     */
+    @Override
+    public void batchConvolveMaxPool(imatrix input, imatrix filter, imatrix bias, int stride, ActivationFunction function, imatrix output, bytematrix maskLayer) {
+        if (!function.isNonDecreasing()) {
+            throw new IllegalArgumentException("The " + function + " activation is not non decreasing and can not be fused with a max pool.");
+        }
+        int inputSlices = input.getNrOfSlices();
+        int filterSlices = filter.getNrOfSlices();
+        if (filterSlices % inputSlices != 0 || output.getNrOfSlices() != filterSlices) {
+            throw new IllegalArgumentException("The output needs " + filterSlices + " slices and the filter needs a multiple of " + inputSlices + " slices.");
+        }
+        int zp = input.getZeroPadding();
+        int convRows = 1 + (input.getNrOfRows() + 2 * zp - filter.getNrOfRows()) / stride;
+        int convColumns = 1 + (input.getNrOfColumns() + 2 * zp - filter.getNrOfColumns()) / stride;
+        int poolRows = output.getNrOfRows();
+        int poolColumns = output.getNrOfColumns();
+        int scaleY = convRows / poolRows;
+        int scaleX = convColumns / poolColumns;
+        if (scaleX < 1 || scaleY < 1) {
+            throw new IllegalArgumentException("The output is larger than the convolution result " + convRows + "x" + convColumns);
+        }
+        PoolKernels.checkWindow(scaleX, scaleY);
+
+        Workspace workspace = Workspace.get();
+        fmatrix pi = planarCopy(input, workspace, true);
+        fmatrix pf = planarCopy(filter, workspace, true);
+        fmatrix po = planarCopy(output, workspace, false);
+        imatrix in = pi != null ? withPadding(pi, zp) : input;
+        imatrix out = po != null ? po : output;
+        float[] inArray = hostArray(in);
+        float[] filterArray = hostArray(pf != null ? pf : filter);
+        float[] outArray = hostArray(out);
+
+        int fps = filterSlices / inputSlices;
+        int filterRows = filter.getNrOfRows();
+        int filterColumns = filter.getNrOfColumns();
+        int taps = filter.getSliceSize();
+        int tileRows = poolRows * scaleY;
+        int tileCells = tileRows * scaleX;
+        int outSliceSize = out.getSliceSize();
+        int outHyperSliceSize = out.getHyperSliceSize();
+        ActivationKernel kernel = ActivationKernels.get(function, fastMath);
+        int hyperSlices = Math.min(in.getNrOfHyperSlices(), out.getNrOfHyperSlices());
+        try {
+            CpuParallel.forEach(hyperSlices * poolColumns, (long) tileCells * taps * filterSlices, (start, end) -> {
+                Workspace tileWorkspace = Workspace.get();
+                float[] columns = tileWorkspace.borrowFloats(tileCells * taps);
+                float[] tile = tileWorkspace.borrowFloats(tileCells * fps);
+                try {
+                    for (int i = start; i < end; ++i) {
+                        int h = i / poolColumns;
+                        int pc = i % poolColumns;
+                        for (int slice = 0; slice < inputSlices; ++slice) {
+                            Im2ColConvolution.im2col(in, inArray, slice, 1, h, filterRows, filterColumns,
+                                    tileRows, scaleX, pc * scaleX, stride, false, columns);
+                            // tile (tileCells x fps) = im2col (tileCells x taps) * filters (taps x fps)
+                            CpuGemm.sgemm(false, false, tileCells, fps, taps,
+                                    1, columns, 0, tileCells,
+                                    filterArray, slice * fps * taps, taps,
+                                    0, tile, 0, tileCells);
+                            for (int j = 0; j < fps; ++j) {
+                                int fs = slice * fps + j;
+                                float b = bias != null ? bias.get(fs, 0) : 0;
+                                int tileOffset = j * tileCells;
+                                int outOffset = h * outHyperSliceSize + fs * outSliceSize + pc * poolRows;
+                                for (int pr = 0; pr < poolRows; ++pr) {
+                                    float m = -Float.MAX_VALUE;
+                                    int cell = 0;
+                                    for (int c = 0; c < scaleX; ++c) {
+                                        int t = tileOffset + c * tileRows + pr * scaleY;
+                                        for (int r = 0; r < scaleY; ++r) {
+                                            if (tile[t + r] > m) {
+                                                m = tile[t + r];
+                                                cell = r + c * scaleY;
+                                            }
+                                        }
+                                    }
+                                    outArray[outOffset + pr] = m;
+                                    maskLayer.set(pr, pc, fs, h, cell);
+                                }
+                                kernel.activate(outArray, b, outOffset, outOffset + poolRows);
+                            }
+                        }
                     }
+                } finally {
+                    tileWorkspace.giveBack(tile);
+                    tileWorkspace.giveBack(columns);
                 }
+            });
+            if (po != null) {
+                copyInto(po, output);
             }
+        } finally {
+            giveBack(workspace, pi, pf, po);
+        }
+    }
+
+    /**
+     * Back propagates the errors of a pooled and activated convolution to the
+     * deltas of the convolution.
+     *
+     * @param errors the errors of the pooled output.
+     * @param outputs the pooled output (after the activation function).
+     * @param maskLayer the mask layer of the forward pass.
+     * @param function the activation function.
+     * @param deltas the deltas of the convolution, at full resolution.
+     */
+    @Override
+    public void batchBackpropMaxPoolActivation(imatrix errors, imatrix outputs, bytematrix maskLayer, ActivationFunction function, imatrix deltas) {
+        int scaleX = deltas.getNrOfColumns() / errors.getNrOfColumns();
+        int scaleY = deltas.getNrOfRows() / errors.getNrOfRows();
+        if (deltas.getNrOfSlices() > errors.getNrOfSlices() || deltas.getNrOfHyperSlices() > errors.getNrOfHyperSlices()) {
+            deltas.reset();
+        }
+        // the derivative is only evaluated for the pooled cells, the result is scattered to the maxima.
+        Workspace workspace = Workspace.get();
+        fmatrix pooledDeltas = workspace.borrowMatrix(errors.getNrOfRows(), errors.getNrOfColumns(),
+                errors.getNrOfSlices(), errors.getNrOfHyperSlices());
+        try {
+            applyDerivedActivation(function, errors, outputs, pooledDeltas);
+            scatterSlices(pooledDeltas, maskLayer, 1, scaleX, scaleY, deltas);
+        } finally {
+            workspace.giveBack(pooledDeltas);
         }
     }
 
@@ -482,19 +1301,21 @@ public class FMatrixOpCpu implements FMatrixOp {
     @Override
     public void fuzzyFunction(imatrix input, int classes, imatrix a, imatrix b, imatrix functions) {
         int actualClasses = classes - 1;
-        for (int h = 0; h < input.getNrOfHyperSlices(); ++h) {
-            for (int ir = 0; ir < input.getNrOfRows(); ++ir) {
-                float iv = input.get(ir, 0, 0, h);
-                for (int oc = 0; oc < actualClasses; ++oc) {
-                    int index = ir * actualClasses + oc;
-                    float av = a.get(index, 0);
-                    float bv = b.get(index, 0);
-
-                    float v = av * (iv + bv);
-                    functions.set(index, 0, 0, h, v);
+        CpuParallel.forEach(input.getNrOfHyperSlices(), input.getNrOfRows() * actualClasses, (start, end) -> {
+            for (int h = start; h < end; ++h) {
+                for (int ir = 0; ir < input.getNrOfRows(); ++ir) {
+                    float iv = input.get(ir, 0, 0, h);
+                    for (int oc = 0; oc < actualClasses; ++oc) {
+                        int index = ir * actualClasses + oc;
+                        float av = a.get(index, 0);
+                        float bv = b.get(index, 0);
+
+                        float v = av * (iv + bv);
+                        functions.set(index, 0, 0, h, v);
+                    }
                 }
             }
-        }
+        });
     }
 
     /**
@@ -515,115 +1336,320 @@ public class FMatrixOpCpu implements FMatrixOp {
     public void fuzzyShiftMinus(imatrix input, int classes, imatrix output) {
         int numVars = input.getNrOfRows() / (classes - 1);
         int hyperSlices = Math.min(input.getNrOfHyperSlices(), output.getNrOfHyperSlices());
-        for (int h = 0; h < hyperSlices; ++h) {
-            int oRow = 0;
-            for (int rv = 0; rv < numVars; ++rv) {
-                float previous = 1;
-                int iBase = rv * (classes - 1);
-                for (int ic = 0; ic < (classes - 1); ++ic) {
-                    float iv = input.get(iBase + ic, 0, 0, h);
-                    output.set(oRow++, 0, 0, h, previous - iv);
-                    previous = iv;
+        CpuParallel.forEach(hyperSlices, input.getNrOfRows(), (start, end) -> {
+            for (int h = start; h < end; ++h) {
+                int oRow = 0;
+                for (int rv = 0; rv < numVars; ++rv) {
+                    float previous = 1;
+                    int iBase = rv * (classes - 1);
+                    for (int ic = 0; ic < (classes - 1); ++ic) {
+                        float iv = input.get(iBase + ic, 0, 0, h);
+                        output.set(oRow++, 0, 0, h, previous - iv);
+                        previous = iv;
+                    }
+                    output.set(oRow++, 0, 0, h, previous);
+                }
+            }
+        });
+    }
+
+    /**
+     * Converts a one D vector into a 2D matrix with the following formula:
+     *
+     * nrOfVariables : input.rows / classes.
+     *
+     * The output is the a 2d matrix with dimensions : [nrOfVariables,classes-1]
+     *
+     * Per row of the output matrix the follow formula will be applied:
+     * output[currentRow] = [input1 - input0, input2 - input1, ...,
+     * input_classes-1 - input_classes_2]
+     *
+     * resulting in a row with (classes-1) elements.
+     *
+     * @param input the input matrix.
+     * @param classes the number of classes.
+     * @param output the 2D output matrix.
+     */
+    @Override
+    public void fuzzyShiftDeltas(imatrix input, int classes, imatrix output) {
+        int nrOfVariables = input.getNrOfRows() / classes;
+        CpuParallel.forEach(input.getNrOfHyperSlices(), input.getNrOfRows(), (start, end) -> {
+            for (int h = start; h < end; ++h) {
+                for (int v = 0; v < nrOfVariables; ++v) {
+                    int iBase = v * classes;
+                    int oBase = v * (classes - 1);
+                    for (int c = 0; c < classes - 1; ++c) {
+                        float dn = input.get(iBase + c, 0, 0, h);
+                        float dnp1 = input.get(iBase + c + 1, 0, 0, h);
+
+                        output.set(oBase + c, 0, 0, h, dnp1 - dn);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Performs a back propagation into the deltas of the previous layer.
+     *
+     * @param input the deltas of the fuzzification layer, in batch.
+     * @param weights normally, the a-weights of the fuzzification layer.
+     * @param classes the number of classes in the fuzzification layer.
+     * @param output the output, in batch.
+     */
+    @Override
+    public void fuzzyBackProp(imatrix input, imatrix weights, int classes, imatrix output) {
+        CpuParallel.forEach(input.getNrOfHyperSlices(), input.getNrOfRows(), (start, end) -> {
+            for (int h = start; h < end; ++h) {
+                for (int r = 0; r < output.getNrOfRows(); ++r) {
+                    float sum = 0;
+                    int inputRow = r * (classes - 1);
+                    for (int c = 0; c < classes - 1; ++c) {
+                        float w = weights.get(inputRow + c, 0, 0, 0);
+                        float i = input.get(inputRow + c, 0, 0, h);
+                        sum += w * i;
+                    }
+                    output.set(r, 0, 0, h, sum);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void fuzzyInputAdd(imatrix inputs, imatrix weights, int classes, imatrix deltas) {
+        CpuParallel.forEach(inputs.getNrOfHyperSlices(), inputs.getNrOfRows() * (classes - 1), (start, end) -> {
+            for (int h = start; h < end; ++h) {
+                for (int r = 0; r < inputs.getNrOfRows(); ++r) {
+                    float iv = inputs.get(r, 0, 0, h);
+                    for (int c = 0; c < (classes - 1); ++c) {
+                        int wdIndex = r * (classes - 1) + c;
+                        float current = weights.get(wdIndex, 0);
+                        deltas.set(wdIndex, 0, 0, h, current + iv);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies the activation function on the given matrix.
+     *
+     * @param function the function that defines the derived activation
+     * function.
+     * @param m the matrix to apply the activation function to.
+     */
+    @Override
+    public void applyActivation(ActivationFunction function, fmatrix m) {
+        float[] a = resultArray(m);
+        if (a != null) {
+            ActivationKernel kernel = ActivationKernels.get(function, fastMath);
+            CpuParallel.forEach(cellCount(m), 4, (start, end) -> kernel.activate(a, 0, start, end));
+        } else {
+            m.applyFunction(function.getActivation());
+        }
+    }
+
+    /**
+     * Applies the derived activation function on the give matrix.
+     *
+     * @param function the function that defines the derived activation
+     * function.
+     * @param m the matrix to apply the activation function to.
+     */
+    @Override
+    public void applyDerivedActivation(ActivationFunction function, fmatrix m) {
+        m.applyFunction(function.getDerivedActivation());
+    }
+
+    /**
+     * Adds the bias of the slice to every cell and applies the activation
+     * function in one pass over the matrix.
+     *
+     * @param function the activation function.
+     * @param bias a row matrix with a bias per slice, or null if only the
+     * activation function needs to be applied.
+     * @param m the matrix to apply the bias and the activation function to.
+     */
+    @Override
+    public void applyBiasActivation(ActivationFunction function, imatrix bias, imatrix m) {
+        if (function == ActivationFunction.SOFTMAX) {
+            throw new IllegalArgumentException("The softmax activation is applied per row, use softMaxPerRow.");
+        }
+        ActivationKernel kernel = ActivationKernels.get(function, fastMath);
+        Function f = function.getActivation();
+        float[] a = resultArray(m);
+        int slices = m.getNrOfSlices();
+        int sliceSize = m.getSliceSize();
+        CpuParallel.forEach(m.getNrOfHyperSlices() * slices, sliceSize, (start, end) -> {
+            for (int i = start; i < end; ++i) {
+                int hyperslice = i / slices;
+                int slice = i % slices;
+                float b = bias != null ? bias.get(slice, 0) : 0;
+                if (a != null) {
+                    kernel.activate(a, b, i * sliceSize, (i + 1) * sliceSize);
+                } else {
+                    for (int column = 0; column < m.getNrOfColumns(); ++column) {
+                        for (int row = 0; row < m.getNrOfRows(); ++row) {
+                            float value = m.get(row, column, slice, hyperslice);
+                            m.set(row, column, slice, hyperslice, f.evaluate(value + b));
+                        }
+                    }
                 }
-                output.set(oRow++, 0, 0, h, previous);
             }
-        }
+        });
     }
 
     /**
-     * Converts a one D vector into a 2D matrix with the following formula:
-     *
-     * nrOfVariables : input.rows / classes.
-     *
-     * The output is the a 2d matrix with dimensions : [nrOfVariables,classes-1]
-     *
-     * Per row of the output matrix the follow formula will be applied:
-     * output[currentRow] = [input1 - input0, input2 - input1, ...,
-     * input_classes-1 - input_classes_2]
-     *
-     * resulting in a row with (classes-1) elements.
+     * Calculates the deltas of a layer in one pass: deltas = errors *
+     * f'(outputs).
      *
-     * @param input the input matrix.
-     * @param classes the number of classes.
-     * @param output the 2D output matrix.
+     * @param function the activation function of the layer.
+     * @param errors the errors of the layer.
+     * @param outputs the outputs of the layer.
+     * @param deltas the matrix to store the deltas in.
      */
     @Override
-    public void fuzzyShiftDeltas(imatrix input, int classes, imatrix output) {
-        int nrOfVariables = input.getNrOfRows() / classes;
-        for (int h = 0; h < input.getNrOfHyperSlices(); ++h) {
-            for (int v = 0; v < nrOfVariables; ++v) {
-                int iBase = v * classes;
-                int oBase = v * (classes - 1);
-                for (int c = 0; c < classes - 1; ++c) {
-                    float dn = input.get(iBase + c, 0, 0, h);
-                    float dnp1 = input.get(iBase + c + 1, 0, 0, h);
-
-                    output.set(oBase + c, 0, 0, h, dnp1 - dn);
+    public void applyDerivedActivation(ActivationFunction function, imatrix errors, imatrix outputs, imatrix deltas) {
+        float[] d = resultArray(deltas);
+        float[] e = elementArray(errors, deltas);
+        float[] o = elementArray(outputs, deltas);
+        if (d != null && e != null && o != null) {
+            ActivationKernel kernel = ActivationKernels.get(function, fastMath);
+            CpuParallel.forEach(cellCount(deltas), 4, (start, end) -> kernel.derive(e, o, d, start, end));
+            return;
+        }
+        Function df = function.getDerivedActivation();
+        int slices = deltas.getNrOfSlices();
+        CpuParallel.forEach(deltas.getNrOfHyperSlices() * slices, deltas.getSliceSize(), (start, end) -> {
+            for (int i = start; i < end; ++i) {
+                int hyperslice = i / slices;
+                int slice = i % slices;
+                for (int row = 0; row < deltas.getNrOfRows(); ++row) {
+                    for (int column = 0; column < deltas.getNrOfColumns(); ++column) {
+                        float error = errors.get(row, column, slice, hyperslice);
+                        float output = outputs.get(row, column, slice, hyperslice);
+                        deltas.set(row, column, slice, hyperslice, error * df.evaluate(output));
+                    }
                 }
             }
-        }
+        });
     }
 
     /**
-     * Performs a back propagation into the deltas of the previous layer.
+     * Applies the softmax function to every column of every slice in the
+     * matrix.
      *
-     * @param input the deltas of the fuzzification layer, in batch.
-     * @param weights normally, the a-weights of the fuzzification layer.
-     * @param classes the number of classes in the fuzzification layer.
-     * @param output the output, in batch.
+     * @param m the matrix to apply the softmax function to.
      */
     @Override
-    public void fuzzyBackProp(imatrix input, imatrix weights, int classes, imatrix output) {
-        for (int h = 0; h < input.getNrOfHyperSlices(); ++h) {
-            for (int r = 0; r < output.getNrOfRows(); ++r) {
-                float sum = 0;
-                int inputRow = r * (classes - 1);
-                for (int c = 0; c < classes - 1; ++c) {
-                    float w = weights.get(inputRow + c, 0, 0, 0);
-                    float i = input.get(inputRow + c, 0, 0, h);
-                    sum += w * i;
+    public void softMax(imatrix m) {
+        int rows = m.getNrOfRows();
+        float[] a = resultArray(m);
+        CpuParallel.forEach(columnCount(m), rows, (start, end) -> {
+            float[] column = a != null ? null : new float[rows];
+            for (int i = start; i < end; ++i) {
+                if (a != null) {
+                    ArrayKernels.softMax(a, i * rows, rows, fastMath);
+                } else {
+                    readColumn(m, i, column);
+                    ArrayKernels.softMax(column, 0, rows, fastMath);
+                    writeColumn(column, m, i);
                 }
-                output.set(r, 0, 0, h, sum);
             }
-        }
+        });
     }
 
+    /**
+     * Applies the softmax function to every column of the logits and
+     * calculates the cross entropy loss and the deltas in one pass over every
+     * column.
+     *
+     * @param m the logits, the softmax of the logits is stored back into this
+     * matrix.
+     * @param y the desired output, with the dimensions of m.
+     * @param loss a matrix with one row that stores the loss per column of m,
+     * or null if the loss is not needed.
+     * @param deltas the matrix to store the deltas in, with the dimensions of
+     * m.
+     */
     @Override
-    public void fuzzyInputAdd(imatrix inputs, imatrix weights, int classes, imatrix deltas) {
-        for (int h = 0; h < inputs.getNrOfHyperSlices(); ++h) {
-            for (int r = 0; r < inputs.getNrOfRows(); ++r) {
-                float iv = inputs.get(r, 0, 0, h);
-                for (int c = 0; c < (classes - 1); ++c) {
-                    int wdIndex = r * (classes - 1) + c;
-                    float current = weights.get(wdIndex, 0);
-                    deltas.set(wdIndex, 0, 0, h, current + iv);
+    public void softMaxCrossEntropy(imatrix m, imatrix y, imatrix loss, imatrix deltas) {
+        if (loss != null && (loss.getNrOfRows() != 1 || loss.getNrOfColumns() != m.getNrOfColumns()
+                || loss.getNrOfSlices() != m.getNrOfSlices() || loss.getNrOfHyperSlices() != m.getNrOfHyperSlices())) {
+            throw new IllegalArgumentException("The loss matrix " + loss.getName() + " needs one row and a cell per column of " + m.getName());
+        }
+        int rows = m.getNrOfRows();
+        float[] a = resultArray(m);
+        float[] ya = elementArray(y, m);
+        float[] d = deltas instanceof fmatrix ? elementArray(deltas, m) : null;
+        float[] l = resultArray(loss);
+        CpuParallel.forEach(columnCount(m), rows, (start, end) -> {
+            float[] column = a != null ? null : new float[rows];
+            float[] yColumn = ya != null ? null : new float[rows];
+            float[] dColumn = d != null ? null : new float[rows];
+            for (int i = start; i < end; ++i) {
+                if (a == null) {
+                    readColumn(m, i, column);
+                }
+                if (ya == null) {
+                    readColumn(y, i, yColumn);
+                }
+                float columnLoss = ArrayKernels.softMaxCrossEntropy(
+                        a != null ? a : column, a != null ? i * rows : 0,
+                        ya != null ? ya : yColumn, ya != null ? i * rows : 0,
+                        d != null ? d : dColumn, d != null ? i * rows : 0,
+                        rows, fastMath);
+                if (a == null) {
+                    writeColumn(column, m, i);
+                }
+                if (d == null) {
+                    writeColumn(dColumn, deltas, i);
+                }
+                if (l != null) {
+                    l[i] = columnLoss;
+                } else if (loss != null) {
+                    int columns = m.getNrOfColumns();
+                    int slices = m.getNrOfSlices();
+                    loss.set(0, i % columns, (i / columns) % slices, i / (columns * slices), columnLoss);
                 }
             }
-        }
+        });
     }
 
     /**
-     * Applies the activation function on the given matrix.
-     *
-     * @param function the function that defines the derived activation
-     * function.
-     * @param m the matrix to apply the activation function to.
+     * Returns the number of columns over all the slices and hyperslices.
      */
-    @Override
-    public void applyActivation(ActivationFunction function, fmatrix m) {
-        m.applyFunction(function.getActivation());
+    private static int columnCount(imatrix m) {
+        return m.getNrOfColumns() * m.getNrOfSlices() * m.getNrOfHyperSlices();
     }
 
     /**
-     * Applies the derived activation function on the give matrix.
-     *
-     * @param function the function that defines the derived activation
-     * function.
-     * @param m the matrix to apply the activation function to.
+     * Copies a column of a matrix into an array, the column index counts the
+     * columns over all the slices and hyperslices.
      */
-    @Override
-    public void applyDerivedActivation(ActivationFunction function, fmatrix m) {
-        m.applyFunction(function.getDerivedActivation());
+    private static void readColumn(imatrix m, int index, float[] column) {
+        int columns = m.getNrOfColumns();
+        int slices = m.getNrOfSlices();
+        int c = index % columns;
+        int s = (index / columns) % slices;
+        int h = index / (columns * slices);
+        for (int r = 0; r < column.length; ++r) {
+            column[r] = m.get(r, c, s, h);
+        }
+    }
+
+    /**
+     * Copies an array into a column of a matrix.
+     */
+    private static void writeColumn(float[] column, imatrix m, int index) {
+        int columns = m.getNrOfColumns();
+        int slices = m.getNrOfSlices();
+        int c = index % columns;
+        int s = (index / columns) % slices;
+        int h = index / (columns * slices);
+        for (int r = 0; r < column.length; ++r) {
+            m.set(r, c, s, h, column[r]);
+        }
     }
 
     /**
@@ -634,6 +1660,16 @@ public class FMatrixOpCpu implements FMatrixOp {
      */
     @Override
     public void sigmoid(imatrix O) {
+        float[] a = resultArray(O);
+        if (a != null) {
+            if (fastMath) {
+                ActivationKernel kernel = ActivationKernels.get(ActivationFunction.SIGMOID, true);
+                CpuParallel.forEach(cellCount(O), 4, (start, end) -> kernel.activate(a, 0, start, end));
+            } else {
+                CpuParallel.forEach(cellCount(O), 4, (start, end) -> ArrayKernels.sigmoid(a, start, end));
+            }
+            return;
+        }
         O.applyFunction(x -> 1 / (1 + (float) Math.exp(-x)));
     }
 
@@ -658,17 +1694,27 @@ public class FMatrixOpCpu implements FMatrixOp {
      */
     @Override
     public imatrix dotadd(imatrix result, imatrix op1, imatrix op2) {
-        for (int h = 0; h < result.getNrOfHyperSlices(); ++h) {
-            for (int slice = 0; slice < result.getNrOfSlices(); ++slice) {
+        float[] r = resultArray(result);
+        float[] a = elementArray(op1, result);
+        float[] b = elementArray(op2, result);
+        if (r != null && a != null && b != null) {
+            CpuParallel.forEach(cellCount(result), 1, (start, end) -> ArrayKernels.add(a, b, r, start, end));
+            return result;
+        }
+        int slices = result.getNrOfSlices();
+        CpuParallel.forEach(result.getNrOfHyperSlices() * slices, result.getSliceSize(), (start, end) -> {
+            for (int i = start; i < end; ++i) {
+                int h = i / slices;
+                int slice = i % slices;
                 for (int row = 0; row < result.getNrOfRows(); ++row) {
                     for (int column = 0; column < result.getNrOfColumns(); ++column) {
                         float op1value = op1.get(row, column, slice, h);
                         float op2value = op2.get(row, column, slice, h);
-                        result.set(row, column, slice, op1value + op2value);
+                        result.set(row, column, slice, h, op1value + op2value);
                     }
                 }
             }
-        }
+        });
         return result;
     }
 
@@ -685,17 +1731,27 @@ public class FMatrixOpCpu implements FMatrixOp {
      */
     @Override
     public imatrix dotadd(imatrix result, float factor1, imatrix op1, float factor2, imatrix op2) {
-        for (int h = 0; h < result.getNrOfHyperSlices(); ++h) {
-            for (int slice = 0; slice < result.getNrOfSlices(); ++slice) {
+        float[] r = resultArray(result);
+        float[] a = elementArray(op1, result);
+        float[] b = elementArray(op2, result);
+        if (r != null && a != null && b != null) {
+            CpuParallel.forEach(cellCount(result), 1, (start, end) -> ArrayKernels.linear(factor1, a, factor2, b, r, start, end));
+            return result;
+        }
+        int slices = result.getNrOfSlices();
+        CpuParallel.forEach(result.getNrOfHyperSlices() * slices, result.getSliceSize(), (start, end) -> {
+            for (int i = start; i < end; ++i) {
+                int h = i / slices;
+                int slice = i % slices;
                 for (int row = 0; row < result.getNrOfRows(); ++row) {
                     for (int column = 0; column < result.getNrOfColumns(); ++column) {
                         float op1value = op1.get(row, column, slice, h);
                         float op2value = op2.get(row, column, slice, h);
-                        result.set(row, column, slice, factor1 * op1value + factor2 * op2value);
+                        result.set(row, column, slice, h, factor1 * op1value + factor2 * op2value);
                     }
                 }
             }
-        }
+        });
         return result;
     }
 
@@ -708,6 +1764,26 @@ public class FMatrixOpCpu implements FMatrixOp {
      */
     @Override
     public void sumPerRow(imatrix input, imatrix output) {
+        float[] in = hasContiguousHostData(input) && !input.isTransposed() ? hostArray(input) : null;
+        if (in != null) {
+            // visit the hyperslices in memory order, the order of the additions per row is unchanged.
+            int rows = input.getNrOfRows();
+            int hyperSliceSize = input.getHyperSliceSize();
+            Workspace workspace = Workspace.get();
+            float[] sums = workspace.borrowFloats(rows);
+            Arrays.fill(sums, 0, rows, 0);
+            for (int h = 0; h < input.getNrOfHyperSlices(); ++h) {
+                int offset = h * hyperSliceSize;
+                for (int r = 0; r < rows; ++r) {
+                    sums[r] += in[offset + r];
+                }
+            }
+            for (int r = 0; r < rows; ++r) {
+                output.set(r, 0, sums[r]);
+            }
+            workspace.giveBack(sums);
+            return;
+        }
         for (int r = 0; r < input.getNrOfRows(); ++r) {
             float sum = 0f;
             for (int h = 0; h < input.getNrOfHyperSlices(); ++h) {
@@ -727,17 +1803,27 @@ public class FMatrixOpCpu implements FMatrixOp {
      */
     @Override
     public imatrix dotsubtract(imatrix result, imatrix op1, imatrix op2) {
-        for (int h = 0; h < result.getNrOfHyperSlices(); ++h) {
-            for (int slice = 0; slice < result.getNrOfSlices(); ++slice) {
+        float[] r = resultArray(result);
+        float[] a = elementArray(op1, result);
+        float[] b = elementArray(op2, result);
+        if (r != null && a != null && b != null) {
+            CpuParallel.forEach(cellCount(result), 1, (start, end) -> ArrayKernels.subtract(a, b, r, start, end));
+            return result;
+        }
+        int slices = result.getNrOfSlices();
+        CpuParallel.forEach(result.getNrOfHyperSlices() * slices, result.getSliceSize(), (start, end) -> {
+            for (int i = start; i < end; ++i) {
+                int h = i / slices;
+                int slice = i % slices;
                 for (int row = 0; row < result.getNrOfRows(); ++row) {
                     for (int column = 0; column < result.getNrOfColumns(); ++column) {
                         float op1value = op1.get(row, column, slice, h);
                         float op2value = op2.get(row, column, slice, h);
-                        result.set(row, column, slice, op1value - op2value);
+                        result.set(row, column, slice, h, op1value - op2value);
                     }
                 }
             }
-        }
+        });
         return result;
     }
 
@@ -751,8 +1837,18 @@ public class FMatrixOpCpu implements FMatrixOp {
      */
     @Override
     public imatrix dotmultiply(imatrix result, imatrix op1, imatrix op2) {
-        for (int hyperslice = 0; hyperslice < result.getNrOfHyperSlices(); ++hyperslice) {
-            for (int slice = 0; slice < result.getNrOfSlices(); ++slice) {
+        float[] r = resultArray(result);
+        float[] a = elementArray(op1, result);
+        float[] b = elementArray(op2, result);
+        if (r != null && a != null && b != null) {
+            CpuParallel.forEach(cellCount(result), 1, (start, end) -> ArrayKernels.multiply(a, b, r, start, end));
+            return result;
+        }
+        int slices = result.getNrOfSlices();
+        CpuParallel.forEach(result.getNrOfHyperSlices() * slices, result.getSliceSize(), (start, end) -> {
+            for (int i = start; i < end; ++i) {
+                int hyperslice = i / slices;
+                int slice = i % slices;
                 for (int row = 0; row < result.getNrOfRows(); ++row) {
                     for (int column = 0; column < result.getNrOfColumns(); ++column) {
                         float op1value = op1.get(row, column, slice, hyperslice);
@@ -761,7 +1857,7 @@ public class FMatrixOpCpu implements FMatrixOp {
                     }
                 }
             }
-        }
+        });
 
         return result;
     }
@@ -776,8 +1872,17 @@ public class FMatrixOpCpu implements FMatrixOp {
      */
     @Override
     public imatrix dotmultiply(imatrix result, imatrix op1, float factor) {
-        for (int hyperslice = 0; hyperslice < result.getNrOfHyperSlices(); ++hyperslice) {
-            for (int slice = 0; slice < result.getNrOfSlices(); ++slice) {
+        float[] r = resultArray(result);
+        float[] a = elementArray(op1, result);
+        if (r != null && a != null) {
+            CpuParallel.forEach(cellCount(result), 1, (start, end) -> ArrayKernels.scale(a, factor, r, start, end));
+            return result;
+        }
+        int slices = result.getNrOfSlices();
+        CpuParallel.forEach(result.getNrOfHyperSlices() * slices, result.getSliceSize(), (start, end) -> {
+            for (int i = start; i < end; ++i) {
+                int hyperslice = i / slices;
+                int slice = i % slices;
                 for (int row = 0; row < result.getNrOfRows(); ++row) {
                     for (int column = 0; column < result.getNrOfColumns(); ++column) {
                         float op1value = op1.get(row, column, slice, hyperslice);
@@ -785,7 +1890,7 @@ public class FMatrixOpCpu implements FMatrixOp {
                     }
                 }
             }
-        }
+        });
         return result;
     }
 
@@ -815,8 +1920,19 @@ public class FMatrixOpCpu implements FMatrixOp {
      */
     @Override
     public imatrix adamVelocity(imatrix result, float beta2, imatrix previousVelocity, imatrix gradient) {
-        for (int hyperslice = 0; hyperslice < result.getNrOfHyperSlices(); ++hyperslice) {
-            for (int slice = 0; slice < result.getNrOfSlices(); ++slice) {
+        float[] r = resultArray(result);
+        float[] velocities = elementArray(previousVelocity, result);
+        float[] gradients = elementArray(gradient, result);
+        if (r != null && velocities != null && gradients != null) {
+            CpuParallel.forEach(cellCount(result), 1, (start, end)
+                    -> ArrayKernels.adamVelocity(beta2, velocities, gradients, r, start, end));
+            return result;
+        }
+        int slices = result.getNrOfSlices();
+        CpuParallel.forEach(result.getNrOfHyperSlices() * slices, result.getSliceSize(), (start, end) -> {
+            for (int i = start; i < end; ++i) {
+                int hyperslice = i / slices;
+                int slice = i % slices;
                 for (int row = 0; row < result.getNrOfRows(); ++row) {
                     for (int column = 0; column < result.getNrOfColumns(); ++column) {
                         float v = previousVelocity.get(row, column, slice, hyperslice);
@@ -825,7 +1941,7 @@ public class FMatrixOpCpu implements FMatrixOp {
                     }
                 }
             }
-        }
+        });
 
         return result;
     }
@@ -847,9 +1963,20 @@ public class FMatrixOpCpu implements FMatrixOp {
     public imatrix adamAdaptWeights(imatrix weights, float eta, float beta1, float beta2, float epsilon, imatrix moment, imatrix velocity) {
         float invOneMinusBeta1 = 1 / (1 - beta1);
         float invOneMinusBeta2 = 1 / (1 - beta2);
+        float[] ws = resultArray(weights);
+        float[] ms = elementArray(moment, weights);
+        float[] vs = elementArray(velocity, weights);
+        if (ws != null && ms != null && vs != null) {
+            CpuParallel.forEach(cellCount(weights), 4, (start, end)
+                    -> ArrayKernels.adamUpdate(ws, ms, vs, eta, invOneMinusBeta1, invOneMinusBeta2, epsilon, start, end));
+            return weights;
+        }
 
-        for (int hyperslice = 0; hyperslice < weights.getNrOfHyperSlices(); ++hyperslice) {
-            for (int slice = 0; slice < weights.getNrOfSlices(); ++slice) {
+        int slices = weights.getNrOfSlices();
+        CpuParallel.forEach(weights.getNrOfHyperSlices() * slices, weights.getSliceSize(), (start, end) -> {
+            for (int i = start; i < end; ++i) {
+                int hyperslice = i / slices;
+                int slice = i % slices;
                 for (int row = 0; row < weights.getNrOfRows(); ++row) {
                     for (int column = 0; column < weights.getNrOfColumns(); ++column) {
                         float v = velocity.get(row, column, slice, hyperslice);
@@ -860,10 +1987,176 @@ public class FMatrixOpCpu implements FMatrixOp {
                     }
                 }
             }
-        }
+        });
         return weights;
     }
 
+    /**
+     * Executes one step of the adam algorithm in a single pass over a list of
+     * weight matrices. All the segments are processed in one parallel loop.
+     *
+     * @param weights the weight segments.
+     * @param gradients the gradient per segment.
+     * @param moments the moment per segment.
+     * @param velocities the velocity per segment.
+     * @param eta the learning rate.
+     * @param beta1 the decay of the moment.
+     * @param beta2 the decay of the velocity.
+     * @param beta1Corr the bias correction of the moment.
+     * @param beta2Corr the bias correction of the velocity.
+     * @param epsilon the epsilon value.
+     * @param weightDecay the decoupled weight decay (adamw), 0 for adam.
+     */
+    @Override
+    public void adamStep(imatrix[] weights, imatrix[] gradients, imatrix[] moments, imatrix[] velocities,
+            float eta, float beta1, float beta2, float beta1Corr, float beta2Corr, float epsilon, float weightDecay) {
+        float invOneMinusBeta1 = 1 / (1 - beta1Corr);
+        float invOneMinusBeta2 = 1 / (1 - beta2Corr);
+        forEachSegment(weights, (segment, from, to) -> {
+            imatrix w = weights[segment];
+            imatrix g = gradients[segment];
+            imatrix m = moments[segment];
+            imatrix v = velocities[segment];
+            float[] ws = resultArray(w);
+            float[] gs = elementArray(g, w);
+            float[] ms = m instanceof fmatrix ? elementArray(m, w) : null;
+            float[] vs = v instanceof fmatrix ? elementArray(v, w) : null;
+            if (ws != null && gs != null && ms != null && vs != null) {
+                ArrayKernels.adamStep(ws, gs, ms, vs, eta, beta1, beta2, invOneMinusBeta1, invOneMinusBeta2, epsilon, weightDecay, from, to);
+                return;
+            }
+            int rows = w.getNrOfRows();
+            int sliceSize = rows * w.getNrOfColumns();
+            int slices = w.getNrOfSlices();
+            for (int i = from; i < to; ++i) {
+                int r = i % rows;
+                int c = (i % sliceSize) / rows;
+                int sl = (i / sliceSize) % slices;
+                int h = i / (sliceSize * slices);
+                float gi = g.get(r, c, sl, h);
+                float mi = beta1 * m.get(r, c, sl, h) + (1 - beta1) * gi;
+                float vi = beta2 * v.get(r, c, sl, h) + (1 - beta2) * gi * gi;
+                float wi = w.get(r, c, sl, h);
+                m.set(r, c, sl, h, mi);
+                v.set(r, c, sl, h, vi);
+                w.set(r, c, sl, h, wi + eta * (mi * invOneMinusBeta1 / ((float) Math.sqrt(vi * invOneMinusBeta2) + epsilon) - weightDecay * wi));
+            }
+        });
+    }
+
+    /**
+     * Executes one step of gradient descent with momentum in a single pass
+     * over a list of weight matrices.
+     *
+     * @param weights the weight segments.
+     * @param gradients the gradient per segment.
+     * @param velocities the velocity per segment.
+     * @param eta the learning rate.
+     * @param momentum the momentum.
+     */
+    @Override
+    public void momentumStep(imatrix[] weights, imatrix[] gradients, imatrix[] velocities, float eta, float momentum) {
+        forEachSegment(weights, (segment, from, to) -> {
+            imatrix w = weights[segment];
+            imatrix g = gradients[segment];
+            imatrix v = velocities[segment];
+            float[] ws = resultArray(w);
+            float[] gs = elementArray(g, w);
+            float[] vs = v instanceof fmatrix ? elementArray(v, w) : null;
+            if (ws != null && gs != null && vs != null) {
+                ArrayKernels.momentumStep(ws, gs, vs, eta, momentum, from, to);
+                return;
+            }
+            int rows = w.getNrOfRows();
+            int sliceSize = rows * w.getNrOfColumns();
+            int slices = w.getNrOfSlices();
+            for (int i = from; i < to; ++i) {
+                int r = i % rows;
+                int c = (i % sliceSize) / rows;
+                int sl = (i / sliceSize) % slices;
+                int h = i / (sliceSize * slices);
+                float vi = momentum * v.get(r, c, sl, h) + g.get(r, c, sl, h);
+                v.set(r, c, sl, h, vi);
+                w.set(r, c, sl, h, w.get(r, c, sl, h) + eta * vi);
+            }
+        });
+    }
+
+    /**
+     * Executes one step of the rmsprop algorithm in a single pass over a list
+     * of weight matrices.
+     *
+     * @param weights the weight segments.
+     * @param gradients the gradient per segment.
+     * @param meanSquares the running mean of the squared gradient per segment.
+     * @param eta the learning rate.
+     * @param decay the decay of the mean square.
+     * @param epsilon the epsilon value.
+     */
+    @Override
+    public void rmsPropStep(imatrix[] weights, imatrix[] gradients, imatrix[] meanSquares, float eta, float decay, float epsilon) {
+        forEachSegment(weights, (segment, from, to) -> {
+            imatrix w = weights[segment];
+            imatrix g = gradients[segment];
+            imatrix ms = meanSquares[segment];
+            float[] wa = resultArray(w);
+            float[] ga = elementArray(g, w);
+            float[] sa = ms instanceof fmatrix ? elementArray(ms, w) : null;
+            if (wa != null && ga != null && sa != null) {
+                ArrayKernels.rmsPropStep(wa, ga, sa, eta, decay, epsilon, from, to);
+                return;
+            }
+            int rows = w.getNrOfRows();
+            int sliceSize = rows * w.getNrOfColumns();
+            int slices = w.getNrOfSlices();
+            for (int i = from; i < to; ++i) {
+                int r = i % rows;
+                int c = (i % sliceSize) / rows;
+                int sl = (i / sliceSize) % slices;
+                int h = i / (sliceSize * slices);
+                float gi = g.get(r, c, sl, h);
+                float si = decay * ms.get(r, c, sl, h) + (1 - decay) * gi * gi;
+                ms.set(r, c, sl, h, si);
+                w.set(r, c, sl, h, w.get(r, c, sl, h) + eta * gi / ((float) Math.sqrt(si) + epsilon));
+            }
+        });
+    }
+
+    /**
+     * The body of a loop over a range of cells of one segment.
+     */
+    private interface SegmentRange {
+
+        void run(int segment, int from, int to);
+    }
+
+    /**
+     * Runs the body for all the cells of all the segments in one parallel
+     * loop. The segments are laid out one after the other, a range of the loop
+     * can cover the end of one segment and the start of the next.
+     *
+     * @param segments the segments.
+     * @param body the body of the loop, the cell range is relative to the
+     * start of the segment.
+     */
+    private static void forEachSegment(imatrix[] segments, SegmentRange body) {
+        int[] offsets = new int[segments.length + 1];
+        for (int i = 0; i < segments.length; ++i) {
+            offsets[i + 1] = offsets[i] + cellCount(segments[i]);
+        }
+        CpuParallel.forEach(offsets[segments.length], 4, (start, end) -> {
+            int segment = Arrays.binarySearch(offsets, start);
+            segment = segment >= 0 ? segment : -segment - 2;
+            for (; segment < segments.length && offsets[segment] < end; ++segment) {
+                int from = Math.max(start, offsets[segment]) - offsets[segment];
+                int to = Math.min(end, offsets[segment + 1]) - offsets[segment];
+                if (from < to) {
+                    body.run(segment, from, to);
+                }
+            }
+        });
+    }
+
     /**
      * Rotates a kernel. The start angle indicates the angle of the first slice.
      *
@@ -875,64 +2168,24 @@ public class FMatrixOpCpu implements FMatrixOp {
      */
     @Override
     public void rotateKernels(imatrix filter, int nrOfRotations, float minAngle, float maxAngle, imatrix output) {
-        fmatrix sincos = new fmatrix(2, nrOfRotations);
-        float angleStep = (maxAngle - minAngle) / (nrOfRotations - 1);
-        float angle = minAngle;
-        for (int i = 0; i < nrOfRotations; ++i) {
-            float s = (float) Math.sin(angle);
-            float c = (float) Math.cos(angle);
-            sincos.set(0, i, s);
-            sincos.set(1, i, c);
-            angle += angleStep;
-        }
-
-        float2 mask = new float2();
-
-        for (int oSlice = 0; oSlice < output.getNrOfSlices(); ++oSlice) {
-            int rot = oSlice % nrOfRotations;
-            int baseSlice = oSlice / nrOfRotations;
-
-            float sa = (float) sincos.get(0, rot);
-            float ca = (float) sincos.get(1, rot);
-            float rcx = filter.getNrOfColumns() / 2.0f;
-            float rcy = filter.getNrOfRows() / 2.0f;
-
-            for (int x = 0; x < filter.getNrOfColumns(); ++x) {
-                for (int y = 0; y < filter.getNrOfRows(); ++y) {
-                    float rx = x - rcx;
-                    float ry = y - rcy;
-
-                    float ox = rcx + rx * ca - ry * sa;
-                    float oy = rcy + rx * sa + ry * ca;
-
-                    float xPerc = Math.abs(ox % 1);
-                    float yPerc = Math.abs(oy % 1);
-                    int startx = (int) ox;
-                    int starty = (int) oy;
-
-                    getKernelValue(filter, startx, starty, baseSlice, mask);
-                    float i1 = mask.x;
-                    float m1 = mask.y;
-                    getKernelValue(filter, startx, starty + 1, baseSlice, mask);
-                    float i2 = mask.x;
-                    float m2 = mask.y;
-                    getKernelValue(filter, startx + 1, starty, baseSlice, mask);
-                    float i3 = mask.x;
-                    float m3 = mask.y;
-                    getKernelValue(filter, startx + 1, starty + 1, baseSlice, mask);
-                    float i4 = mask.x;
-                    float m4 = mask.y;
-
-                    float a1 = (1 - xPerc) * (1 - yPerc);
-                    float a2 = (1 - xPerc) * (yPerc);
-                    float a3 = xPerc * (1 - yPerc);
-                    float a4 = xPerc * yPerc;
-
-                    float norm = a1 * m1 + a2 * m2 + a3 * m3 + a4 * m4;
-                    float value = a1 * i1 + a2 * i2 + a3 * i3 + a4 * i4;
-                    output.set(x, y, oSlice, Math.abs(norm) < 0.00001f ? value : value / norm);
-                }
+        RotationTable table = getRotationTable(rotationTables, filter, nrOfRotations, minAngle, maxAngle, false);
+        int cells = filter.getSliceSize();
+        float[] in = rotationArray(filter);
+        float[] out = rotationArray(output);
+        Workspace workspace = Workspace.get();
+        float[] src = in != null ? in : copyKernels(filter, workspace);
+        float[] dst = out != null ? out : workspace.borrowFloats(cells * output.getNrOfSlices());
+        CpuParallel.forEach(output.getNrOfSlices(), 4 * cells, (start, end) -> {
+            for (int oSlice = start; oSlice < end; ++oSlice) {
+                table.rotate(src, (oSlice / nrOfRotations) * cells, oSlice % nrOfRotations, dst, oSlice * cells);
             }
+        });
+        if (in == null) {
+            workspace.giveBack(src);
+        }
+        if (out == null) {
+            writeKernels(dst, output);
+            workspace.giveBack(dst);
         }
     }
 
@@ -948,67 +2201,87 @@ public class FMatrixOpCpu implements FMatrixOp {
      */
     @Override
     public void accumulateRotateKernels(imatrix rotatedOutput, int nrOfRotations, float minAngle, float maxAngle, imatrix kernelOutput) {
-        fmatrix sincos = new fmatrix(2, nrOfRotations);
-        float angleStep = (maxAngle - minAngle) / (nrOfRotations - 1);
-        float angle = minAngle;
-        for (int i = 0; i < nrOfRotations; ++i) {
-            float s = (float) Math.sin(-angle);
-            float c = (float) Math.cos(-angle);
-            sincos.set(0, i, s);
-            sincos.set(1, i, c);
-            angle += angleStep;
+        RotationTable table = getRotationTable(inverseRotationTables, kernelOutput, nrOfRotations, minAngle, maxAngle, true);
+        int cells = kernelOutput.getSliceSize();
+        float[] in = rotationArray(rotatedOutput);
+        float[] out = rotationArray(kernelOutput);
+        Workspace workspace = Workspace.get();
+        float[] src = in != null ? in : copyKernels(rotatedOutput, workspace);
+        float[] dst = out != null ? out : workspace.borrowFloats(cells * kernelOutput.getNrOfSlices());
+        CpuParallel.forEach(kernelOutput.getNrOfSlices(), 4 * cells * nrOfRotations, (start, end) -> {
+            for (int oSlice = start; oSlice < end; ++oSlice) {
+                table.accumulate(src, oSlice * nrOfRotations * cells, dst, oSlice * cells);
+            }
+        });
+        if (in == null) {
+            workspace.giveBack(src);
         }
+        if (out == null) {
+            writeKernels(dst, kernelOutput);
+            workspace.giveBack(dst);
+        }
+    }
 
-        float2 mask = new float2();
+    /**
+     * Returns the interpolation table of a kernel rotation. The table is cached
+     * per kernel matrix, so the table of a layer is only calculated again when
+     * the size of the kernels, the number of rotations or the angles change.
+     */
+    private static RotationTable getRotationTable(WeakIdentityCache<imatrix, RotationTable> cache, imatrix kernels,
+            int nrOfRotations, float minAngle, float maxAngle, boolean inverse) {
+        int rows = kernels.getNrOfRows();
+        int columns = kernels.getNrOfColumns();
+        synchronized (cache) {
+            RotationTable table = cache.get(kernels);
+            if (table == null || !table.isValid(rows, columns, nrOfRotations, minAngle, maxAngle)) {
+                table = new RotationTable(rows, columns, nrOfRotations, minAngle, maxAngle, inverse);
+                cache.put(kernels, table);
+            }
+            return table;
+        }
+    }
 
-        for (int oSlice = 0; oSlice < kernelOutput.getNrOfSlices(); ++oSlice) {
+    /**
+     * Returns the host array of the kernels of a rotation.
+     *
+     * @param m the kernels.
+     * @return the host array or null if the cells must be accessed one by one.
+     */
+    private float[] rotationArray(imatrix m) {
+        return hasContiguousHostData(m) && !m.isTransposed() ? hostArray(m) : null;
+    }
 
-            float rcx = kernelOutput.getNrOfRows() / 2.0f;
-            float rcy = kernelOutput.getNrOfColumns() / 2.0f;
+    /**
+     * Copies the slices of the first hyperslice of a matrix into a borrowed
+     * array.
+     */
+    private static float[] copyKernels(imatrix m, Workspace workspace) {
+        int rows = m.getNrOfRows();
+        int columns = m.getNrOfColumns();
+        float[] copy = workspace.borrowFloats(m.getSliceSize() * m.getNrOfSlices());
+        int i = 0;
+        for (int s = 0; s < m.getNrOfSlices(); ++s) {
+            for (int c = 0; c < columns; ++c) {
+                for (int r = 0; r < rows; ++r) {
+                    copy[i++] = m.get(r, c, s);
+                }
+            }
+        }
+        return copy;
+    }
 
-            for (int x = 0; x < kernelOutput.getNrOfRows(); ++x) {
-                for (int y = 0; y < kernelOutput.getNrOfColumns(); ++y) {
-                    float sum = 0;
-                    for (int rot = 0; rot < nrOfRotations; ++rot) {
-                        int inputSlice = oSlice * nrOfRotations + rot;
-
-                        float sa = (float) sincos.get(0, rot);
-                        float ca = (float) sincos.get(1, rot);
-                        float rx = x - rcx;
-                        float ry = y - rcy;
-
-                        float ox = rcx + rx * ca - ry * sa;
-                        float oy = rcy + rx * sa + ry * ca;
-
-                        float xPerc = Math.abs(ox % 1);
-                        float yPerc = Math.abs(oy % 1);
-                        int startx = (int) ox;
-                        int starty = (int) oy;
-
-                        getKernelValue(rotatedOutput, startx, starty, inputSlice, mask);
-                        float i1 = mask.x;
-                        float m1 = mask.y;
-                        getKernelValue(rotatedOutput, startx, starty + 1, inputSlice, mask);
-                        float i2 = mask.x;
-                        float m2 = mask.y;
-                        getKernelValue(rotatedOutput, startx + 1, starty, inputSlice, mask);
-                        float i3 = mask.x;
-                        float m3 = mask.y;
-                        getKernelValue(rotatedOutput, startx + 1, starty + 1, inputSlice, mask);
-                        float i4 = mask.x;
-                        float m4 = mask.y;
-
-                        float a1 = (1 - xPerc) * (1 - yPerc);
-                        float a2 = (1 - xPerc) * (yPerc);
-                        float a3 = xPerc * (1 - yPerc);
-                        float a4 = xPerc * yPerc;
-
-                        float norm = a1 * m1 + a2 * m2 + a3 * m3 + a4 * m4;
-                        float value = a1 * i1 + a2 * i2 + a3 * i3 + a4 * i4;
-
-                        sum += Math.abs(norm) < 0.00001f ? value : value / norm;
-                    }
-                    kernelOutput.set(x, y, oSlice, sum / nrOfRotations);
+    /**
+     * Writes an array with the slices of the first hyperslice of a matrix back
+     * into the matrix.
+     */
+    private static void writeKernels(float[] kernels, imatrix m) {
+        int rows = m.getNrOfRows();
+        int columns = m.getNrOfColumns();
+        int i = 0;
+        for (int s = 0; s < m.getNrOfSlices(); ++s) {
+            for (int c = 0; c < columns; ++c) {
+                for (int r = 0; r < rows; ++r) {
+                    m.set(r, c, s, kernels[i++]);
                 }
             }
         }
@@ -1031,30 +2304,32 @@ public class FMatrixOpCpu implements FMatrixOp {
     ) {
         int spf = output.getNrOfSlices() / nrOfFeatures;
         float angleStep = (maxAngle - minAngle) / (nrOfRotations - 1);
-        for (int h = 0; h < output.getNrOfHyperSlices(); ++h) {
-            for (int s = 0; s < output.getNrOfSlices(); s += 1) {
-
-                int subSlice = s % spf;
-                int feature = s / spf;
-
-                int inputSliceBase = feature * spf * nrOfRotations;
-                for (int x = 0; x < output.getNrOfColumns(); ++x) {
-                    for (int y = 0; y < output.getNrOfRows(); ++y) {
-                        float max = -Float.MAX_VALUE;
-                        float rot = 0;
-                        for (int r = 0; r < nrOfRotations; ++r) {
-                            float value = input.get(y, x, inputSliceBase + r * spf + subSlice, h);
-                            if (value > max) {
-                                max = value;
-                                rot = r * angleStep;
+        CpuParallel.forEach(output.getNrOfHyperSlices(), output.getSliceSize() * output.getNrOfSlices() * nrOfRotations, (start, end) -> {
+            for (int h = start; h < end; ++h) {
+                for (int s = 0; s < output.getNrOfSlices(); s += 1) {
+
+                    int subSlice = s % spf;
+                    int feature = s / spf;
+
+                    int inputSliceBase = feature * spf * nrOfRotations;
+                    for (int x = 0; x < output.getNrOfColumns(); ++x) {
+                        for (int y = 0; y < output.getNrOfRows(); ++y) {
+                            float max = -Float.MAX_VALUE;
+                            float rot = 0;
+                            for (int r = 0; r < nrOfRotations; ++r) {
+                                float value = input.get(y, x, inputSliceBase + r * spf + subSlice, h);
+                                if (value > max) {
+                                    max = value;
+                                    rot = r * angleStep;
+                                }
                             }
+                            rotOutput.set(y, x, s, h, rot);
+                            output.set(y, x, s, h, max);
                         }
-                        rotOutput.set(y, x, s, h, rot);
-                        output.set(y, x, s, h, max);
                     }
                 }
             }
-        }
+        });
     }
 
     /**
@@ -1075,35 +2350,27 @@ public class FMatrixOpCpu implements FMatrixOp {
     ) {
         int spf = valInput.getNrOfSlices() / nrOfFeatures;
         float angleStep = (maxAngle - minAngle) / (nrOfRotations - 1);
-        for (int h = 0; h < valInput.getNrOfHyperSlices(); ++h) {
-            for (int s = 0; s < valInput.getNrOfSlices(); s += 1) {
-                int subSlice = s % spf;
-                int feature = s / spf;
-
-                int inputSliceBase = feature * spf * nrOfRotations;
-                for (int x = 0; x < valInput.getNrOfColumns(); ++x) {
-                    for (int y = 0; y < valInput.getNrOfRows(); ++y) {
-
-                        float rotValue = rotInput.get(y, x, s, h);
-                        float value = valInput.get(y, x, s, h);
-
-                        int rotIndex = Math.round(rotValue / angleStep);
-                        int slice = inputSliceBase + rotIndex * spf + subSlice;
-                        output.set(y, x, slice, h, value);
+        CpuParallel.forEach(valInput.getNrOfHyperSlices(), valInput.getHyperSliceSize(), (start, end) -> {
+            for (int h = start; h < end; ++h) {
+                for (int s = 0; s < valInput.getNrOfSlices(); s += 1) {
+                    int subSlice = s % spf;
+                    int feature = s / spf;
+
+                    int inputSliceBase = feature * spf * nrOfRotations;
+                    for (int x = 0; x < valInput.getNrOfColumns(); ++x) {
+                        for (int y = 0; y < valInput.getNrOfRows(); ++y) {
+
+                            float rotValue = rotInput.get(y, x, s, h);
+                            float value = valInput.get(y, x, s, h);
+
+                            int rotIndex = Math.round(rotValue / angleStep);
+                            int slice = inputSliceBase + rotIndex * spf + subSlice;
+                            output.set(y, x, slice, h, value);
+                        }
                     }
                 }
             }
-        }
-    }
-
-    private void getKernelValue(imatrix filter, int x, int y, int slice, float2 result) {
-        if (x >= 0 && y >= 0 && x < filter.getNrOfRows() && y < filter.getNrOfColumns()) {
-            result.x = filter.get(x, y, slice);
-            result.y = 1;
-        } else {
-            result.x = 0;
-            result.y = 0;
-        }
+        });
     }
 
     /**
@@ -1120,9 +2387,14 @@ public class FMatrixOpCpu implements FMatrixOp {
      */
     @Override
     public void forwardPancake(imatrix input, int slicesPerGroup, imatrix weights, imatrix bias, imatrix output) {
-
-        for (int h = 0; h < output.getNrOfHyperSlices(); ++h) {
-            for (int s = 0; s < output.getNrOfSlices(); ++s) {
+        if (forwardPancakeStrided(input, slicesPerGroup, weights, bias, output)) {
+            return;
+        }
+        int slices = output.getNrOfSlices();
+        CpuParallel.forEach(output.getNrOfHyperSlices() * slices, output.getSliceSize() * slicesPerGroup, (start, end) -> {
+            for (int i = start; i < end; ++i) {
+                int h = i / slices;
+                int s = i % slices;
                 int baseInputSlice = s * slicesPerGroup;
 
                 for (int c = 0; c < output.getNrOfColumns(); ++c) {
@@ -1141,7 +2413,66 @@ public class FMatrixOpCpu implements FMatrixOp {
                     }
                 }
             }
+        });
+    }
+
+    /**
+     * Runs the pancake forward pass on the host arrays of the strided views of
+     * the operands. The slices of a group are visited with the slice stride of
+     * the views, which is 1 for an interleaved matrix.
+     *
+     * @return false if one of the operands has no array backed strided view
+     * with the dimensions of the output.
+     */
+    private boolean forwardPancakeStrided(imatrix input, int slicesPerGroup, imatrix weights, imatrix bias, imatrix output) {
+        StridedView iv = input.getStridedView();
+        StridedView wv = weights.getStridedView();
+        StridedView bv = bias.getStridedView();
+        StridedView ov = output.getStridedView();
+        if (iv == null || wv == null || bv == null || ov == null
+                || !iv.hasArray() || !wv.hasArray() || !bv.hasArray() || !ov.hasArray()) {
+            return false;
+        }
+        int rows = output.getNrOfRows();
+        int columns = output.getNrOfColumns();
+        int slices = output.getNrOfSlices();
+        if (iv.getNrOfRows() != rows || iv.getNrOfColumns() != columns
+                || wv.getNrOfRows() != rows || wv.getNrOfColumns() != columns
+                || bv.getNrOfRows() != rows || bv.getNrOfColumns() != columns
+                || iv.getNrOfSlices() < slices * slicesPerGroup || wv.getNrOfSlices() < slices * slicesPerGroup
+                || bv.getNrOfSlices() < slices || iv.getNrOfHyperSlices() < output.getNrOfHyperSlices()) {
+            return false;
         }
+        float[] ia = iv.getArray();
+        float[] wa = wv.getArray();
+        float[] ba = bv.getArray();
+        float[] oa = ov.getArray();
+        int io = iv.getArrayOffset();
+        int wo = wv.getArrayOffset();
+        int bo = bv.getArrayOffset();
+        int oo = ov.getArrayOffset();
+        int iss = iv.getSliceStride();
+        int wss = wv.getSliceStride();
+        CpuParallel.forEach(output.getNrOfHyperSlices() * slices, output.getSliceSize() * slicesPerGroup, (start, end) -> {
+            for (int i = start; i < end; ++i) {
+                int h = i / slices;
+                int s = i % slices;
+                int baseInputSlice = s * slicesPerGroup;
+                for (int c = 0; c < columns; ++c) {
+                    for (int r = 0; r < rows; ++r) {
+                        int ii = io + iv.index(r, c, baseInputSlice, h);
+                        int wi = wo + wv.index(r, c, baseInputSlice, 0);
+                        float sum = 0;
+                        for (int sg = 0; sg < slicesPerGroup; ++sg) {
+                            sum += ia[ii + sg * iss] * wa[wi + sg * wss];
+                        }
+                        sum += ba[bo + bv.index(r, c, s, 0)];
+                        oa[oo + ov.index(r, c, s, h)] = sum;
+                    }
+                }
+            }
+        });
+        return true;
     }
 
     /**
@@ -1157,28 +2488,30 @@ public class FMatrixOpCpu implements FMatrixOp {
      */
     @Override
     public void deltasPancake(imatrix input, imatrix deltas, int slicesPerGroup, imatrix weightDeltasBatch, imatrix biasDeltasBatch) {
-        for (int h = 0; h < weightDeltasBatch.getNrOfHyperSlices(); ++h) {
-            for (int s = 0; s < weightDeltasBatch.getNrOfSlices(); ++s) {
-                int oSlice = s / slicesPerGroup;
-                // weight batch update.
-                for (int r = 0; r < weightDeltasBatch.getNrOfRows(); ++r) {
-                    for (int c = 0; c < weightDeltasBatch.getNrOfColumns(); ++c) {
-                        float i = input.get(r, c, s, h);
-                        float d = deltas.get(r, c, oSlice, h);
-                        weightDeltasBatch.set(r, c, s, h, i * d);
+        CpuParallel.forEach(weightDeltasBatch.getNrOfHyperSlices(), weightDeltasBatch.getHyperSliceSize(), (start, end) -> {
+            for (int h = start; h < end; ++h) {
+                for (int s = 0; s < weightDeltasBatch.getNrOfSlices(); ++s) {
+                    int oSlice = s / slicesPerGroup;
+                    // weight batch update.
+                    for (int r = 0; r < weightDeltasBatch.getNrOfRows(); ++r) {
+                        for (int c = 0; c < weightDeltasBatch.getNrOfColumns(); ++c) {
+                            float i = input.get(r, c, s, h);
+                            float d = deltas.get(r, c, oSlice, h);
+                            weightDeltasBatch.set(r, c, s, h, i * d);
+                        }
                     }
                 }
-            }
-            // bias batch update.
-            for (int s = 0; s < biasDeltasBatch.getNrOfSlices(); ++s) {
-                for (int r = 0; r < biasDeltasBatch.getNrOfRows(); ++r) {
-                    for (int c = 0; c < biasDeltasBatch.getNrOfColumns(); ++c) {
-                        float d = deltas.get(r, c, s, h);
-                        biasDeltasBatch.set(r, c, s, h, d);
+                // bias batch update.
+                for (int s = 0; s < biasDeltasBatch.getNrOfSlices(); ++s) {
+                    for (int r = 0; r < biasDeltasBatch.getNrOfRows(); ++r) {
+                        for (int c = 0; c < biasDeltasBatch.getNrOfColumns(); ++c) {
+                            float d = deltas.get(r, c, s, h);
+                            biasDeltasBatch.set(r, c, s, h, d);
+                        }
                     }
                 }
             }
-        }
+        });
     }
 
     /**
@@ -1198,18 +2531,40 @@ public class FMatrixOpCpu implements FMatrixOp {
      */
     @Override
     public void batchLC(imatrix input, imatrix lcVector, imatrix output) {
-        for (int h = 0; h < input.getNrOfHyperSlices(); ++h) {
-            for (int s = 0; s < input.getNrOfSlices(); ++s) {
-                for (int c = 0; c < input.getNrOfColumns(); ++c) {
-                    for (int r = 0; r < input.getNrOfRows(); ++r) {
-                        float cellValue = input.get(r, c, s, h);
-                        float factor = lcVector.get(h, 0);
-                        float current = output.get(r, c, s);
-                        output.set(r, c, s, current + cellValue * factor);
+        // the hyperslices are summed, so the work is split over the slices.
+        int hyperSlices = input.getNrOfHyperSlices();
+        float[] in = hasContiguousHostData(input) && !input.isTransposed() ? hostArray(input) : null;
+        float[] out = resultArray(output);
+        if (in != null && out != null
+                && output.getNrOfRows() == input.getNrOfRows()
+                && output.getNrOfColumns() == input.getNrOfColumns()
+                && output.getNrOfSlices() == input.getNrOfSlices()) {
+            int sliceSize = input.getSliceSize();
+            int hyperSliceSize = input.getHyperSliceSize();
+            CpuParallel.forEach(input.getNrOfSlices(), (long) sliceSize * hyperSlices, (start, end) -> {
+                for (int s = start; s < end; ++s) {
+                    for (int h = 0; h < hyperSlices; ++h) {
+                        ArrayKernels.axpy(lcVector.get(h, 0), in, h * hyperSliceSize + s * sliceSize,
+                                out, s * sliceSize, sliceSize);
                     }
                 }
-            }
+            });
+            return;
         }
+        CpuParallel.forEach(input.getNrOfSlices(), (long) input.getSliceSize() * hyperSlices, (start, end) -> {
+            for (int s = start; s < end; ++s) {
+                for (int h = 0; h < hyperSlices; ++h) {
+                    for (int c = 0; c < input.getNrOfColumns(); ++c) {
+                        for (int r = 0; r < input.getNrOfRows(); ++r) {
+                            float cellValue = input.get(r, c, s, h);
+                            float factor = lcVector.get(h, 0);
+                            float current = output.get(r, c, s);
+                            output.set(r, c, s, current + cellValue * factor);
+                        }
+                    }
+                }
+            }
+        });
     }
 
     /**
@@ -1222,8 +2577,11 @@ public class FMatrixOpCpu implements FMatrixOp {
      */
     @Override
     public void backpropPancake(imatrix deltas, imatrix weights, int slicesPerGroup, imatrix output) {
-        for (int h = 0; h < output.getNrOfHyperSlices(); ++h) {
-            for (int s = 0; s < output.getNrOfSlices(); ++s) {
+        int slices = output.getNrOfSlices();
+        CpuParallel.forEach(output.getNrOfHyperSlices() * slices, output.getSliceSize(), (start, end) -> {
+            for (int i = start; i < end; ++i) {
+                int h = i / slices;
+                int s = i % slices;
                 int deltaSlice = s / slicesPerGroup;
 
                 for (int c = 0; c < output.getNrOfColumns(); ++c) {
@@ -1234,7 +2592,7 @@ public class FMatrixOpCpu implements FMatrixOp {
                     }
                 }
             }
-        }
+        });
     }
 
     /**
@@ -1251,31 +2609,55 @@ public class FMatrixOpCpu implements FMatrixOp {
 
     @Override
     public void copyInto(imatrix toCopy, imatrix dest) {
-        if (toCopy.isTransposed() == dest.isTransposed()
-                && equalDimension(toCopy, dest)) {
-            FloatBuffer srcData = toCopy.getHostData();
-            FloatBuffer destData = dest.getHostData();
-            srcData.rewind();
-            destData.rewind();
-            destData.put(srcData);
-
+        dest.markModified();
+        FloatBuffer srcData = HostBuffers.contiguous(toCopy);
+        FloatBuffer destData = HostBuffers.contiguous(dest);
+        if (toCopy instanceof tmatrix && dest instanceof tmatrix && equalDimension(toCopy, dest)) {
+            // both matrices have the same layout in their host buffer.
+            srcData = HostBuffers.contiguous(((tmatrix) toCopy).getSource());
+            destData = HostBuffers.contiguous(((tmatrix) dest).getSource());
+            if (srcData != null && destData != null) {
+                int hyperSlices = Math.min(toCopy.getNrOfHyperSlices(), dest.getNrOfHyperSlices());
+                HostBuffers.copy(srcData, 0, destData, 0, hyperSlices * toCopy.getHyperSliceSize());
+                return;
+            }
+        }
+        int maxRow = Math.min(toCopy.getNrOfRows(), dest.getNrOfRows());
+        int maxCol = Math.min(toCopy.getNrOfColumns(), dest.getNrOfColumns());
+        int maxSlices = Math.min(toCopy.getNrOfSlices(), dest.getNrOfSlices());
+        int maxHyperSlices = Math.min(toCopy.getNrOfHyperSlices(), dest.getNrOfHyperSlices());
+        if (srcData != null && destData != null && toCopy.getNrOfRows() == dest.getNrOfRows()) {
+            if (toCopy.getNrOfColumns() == dest.getNrOfColumns()
+                    && toCopy.getNrOfSlices() == dest.getNrOfSlices()) {
+                HostBuffers.copy(srcData, 0, destData, 0, maxHyperSlices * toCopy.getHyperSliceSize());
+            } else {
+                // the columns of a slice are contiguous.
+                for (int hp = 0; hp < maxHyperSlices; ++hp) {
+                    for (int slice = 0; slice < maxSlices; ++slice) {
+                        HostBuffers.copy(srcData, sliceStart(toCopy, slice, hp),
+                                destData, sliceStart(dest, slice, hp), maxRow * maxCol);
+                    }
+                }
+            }
+        } else if (toCopy.getStridedView() != null && dest.getStridedView() != null) {
+            // transposed and padded views are copied through their strides.
+            StridedView srcView = toCopy.getStridedView();
+            StridedView destView = dest.getStridedView();
+            FloatBuffer from = srcView.getData();
+            FloatBuffer to = destView.getData();
+            for (int hp = 0; hp < maxHyperSlices; ++hp) {
+                for (int slice = 0; slice < maxSlices; ++slice) {
+                    for (int column = 0; column < maxCol; ++column) {
+                        int srcIndex = srcView.index(0, column, slice, hp);
+                        int destIndex = destView.index(0, column, slice, hp);
+                        for (int row = 0; row < maxRow; ++row) {
+                            to.put(destIndex + row * destView.getRowStride(),
+                                    from.get(srcIndex + row * srcView.getRowStride()));
+                        }
+                    }
+                }
+            }
         } else {
-            int eSrcRows = toCopy.getNrOfRows();
-            int eDstRows = dest.getNrOfRows();
-
-            int eSrcCols = toCopy.getNrOfColumns();
-            int eDstCols = dest.getNrOfColumns();
-
-            int eSrcSlices = toCopy.getNrOfSlices();
-            int eDstSlices = dest.getNrOfSlices();
-
-            int eSrcHyperSlices = toCopy.getNrOfHyperSlices();
-            int eDstHyperSlices = dest.getNrOfHyperSlices();
-
-            int maxRow = Math.min(eSrcRows, eDstRows);
-            int maxCol = Math.min(eSrcCols, eDstCols);
-            int maxSlices = Math.min(eSrcSlices, eDstSlices);
-            int maxHyperSlices = Math.min(eSrcHyperSlices, eDstHyperSlices);
             for (int hp = 0; hp < maxHyperSlices; ++hp) {
                 for (int slice = 0; slice < maxSlices; ++slice) {
                     for (int row = 0; row < maxRow; ++row) {
@@ -1289,6 +2671,19 @@ public class FMatrixOpCpu implements FMatrixOp {
         }
     }
 
+    /**
+     * Returns the index of the first cell of a slice in the host buffer of a
+     * contiguous matrix.
+     *
+     * @param m the matrix.
+     * @param slice the slice.
+     * @param hyperSlice the hyperslice.
+     * @return the index of the first cell of the slice.
+     */
+    private static int sliceStart(imatrix m, int slice, int hyperSlice) {
+        return slice * m.getSliceSize() + hyperSlice * m.getHyperSliceSize();
+    }
+
     /**
      * Copies a matrix into another matrix. The slice sizes are compared and if
      * the slice size is the same, the slices will be copied regardless of the
@@ -1302,18 +2697,67 @@ public class FMatrixOpCpu implements FMatrixOp {
      */
     @Override
     public void copyIntoSlice(imatrix src, imatrix dst) {
+        dst.markModified();
         if (src.getSliceSize() == dst.getSliceSize()) {
             int srcSlices = src.getNrOfSlices() * src.getNrOfHyperSlices();
             int dstSlices = dst.getNrOfSlices() * dst.getNrOfHyperSlices();
-            int floatsToCopy = Math.min(srcSlices, dstSlices) * src.getSliceSize();
-            float[] arrSrc = src.getHostData().array();
-            float[] arrDst = dst.getHostData().array();
-            System.arraycopy(arrSrc, 0, arrDst, 0, floatsToCopy);
+            int slicesToCopy = Math.min(srcSlices, dstSlices);
+            int sliceSize = src.getSliceSize();
+            FloatBuffer srcData = HostBuffers.contiguous(src);
+            FloatBuffer dstData = HostBuffers.contiguous(dst);
+            if (srcData != null && dstData != null) {
+                HostBuffers.copy(srcData, 0, dstData, 0, slicesToCopy * sliceSize);
+            } else {
+                int srcRows = src.getNrOfRows();
+                int dstRows = dst.getNrOfRows();
+                for (int slice = 0; slice < slicesToCopy; ++slice) {
+                    int ss = slice % src.getNrOfSlices();
+                    int sh = slice / src.getNrOfSlices();
+                    int ds = slice % dst.getNrOfSlices();
+                    int dh = slice / dst.getNrOfSlices();
+                    for (int i = 0; i < sliceSize; ++i) {
+                        float value = src.get(i % srcRows, i / srcRows, ss, sh);
+                        dst.set(i % dstRows, i / dstRows, ds, dh, value);
+                    }
+                }
+            }
         } else {
             copyInto(src, dst);
         }
     }
 
+    /**
+     * Checks if two matrices are contiguous and have the same number of rows
+     * and columns, so that a slice of one matrix can be copied in bulk into a
+     * slice of the other matrix.
+     *
+     * @param m1 the first matrix.
+     * @param m2 the second matrix.
+     * @return true if the slices can be copied in bulk.
+     */
+    private static boolean sameSliceLayout(imatrix m1, imatrix m2) {
+        return m1.getNrOfRows() == m2.getNrOfRows()
+                && m1.getNrOfColumns() == m2.getNrOfColumns()
+                && HostBuffers.contiguous(m1) != null
+                && HostBuffers.contiguous(m2) != null;
+    }
+
+    /**
+     * Copies a slice of a contiguous matrix into a slice of another contiguous
+     * matrix with the same slice layout.
+     *
+     * @param src the source matrix.
+     * @param srcSlice the slice in the source matrix.
+     * @param dst the destination matrix.
+     * @param dstSlice the slice in the destination matrix.
+     * @param h the hyperslice in both matrices.
+     */
+    private static void copySlice(imatrix src, int srcSlice, imatrix dst, int dstSlice, int h) {
+        dst.markModified();
+        HostBuffers.copy(src.getHostData(), sliceStart(src, srcSlice, h),
+                dst.getHostData(), sliceStart(dst, dstSlice, h), src.getSliceSize());
+    }
+
     /**
      * Copies the slices of matrix1 and matrix2 into the destination matrix. One
      * slice of the destination matrix will be composed of the concatenation of
@@ -1328,8 +2772,19 @@ public class FMatrixOpCpu implements FMatrixOp {
         int hSlices = Math.min(matrix1.getNrOfHyperSlices(), matrix2.getNrOfHyperSlices());
 
         hSlices = Math.min(hSlices, dst.getNrOfHyperSlices());
+        int slices = matrix1.getNrOfSlices();
+        if (sameSliceLayout(matrix1, dst) && sameSliceLayout(matrix2, dst)
+                && matrix2.getNrOfSlices() >= slices && dst.getNrOfSlices() >= 2 * slices) {
+            for (int h = 0; h < hSlices; ++h) {
+                for (int s = 0; s < slices; ++s) {
+                    copySlice(matrix1, s, dst, s * 2, h);
+                    copySlice(matrix2, s, dst, s * 2 + 1, h);
+                }
+            }
+            return;
+        }
         for (int h = 0; h < hSlices; ++h) {
-            for (int s = 0; s < matrix1.getNrOfSlices(); ++s) {
+            for (int s = 0; s < slices; ++s) {
                 for (int r = 0; r < matrix1.getNrOfRows(); ++r) {
                     for (int c = 0; c < matrix1.getNrOfColumns(); ++c) {
                         float v1 = matrix1.get(r, c, s, h);
@@ -1356,6 +2811,7 @@ public class FMatrixOpCpu implements FMatrixOp {
         int rows = dest.getNrOfRows();
         int columns = dest.getNrOfColumns();
         int slices = Integer.MAX_VALUE;
+        boolean bulk = true;
         for (imatrix im : srcMatrices) {
             if (im.getNrOfHyperSlices() < hSlices) {
                 hSlices = im.getNrOfHyperSlices();
@@ -1369,12 +2825,18 @@ public class FMatrixOpCpu implements FMatrixOp {
             if (im.getNrOfSlices() < slices) {
                 slices = im.getNrOfSlices();
             }
+            bulk &= sameSliceLayout(im, dest);
         }
+        bulk &= (slices - 1) * slices + srcMatrices.size() <= dest.getNrOfSlices();
 
         for (int mi = 0; mi < srcMatrices.size(); ++mi) {
             imatrix current = srcMatrices.get(mi);
             for (int h = 0; h < hSlices; ++h) {
                 for (int s = 0; s < slices; ++s) {
+                    if (bulk) {
+                        copySlice(current, s, dest, s * slices + mi, h);
+                        continue;
+                    }
                     for (int r = 0; r < rows; ++r) {
                         for (int c = 0; c < columns; ++c) {
                             float value = current.get(r, c, s, h);
@@ -1399,8 +2861,18 @@ public class FMatrixOpCpu implements FMatrixOp {
     public void unzip(imatrix src, imatrix dest1, imatrix dest2) {
         int hSlices = Math.min(dest1.getNrOfHyperSlices(), dest2.getNrOfHyperSlices());
         hSlices = Math.min(hSlices, src.getNrOfHyperSlices());
+        int slices = src.getNrOfSlices();
+        if (sameSliceLayout(src, dest1) && sameSliceLayout(src, dest2)
+                && dest1.getNrOfSlices() >= (slices + 1) / 2 && dest2.getNrOfSlices() >= slices / 2) {
+            for (int h = 0; h < hSlices; ++h) {
+                for (int s = 0; s < slices; ++s) {
+                    copySlice(src, s, s % 2 == 0 ? dest1 : dest2, s / 2, h);
+                }
+            }
+            return;
+        }
         for (int h = 0; h < hSlices; ++h) {
-            for (int s = 0; s < src.getNrOfSlices(); ++s) {
+            for (int s = 0; s < slices; ++s) {
                 for (int r = 0; r < src.getNrOfRows(); ++r) {
                     for (int c = 0; c < src.getNrOfColumns(); ++c) {
                         if (s % 2 == 0) {
@@ -1429,6 +2901,7 @@ public class FMatrixOpCpu implements FMatrixOp {
         int rows = src.getNrOfRows();
         int columns = src.getNrOfColumns();
         int slices = Integer.MAX_VALUE;
+        boolean bulk = true;
         for (imatrix im : dstMatrices) {
             if (im.getNrOfHyperSlices() < hSlices) {
                 hSlices = im.getNrOfHyperSlices();
@@ -1442,13 +2915,19 @@ public class FMatrixOpCpu implements FMatrixOp {
             if (im.getNrOfSlices() < slices) {
                 slices = im.getNrOfSlices();
             }
+            bulk &= sameSliceLayout(src, im);
         }
 
         int sMul = dstMatrices.size();
+        bulk &= slices * sMul <= src.getNrOfSlices();
         for (int dm = 0; dm < dstMatrices.size(); ++dm) {
             imatrix current = dstMatrices.get(dm);
             for (int h = 0; h < hSlices; ++h) {
                 for (int s = 0; s < slices; ++s) {
+                    if (bulk) {
+                        copySlice(src, s * sMul + dm, current, s, h);
+                        continue;
+                    }
                     for (int r = 0; r < src.getNrOfRows(); ++r) {
                         for (int c = 0; c < src.getNrOfColumns(); ++c) {
                             float v = src.get(r, c, s * sMul + dm, h);
@@ -1467,19 +2946,38 @@ public class FMatrixOpCpu implements FMatrixOp {
 
     @Override
     public void sumPerSlice(imatrix src, imatrix dst) {
-        FloatBuffer fb = src.getHostData();
-        for (int h = 0; h < src.getNrOfHyperSlices(); ++h) {
-            int hOffset = src.getHyperSliceSize() * h;
-            for (int s = 0; s < src.getNrOfSlices(); ++s) {
-                int sOffset = src.getSliceSize() * s;
-                float sum = 0;
-                for (int i = 0; i < src.getSliceSize(); ++i) {
-                    float val = fb.get(hOffset + sOffset + i);
-                    sum += val;
+        if (HostBuffers.contiguous(src) == null) {
+            for (int h = 0; h < src.getNrOfHyperSlices(); ++h) {
+                for (int s = 0; s < src.getNrOfSlices(); ++s) {
+                    float sum = 0;
+                    for (int c = 0; c < src.getNrOfColumns(); ++c) {
+                        for (int r = 0; r < src.getNrOfRows(); ++r) {
+                            sum += src.get(r, c, s, h);
+                        }
+                    }
+                    dst.set(s, 0, 0, h, sum);
                 }
-                dst.set(s, 0, 0, h, sum);
             }
-
+            return;
         }
+        FloatBuffer fb = src.getHostData();
+        CpuParallel.forEach(src.getNrOfHyperSlices(), src.getHyperSliceSize(), (start, end) -> {
+            for (int h = start; h < end; ++h) {
+                int hOffset = src.getHyperSliceSize() * h;
+                for (int s = 0; s < src.getNrOfSlices(); ++s) {
+                    int sOffset = src.getSliceSize() * s;
+                    float sum = 0;
+                    if (fb.hasArray()) {
+                        sum = ArrayKernels.sum(fb.array(), fb.arrayOffset() + hOffset + sOffset, src.getSliceSize());
+                    } else {
+                        for (int i = 0; i < src.getSliceSize(); ++i) {
+                            float val = fb.get(hOffset + sOffset + i);
+                            sum += val;
+                        }
+                    }
+                    dst.set(s, 0, 0, h, sum);
+                }
+            }
+        });
     }
 }
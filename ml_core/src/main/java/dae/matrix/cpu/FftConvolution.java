@@ -0,0 +1,558 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.cpu;
+
+import dae.matrix.imatrix;
+import java.util.Arrays;
+
+/**
+ * Calculates the batch convolution operations in the frequency domain. The
+ * zero padded input slice and the filter are transformed to grids with a power
+ * of two size, the correlation then becomes an elementwise product of the
+ * spectra followed by one inverse transform.
+ *
+ * All signals are real, so two real grids are always transformed together as
+ * the real and imaginary part of one complex grid. The spectra of the filters
+ * are cached per filter matrix and are only recalculated when the
+ * modification count of the filter has changed.
+ *
+ * The engine is used when the filter has at least a minimum number of taps
+ * and the number of filter taps times the number of input cells is at least
+ * the threshold, smaller problems are delegated to the fallback engine.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public class FftConvolution implements ConvolutionEngine {
+
+    /**
+     * The default minimum number of taps of a filter, the cost of the fourier
+     * transform does not depend on the filter size so small filters are
+     * faster with the direct methods.
+     */
+    public static final int DEFAULT_MINIMUM_TAPS = 8 * 8;
+    /**
+     * The default value for the product of the filter taps and the input cells
+     * above which the fourier transform is used.
+     */
+    public static final long DEFAULT_THRESHOLD = 8 * 8 * 16 * 16;
+
+    private final ConvolutionEngine fallback;
+    private int minimumTaps;
+    private long threshold;
+
+    private final WeakIdentityCache<imatrix, FilterSpectrum> filters = new WeakIdentityCache<>();
+    private final WeakIdentityCache<imatrix, FilterSpectrum> flippedFilters = new WeakIdentityCache<>();
+
+    private final ThreadLocal<Workspace> workspaces = ThreadLocal.withInitial(Workspace::new);
+
+    /**
+     * Creates a fourier transform engine with the default threshold and a
+     * direct convolution engine as fallback.
+     */
+    public FftConvolution() {
+        this(new DirectConvolution(), DEFAULT_MINIMUM_TAPS, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Creates a fourier transform engine with the default threshold.
+     *
+     * @param fallback the engine for the operations below the threshold.
+     */
+    public FftConvolution(ConvolutionEngine fallback) {
+        this(fallback, DEFAULT_MINIMUM_TAPS, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Creates a fourier transform engine.
+     *
+     * @param fallback the engine for the operations below the threshold.
+     * @param minimumTaps the minimum number of taps of a filter for which the
+     * fourier transform is used.
+     * @param threshold the minimum value of the number of filter taps times the
+     * number of input cells for which the fourier transform is used.
+     */
+    public FftConvolution(ConvolutionEngine fallback, int minimumTaps, long threshold) {
+        this.fallback = fallback;
+        this.minimumTaps = minimumTaps;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Sets the minimum number of taps of a filter for which the fourier
+     * transform is used.
+     *
+     * @param minimumTaps the new minimum number of taps.
+     */
+    public void setMinimumTaps(int minimumTaps) {
+        this.minimumTaps = minimumTaps;
+    }
+
+    /**
+     * Returns the minimum number of taps of a filter for which the fourier
+     * transform is used.
+     *
+     * @return the minimum number of taps.
+     */
+    public int getMinimumTaps() {
+        return minimumTaps;
+    }
+
+    /**
+     * Sets the minimum value of the number of filter taps times the number of
+     * input cells for which the fourier transform is used.
+     *
+     * @param threshold the new threshold.
+     */
+    public void setThreshold(long threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Returns the minimum value of the number of filter taps times the number
+     * of input cells for which the fourier transform is used.
+     *
+     * @return the threshold.
+     */
+    public long getThreshold() {
+        return threshold;
+    }
+
+    private boolean useFft(imatrix input, int taps) {
+        return taps >= minimumTaps && (long) taps * input.getSliceSize() >= threshold;
+    }
+
+    /**
+     * Applies the filters on the input matrix.
+     *
+     * @param input the matrix to convolve.
+     * @param filter the filter to apply.
+     * @param bias a row matrix with a bias term per filter slice, can be null.
+     * @param stride the stride with which to advance the filter.
+     * @param output the matrix where the output is stored.
+     * @return true if the operation was executed, false otherwise.
+     */
+    @Override
+    public boolean batchConvolve(imatrix input, imatrix filter, imatrix bias, int stride, imatrix output) {
+        if (!useFft(input, filter.getSliceSize())
+                || !correlate(input, filter, bias, false, stride, output)) {
+            return fallback.batchConvolve(input, filter, bias, stride, output);
+        }
+        return true;
+    }
+
+    /**
+     * Applies the flipped filters on the input matrix.
+     *
+     * @param input the matrix to correlate.
+     * @param filter the filter to apply.
+     * @param stride the stride with which to advance the filter.
+     * @param output the matrix where the output is stored.
+     * @return true if the operation was executed, false otherwise.
+     */
+    @Override
+    public boolean batchCorrelate(imatrix input, imatrix filter, int stride, imatrix output) {
+        if (!useFft(input, filter.getSliceSize())
+                || !correlate(input, filter, null, true, stride, output)) {
+            return fallback.batchCorrelate(input, filter, stride, output);
+        }
+        return true;
+    }
+
+    /**
+     * Calculates the filter gradients as the correlation of the input with the
+     * (dilated) deltas.
+     *
+     * @param input the input (with batch multiplicity).
+     * @param deltas the deltas( with batch multiplicity).
+     * @param stride the stride.
+     * @param kernel the kernel (with batch multiplicity).
+     * @return true if the operation was executed, false otherwise.
+     */
+    @Override
+    public boolean deltasBatchConvolve(imatrix input, imatrix deltas, int stride, imatrix kernel) {
+        float[] in = FMatrixOpCpu.hostArray(input);
+        float[] d = FMatrixOpCpu.hostArray(deltas);
+        float[] k = FMatrixOpCpu.hostArray(kernel);
+        if (!useFft(input, kernel.getSliceSize()) || in == null || d == null || k == null || kernel.isTransposed()) {
+            return fallback.deltasBatchConvolve(input, deltas, stride, kernel);
+        }
+        FftPlan columnPlan = getPlan(input.getNrOfRows(), input.getZeroPadding(),
+                deltas.getNrOfRows(), stride, kernel.getNrOfRows());
+        FftPlan rowPlan = getPlan(input.getNrOfColumns(), input.getZeroPadding(),
+                deltas.getNrOfColumns(), stride, kernel.getNrOfColumns());
+        int gridSize = columnPlan.getSize() * rowPlan.getSize();
+        int fps = deltas.getNrOfSlices() / input.getNrOfSlices();
+        int kernels = deltas.getNrOfSlices();
+        int deltaSpectrum = input.getNrOfSlices() * gridSize;
+        int hyperSlices = Math.min(Math.min(input.getNrOfHyperSlices(), deltas.getNrOfHyperSlices()),
+                kernel.getNrOfHyperSlices());
+        CpuParallel.forEach(hyperSlices, (long) 2 * gridSize * (input.getNrOfSlices() + kernels), (start, end) -> {
+            // the workspace belongs to the thread that executes the range.
+            Workspace ws = workspaces.get();
+            ws.ensure(gridSize, input.getNrOfSlices() + 2, rowPlan.getSize());
+            for (int h = start; h < end; ++h) {
+                transformInput(input, in, h, columnPlan, rowPlan, ws);
+                for (int fs = 0; fs < kernels; fs += 2) {
+                    boolean pair = fs + 1 < kernels;
+                    // the deltas are placed on the grid with the stride as spacing.
+                    ws.clearGrid(gridSize);
+                    load(d, h * deltas.getHyperSliceSize() + fs * deltas.getSliceSize(),
+                            deltas.getNrOfRows(), deltas.getNrOfColumns(), 0, stride, ws.re, columnPlan.getSize());
+                    if (pair) {
+                        load(d, h * deltas.getHyperSliceSize() + (fs + 1) * deltas.getSliceSize(),
+                                deltas.getNrOfRows(), deltas.getNrOfColumns(), 0, stride, ws.im, columnPlan.getSize());
+                    }
+                    FftPlan.forward2D(ws.re, ws.im, rowPlan, columnPlan,
+                            (deltas.getNrOfColumns() - 1) * stride + 1, ws.scratch);
+                    separate(ws.re, ws.im, columnPlan.getSize(), rowPlan.getSize(),
+                            ws.spectraRe, ws.spectraIm, deltaSpectrum, deltaSpectrum + gridSize);
+
+                    ws.clearGrid(gridSize);
+                    multiply(ws.spectraRe, ws.spectraIm, (fs / fps) * gridSize,
+                            ws.spectraRe, ws.spectraIm, deltaSpectrum, ws.re, ws.im, false, gridSize);
+                    if (pair) {
+                        multiply(ws.spectraRe, ws.spectraIm, ((fs + 1) / fps) * gridSize,
+                                ws.spectraRe, ws.spectraIm, deltaSpectrum + gridSize, ws.re, ws.im, true, gridSize);
+                    }
+                    FftPlan.inverse2D(ws.re, ws.im, rowPlan, columnPlan, kernel.getNrOfColumns(), ws.scratch);
+                    int kernelOffset = h * kernel.getHyperSliceSize() + fs * kernel.getSliceSize();
+                    store(ws.re, columnPlan.getSize(), 1, gridSize, 0, k, kernelOffset,
+                            kernel.getNrOfRows(), kernel.getNrOfColumns());
+                    if (pair) {
+                        store(ws.im, columnPlan.getSize(), 1, gridSize, 0, k, kernelOffset + kernel.getSliceSize(),
+                                kernel.getNrOfRows(), kernel.getNrOfColumns());
+                    }
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Correlates the zero padded deltas with the flipped filters. The products
+     * of all the slices that belong to an output slice are summed in the
+     * frequency domain before the inverse transform.
+     *
+     * @param input the zero padded deltas.
+     * @param filter the filter matrix.
+     * @param stride the stride.
+     * @param output the output matrix.
+     * @return true if the operation was executed, false otherwise.
+     */
+    @Override
+    public boolean batchBackpropCorrelate(imatrix input, imatrix filter, int stride, imatrix output) {
+        float[] in = FMatrixOpCpu.hostArray(input);
+        float[] f = FMatrixOpCpu.hostArray(filter);
+        float[] out = FMatrixOpCpu.hostArray(output);
+        if (!useFft(input, filter.getSliceSize()) || in == null || f == null || out == null || output.isTransposed()) {
+            return fallback.batchBackpropCorrelate(input, filter, stride, output);
+        }
+        FftPlan columnPlan = getPlan(input.getNrOfRows(), input.getZeroPadding(),
+                output.getNrOfRows(), stride, filter.getNrOfRows());
+        FftPlan rowPlan = getPlan(input.getNrOfColumns(), input.getZeroPadding(),
+                output.getNrOfColumns(), stride, filter.getNrOfColumns());
+        int gridSize = columnPlan.getSize() * rowPlan.getSize();
+        FilterSpectrum spectrum = getFilterSpectrum(filter, f, true, columnPlan, rowPlan);
+        int slicesPerOutput = filter.getNrOfSlices() / output.getNrOfSlices();
+        int outputs = output.getNrOfSlices();
+        int hyperSlices = Math.min(input.getNrOfHyperSlices(), output.getNrOfHyperSlices());
+        CpuParallel.forEach(hyperSlices, (long) 2 * gridSize * (input.getNrOfSlices() + outputs), (start, end) -> {
+            // the workspace belongs to the thread that executes the range.
+            Workspace ws = workspaces.get();
+            ws.ensure(gridSize, input.getNrOfSlices(), rowPlan.getSize());
+            for (int h = start; h < end; ++h) {
+                transformInput(input, in, h, columnPlan, rowPlan, ws);
+                for (int oSlice = 0; oSlice < outputs; oSlice += 2) {
+                    boolean pair = oSlice + 1 < outputs;
+                    ws.clearGrid(gridSize);
+                    for (int o = 0; o < (pair ? 2 : 1); ++o) {
+                        for (int i = 0; i < slicesPerOutput; ++i) {
+                            int slice = (oSlice + o) * slicesPerOutput + i;
+                            multiply(ws.spectraRe, ws.spectraIm, slice * gridSize,
+                                    spectrum.re, spectrum.im, slice * gridSize, ws.re, ws.im, o == 1, gridSize);
+                        }
+                    }
+                    FftPlan.inverse2D(ws.re, ws.im, rowPlan, columnPlan,
+                            (output.getNrOfColumns() - 1) * stride + 1, ws.scratch);
+                    int outputOffset = h * output.getHyperSliceSize() + oSlice * output.getSliceSize();
+                    store(ws.re, columnPlan.getSize(), stride, gridSize, 0, out, outputOffset,
+                            output.getNrOfRows(), output.getNrOfColumns());
+                    if (pair) {
+                        store(ws.im, columnPlan.getSize(), stride, gridSize, 0, out, outputOffset + output.getSliceSize(),
+                                output.getNrOfRows(), output.getNrOfColumns());
+                    }
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Correlates every input slice with the filters that belong to it.
+     *
+     * @return false if the matrices can not be handled.
+     */
+    private boolean correlate(imatrix input, imatrix filter, imatrix bias, boolean flip, int stride, imatrix output) {
+        float[] in = FMatrixOpCpu.hostArray(input);
+        float[] f = FMatrixOpCpu.hostArray(filter);
+        float[] out = FMatrixOpCpu.hostArray(output);
+        if (in == null || f == null || out == null || output.isTransposed()) {
+            return false;
+        }
+        FftPlan columnPlan = getPlan(input.getNrOfRows(), input.getZeroPadding(),
+                output.getNrOfRows(), stride, filter.getNrOfRows());
+        FftPlan rowPlan = getPlan(input.getNrOfColumns(), input.getZeroPadding(),
+                output.getNrOfColumns(), stride, filter.getNrOfColumns());
+        int gridSize = columnPlan.getSize() * rowPlan.getSize();
+        FilterSpectrum spectrum = getFilterSpectrum(filter, f, flip, columnPlan, rowPlan);
+        int fps = filter.getNrOfSlices() / input.getNrOfSlices();
+        int filters = filter.getNrOfSlices();
+        int hyperSlices = Math.min(input.getNrOfHyperSlices(), output.getNrOfHyperSlices());
+        CpuParallel.forEach(hyperSlices, (long) 2 * gridSize * (input.getNrOfSlices() + filters), (start, end) -> {
+            // the workspace belongs to the thread that executes the range.
+            Workspace ws = workspaces.get();
+            ws.ensure(gridSize, input.getNrOfSlices(), rowPlan.getSize());
+            for (int h = start; h < end; ++h) {
+                transformInput(input, in, h, columnPlan, rowPlan, ws);
+                for (int fs = 0; fs < filters; fs += 2) {
+                    boolean pair = fs + 1 < filters;
+                    ws.clearGrid(gridSize);
+                    multiply(ws.spectraRe, ws.spectraIm, (fs / fps) * gridSize,
+                            spectrum.re, spectrum.im, fs * gridSize, ws.re, ws.im, false, gridSize);
+                    if (pair) {
+                        multiply(ws.spectraRe, ws.spectraIm, ((fs + 1) / fps) * gridSize,
+                                spectrum.re, spectrum.im, (fs + 1) * gridSize, ws.re, ws.im, true, gridSize);
+                    }
+                    FftPlan.inverse2D(ws.re, ws.im, rowPlan, columnPlan,
+                            (output.getNrOfColumns() - 1) * stride + 1, ws.scratch);
+                    int outputOffset = h * output.getHyperSliceSize() + fs * output.getSliceSize();
+                    store(ws.re, columnPlan.getSize(), stride, gridSize, bias != null ? bias.get(fs, 0) : 0,
+                            out, outputOffset, output.getNrOfRows(), output.getNrOfColumns());
+                    if (pair) {
+                        store(ws.im, columnPlan.getSize(), stride, gridSize, bias != null ? bias.get(fs + 1, 0) : 0,
+                                out, outputOffset + output.getSliceSize(), output.getNrOfRows(), output.getNrOfColumns());
+                    }
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Returns the plan for one dimension, the grid must contain the zero
+     * padded input and every position that is read by the filter.
+     */
+    private static FftPlan getPlan(int inputSize, int zp, int outputSize, int stride, int filterSize) {
+        return FftPlan.get(FftPlan.sizeFor(Math.max(inputSize + 2 * zp, (outputSize - 1) * stride + filterSize)));
+    }
+
+    /**
+     * Transforms all the slices of one hyperslice of the input, the spectra
+     * are stored in the spectra arrays of the workspace.
+     */
+    private static void transformInput(imatrix input, float[] in, int h, FftPlan columnPlan, FftPlan rowPlan, Workspace ws) {
+        int gridSize = columnPlan.getSize() * rowPlan.getSize();
+        int zp = input.getZeroPadding();
+        int slices = input.getNrOfSlices();
+        for (int slice = 0; slice < slices; slice += 2) {
+            ws.clearGrid(gridSize);
+            int offset = h * input.getHyperSliceSize() + slice * input.getSliceSize();
+            load(in, offset, input.getNrOfRows(), input.getNrOfColumns(), zp, 1, ws.re, columnPlan.getSize());
+            if (slice + 1 < slices) {
+                load(in, offset + input.getSliceSize(), input.getNrOfRows(), input.getNrOfColumns(), zp, 1, ws.im, columnPlan.getSize());
+            }
+            FftPlan.forward2D(ws.re, ws.im, rowPlan, columnPlan, input.getNrOfColumns() + zp, ws.scratch);
+            separate(ws.re, ws.im, columnPlan.getSize(), rowPlan.getSize(), ws.spectraRe, ws.spectraIm,
+                    slice * gridSize, slice + 1 < slices ? (slice + 1) * gridSize : -1);
+        }
+    }
+
+    /**
+     * Returns the spectra of the filter slices, the cached spectra are reused
+     * as long as the filter was not modified and the grid size did not change.
+     */
+    private FilterSpectrum getFilterSpectrum(imatrix filter, float[] f, boolean flip, FftPlan columnPlan, FftPlan rowPlan) {
+        WeakIdentityCache<imatrix, FilterSpectrum> cache = flip ? flippedFilters : filters;
+        synchronized (cache) {
+            FilterSpectrum spectrum = cache.get(filter);
+            if (spectrum == null || !spectrum.isValid(filter.getModificationCount(), columnPlan, rowPlan)) {
+                spectrum = new FilterSpectrum(filter, f, flip, columnPlan, rowPlan);
+                cache.put(filter, spectrum);
+            }
+            return spectrum;
+        }
+    }
+
+    /**
+     * Copies a slice of a matrix onto a zeroed grid. The element (r, c) is
+     * stored at grid position (offset + r * spacing, offset + c * spacing).
+     */
+    private static void load(float[] src, int srcOffset, int rows, int columns, int offset, int spacing,
+            float[] grid, int gridRows) {
+        for (int c = 0; c < columns; ++c) {
+            int dst = (offset + c * spacing) * gridRows + offset;
+            int s = srcOffset + c * rows;
+            if (spacing == 1) {
+                System.arraycopy(src, s, grid, dst, rows);
+            } else {
+                for (int r = 0; r < rows; ++r, dst += spacing) {
+                    grid[dst] = src[s + r];
+                }
+            }
+        }
+    }
+
+    /**
+     * Separates the transform of two real grids that were transformed as the
+     * real and imaginary part of one complex grid. The spectrum of the real
+     * part is A(k) = (Z(k) + conj(Z(-k))) / 2, the spectrum of the imaginary
+     * part is B(k) = (Z(k) - conj(Z(-k))) / 2i.
+     */
+    private static void separate(float[] re, float[] im, int gridRows, int gridColumns,
+            float[] spectraRe, float[] spectraIm, int offsetA, int offsetB) {
+        for (int c = 0; c < gridColumns; ++c) {
+            int mc = (gridColumns - c) & (gridColumns - 1);
+            for (int r = 0; r < gridRows; ++r) {
+                int mr = (gridRows - r) & (gridRows - 1);
+                int k = r + c * gridRows;
+                int mk = mr + mc * gridRows;
+                float zr = re[k];
+                float zi = im[k];
+                float zmr = re[mk];
+                float zmi = im[mk];
+                spectraRe[offsetA + k] = 0.5f * (zr + zmr);
+                spectraIm[offsetA + k] = 0.5f * (zi - zmi);
+                if (offsetB >= 0) {
+                    spectraRe[offsetB + k] = 0.5f * (zi + zmi);
+                    spectraIm[offsetB + k] = 0.5f * (zmr - zr);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds X * conj(G) to the grid, or i * X * conj(G) if imaginary is true.
+     */
+    private static void multiply(float[] xRe, float[] xIm, int xOffset, float[] gRe, float[] gIm, int gOffset,
+            float[] re, float[] im, boolean imaginary, int gridSize) {
+        for (int i = 0; i < gridSize; ++i) {
+            float xr = xRe[xOffset + i];
+            float xi = xIm[xOffset + i];
+            float gr = gRe[gOffset + i];
+            float gi = gIm[gOffset + i];
+            float pr = xr * gr + xi * gi;
+            float pi = xi * gr - xr * gi;
+            if (imaginary) {
+                re[i] -= pi;
+                im[i] += pr;
+            } else {
+                re[i] += pr;
+                im[i] += pi;
+            }
+        }
+    }
+
+    /**
+     * Stores the scaled result of the inverse transform, the output cell (r,
+     * c) is read from grid position (r * stride, c * stride).
+     */
+    private static void store(float[] grid, int gridRows, int stride, int gridSize, float bias,
+            float[] out, int outOffset, int rows, int columns) {
+        float scale = 1.0f / gridSize;
+        for (int c = 0; c < columns; ++c) {
+            int src = c * stride * gridRows;
+            int dst = outOffset + c * rows;
+            for (int r = 0; r < rows; ++r, src += stride) {
+                out[dst + r] = grid[src] * scale + bias;
+            }
+        }
+    }
+
+    /**
+     * The spectra of all the slices of a filter matrix, together with the
+     * modification count of the filter they were calculated from.
+     */
+    private static class FilterSpectrum {
+
+        private final long modificationCount;
+        private final FftPlan columnPlan;
+        private final FftPlan rowPlan;
+        private final float[] re;
+        private final float[] im;
+
+        FilterSpectrum(imatrix filter, float[] f, boolean flip, FftPlan columnPlan, FftPlan rowPlan) {
+            modificationCount = filter.getModificationCount();
+            this.columnPlan = columnPlan;
+            this.rowPlan = rowPlan;
+
+            int gridRows = columnPlan.getSize();
+            int gridSize = gridRows * rowPlan.getSize();
+            int slices = filter.getNrOfSlices();
+            int rows = filter.getNrOfRows();
+            int columns = filter.getNrOfColumns();
+            re = new float[gridSize * slices];
+            im = new float[gridSize * slices];
+            float[] gridRe = new float[gridSize];
+            float[] gridIm = new float[gridSize];
+            float[] scratch = new float[2 * rowPlan.getSize()];
+            for (int slice = 0; slice < slices; slice += 2) {
+                Arrays.fill(gridRe, 0);
+                Arrays.fill(gridIm, 0);
+                for (int s = slice; s < Math.min(slice + 2, slices); ++s) {
+                    float[] grid = s == slice ? gridRe : gridIm;
+                    int offset = s * filter.getSliceSize();
+                    for (int c = 0; c < columns; ++c) {
+                        for (int r = 0; r < rows; ++r) {
+                            float v = flip
+                                    ? f[offset + (rows - 1 - r) + (columns - 1 - c) * rows]
+                                    : f[offset + r + c * rows];
+                            grid[r + c * gridRows] = v;
+                        }
+                    }
+                }
+                FftPlan.forward2D(gridRe, gridIm, rowPlan, columnPlan, columns, scratch);
+                separate(gridRe, gridIm, gridRows, rowPlan.getSize(), re, im,
+                        slice * gridSize, slice + 1 < slices ? (slice + 1) * gridSize : -1);
+            }
+        }
+
+        boolean isValid(long modificationCount, FftPlan columnPlan, FftPlan rowPlan) {
+            return this.modificationCount == modificationCount
+                    && this.columnPlan == columnPlan && this.rowPlan == rowPlan;
+        }
+    }
+
+    /**
+     * The buffers of one thread: a complex grid, the spectra of the input
+     * slices and a scratch row.
+     */
+    private static class Workspace {
+
+        private float[] re = new float[0];
+        private float[] im = new float[0];
+        private float[] spectraRe = new float[0];
+        private float[] spectraIm = new float[0];
+        private float[] scratch = new float[0];
+
+        void ensure(int gridSize, int spectra, int gridColumns) {
+            if (re.length < gridSize) {
+                re = new float[gridSize];
+                im = new float[gridSize];
+            }
+            if (spectraRe.length < gridSize * spectra) {
+                spectraRe = new float[gridSize * spectra];
+                spectraIm = new float[gridSize * spectra];
+            }
+            if (scratch.length < 2 * gridColumns) {
+                scratch = new float[2 * gridColumns];
+            }
+        }
+
+        void clearGrid(int gridSize) {
+            Arrays.fill(re, 0, gridSize, 0);
+            Arrays.fill(im, 0, gridSize, 0);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.cpu;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A radix 2 fast fourier transform of a fixed size. The bit reversal
+ * permutation and the twiddle factors are calculated once per size, plans are
+ * shared by all the threads.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+final class FftPlan {
+
+    private static final Map<Integer, FftPlan> PLANS = new ConcurrentHashMap<>();
+
+    private final int size;
+    private final int[] reversed;
+    private final float[] cos;
+    private final float[] sin;
+
+    private FftPlan(int size) {
+        this.size = size;
+        reversed = new int[size];
+        int bits = Integer.numberOfTrailingZeros(size);
+        for (int i = 0; i < size; ++i) {
+            reversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+        cos = new float[size / 2];
+        sin = new float[size / 2];
+        for (int i = 0; i < size / 2; ++i) {
+            double angle = -2 * Math.PI * i / size;
+            cos[i] = (float) Math.cos(angle);
+            sin[i] = (float) Math.sin(angle);
+        }
+    }
+
+    /**
+     * Returns the plan for the given size.
+     *
+     * @param size the size of the transform, must be a power of two.
+     * @return the plan.
+     */
+    static FftPlan get(int size) {
+        if (Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("The size of a fourier transform must be a power of two : " + size);
+        }
+        return PLANS.computeIfAbsent(size, FftPlan::new);
+    }
+
+    /**
+     * Returns the smallest power of two that is larger than or equal to n.
+     *
+     * @param n the minimum size.
+     * @return the size of the transform.
+     */
+    static int sizeFor(int n) {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    /**
+     * Returns the size of the transform.
+     *
+     * @return the size.
+     */
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * Transforms size consecutive complex values in place. The inverse
+     * transform is not scaled.
+     *
+     * @param re the array with the real parts.
+     * @param reOffset the offset of the first real part.
+     * @param im the array with the imaginary parts.
+     * @param imOffset the offset of the first imaginary part.
+     * @param inverse true for the inverse transform.
+     */
+    void transform(float[] re, int reOffset, float[] im, int imOffset, boolean inverse) {
+        for (int i = 0; i < size; ++i) {
+            int j = reversed[i];
+            if (j > i) {
+                float t = re[reOffset + i];
+                re[reOffset + i] = re[reOffset + j];
+                re[reOffset + j] = t;
+                t = im[imOffset + i];
+                im[imOffset + i] = im[imOffset + j];
+                im[imOffset + j] = t;
+            }
+        }
+        float sign = inverse ? -1 : 1;
+        for (int length = 2; length <= size; length <<= 1) {
+            int half = length >> 1;
+            int step = size / length;
+            for (int start = 0; start < size; start += length) {
+                for (int k = 0; k < half; ++k) {
+                    float wr = cos[k * step];
+                    float wi = sign * sin[k * step];
+                    int ra = reOffset + start + k;
+                    int ia = imOffset + start + k;
+                    int rb = ra + half;
+                    int ib = ia + half;
+                    float br = re[rb] * wr - im[ib] * wi;
+                    float bi = re[rb] * wi + im[ib] * wr;
+                    re[rb] = re[ra] - br;
+                    im[ib] = im[ia] - bi;
+                    re[ra] += br;
+                    im[ia] += bi;
+                }
+            }
+        }
+    }
+
+    /**
+     * Transforms a column major grid in place, first along the columns and
+     * then along the rows. Only the first nrOfColumns columns are transformed
+     * in the first pass, the other columns must be zero.
+     *
+     * @param re the real parts of the grid.
+     * @param im the imaginary parts of the grid.
+     * @param rowPlan the plan for the rows (size = number of columns).
+     * @param columnPlan the plan for the columns (size = number of rows).
+     * @param nrOfColumns the number of columns that contain values.
+     * @param scratch a scratch array of at least 2 * number of columns.
+     */
+    static void forward2D(float[] re, float[] im, FftPlan rowPlan, FftPlan columnPlan,
+            int nrOfColumns, float[] scratch) {
+        int rows = columnPlan.size;
+        for (int c = 0; c < nrOfColumns; ++c) {
+            columnPlan.transform(re, c * rows, im, c * rows, false);
+        }
+        transformRows(re, im, rowPlan, rows, false, scratch);
+    }
+
+    /**
+     * Applies the unscaled inverse transform on a column major grid in place,
+     * first along the rows and then along the columns. Only the first
+     * nrOfColumns columns are valid after the transform.
+     *
+     * @param re the real parts of the grid.
+     * @param im the imaginary parts of the grid.
+     * @param rowPlan the plan for the rows (size = number of columns).
+     * @param columnPlan the plan for the columns (size = number of rows).
+     * @param nrOfColumns the number of columns that are needed.
+     * @param scratch a scratch array of at least 2 * number of columns.
+     */
+    static void inverse2D(float[] re, float[] im, FftPlan rowPlan, FftPlan columnPlan,
+            int nrOfColumns, float[] scratch) {
+        int rows = columnPlan.size;
+        transformRows(re, im, rowPlan, rows, true, scratch);
+        for (int c = 0; c < nrOfColumns; ++c) {
+            columnPlan.transform(re, c * rows, im, c * rows, true);
+        }
+    }
+
+    private static void transformRows(float[] re, float[] im, FftPlan rowPlan, int rows,
+            boolean inverse, float[] scratch) {
+        int columns = rowPlan.size;
+        for (int r = 0; r < rows; ++r) {
+            for (int c = 0, i = r; c < columns; ++c, i += rows) {
+                scratch[c] = re[i];
+                scratch[columns + c] = im[i];
+            }
+            rowPlan.transform(scratch, 0, scratch, columns, inverse);
+            for (int c = 0, i = r; c < columns; ++c, i += rows) {
+                re[i] = scratch[c];
+                im[i] = scratch[columns + c];
+            }
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.cpu;
+
+import dae.matrix.imatrix;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Lowers the batch convolution operations to a matrix multiplication.
+ *
+ * For every entry in the batch and every input slice the input patches are
+ * copied into the columns of a workspace matrix (im2col), one column per
+ * filter tap and one row per output cell. The convolution of all the filters
+ * that belong to that input slice then becomes a single sgemm.
+ *
+ * The workspace is allocated once per output matrix (which is owned by a
+ * layer) and is reused for all the following calls.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public class Im2ColConvolution implements ConvolutionEngine {
+
+    private final Map<imatrix, float[]> workspaces = new WeakHashMap<>();
+
+    /**
+     * Applies the filters on the input matrix with an im2col transformation
+     * followed by a matrix multiplication.
+     *
+     * @param input the matrix to convolve.
+     * @param filter the filter to apply.
+     * @param bias a row matrix with a bias term per filter slice, can be null.
+     * @param stride the stride with which to advance the filter.
+     * @param output the matrix where the output is stored.
+     * @return true if the operation was executed, false otherwise.
+     */
+    @Override
+    public boolean batchConvolve(imatrix input, imatrix filter, imatrix bias, int stride, imatrix output) {
+        return convolve(input, filter, bias, stride, false, output);
+    }
+
+    /**
+     * Applies the flipped filters on the input matrix with an im2col
+     * transformation followed by a matrix multiplication.
+     *
+     * @param input the matrix to correlate.
+     * @param filter the filter to apply.
+     * @param stride the stride with which to advance the filter.
+     * @param output the matrix where the output is stored.
+     * @return true if the operation was executed, false otherwise.
+     */
+    @Override
+    public boolean batchCorrelate(imatrix input, imatrix filter, int stride, imatrix output) {
+        return convolve(input, filter, null, stride, true, output);
+    }
+
+    private boolean convolve(imatrix input, imatrix filter, imatrix bias, int stride, boolean flip, imatrix output) {
+        float[] in = FMatrixOpCpu.hostArray(input);
+        float[] f = FMatrixOpCpu.hostArray(filter);
+        float[] out = FMatrixOpCpu.hostArray(output);
+        if (in == null || f == null || out == null || output.isTransposed()) {
+            return false;
+        }
+        int fps = filter.getNrOfSlices() / input.getNrOfSlices();
+        int taps = filter.getSliceSize();
+        int cells = output.getSliceSize();
+        float[] workspace = getWorkspace(output, cells * taps);
+        int hyperSlices = Math.min(input.getNrOfHyperSlices(), output.getNrOfHyperSlices());
+        for (int h = 0; h < hyperSlices; ++h) {
+            int outputOffset = h * output.getHyperSliceSize();
+            if (bias != null) {
+                for (int fs = 0; fs < filter.getNrOfSlices(); ++fs) {
+                    float b = bias.get(fs, 0);
+                    int start = outputOffset + fs * cells;
+                    for (int i = start; i < start + cells; ++i) {
+                        out[i] = b;
+                    }
+                }
+            }
+            for (int slice = 0; slice < input.getNrOfSlices(); ++slice) {
+                im2col(input, in, slice, 1, h, filter.getNrOfRows(), filter.getNrOfColumns(),
+                        output.getNrOfRows(), output.getNrOfColumns(), stride, flip, workspace);
+                // output slices of this group (cells x fps) = im2col (cells x taps) * filters (taps x fps)
+                CpuGemm.sgemm(false, false, cells, fps, taps,
+                        1, workspace, 0, cells,
+                        f, slice * fps * taps, taps,
+                        bias != null ? 1 : 0, out, outputOffset + slice * fps * cells, cells);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Calculates the filter gradients as the product of the transposed im2col
+     * matrix of the input and the deltas.
+     *
+     * @param input the input (with batch multiplicity).
+     * @param deltas the deltas( with batch multiplicity).
+     * @param stride the stride.
+     * @param kernel the kernel (with batch multiplicity).
+     * @return true if the operation was executed, false otherwise.
+     */
+    @Override
+    public boolean deltasBatchConvolve(imatrix input, imatrix deltas, int stride, imatrix kernel) {
+        float[] in = FMatrixOpCpu.hostArray(input);
+        float[] d = FMatrixOpCpu.hostArray(deltas);
+        float[] k = FMatrixOpCpu.hostArray(kernel);
+        if (in == null || d == null || k == null || kernel.isTransposed()) {
+            return false;
+        }
+        int fps = deltas.getNrOfSlices() / input.getNrOfSlices();
+        int taps = kernel.getSliceSize();
+        int cells = deltas.getSliceSize();
+        float[] workspace = getWorkspace(kernel, cells * taps);
+        int hyperSlices = Math.min(Math.min(input.getNrOfHyperSlices(), deltas.getNrOfHyperSlices()),
+                kernel.getNrOfHyperSlices());
+        for (int h = 0; h < hyperSlices; ++h) {
+            for (int slice = 0; slice < input.getNrOfSlices(); ++slice) {
+                im2col(input, in, slice, 1, h, kernel.getNrOfRows(), kernel.getNrOfColumns(),
+                        deltas.getNrOfRows(), deltas.getNrOfColumns(), stride, false, workspace);
+                // kernel slices of this group (taps x fps) = im2col^T (taps x cells) * deltas (cells x fps)
+                CpuGemm.sgemm(true, false, taps, fps, cells,
+                        1, workspace, 0, cells,
+                        d, h * deltas.getHyperSliceSize() + slice * fps * cells, cells,
+                        0, k, h * kernel.getHyperSliceSize() + slice * fps * taps, taps);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Correlates the zero padded deltas with the flipped filters. The im2col
+     * matrix of all the slices that contribute to an output slice is
+     * multiplied with the concatenated filters of those slices.
+     *
+     * @param input the zero padded deltas.
+     * @param filter the filter matrix.
+     * @param stride the stride.
+     * @param output the output matrix.
+     * @return true if the operation was executed, false otherwise.
+     */
+    @Override
+    public boolean batchBackpropCorrelate(imatrix input, imatrix filter, int stride, imatrix output) {
+        float[] in = FMatrixOpCpu.hostArray(input);
+        float[] f = FMatrixOpCpu.hostArray(filter);
+        float[] out = FMatrixOpCpu.hostArray(output);
+        if (in == null || f == null || out == null || output.isTransposed()) {
+            return false;
+        }
+        int slicesPerOutput = filter.getNrOfSlices() / output.getNrOfSlices();
+        int taps = filter.getSliceSize();
+        int cells = output.getSliceSize();
+        float[] workspace = getWorkspace(output, cells * taps * slicesPerOutput);
+        int hyperSlices = Math.min(input.getNrOfHyperSlices(), output.getNrOfHyperSlices());
+        for (int h = 0; h < hyperSlices; ++h) {
+            for (int oSlice = 0; oSlice < output.getNrOfSlices(); ++oSlice) {
+                im2col(input, in, oSlice * slicesPerOutput, slicesPerOutput, h,
+                        filter.getNrOfRows(), filter.getNrOfColumns(),
+                        output.getNrOfRows(), output.getNrOfColumns(), stride, true, workspace);
+                // output slice (cells x 1) = im2col (cells x taps*fps) * filters (taps*fps x 1)
+                CpuGemm.sgemm(false, false, cells, 1, taps * slicesPerOutput,
+                        1, workspace, 0, cells,
+                        f, oSlice * slicesPerOutput * taps, taps * slicesPerOutput,
+                        0, out, h * output.getHyperSliceSize() + oSlice * cells, cells);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the workspace that belongs to the given matrix, the workspace is
+     * only reallocated if it is too small.
+     */
+    private float[] getWorkspace(imatrix owner, int size) {
+        synchronized (workspaces) {
+            float[] workspace = workspaces.get(owner);
+            if (workspace == null || workspace.length < size) {
+                workspace = new float[size];
+                workspaces.put(owner, workspace);
+            }
+            return workspace;
+        }
+    }
+
+    /**
+     * Copies the input patches of a number of consecutive slices into the
+     * columns of the workspace. The column of filter tap (fr, fc) in slice i
+     * is stored at column i * taps + fr + fc * filterRows and contains the
+     * input value under that tap for every output cell, in column major order.
+     * Cells that fall in the zero padding are set to zero.
+     *
+     * @param input the input matrix.
+     * @param in the host array of the input matrix.
+     * @param startSlice the first slice to copy.
+     * @param nrOfSlices the number of slices to copy.
+     * @param h the hyperslice of the input.
+     * @param filterRows the number of rows in the filter.
+     * @param filterColumns the number of columns in the filter.
+     * @param outputRows the number of rows in the output.
+     * @param outputColumns the number of columns in the output.
+     * @param stride the stride of the filter.
+     * @param flip true if the filter is flipped (correlation).
+     * @param workspace the workspace.
+     */
+    static void im2col(imatrix input, float[] in, int startSlice, int nrOfSlices, int h,
+            int filterRows, int filterColumns, int outputRows, int outputColumns,
+            int stride, boolean flip, float[] workspace) {
+        im2col(input, in, startSlice, nrOfSlices, h, filterRows, filterColumns,
+                outputRows, outputColumns, 0, stride, flip, workspace);
+    }
+
+    /**
+     * Copies the input patches of a band of output columns into the columns
+     * of the workspace. The workspace has one row per output cell of the band,
+     * the first row belongs to output cell (0, startColumn).
+     *
+     * @param input the input matrix.
+     * @param in the host array of the input matrix.
+     * @param startSlice the first slice to copy.
+     * @param nrOfSlices the number of slices to copy.
+     * @param h the hyperslice of the input.
+     * @param filterRows the number of rows in the filter.
+     * @param filterColumns the number of columns in the filter.
+     * @param outputRows the number of rows in the band.
+     * @param outputColumns the number of columns in the band.
+     * @param startColumn the first output column of the band.
+     * @param stride the stride of the filter.
+     * @param flip true if the filter is flipped (correlation).
+     * @param workspace the workspace.
+     */
+    static void im2col(imatrix input, float[] in, int startSlice, int nrOfSlices, int h,
+            int filterRows, int filterColumns, int outputRows, int outputColumns, int startColumn,
+            int stride, boolean flip, float[] workspace) {
+        int rows = input.getNrOfRows();
+        int columns = input.getNrOfColumns();
+        int zp = input.getZeroPadding();
+        int taps = filterRows * filterColumns;
+        int cells = outputRows * outputColumns;
+        for (int i = 0; i < nrOfSlices; ++i) {
+            int sliceOffset = h * input.getHyperSliceSize() + (startSlice + i) * input.getSliceSize();
+            for (int fc = 0; fc < filterColumns; ++fc) {
+                for (int fr = 0; fr < filterRows; ++fr) {
+                    int column = flip
+                            ? (filterRows - 1 - fr) + (filterColumns - 1 - fc) * filterRows
+                            : fr + fc * filterRows;
+                    int dst = (i * taps + column) * cells;
+                    // first and last output row that fall inside the input.
+                    int firstRow = Math.max(0, (zp - fr + stride - 1) / stride);
+                    int lastRowInput = rows - 1 + zp - fr;
+                    int lastRow = lastRowInput < 0 ? 0 : Math.min(outputRows, lastRowInput / stride + 1);
+                    for (int oc = 0; oc < outputColumns; ++oc, dst += outputRows) {
+                        int ic = (startColumn + oc) * stride + fc - zp;
+                        if (ic < 0 || ic >= columns || firstRow >= lastRow) {
+                            for (int or = 0; or < outputRows; ++or) {
+                                workspace[dst + or] = 0;
+                            }
+                            continue;
+                        }
+                        for (int or = 0; or < firstRow; ++or) {
+                            workspace[dst + or] = 0;
+                        }
+                        int src = sliceOffset + ic * rows + firstRow * stride + fr - zp;
+                        if (stride == 1) {
+                            System.arraycopy(in, src, workspace, dst + firstRow, lastRow - firstRow);
+                        } else {
+                            for (int or = firstRow; or < lastRow; ++or, src += stride) {
+                                workspace[dst + or] = in[src];
+                            }
+                        }
+                        for (int or = lastRow; or < outputRows; ++or) {
+                            workspace[dst + or] = 0;
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
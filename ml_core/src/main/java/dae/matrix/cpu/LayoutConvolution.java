@@ -0,0 +1,191 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.cpu;
+
+import dae.matrix.StridedView;
+import dae.matrix.fmatrix;
+import dae.matrix.imatrix;
+import dae.matrix.memory.Workspace;
+import dae.matrix.zpmatrix;
+
+/**
+ * Converts the operands of the batch convolution operations to the planar
+ * layout before they are handed to the engine. The convolution engines work on
+ * slices that are stored in column major order, an operand that is stored in
+ * another layout, for example an interleaved fmatrix, is copied into a planar
+ * temporary of the workspace and the output is copied back afterwards.
+ *
+ * Operands that are already planar, or that have no strided view, are passed
+ * to the engine unchanged. The conversion costs a copy of every converted
+ * operand per call, it makes the other layouts usable with the engines but
+ * does not make them faster.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public class LayoutConvolution implements ConvolutionEngine {
+
+    private final ConvolutionEngine engine;
+
+    /**
+     * Creates a layout converting engine.
+     *
+     * @param engine the engine that executes the planar operations.
+     */
+    public LayoutConvolution(ConvolutionEngine engine) {
+        this.engine = engine;
+    }
+
+    @Override
+    public boolean batchConvolve(imatrix input, imatrix filter, imatrix bias, int stride, imatrix output) {
+        if (!needsConversion(input) && !needsConversion(filter) && !needsConversion(output)) {
+            return engine.batchConvolve(input, filter, bias, stride, output);
+        }
+        Workspace workspace = Workspace.get();
+        fmatrix pi = toPlanar(input, workspace);
+        fmatrix pf = toPlanar(filter, workspace);
+        fmatrix po = toPlanar(output, workspace);
+        try {
+            boolean done = engine.batchConvolve(padded(input, pi), pf != null ? pf : filter, bias, stride,
+                    po != null ? po : output);
+            if (done && po != null) {
+                copy(po.getStridedView(), output.getStridedView());
+            }
+            return done;
+        } finally {
+            giveBack(workspace, pi, pf, po);
+        }
+    }
+
+    @Override
+    public boolean batchCorrelate(imatrix input, imatrix filter, int stride, imatrix output) {
+        if (!needsConversion(input) && !needsConversion(filter) && !needsConversion(output)) {
+            return engine.batchCorrelate(input, filter, stride, output);
+        }
+        Workspace workspace = Workspace.get();
+        fmatrix pi = toPlanar(input, workspace);
+        fmatrix pf = toPlanar(filter, workspace);
+        fmatrix po = toPlanar(output, workspace);
+        try {
+            boolean done = engine.batchCorrelate(padded(input, pi), pf != null ? pf : filter, stride,
+                    po != null ? po : output);
+            if (done && po != null) {
+                copy(po.getStridedView(), output.getStridedView());
+            }
+            return done;
+        } finally {
+            giveBack(workspace, pi, pf, po);
+        }
+    }
+
+    @Override
+    public boolean deltasBatchConvolve(imatrix input, imatrix deltas, int stride, imatrix kernel) {
+        if (!needsConversion(input) && !needsConversion(deltas) && !needsConversion(kernel)) {
+            return engine.deltasBatchConvolve(input, deltas, stride, kernel);
+        }
+        Workspace workspace = Workspace.get();
+        fmatrix pi = toPlanar(input, workspace);
+        fmatrix pd = toPlanar(deltas, workspace);
+        fmatrix pk = toPlanar(kernel, workspace);
+        try {
+            boolean done = engine.deltasBatchConvolve(padded(input, pi), pd != null ? pd : deltas, stride,
+                    pk != null ? pk : kernel);
+            if (done && pk != null) {
+                copy(pk.getStridedView(), kernel.getStridedView());
+            }
+            return done;
+        } finally {
+            giveBack(workspace, pi, pd, pk);
+        }
+    }
+
+    @Override
+    public boolean batchBackpropCorrelate(imatrix input, imatrix filter, int stride, imatrix output) {
+        if (!needsConversion(input) && !needsConversion(filter) && !needsConversion(output)) {
+            return engine.batchBackpropCorrelate(input, filter, stride, output);
+        }
+        Workspace workspace = Workspace.get();
+        fmatrix pi = toPlanar(input, workspace);
+        fmatrix pf = toPlanar(filter, workspace);
+        fmatrix po = toPlanar(output, workspace);
+        try {
+            boolean done = engine.batchBackpropCorrelate(padded(input, pi), pf != null ? pf : filter, stride,
+                    po != null ? po : output);
+            if (done && po != null) {
+                copy(po.getStridedView(), output.getStridedView());
+            }
+            return done;
+        } finally {
+            giveBack(workspace, pi, pf, po);
+        }
+    }
+
+    /**
+     * Checks if a matrix has a strided view that is not planar. Views without
+     * a strided view are left to the fallback of the engine.
+     */
+    private static boolean needsConversion(imatrix m) {
+        StridedView view = m.getStridedView();
+        return view != null && view.hasArray() && !view.isContiguous();
+    }
+
+    /**
+     * Copies a matrix into a planar temporary of the workspace.
+     *
+     * @return the planar copy or null if the matrix does not need a
+     * conversion.
+     */
+    private static fmatrix toPlanar(imatrix m, Workspace workspace) {
+        if (!needsConversion(m)) {
+            return null;
+        }
+        fmatrix planar = workspace.borrowMatrix(m.getNrOfRows(), m.getNrOfColumns(),
+                m.getNrOfSlices(), m.getNrOfHyperSlices());
+        copy(m.getStridedView(), planar.getStridedView());
+        return planar;
+    }
+
+    /**
+     * Returns the operand for the input, the planar copy keeps the zero
+     * padding of the original input.
+     */
+    private static imatrix padded(imatrix input, fmatrix planar) {
+        if (planar == null) {
+            return input;
+        }
+        return input.getZeroPadding() > 0 ? new zpmatrix(planar, input.getZeroPadding()) : planar;
+    }
+
+    private static void giveBack(Workspace workspace, fmatrix... planar) {
+        for (fmatrix m : planar) {
+            if (m != null) {
+                workspace.giveBack(m);
+            }
+        }
+    }
+
+    /**
+     * Copies the cells of one strided view into another view with the same
+     * dimensions, the innermost loop follows the rows.
+     */
+    private static void copy(StridedView from, StridedView to) {
+        float[] src = from.getArray();
+        float[] dst = to.getArray();
+        int so = from.getArrayOffset();
+        int dof = to.getArrayOffset();
+        int srs = from.getRowStride();
+        int drs = to.getRowStride();
+        for (int h = 0; h < from.getNrOfHyperSlices(); ++h) {
+            for (int s = 0; s < from.getNrOfSlices(); ++s) {
+                for (int c = 0; c < from.getNrOfColumns(); ++c) {
+                    int si = so + from.index(0, c, s, h);
+                    int di = dof + to.index(0, c, s, h);
+                    for (int r = 0; r < from.getNrOfRows(); ++r, si += srs, di += drs) {
+                        dst[di] = src[si];
+                    }
+                }
+            }
+        }
+    }
+}
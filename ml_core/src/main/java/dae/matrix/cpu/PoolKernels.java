@@ -0,0 +1,167 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.cpu;
+
+import dae.matrix.integer.bytematrix;
+import java.util.Arrays;
+
+/**
+ * The loops of the max pool operations on plain arrays. Every loop processes
+ * one slice, the slices of a batch are distributed over the threads by the
+ * caller.
+ *
+ * The mask of a max pool stores the location of the maximum inside its pool
+ * window as one unsigned byte: the cell in row r and column c of a window with
+ * scaleY rows is stored as r + c * scaleY. A window can therefore contain at
+ * most 256 cells. The window location is converted to an offset in the
+ * unpooled slice with a table, so the gradients are scattered without a
+ * comparison per cell.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public final class PoolKernels {
+
+    private PoolKernels() {
+
+    }
+
+    /**
+     * Checks if the location of the maximum in a pool window fits in the cell
+     * of a mask.
+     *
+     * @param scaleX the number of columns in the pool window.
+     * @param scaleY the number of rows in the pool window.
+     */
+    public static void checkWindow(int scaleX, int scaleY) {
+        if (scaleX < 1 || scaleY < 1 || scaleX * scaleY > bytematrix.MAXVALUE + 1) {
+            throw new IllegalArgumentException("A pool window of " + scaleY + "x" + scaleX
+                    + " is not supported, a window needs between 1 and " + (bytematrix.MAXVALUE + 1) + " cells.");
+        }
+    }
+
+    /**
+     * Creates the table that converts the location in a pool window to the
+     * offset of the cell relative to the first cell of the window.
+     *
+     * @param scaleX the number of columns in the pool window.
+     * @param scaleY the number of rows in the pool window.
+     * @param rows the number of rows of the unpooled slice.
+     * @return the offset of every location in the window.
+     */
+    public static int[] windowOffsets(int scaleX, int scaleY, int rows) {
+        int[] offsets = new int[scaleX * scaleY];
+        for (int c = 0; c < scaleX; ++c) {
+            for (int r = 0; r < scaleY; ++r) {
+                offsets[r + c * scaleY] = r + c * rows;
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * Max pools one slice and stores the location of every maximum in the
+     * mask.
+     *
+     * @param in the unpooled data.
+     * @param inOffset the offset of the slice in the unpooled data.
+     * @param inRows the number of rows of the unpooled slice.
+     * @param out the pooled data.
+     * @param outOffset the offset of the slice in the pooled data.
+     * @param rows the number of rows of the pooled slice.
+     * @param columns the number of columns of the pooled slice.
+     * @param mask the mask.
+     * @param maskOffset the offset of the slice in the mask.
+     * @param scaleX the number of columns in the pool window.
+     * @param scaleY the number of rows in the pool window.
+     */
+    public static void maxPool(float[] in, int inOffset, int inRows,
+            float[] out, int outOffset, int rows, int columns,
+            byte[] mask, int maskOffset, int scaleX, int scaleY) {
+        for (int pc = 0; pc < columns; ++pc) {
+            int windowColumn = inOffset + pc * scaleX * inRows;
+            int o = pc * rows;
+            for (int pr = 0; pr < rows; ++pr) {
+                int window = windowColumn + pr * scaleY;
+                float m = -Float.MAX_VALUE;
+                int cell = 0;
+                for (int c = 0; c < scaleX; ++c) {
+                    int base = window + c * inRows;
+                    for (int r = 0; r < scaleY; ++r) {
+                        float value = in[base + r];
+                        if (value > m) {
+                            m = value;
+                            cell = r + c * scaleY;
+                        }
+                    }
+                }
+                out[outOffset + o + pr] = m;
+                mask[maskOffset + o + pr] = (byte) cell;
+            }
+        }
+    }
+
+    /**
+     * Copies the cell at the location of the mask from every pool window of an
+     * unpooled slice into the pooled slice.
+     *
+     * @param in the unpooled data.
+     * @param inOffset the offset of the slice in the unpooled data.
+     * @param inRows the number of rows of the unpooled slice.
+     * @param out the pooled data.
+     * @param outOffset the offset of the slice in the pooled data.
+     * @param rows the number of rows of the pooled slice.
+     * @param columns the number of columns of the pooled slice.
+     * @param mask the mask.
+     * @param maskOffset the offset of the slice in the mask.
+     * @param scaleX the number of columns in the pool window.
+     * @param scaleY the number of rows in the pool window.
+     * @param offsets the window offsets of the unpooled slice.
+     */
+    public static void gather(float[] in, int inOffset, int inRows,
+            float[] out, int outOffset, int rows, int columns,
+            byte[] mask, int maskOffset, int scaleX, int scaleY, int[] offsets) {
+        for (int pc = 0; pc < columns; ++pc) {
+            int windowColumn = inOffset + pc * scaleX * inRows;
+            int o = pc * rows;
+            for (int pr = 0; pr < rows; ++pr) {
+                int cell = mask[maskOffset + o + pr] & 0xFF;
+                out[outOffset + o + pr] = in[windowColumn + pr * scaleY + offsets[cell]];
+            }
+        }
+    }
+
+    /**
+     * Clears one unpooled slice and writes every pooled value to the location
+     * of the maximum of its pool window.
+     *
+     * @param in the pooled data.
+     * @param inOffset the offset of the slice in the pooled data.
+     * @param rows the number of rows of the pooled slice.
+     * @param columns the number of columns of the pooled slice.
+     * @param mask the mask.
+     * @param maskOffset the offset of the slice in the mask.
+     * @param out the unpooled data.
+     * @param outOffset the offset of the slice in the unpooled data.
+     * @param outRows the number of rows of the unpooled slice.
+     * @param outSliceSize the number of cells in the unpooled slice.
+     * @param scaleX the number of columns in the pool window.
+     * @param scaleY the number of rows in the pool window.
+     * @param offsets the window offsets of the unpooled slice.
+     */
+    public static void scatter(float[] in, int inOffset, int rows, int columns,
+            byte[] mask, int maskOffset,
+            float[] out, int outOffset, int outRows, int outSliceSize,
+            int scaleX, int scaleY, int[] offsets) {
+        Arrays.fill(out, outOffset, outOffset + outSliceSize, 0);
+        for (int pc = 0; pc < columns; ++pc) {
+            int windowColumn = outOffset + pc * scaleX * outRows;
+            int i = pc * rows;
+            for (int pr = 0; pr < rows; ++pr) {
+                int cell = mask[maskOffset + i + pr] & 0xFF;
+                out[windowColumn + pr * scaleY + offsets[cell]] = in[inOffset + i + pr];
+            }
+        }
+    }
+}
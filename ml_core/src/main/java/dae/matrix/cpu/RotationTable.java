@@ -0,0 +1,172 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.cpu;
+
+/**
+ * The bilinear interpolation of a kernel rotation as a sparse operator. Every
+ * cell of a rotated kernel is the weighted sum of at most four cells of the
+ * source kernel, the table stores the index of these cells in the source slice
+ * and their weights for every rotation. The weights are normalized over the
+ * source cells that lie inside the kernel, source cells outside the kernel
+ * have a weight of zero.
+ *
+ * The table only depends on the size of the kernel, the number of rotations
+ * and the angles, so it is calculated once and then applied to every new set
+ * of weights.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+final class RotationTable {
+
+    /**
+     * The number of source cells of a rotated cell.
+     */
+    private static final int TAPS = 4;
+
+    private final int rows;
+    private final int columns;
+    private final int nrOfRotations;
+    private final float minAngle;
+    private final float maxAngle;
+
+    private final int[] index;
+    private final float[] weight;
+
+    /**
+     * Creates the table of a kernel rotation.
+     *
+     * @param rows the number of rows of the kernel.
+     * @param columns the number of columns of the kernel.
+     * @param nrOfRotations the number of rotations.
+     * @param minAngle the angle of the first rotation.
+     * @param maxAngle the angle of the last rotation.
+     * @param inverse true if the kernel is rotated over the negated angles.
+     */
+    RotationTable(int rows, int columns, int nrOfRotations, float minAngle, float maxAngle, boolean inverse) {
+        this.rows = rows;
+        this.columns = columns;
+        this.nrOfRotations = nrOfRotations;
+        this.minAngle = minAngle;
+        this.maxAngle = maxAngle;
+
+        int cells = rows * columns;
+        index = new int[nrOfRotations * cells * TAPS];
+        weight = new float[nrOfRotations * cells * TAPS];
+
+        float angleStep = (maxAngle - minAngle) / (nrOfRotations - 1);
+        float angle = minAngle;
+        float rcx = rows / 2.0f;
+        float rcy = columns / 2.0f;
+        for (int rot = 0; rot < nrOfRotations; ++rot) {
+            float sa = (float) Math.sin(inverse ? -angle : angle);
+            float ca = (float) Math.cos(inverse ? -angle : angle);
+            angle += angleStep;
+            for (int y = 0; y < columns; ++y) {
+                for (int x = 0; x < rows; ++x) {
+                    float rx = x - rcx;
+                    float ry = y - rcy;
+
+                    float ox = rcx + rx * ca - ry * sa;
+                    float oy = rcy + rx * sa + ry * ca;
+
+                    float xPerc = Math.abs(ox % 1);
+                    float yPerc = Math.abs(oy % 1);
+                    int startx = (int) ox;
+                    int starty = (int) oy;
+
+                    int t = (rot * cells + x + y * rows) * TAPS;
+                    float a1 = setTap(t, startx, starty, (1 - xPerc) * (1 - yPerc));
+                    float a2 = setTap(t + 1, startx, starty + 1, (1 - xPerc) * yPerc);
+                    float a3 = setTap(t + 2, startx + 1, starty, xPerc * (1 - yPerc));
+                    float a4 = setTap(t + 3, startx + 1, starty + 1, xPerc * yPerc);
+
+                    float norm = a1 + a2 + a3 + a4;
+                    if (Math.abs(norm) >= 0.00001f) {
+                        for (int k = 0; k < TAPS; ++k) {
+                            weight[t + k] /= norm;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores a source cell of a rotated cell.
+     *
+     * @return the weight of the source cell, zero if the cell lies outside the
+     * kernel.
+     */
+    private float setTap(int t, int x, int y, float a) {
+        if (x >= 0 && y >= 0 && x < rows && y < columns) {
+            index[t] = x + y * rows;
+            weight[t] = a;
+            return a;
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Checks if this table was calculated for the given rotation.
+     *
+     * @param rows the number of rows of the kernel.
+     * @param columns the number of columns of the kernel.
+     * @param nrOfRotations the number of rotations.
+     * @param minAngle the angle of the first rotation.
+     * @param maxAngle the angle of the last rotation.
+     * @return true if the table can be used for the rotation.
+     */
+    boolean isValid(int rows, int columns, int nrOfRotations, float minAngle, float maxAngle) {
+        return this.rows == rows && this.columns == columns && this.nrOfRotations == nrOfRotations
+                && Float.compare(this.minAngle, minAngle) == 0 && Float.compare(this.maxAngle, maxAngle) == 0;
+    }
+
+    /**
+     * Rotates one kernel slice.
+     *
+     * @param src the source kernels.
+     * @param srcOffset the offset of the source slice.
+     * @param rot the rotation.
+     * @param dst the rotated kernels.
+     * @param dstOffset the offset of the rotated slice.
+     */
+    void rotate(float[] src, int srcOffset, int rot, float[] dst, int dstOffset) {
+        int cells = rows * columns;
+        int t = rot * cells * TAPS;
+        for (int j = 0; j < cells; ++j, t += TAPS) {
+            dst[dstOffset + j] = weight[t] * src[srcOffset + index[t]]
+                    + weight[t + 1] * src[srcOffset + index[t + 1]]
+                    + weight[t + 2] * src[srcOffset + index[t + 2]]
+                    + weight[t + 3] * src[srcOffset + index[t + 3]];
+        }
+    }
+
+    /**
+     * Rotates every rotation of a kernel back and stores the mean of the
+     * rotations.
+     *
+     * @param src the rotated kernels.
+     * @param srcOffset the offset of the first rotation of the kernel, the
+     * rotations are stored in consecutive slices.
+     * @param dst the kernels.
+     * @param dstOffset the offset of the kernel slice.
+     */
+    void accumulate(float[] src, int srcOffset, float[] dst, int dstOffset) {
+        int cells = rows * columns;
+        for (int j = 0; j < cells; ++j) {
+            float sum = 0;
+            for (int rot = 0; rot < nrOfRotations; ++rot) {
+                int s = srcOffset + rot * cells;
+                int t = (rot * cells + j) * TAPS;
+                sum += weight[t] * src[s + index[t]]
+                        + weight[t + 1] * src[s + index[t + 1]]
+                        + weight[t + 2] * src[s + index[t + 2]]
+                        + weight[t + 3] * src[s + index[t + 3]];
+            }
+            dst[dstOffset + j] = sum / nrOfRotations;
+        }
+    }
+}
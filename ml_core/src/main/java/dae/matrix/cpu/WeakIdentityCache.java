@@ -0,0 +1,96 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.cpu;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A thread safe cache with weak keys that are compared by identity. A matrix
+ * is a key as long as it is in use, two different matrices with the same
+ * content never share an entry. The entry of a key is removed after the key
+ * is garbage collected.
+ *
+ * A caller that needs to check and replace an entry atomically synchronizes
+ * on the cache.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ * @param <K> the type of the keys.
+ * @param <V> the type of the values.
+ */
+final class WeakIdentityCache<K, V> {
+
+    private final Map<Key<K>, V> entries = new HashMap<>();
+    private final ReferenceQueue<K> queue = new ReferenceQueue<>();
+
+    /**
+     * Returns the value of a key.
+     *
+     * @param key the key.
+     * @return the value or null if the key has no entry.
+     */
+    synchronized V get(K key) {
+        expunge();
+        return entries.get(new Key<>(key, null));
+    }
+
+    /**
+     * Stores the value of a key, the previous value is replaced.
+     *
+     * @param key the key.
+     * @param value the new value.
+     */
+    synchronized void put(K key, V value) {
+        expunge();
+        entries.put(new Key<>(key, queue), value);
+    }
+
+    /**
+     * Returns the number of entries with a key that was not collected yet.
+     *
+     * @return the number of entries.
+     */
+    synchronized int size() {
+        expunge();
+        return entries.size();
+    }
+
+    private void expunge() {
+        Reference<? extends K> collected;
+        while ((collected = queue.poll()) != null) {
+            entries.remove(collected);
+        }
+    }
+
+    private static final class Key<K> extends WeakReference<K> {
+
+        private final int hash;
+
+        Key(K referent, ReferenceQueue<K> queue) {
+            super(referent, queue);
+            hash = System.identityHashCode(referent);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Object referent = get();
+            return referent != null && referent == ((Key<?>) o).get();
+        }
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.cpu;
+
+import dae.matrix.imatrix;
+
+/**
+ * Calculates stride 1, 3x3 convolutions with the Winograd minimal filtering
+ * algorithm F(2x2,3x3). Every 2x2 output tile is calculated from a 4x4 input
+ * tile with 16 multiplications instead of 36.
+ *
+ * The transformed filters are cached per filter matrix and are only
+ * recalculated when the modification count of the filter has changed. The
+ * operations
+ * that are not supported by this algorithm are delegated to a fallback
+ * engine.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public class WinogradConvolution implements ConvolutionEngine {
+
+    private final ConvolutionEngine fallback;
+    private final WeakIdentityCache<imatrix, TransformedFilter> filters = new WeakIdentityCache<>();
+    private final WeakIdentityCache<imatrix, TransformedFilter> flippedFilters = new WeakIdentityCache<>();
+
+    private final ThreadLocal<float[]> tiles = ThreadLocal.withInitial(() -> new float[32]);
+
+    /**
+     * Creates a Winograd engine with a direct convolution engine as fallback.
+     */
+    public WinogradConvolution() {
+        this(new DirectConvolution());
+    }
+
+    /**
+     * Creates a Winograd engine.
+     *
+     * @param fallback the engine for the operations that can not be calculated
+     * with the Winograd algorithm.
+     */
+    public WinogradConvolution(ConvolutionEngine fallback) {
+        this.fallback = fallback;
+    }
+
+    private static boolean isSupported(imatrix filter, int stride) {
+        return stride == 1 && filter.getNrOfRows() == 3 && filter.getNrOfColumns() == 3;
+    }
+
+    /**
+     * Applies the filters on the input matrix.
+     *
+     * @param input the matrix to convolve.
+     * @param filter the filter to apply.
+     * @param bias a row matrix with a bias term per filter slice, can be null.
+     * @param stride the stride with which to advance the filter.
+     * @param output the matrix where the output is stored.
+     * @return true if the operation was executed, false otherwise.
+     */
+    @Override
+    public boolean batchConvolve(imatrix input, imatrix filter, imatrix bias, int stride, imatrix output) {
+        float[] in = FMatrixOpCpu.hostArray(input);
+        float[] f = FMatrixOpCpu.hostArray(filter);
+        float[] out = FMatrixOpCpu.hostArray(output);
+        if (!isSupported(filter, stride) || in == null || f == null || out == null || output.isTransposed()) {
+            return fallback.batchConvolve(input, filter, bias, stride, output);
+        }
+        float[] u = getTransformedFilter(filter, f, false);
+        int fps = filter.getNrOfSlices() / input.getNrOfSlices();
+        int oRows = output.getNrOfRows();
+        int oColumns = output.getNrOfColumns();
+        int cells = output.getSliceSize();
+        int hyperSlices = Math.min(input.getNrOfHyperSlices(), output.getNrOfHyperSlices());
+        CpuParallel.forEach(hyperSlices, (long) output.getHyperSliceSize() * 4, (start, end) -> {
+            // the buffer belongs to the thread that executes the range.
+            float[] tile = tiles.get();
+            for (int h = start; h < end; ++h) {
+                for (int fs = 0; fs < filter.getNrOfSlices(); ++fs) {
+                    int outputOffset = h * output.getHyperSliceSize() + fs * cells;
+                    float b = bias != null ? bias.get(fs, 0) : 0;
+                    for (int i = outputOffset; i < outputOffset + cells; ++i) {
+                        out[i] = b;
+                    }
+                }
+                for (int slice = 0; slice < input.getNrOfSlices(); ++slice) {
+                    int inputOffset = h * input.getHyperSliceSize() + slice * input.getSliceSize();
+                    int outputOffset = h * output.getHyperSliceSize() + slice * fps * cells;
+                    for (int tc = 0; tc < oColumns; tc += 2) {
+                        for (int tr = 0; tr < oRows; tr += 2) {
+                            transformInput(input, in, inputOffset, tr, tc, tile);
+                            // the transformed input tile is shared by all filters of this slice.
+                            for (int fi = 0; fi < fps; ++fi) {
+                                addProductTile(u, (slice * fps + fi) * 16, tile,
+                                        out, outputOffset + fi * cells, oRows, oColumns, tr, tc);
+                            }
+                        }
+                    }
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * The correlation is not calculated with the Winograd algorithm, the
+     * operation is delegated to the fallback engine.
+     *
+     * @param input the matrix to correlate.
+     * @param filter the filter to apply.
+     * @param stride the stride with which to advance the filter.
+     * @param output the matrix where the output is stored.
+     * @return true if the operation was executed, false otherwise.
+     */
+    @Override
+    public boolean batchCorrelate(imatrix input, imatrix filter, int stride, imatrix output) {
+        return fallback.batchCorrelate(input, filter, stride, output);
+    }
+
+    /**
+     * The filter gradient is not calculated with the Winograd algorithm, the
+     * operation is delegated to the fallback engine.
+     *
+     * @param input the input (with batch multiplicity).
+     * @param deltas the deltas( with batch multiplicity).
+     * @param stride the stride.
+     * @param kernel the kernel (with batch multiplicity).
+     * @return true if the operation was executed, false otherwise.
+     */
+    @Override
+    public boolean deltasBatchConvolve(imatrix input, imatrix deltas, int stride, imatrix kernel) {
+        return fallback.deltasBatchConvolve(input, deltas, stride, kernel);
+    }
+
+    /**
+     * Correlates the zero padded deltas with the flipped filters. The products
+     * of all the slices that belong to an output slice are summed in the
+     * transformed domain, so only one inverse transform per tile is needed.
+     *
+     * @param input the zero padded deltas.
+     * @param filter the filter matrix.
+     * @param stride the stride.
+     * @param output the output matrix.
+     * @return true if the operation was executed, false otherwise.
+     */
+    @Override
+    public boolean batchBackpropCorrelate(imatrix input, imatrix filter, int stride, imatrix output) {
+        float[] in = FMatrixOpCpu.hostArray(input);
+        float[] f = FMatrixOpCpu.hostArray(filter);
+        float[] out = FMatrixOpCpu.hostArray(output);
+        if (!isSupported(filter, stride) || in == null || f == null || out == null || output.isTransposed()) {
+            return fallback.batchBackpropCorrelate(input, filter, stride, output);
+        }
+        float[] u = getTransformedFilter(filter, f, true);
+        int slicesPerOutput = filter.getNrOfSlices() / output.getNrOfSlices();
+        int oRows = output.getNrOfRows();
+        int oColumns = output.getNrOfColumns();
+        int cells = output.getSliceSize();
+        int hyperSlices = Math.min(input.getNrOfHyperSlices(), output.getNrOfHyperSlices());
+        CpuParallel.forEach(hyperSlices, (long) output.getHyperSliceSize() * 4 * slicesPerOutput, (start, end) -> {
+            // the buffer belongs to the thread that executes the range.
+            float[] tile = tiles.get();
+            for (int h = start; h < end; ++h) {
+                for (int oSlice = 0; oSlice < output.getNrOfSlices(); ++oSlice) {
+                    int outputOffset = h * output.getHyperSliceSize() + oSlice * cells;
+                    for (int i = outputOffset; i < outputOffset + cells; ++i) {
+                        out[i] = 0;
+                    }
+                    for (int tc = 0; tc < oColumns; tc += 2) {
+                        for (int tr = 0; tr < oRows; tr += 2) {
+                            for (int i = 16; i < 32; ++i) {
+                                tile[i] = 0;
+                            }
+                            for (int s = 0; s < slicesPerOutput; ++s) {
+                                int slice = oSlice * slicesPerOutput + s;
+                                int inputOffset = h * input.getHyperSliceSize() + slice * input.getSliceSize();
+                                transformInput(input, in, inputOffset, tr, tc, tile);
+                                int uOffset = slice * 16;
+                                for (int i = 0; i < 16; ++i) {
+                                    tile[16 + i] += u[uOffset + i] * tile[i];
+                                }
+                            }
+                            addOutputTile(tile, out, outputOffset, oRows, oColumns, tr, tc);
+                        }
+                    }
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Returns the transformed filters, the cached transformation is reused as
+     * long as the filter was not modified.
+     */
+    private float[] getTransformedFilter(imatrix filter, float[] f, boolean flip) {
+        WeakIdentityCache<imatrix, TransformedFilter> cache = flip ? flippedFilters : filters;
+        synchronized (cache) {
+            TransformedFilter tf = cache.get(filter);
+            long modificationCount = filter.getModificationCount();
+            if (tf == null || tf.modificationCount != modificationCount) {
+                tf = new TransformedFilter(f, filter.getNrOfSlices(), flip, modificationCount);
+                cache.put(filter, tf);
+            }
+            return tf.u;
+        }
+    }
+
+    /**
+     * Loads the 4x4 input tile for the 2x2 output tile at (tr, tc) and stores
+     * the transformation B^T d B in the first 16 elements of the tile array.
+     */
+    private static void transformInput(imatrix input, float[] in, int inputOffset, int tr, int tc, float[] tile) {
+        int rows = input.getNrOfRows();
+        int columns = input.getNrOfColumns();
+        int zp = input.getZeroPadding();
+        int r = tr - zp;
+        int c = tc - zp;
+        float d00, d10, d20, d30, d01, d11, d21, d31, d02, d12, d22, d32, d03, d13, d23, d33;
+        if (r >= 0 && c >= 0 && r + 3 < rows && c + 3 < columns) {
+            int p0 = inputOffset + c * rows + r;
+            int p1 = p0 + rows;
+            int p2 = p1 + rows;
+            int p3 = p2 + rows;
+            d00 = in[p0];
+            d10 = in[p0 + 1];
+            d20 = in[p0 + 2];
+            d30 = in[p0 + 3];
+            d01 = in[p1];
+            d11 = in[p1 + 1];
+            d21 = in[p1 + 2];
+            d31 = in[p1 + 3];
+            d02 = in[p2];
+            d12 = in[p2 + 1];
+            d22 = in[p2 + 2];
+            d32 = in[p2 + 3];
+            d03 = in[p3];
+            d13 = in[p3 + 1];
+            d23 = in[p3 + 2];
+            d33 = in[p3 + 3];
+        } else {
+            d00 = get(in, inputOffset, rows, columns, r, c);
+            d10 = get(in, inputOffset, rows, columns, r + 1, c);
+            d20 = get(in, inputOffset, rows, columns, r + 2, c);
+            d30 = get(in, inputOffset, rows, columns, r + 3, c);
+            d01 = get(in, inputOffset, rows, columns, r, c + 1);
+            d11 = get(in, inputOffset, rows, columns, r + 1, c + 1);
+            d21 = get(in, inputOffset, rows, columns, r + 2, c + 1);
+            d31 = get(in, inputOffset, rows, columns, r + 3, c + 1);
+            d02 = get(in, inputOffset, rows, columns, r, c + 2);
+            d12 = get(in, inputOffset, rows, columns, r + 1, c + 2);
+            d22 = get(in, inputOffset, rows, columns, r + 2, c + 2);
+            d32 = get(in, inputOffset, rows, columns, r + 3, c + 2);
+            d03 = get(in, inputOffset, rows, columns, r, c + 3);
+            d13 = get(in, inputOffset, rows, columns, r + 1, c + 3);
+            d23 = get(in, inputOffset, rows, columns, r + 2, c + 3);
+            d33 = get(in, inputOffset, rows, columns, r + 3, c + 3);
+        }
+        // B^T d : combine the rows.
+        float t00 = d00 - d20, t01 = d01 - d21, t02 = d02 - d22, t03 = d03 - d23;
+        float t10 = d10 + d20, t11 = d11 + d21, t12 = d12 + d22, t13 = d13 + d23;
+        float t20 = d20 - d10, t21 = d21 - d11, t22 = d22 - d12, t23 = d23 - d13;
+        float t30 = d10 - d30, t31 = d11 - d31, t32 = d12 - d32, t33 = d13 - d33;
+        // (B^T d) B : combine the columns, element (i,j) is stored at i + 4 * j.
+        tile[0] = t00 - t02;
+        tile[1] = t10 - t12;
+        tile[2] = t20 - t22;
+        tile[3] = t30 - t32;
+        tile[4] = t01 + t02;
+        tile[5] = t11 + t12;
+        tile[6] = t21 + t22;
+        tile[7] = t31 + t32;
+        tile[8] = t02 - t01;
+        tile[9] = t12 - t11;
+        tile[10] = t22 - t21;
+        tile[11] = t32 - t31;
+        tile[12] = t01 - t03;
+        tile[13] = t11 - t13;
+        tile[14] = t21 - t23;
+        tile[15] = t31 - t33;
+    }
+
+    private static float get(float[] in, int inputOffset, int rows, int columns, int r, int c) {
+        if (r >= 0 && c >= 0 && r < rows && c < columns) {
+            return in[inputOffset + c * rows + r];
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Multiplies a transformed filter with the transformed input tile that is
+     * stored in the first 16 elements of the tile array, applies the inverse
+     * transformation and adds the 2x2 result to the output.
+     */
+    private static void addProductTile(float[] u, int uOffset, float[] tile,
+            float[] out, int outputOffset, int oRows, int oColumns, int tr, int tc) {
+        float m0 = u[uOffset] * tile[0], m1 = u[uOffset + 1] * tile[1];
+        float m2 = u[uOffset + 2] * tile[2], m3 = u[uOffset + 3] * tile[3];
+        float m4 = u[uOffset + 4] * tile[4], m5 = u[uOffset + 5] * tile[5];
+        float m6 = u[uOffset + 6] * tile[6], m7 = u[uOffset + 7] * tile[7];
+        float m8 = u[uOffset + 8] * tile[8], m9 = u[uOffset + 9] * tile[9];
+        float m10 = u[uOffset + 10] * tile[10], m11 = u[uOffset + 11] * tile[11];
+        float m12 = u[uOffset + 12] * tile[12], m13 = u[uOffset + 13] * tile[13];
+        float m14 = u[uOffset + 14] * tile[14], m15 = u[uOffset + 15] * tile[15];
+        // A^T m : combine the rows.
+        float s00 = m0 + m1 + m2;
+        float s01 = m4 + m5 + m6;
+        float s02 = m8 + m9 + m10;
+        float s03 = m12 + m13 + m14;
+        float s10 = m1 - m2 - m3;
+        float s11 = m5 - m6 - m7;
+        float s12 = m9 - m10 - m11;
+        float s13 = m13 - m14 - m15;
+        // (A^T m) A : combine the columns.
+        float y00 = s00 + s01 + s02;
+        float y10 = s10 + s11 + s12;
+        float y01 = s01 - s02 - s03;
+        float y11 = s11 - s12 - s13;
+
+        int p = outputOffset + tc * oRows + tr;
+        if (tr + 1 < oRows && tc + 1 < oColumns) {
+            out[p] += y00;
+            out[p + 1] += y10;
+            out[p + oRows] += y01;
+            out[p + oRows + 1] += y11;
+        } else {
+            out[p] += y00;
+            if (tr + 1 < oRows) {
+                out[p + 1] += y10;
+            }
+            if (tc + 1 < oColumns) {
+                out[p + oRows] += y01;
+            }
+        }
+    }
+
+    /**
+     * Applies the inverse transformation A^T m A on the product that is stored
+     * in elements 16 to 31 of the tile array and adds the 2x2 result to the
+     * output.
+     */
+    private static void addOutputTile(float[] tile, float[] out, int outputOffset, int oRows, int oColumns, int tr, int tc) {
+        // A^T m : combine the rows.
+        float s00 = tile[16] + tile[17] + tile[18];
+        float s01 = tile[20] + tile[21] + tile[22];
+        float s02 = tile[24] + tile[25] + tile[26];
+        float s03 = tile[28] + tile[29] + tile[30];
+        float s10 = tile[17] - tile[18] - tile[19];
+        float s11 = tile[21] - tile[22] - tile[23];
+        float s12 = tile[25] - tile[26] - tile[27];
+        float s13 = tile[29] - tile[30] - tile[31];
+        // (A^T m) A : combine the columns.
+        float y00 = s00 + s01 + s02;
+        float y10 = s10 + s11 + s12;
+        float y01 = s01 - s02 - s03;
+        float y11 = s11 - s12 - s13;
+
+        int p = outputOffset + tc * oRows + tr;
+        boolean secondRow = tr + 1 < oRows;
+        out[p] += y00;
+        if (secondRow) {
+            out[p + 1] += y10;
+        }
+        if (tc + 1 < oColumns) {
+            out[p + oRows] += y01;
+            if (secondRow) {
+                out[p + oRows + 1] += y11;
+            }
+        }
+    }
+
+    /**
+     * The transformed filters G g G^T of all the slices of a filter matrix,
+     * together with the modification count of the filter they were calculated
+     * from.
+     */
+    private static class TransformedFilter {
+
+        private final long modificationCount;
+        private final float[] u;
+
+        TransformedFilter(float[] f, int slices, boolean flip, long modificationCount) {
+            this.modificationCount = modificationCount;
+            u = new float[slices * 16];
+            for (int slice = 0; slice < slices; ++slice) {
+                transform(f, slice * 9, flip, u, slice * 16);
+            }
+        }
+
+        private static void transform(float[] f, int offset, boolean flip, float[] u, int uOffset) {
+            float[] g = new float[9];
+            for (int i = 0; i < 9; ++i) {
+                g[i] = flip ? f[offset + 8 - i] : f[offset + i];
+            }
+            // G g : combine the rows, g(r,c) is stored at r + 3 * c.
+            float[] t = new float[12];
+            for (int c = 0; c < 3; ++c) {
+                float g0 = g[c * 3];
+                float g1 = g[c * 3 + 1];
+                float g2 = g[c * 3 + 2];
+                t[c * 4] = g0;
+                t[c * 4 + 1] = 0.5f * (g0 + g1 + g2);
+                t[c * 4 + 2] = 0.5f * (g0 - g1 + g2);
+                t[c * 4 + 3] = g2;
+            }
+            // (G g) G^T : combine the columns, element (i,j) is stored at i + 4 * j.
+            for (int i = 0; i < 4; ++i) {
+                float t0 = t[i];
+                float t1 = t[4 + i];
+                float t2 = t[8 + i];
+                u[uOffset + i] = t0;
+                u[uOffset + 4 + i] = 0.5f * (t0 + t1 + t2);
+                u[uOffset + 8 + i] = 0.5f * (t0 - t1 + t2);
+                u[uOffset + 12 + i] = t2;
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.expr;
+
+import dae.matrix.imatrix;
+import java.util.List;
+
+/**
+ * Combines the cells of two expressions. The right operand is read directly
+ * from its host array if possible, otherwise it is evaluated in a scratch
+ * block.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+final class BinaryExpr extends Expr {
+
+    private final BinaryOp op;
+    private final Expr left;
+    private final Expr right;
+
+    BinaryExpr(BinaryOp op, Expr left, Expr right) {
+        this.op = op;
+        this.left = left;
+        this.right = right;
+    }
+
+    @Override
+    void evaluate(int from, int n, float[] out, float[][] scratch, int level) {
+        left.evaluate(from, n, out, scratch, level);
+        float[] array = right.getArray();
+        if (array != null) {
+            op.apply(out, array, from, n);
+        } else {
+            float[] block = scratch[level];
+            right.evaluate(from, n, block, scratch, level + 1);
+            op.apply(out, block, 0, n);
+        }
+    }
+
+    @Override
+    int getNrOfLevels() {
+        return Math.max(left.getNrOfLevels(), 1 + right.getNrOfLevels());
+    }
+
+    @Override
+    void collectOperands(List<imatrix> operands) {
+        left.collectOperands(operands);
+        right.collectOperands(operands);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.expr;
+
+/**
+ * The element by element operations with two operands. Every operation has
+ * its own loop so that the loops can be vectorized.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+enum BinaryOp {
+    ADD, SUB, MUL, DIV, MIN, MAX;
+
+    /**
+     * Calculates a[i] = a[i] op b[offset + i] for the first n cells of a.
+     *
+     * @param a the left operand and the result.
+     * @param b the right operand.
+     * @param offset the index of the first cell in b.
+     * @param n the number of cells.
+     */
+    void apply(float[] a, float[] b, int offset, int n) {
+        switch (this) {
+            case ADD:
+                for (int i = 0; i < n; ++i) {
+                    a[i] += b[offset + i];
+                }
+                break;
+            case SUB:
+                for (int i = 0; i < n; ++i) {
+                    a[i] -= b[offset + i];
+                }
+                break;
+            case MUL:
+                for (int i = 0; i < n; ++i) {
+                    a[i] *= b[offset + i];
+                }
+                break;
+            case DIV:
+                for (int i = 0; i < n; ++i) {
+                    a[i] /= b[offset + i];
+                }
+                break;
+            case MIN:
+                for (int i = 0; i < n; ++i) {
+                    a[i] = Math.min(a[i], b[offset + i]);
+                }
+                break;
+            case MAX:
+                for (int i = 0; i < n; ++i) {
+                    a[i] = Math.max(a[i], b[offset + i]);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Calculates a[i] = a[i] op b for the first n cells of a.
+     *
+     * @param a the left operand and the result.
+     * @param b the scalar right operand.
+     * @param n the number of cells.
+     */
+    void apply(float[] a, float b, int n) {
+        switch (this) {
+            case ADD:
+                for (int i = 0; i < n; ++i) {
+                    a[i] += b;
+                }
+                break;
+            case SUB:
+                for (int i = 0; i < n; ++i) {
+                    a[i] -= b;
+                }
+                break;
+            case MUL:
+                for (int i = 0; i < n; ++i) {
+                    a[i] *= b;
+                }
+                break;
+            case DIV:
+                for (int i = 0; i < n; ++i) {
+                    a[i] /= b;
+                }
+                break;
+            case MIN:
+                for (int i = 0; i < n; ++i) {
+                    a[i] = Math.min(a[i], b);
+                }
+                break;
+            case MAX:
+                for (int i = 0; i < n; ++i) {
+                    a[i] = Math.max(a[i], b);
+                }
+                break;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.expr;
+
+import dae.matrix.imatrix;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An expression with the same value for every cell.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+final class ConstantExpr extends Expr {
+
+    private final float value;
+
+    ConstantExpr(float value) {
+        this.value = value;
+    }
+
+    @Override
+    void evaluate(int from, int n, float[] out, float[][] scratch, int level) {
+        Arrays.fill(out, 0, n, value);
+    }
+
+    @Override
+    int getNrOfLevels() {
+        return 0;
+    }
+
+    @Override
+    void collectOperands(List<imatrix> operands) {
+
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.expr;
+
+import dae.matrix.StridedView;
+import dae.matrix.cpu.CpuParallel;
+import dae.matrix.imatrix;
+import dae.matrix.memory.Workspace;
+import dae.neuralnet.activation.Function;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A lazy element by element expression over matrices. The expression is built
+ * with the methods of this class and is only evaluated by into, in one
+ * parallel pass over the cells of the destination:
+ *
+ * <pre>
+ * Expr.of(m).mul(beta1).add(Expr.of(g).mul(1 - beta1)).into(m);
+ * </pre>
+ *
+ * Every operand is read once and no intermediate matrices are allocated. The
+ * cells are evaluated in blocks that fit in the first level cache and every
+ * node of the expression runs a tight loop over the block. The destination
+ * may also be an operand of the expression, a block is completely evaluated
+ * before it is written.
+ *
+ * All the operands must have the dimensions of the destination. The
+ * expression is evaluated on the host, the operands are synchronized with the
+ * device before the evaluation and the host buffer of the destination becomes
+ * the master.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public abstract class Expr {
+
+    /**
+     * The number of cells that are evaluated at once.
+     */
+    static final int BLOCKSIZE = 256;
+
+    Expr() {
+    }
+
+    /**
+     * Creates an expression that reads the cells of a matrix.
+     *
+     * @param m the matrix.
+     * @return the expression.
+     */
+    public static Expr of(imatrix m) {
+        return new MatrixExpr(m);
+    }
+
+    /**
+     * Creates an expression with the same value for every cell.
+     *
+     * @param value the value of the cells.
+     * @return the expression.
+     */
+    public static Expr constant(float value) {
+        return new ConstantExpr(value);
+    }
+
+    public Expr add(Expr other) {
+        return new BinaryExpr(BinaryOp.ADD, this, other);
+    }
+
+    public Expr add(imatrix other) {
+        return add(of(other));
+    }
+
+    public Expr add(float value) {
+        return new ScalarExpr(BinaryOp.ADD, this, value);
+    }
+
+    public Expr sub(Expr other) {
+        return new BinaryExpr(BinaryOp.SUB, this, other);
+    }
+
+    public Expr sub(imatrix other) {
+        return sub(of(other));
+    }
+
+    public Expr sub(float value) {
+        return new ScalarExpr(BinaryOp.SUB, this, value);
+    }
+
+    public Expr mul(Expr other) {
+        return new BinaryExpr(BinaryOp.MUL, this, other);
+    }
+
+    public Expr mul(imatrix other) {
+        return mul(of(other));
+    }
+
+    public Expr mul(float value) {
+        return new ScalarExpr(BinaryOp.MUL, this, value);
+    }
+
+    public Expr div(Expr other) {
+        return new BinaryExpr(BinaryOp.DIV, this, other);
+    }
+
+    public Expr div(imatrix other) {
+        return div(of(other));
+    }
+
+    public Expr div(float value) {
+        return new ScalarExpr(BinaryOp.DIV, this, value);
+    }
+
+    public Expr min(Expr other) {
+        return new BinaryExpr(BinaryOp.MIN, this, other);
+    }
+
+    public Expr min(float value) {
+        return new ScalarExpr(BinaryOp.MIN, this, value);
+    }
+
+    public Expr max(Expr other) {
+        return new BinaryExpr(BinaryOp.MAX, this, other);
+    }
+
+    public Expr max(float value) {
+        return new ScalarExpr(BinaryOp.MAX, this, value);
+    }
+
+    public Expr neg() {
+        return new UnaryExpr(UnaryOp.NEG, this, null);
+    }
+
+    public Expr abs() {
+        return new UnaryExpr(UnaryOp.ABS, this, null);
+    }
+
+    public Expr square() {
+        return new UnaryExpr(UnaryOp.SQUARE, this, null);
+    }
+
+    public Expr sqrt() {
+        return new UnaryExpr(UnaryOp.SQRT, this, null);
+    }
+
+    public Expr exp() {
+        return new UnaryExpr(UnaryOp.EXP, this, null);
+    }
+
+    public Expr log() {
+        return new UnaryExpr(UnaryOp.LOG, this, null);
+    }
+
+    /**
+     * Applies a function to every cell of this expression.
+     *
+     * @param f the function to apply.
+     * @return the expression.
+     */
+    public Expr apply(Function f) {
+        return new UnaryExpr(UnaryOp.FUNCTION, this, f);
+    }
+
+    /**
+     * Evaluates the expression and stores the result in the destination.
+     *
+     * @param dest the destination matrix.
+     * @return the destination matrix (for chaining purposes).
+     */
+    public imatrix into(imatrix dest) {
+        List<imatrix> operands = new ArrayList<>();
+        collectOperands(operands);
+        for (imatrix operand : operands) {
+            if (operand.getNrOfRows() != dest.getNrOfRows()
+                    || operand.getNrOfColumns() != dest.getNrOfColumns()
+                    || operand.getNrOfSlices() != dest.getNrOfSlices()
+                    || operand.getNrOfHyperSlices() != dest.getNrOfHyperSlices()) {
+                throw new IllegalArgumentException("The operand " + operand.getName()
+                        + " does not have the dimensions of the destination " + dest.getName());
+            }
+            operand.sync();
+        }
+
+        int cells = dest.getNrOfRows() * dest.getNrOfColumns() * dest.getNrOfSlices() * dest.getNrOfHyperSlices();
+        int blocks = (cells + BLOCKSIZE - 1) / BLOCKSIZE;
+        int levels = getNrOfLevels();
+        float[] destArray = hostArray(dest);
+        CpuParallel.forEach(blocks, BLOCKSIZE * operands.size(), (start, end) -> {
+            Workspace workspace = Workspace.get();
+            float[] out = workspace.borrowFloats(BLOCKSIZE);
+            float[][] scratch = new float[levels][];
+            for (int i = 0; i < levels; ++i) {
+                scratch[i] = workspace.borrowFloats(BLOCKSIZE);
+            }
+            for (int block = start; block < end; ++block) {
+                int from = block * BLOCKSIZE;
+                int n = Math.min(BLOCKSIZE, cells - from);
+                evaluate(from, n, out, scratch, 0);
+                if (destArray != null) {
+                    System.arraycopy(out, 0, destArray, from, n);
+                } else {
+                    for (int i = 0; i < n; ++i) {
+                        setCell(dest, from + i, out[i]);
+                    }
+                }
+            }
+            for (float[] s : scratch) {
+                workspace.giveBack(s);
+            }
+            workspace.giveBack(out);
+        });
+        dest.makeMaster();
+        return dest;
+    }
+
+    /**
+     * Evaluates the cells from the given cell index of the destination.
+     *
+     * @param from the index of the first cell.
+     * @param n the number of cells to evaluate.
+     * @param out the array to store the n cells in, from index 0.
+     * @param scratch the blocks to store intermediate results in.
+     * @param level the first free block in the scratch blocks.
+     */
+    abstract void evaluate(int from, int n, float[] out, float[][] scratch, int level);
+
+    /**
+     * Returns the number of scratch blocks that are needed to evaluate this
+     * expression.
+     *
+     * @return the number of scratch blocks.
+     */
+    abstract int getNrOfLevels();
+
+    /**
+     * Adds the matrices that are read by this expression to the list.
+     *
+     * @param operands the list of operands.
+     */
+    abstract void collectOperands(List<imatrix> operands);
+
+    /**
+     * Returns the host array if the cells of this expression can be read
+     * directly from an array, with the cell index of the destination as
+     * index.
+     *
+     * @return the array or null.
+     */
+    float[] getArray() {
+        return null;
+    }
+
+    /**
+     * Returns the host array of a matrix if the cells are stored in column
+     * major order from the start of the array.
+     *
+     * @param m the matrix.
+     * @return the host array or null if the matrix must be accessed cell by
+     * cell.
+     */
+    static float[] hostArray(imatrix m) {
+        StridedView view = m.getStridedView();
+        if (view != null && view.getZeroPadding() == 0 && view.hasArray()
+                && view.isContiguous() && view.getArrayOffset() == 0) {
+            return view.getArray();
+        } else {
+            return null;
+        }
+    }
+
+    static float getCell(imatrix m, int index) {
+        int rows = m.getNrOfRows();
+        int sliceSize = rows * m.getNrOfColumns();
+        int hyperSliceSize = sliceSize * m.getNrOfSlices();
+        int h = index / hyperSliceSize;
+        int s = (index % hyperSliceSize) / sliceSize;
+        int c = (index % sliceSize) / rows;
+        int r = index % rows;
+        return m.get(r, c, s, h);
+    }
+
+    static void setCell(imatrix m, int index, float value) {
+        int rows = m.getNrOfRows();
+        int sliceSize = rows * m.getNrOfColumns();
+        int hyperSliceSize = sliceSize * m.getNrOfSlices();
+        int h = index / hyperSliceSize;
+        int s = (index % hyperSliceSize) / sliceSize;
+        int c = (index % sliceSize) / rows;
+        int r = index % rows;
+        m.set(r, c, s, h, value);
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.expr;
+
+import dae.matrix.imatrix;
+import java.util.List;
+
+/**
+ * The cells of a matrix as an expression.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+final class MatrixExpr extends Expr {
+
+    private final imatrix m;
+
+    MatrixExpr(imatrix m) {
+        this.m = m;
+    }
+
+    @Override
+    void evaluate(int from, int n, float[] out, float[][] scratch, int level) {
+        float[] array = hostArray(m);
+        if (array != null) {
+            System.arraycopy(array, from, out, 0, n);
+        } else {
+            for (int i = 0; i < n; ++i) {
+                out[i] = getCell(m, from + i);
+            }
+        }
+    }
+
+    @Override
+    int getNrOfLevels() {
+        return 0;
+    }
+
+    @Override
+    void collectOperands(List<imatrix> operands) {
+        operands.add(m);
+    }
+
+    @Override
+    float[] getArray() {
+        return hostArray(m);
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.expr;
+
+import dae.matrix.imatrix;
+import java.util.List;
+
+/**
+ * Combines the cells of an expression with a scalar.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+final class ScalarExpr extends Expr {
+
+    private final BinaryOp op;
+    private final Expr left;
+    private final float value;
+
+    ScalarExpr(BinaryOp op, Expr left, float value) {
+        this.op = op;
+        this.left = left;
+        this.value = value;
+    }
+
+    @Override
+    void evaluate(int from, int n, float[] out, float[][] scratch, int level) {
+        left.evaluate(from, n, out, scratch, level);
+        op.apply(out, value, n);
+    }
+
+    @Override
+    int getNrOfLevels() {
+        return left.getNrOfLevels();
+    }
+
+    @Override
+    void collectOperands(List<imatrix> operands) {
+        left.collectOperands(operands);
+    }
+}
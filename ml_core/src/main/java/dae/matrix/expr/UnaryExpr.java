@@ -0,0 +1,43 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.expr;
+
+import dae.matrix.imatrix;
+import dae.neuralnet.activation.Function;
+import java.util.List;
+
+/**
+ * Applies a function to every cell of an expression.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+final class UnaryExpr extends Expr {
+
+    private final UnaryOp op;
+    private final Expr operand;
+    private final Function function;
+
+    UnaryExpr(UnaryOp op, Expr operand, Function function) {
+        this.op = op;
+        this.operand = operand;
+        this.function = function;
+    }
+
+    @Override
+    void evaluate(int from, int n, float[] out, float[][] scratch, int level) {
+        operand.evaluate(from, n, out, scratch, level);
+        op.apply(out, n, function);
+    }
+
+    @Override
+    int getNrOfLevels() {
+        return operand.getNrOfLevels();
+    }
+
+    @Override
+    void collectOperands(List<imatrix> operands) {
+        operand.collectOperands(operands);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.expr;
+
+import dae.neuralnet.activation.Function;
+
+/**
+ * The element by element operations with one operand.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+enum UnaryOp {
+    NEG, ABS, SQUARE, SQRT, EXP, LOG, FUNCTION;
+
+    /**
+     * Applies the operation in place on the first n cells of a.
+     *
+     * @param a the operand and the result.
+     * @param n the number of cells.
+     * @param f the function to apply, only used by FUNCTION.
+     */
+    void apply(float[] a, int n, Function f) {
+        switch (this) {
+            case NEG:
+                for (int i = 0; i < n; ++i) {
+                    a[i] = -a[i];
+                }
+                break;
+            case ABS:
+                for (int i = 0; i < n; ++i) {
+                    a[i] = Math.abs(a[i]);
+                }
+                break;
+            case SQUARE:
+                for (int i = 0; i < n; ++i) {
+                    a[i] *= a[i];
+                }
+                break;
+            case SQRT:
+                for (int i = 0; i < n; ++i) {
+                    a[i] = (float) Math.sqrt(a[i]);
+                }
+                break;
+            case EXP:
+                for (int i = 0; i < n; ++i) {
+                    a[i] = (float) Math.exp(a[i]);
+                }
+                break;
+            case LOG:
+                for (int i = 0; i < n; ++i) {
+                    a[i] = (float) Math.log(a[i]);
+                }
+                break;
+            case FUNCTION:
+                for (int i = 0; i < n; ++i) {
+                    a[i] = f.evaluate(a[i]);
+                }
+                break;
+        }
+    }
+}
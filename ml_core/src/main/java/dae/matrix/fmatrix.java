@@ -1,10 +1,13 @@
 package dae.matrix;
 
 import dae.matrix.gpu.FloatDeviceBuffer;
-import dae.matrix.gpu.FMatrixOpGpu;
 import dae.matrix.gpu.GPU;
-import dae.matrix.integer.intmatrix;
+import dae.matrix.integer.bytematrix;
+import dae.matrix.memory.HostBuffers;
+import dae.matrix.memory.MatrixAllocator;
+import dae.matrix.memory.MatrixAllocators;
 import dae.matrix.op.FMatrixOp;
+import dae.matrix.op.FMatrixOpRegistry;
 import dae.neuralnet.Layer;
 import dae.neuralnet.activation.ActivationFunction;
 import dae.neuralnet.activation.Function;
@@ -26,7 +29,7 @@ import javax.imageio.ImageIO;
  *
  * @author Koen Samyn (samyn.koen@gmail.com)
  */
-public class fmatrix implements imatrix {
+public class fmatrix implements imatrix, AutoCloseable {
 
     
 
@@ -52,14 +55,41 @@ public class fmatrix implements imatrix {
     private final int sliceSize;
     private final int hyperSliceSize;
     private final int size;
+    /**
+     * The layout of the cells in the host buffer.
+     */
+    private final MatrixLayout layout;
+    private final int rowStride;
+    private final int columnStride;
+    private final int sliceStride;
 
     // private float[] data;
-    private final FloatBuffer data;
+    private FloatBuffer data;
+    /**
+     * The allocator that owns the data, null if the data is owned by the
+     * caller or if the data was released.
+     */
+    private MatrixAllocator allocator;
     private FloatDeviceBuffer deviceBuffer;
+    private StridedView stridedView;
+    /**
+     * The number of times the cells of this matrix were modified.
+     */
+    private long modificationCount;
 
-    private static FMatrixOp matrixOp = new FMatrixOpGpu();
     private static int MATRIXCOUNT = 0;
 
+    /**
+     * Returns the matrix operations backend that is active for the current
+     * thread.
+     *
+     * @return the current FMatrixOp backend.
+     * @see FMatrixOpRegistry
+     */
+    public static FMatrixOp getMatrixOp() {
+        return FMatrixOpRegistry.getCurrent();
+    }
+
     /**
      * Creates a new fmatrix object with the given rows and columns,1 slice and
      * 1 hyperslice.
@@ -112,6 +142,61 @@ public class fmatrix implements imatrix {
      * @param zeropadding the zero padding to add around this matrix.
      */
     public fmatrix(int rows, int columns, int slices, int hyperSlices, int zeropadding) {
+        this(rows, columns, slices, hyperSlices, zeropadding, MatrixAllocators.getCurrent());
+    }
+
+    /**
+     * Creates a new fmatrix object with the given dimensions, the data of the
+     * matrix is provided by the given allocator.
+     *
+     * @param rows the number of rows in the matrix.
+     * @param columns the number of columns in the matrix.
+     * @param slices the number of slices in the matrix.
+     * @param hyperSlices the number of hyperslices in this matrix.
+     * @param zeropadding the zero padding to add around this matrix.
+     * @param allocator the allocator for the data of the matrix.
+     */
+    public fmatrix(int rows, int columns, int slices, int hyperSlices, int zeropadding, MatrixAllocator allocator) {
+        this(rows, columns, slices, hyperSlices, zeropadding,
+                allocator.allocateFloats(rows * columns * slices * hyperSlices), allocator, MatrixLayout.PLANAR);
+    }
+
+    /**
+     * Creates a new fmatrix object with the given dimensions, the cells of the
+     * matrix are stored in the given layout.
+     *
+     * @param rows the number of rows in the matrix.
+     * @param columns the number of columns in the matrix.
+     * @param slices the number of slices in the matrix.
+     * @param hyperSlices the number of hyperslices in this matrix.
+     * @param zeropadding the zero padding to add around this matrix.
+     * @param layout the layout of the cells in the host buffer.
+     */
+    public fmatrix(int rows, int columns, int slices, int hyperSlices, int zeropadding, MatrixLayout layout) {
+        this(rows, columns, slices, hyperSlices, zeropadding,
+                MatrixAllocators.getCurrent().allocateFloats(rows * columns * slices * hyperSlices),
+                MatrixAllocators.getCurrent(), layout);
+    }
+
+    /**
+     * Creates a new fmatrix object on top of existing data, for example a
+     * direct buffer that is shared with native code or a memory mapped file.
+     * The cells are stored in column major order starting at the current
+     * position of the buffer, the buffer is not copied and is not released
+     * when the matrix is closed.
+     *
+     * @param data the buffer with the cells of the matrix.
+     * @param rows the number of rows in the matrix.
+     * @param columns the number of columns in the matrix.
+     * @param slices the number of slices in the matrix.
+     * @param hyperSlices the number of hyperslices in this matrix.
+     */
+    public fmatrix(FloatBuffer data, int rows, int columns, int slices, int hyperSlices) {
+        this(rows, columns, slices, hyperSlices, 0, wrap(data, rows * columns * slices * hyperSlices), null, MatrixLayout.PLANAR);
+    }
+
+    private fmatrix(int rows, int columns, int slices, int hyperSlices, int zeropadding,
+            FloatBuffer data, MatrixAllocator allocator, MatrixLayout layout) {
         this.rows = rows;
         this.columns = columns;
         this.slices = slices;
@@ -120,8 +205,12 @@ public class fmatrix implements imatrix {
         this.sliceSize = this.rows * this.columns;
         this.hyperSliceSize = sliceSize * slices;
         this.size = sliceSize * slices * hyperSlices;
-        data = FloatBuffer.allocate(size);
-        deviceBuffer = new FloatDeviceBuffer(this);
+        this.layout = layout;
+        this.rowStride = layout.getRowStride(rows, columns, slices);
+        this.columnStride = layout.getColumnStride(rows, columns, slices);
+        this.sliceStride = layout.getSliceStride(rows, columns, slices);
+        this.data = data;
+        this.allocator = allocator;
         name = "matrix" + MATRIXCOUNT++;
     }
 
@@ -131,7 +220,7 @@ public class fmatrix implements imatrix {
      * @param toCopy the fmatrix to copy.
      */
     public fmatrix(fmatrix toCopy) {
-        this(toCopy.rows, toCopy.columns, toCopy.slices, toCopy.hyperSlices, toCopy.zeropadding);
+        this(toCopy.rows, toCopy.columns, toCopy.slices, toCopy.hyperSlices, toCopy.zeropadding, toCopy.layout);
         toCopy.data.rewind();
         this.data.rewind();
 
@@ -140,6 +229,31 @@ public class fmatrix implements imatrix {
         }
     }
 
+    private static FloatBuffer wrap(FloatBuffer data, int size) {
+        if (data.remaining() < size) {
+            throw new IllegalArgumentException("The buffer has " + data.remaining()
+                    + " floats remaining, the matrix needs " + size + " floats.");
+        }
+        FloatBuffer view = data.duplicate();
+        view.limit(view.position() + size);
+        return view.slice();
+    }
+
+    /**
+     * Releases the data of this matrix to the allocator that provided it. The
+     * matrix is empty after it is closed: reading a cell returns zero and
+     * writing a cell throws an exception. Closing a matrix more than once has
+     * no effect.
+     */
+    @Override
+    public void close() {
+        if (allocator != null) {
+            allocator.release(data);
+            allocator = null;
+        }
+        data = FloatBuffer.allocate(0);
+    }
+
     /**
      * Returns a name for the matrix object.
      *
@@ -192,12 +306,36 @@ public class fmatrix implements imatrix {
         return data;
     }
 
+    /**
+     * Returns the layout of the cells in the host buffer.
+     *
+     * @return the strided view.
+     */
+    @Override
+    public StridedView getStridedView() {
+        if (stridedView == null || stridedView.getData() != data) {
+            stridedView = new StridedView(data, 0, rows, columns, slices, hyperSlices,
+                    rowStride, columnStride, sliceStride, hyperSliceSize, zeropadding);
+        }
+        return stridedView;
+    }
+
+    /**
+     * Returns the order in which the cells are stored in the host buffer.
+     *
+     * @return the layout of this matrix.
+     */
+    public MatrixLayout getLayout() {
+        return layout;
+    }
+
     /**
      * Sets all the elements in this matrix to zero.
      */
     @Override
     public void reset() {
-        matrixOp.reset(this);
+        getMatrixOp().reset(this);
+        ++modificationCount;
     }
 
     /**
@@ -209,7 +347,7 @@ public class fmatrix implements imatrix {
      * @return the index of the cell in the 1D float backing array.
      */
     private int rcToIndex(int r, int c) {
-        return c * rows + r;
+        return c * columnStride + r * rowStride;
     }
 
     /**
@@ -221,7 +359,7 @@ public class fmatrix implements imatrix {
      * @return the index of the cell in the 1D float backing array.
      */
     private int rcsToIndex(int r, int c, int s) {
-        return rcToIndex(r, c) + s * sliceSize;
+        return rcToIndex(r, c) + s * sliceStride;
     }
 
     /**
@@ -276,6 +414,7 @@ public class fmatrix implements imatrix {
     @Override
     public void set(int row, int column, float value) {
         data.put(rcToIndex(row, column), value);
+        ++modificationCount;
     }
 
     /**
@@ -289,6 +428,7 @@ public class fmatrix implements imatrix {
     @Override
     public void set(int row, int column, int slice, float value) {
         data.put(rcsToIndex(row, column, slice), value);
+        ++modificationCount;
     }
 
     /**
@@ -303,6 +443,7 @@ public class fmatrix implements imatrix {
     @Override
     public void set(int row, int column, int slice, int hyperslice, float value) {
         data.put(rcshToIndex(row, column, slice, hyperslice), value);
+        ++modificationCount;
     }
 
     /**
@@ -631,15 +772,14 @@ public class fmatrix implements imatrix {
      * @param storage the storage for the slice.
      */
     public void getHyperSlice(int hyperslice, int targetHyperSlice, imatrix storage) {
-        if (isTransposed() == storage.isTransposed()
+        FloatBuffer storageData = HostBuffers.contiguous(storage);
+        if (storageData != null && layout == MatrixLayout.PLANAR
                 && getSliceSize() == storage.getSliceSize()) {
             // row - column layout is the same.
             int srcStart = this.rcshToIndex(0, 0, 0, hyperslice);
-            int dstStart = storage.getSliceSize() * targetHyperSlice;
-            int tocopy = Math.min(getSliceSize(), storage.getSliceSize());
-            float[] src = this.data.array();
-            float[] dst = storage.getHostData().array();
-            System.arraycopy(src, srcStart, dst, dstStart, tocopy);
+            int dstStart = storage.getHyperSliceSize() * targetHyperSlice;
+            int tocopy = Math.min(getNrOfSlices(), storage.getNrOfSlices()) * getSliceSize();
+            HostBuffers.copy(this.data, srcStart, storageData, dstStart, tocopy);
         } else {
             // no assumptions possible.
             int iRows = Math.min(this.getNrOfRows(), storage.getNrOfRows());
@@ -887,6 +1027,7 @@ public class fmatrix implements imatrix {
             float vf = f.evaluate(v);
             data.put(i, vf);
         }
+        ++modificationCount;
     }
 
     /**
@@ -903,7 +1044,8 @@ public class fmatrix implements imatrix {
     }
 
     /**
-     * Copies this matrix into another matrix.
+     * Copies this matrix into another matrix. A new matrix is allocated on
+     * every call, use copyInto in code that runs every training step.
      *
      * @return a new fmatrix with the same number of rows and columns and the
      * same values.
@@ -1023,6 +1165,14 @@ public class fmatrix implements imatrix {
         }
     }
 
+    /**
+     * Calculates the matrix product of op1 and op2 into a new matrix. Use
+     * sgemm in code that runs every training step.
+     *
+     * @param op1 the first operand.
+     * @param op2 the second operand.
+     * @return a new matrix with the product.
+     */
     public static imatrix multiply(imatrix op1, imatrix op2) {
         if (op1.getNrOfColumns() != op2.getNrOfRows()) {
             String op1dim = "[" + op1.getNrOfRows() + "," + op1.getNrOfColumns() + "]";
@@ -1064,55 +1214,85 @@ public class fmatrix implements imatrix {
 
     public static imatrix dotmultiply(imatrix result, imatrix op1, imatrix op2) {
         if (equalDimension(op1, op2) && equalDimension(result, op1)) {
-            return matrixOp.dotmultiply(result, op1, op2);
+            return getMatrixOp().dotmultiply(result, op1, op2);
         } else {
             return null;
         }
     }
 
     public static imatrix dotmultiply(imatrix result, fmatrix op1, float factor) {
-        return matrixOp.dotmultiply(result, op1, factor);
+        return getMatrixOp().dotmultiply(result, op1, factor);
+    }
+
+    /**
+     * Calculates a batched matrix product where every hyperslice is one entry
+     * of the batch.
+     *
+     * @param alpha a float value that defines the alpha value.
+     * @param a the matrix A.
+     * @param b the matrix B.
+     * @param beta a float value that defines the beta value.
+     * @param c the matrix C, where the result will be stored.
+     * @return the C matrix.
+     * @see FMatrixOp#batchedSgemm(float, dae.matrix.imatrix,
+     * dae.matrix.imatrix, float, dae.matrix.imatrix)
+     */
+    public static imatrix batchedSgemm(float alpha, imatrix a, imatrix b, float beta, imatrix c) {
+        getMatrixOp().batchedSgemm(alpha, a, b, beta, c);
+        return c;
     }
 
     public static imatrix sgemm(float alpha, imatrix a, imatrix b, float beta, imatrix c) {
-        matrixOp.sgemm(alpha, a, b, beta, c);
+        getMatrixOp().sgemm(alpha, a, b, beta, c);
         return c;
     }
 
     public static void sigmoid(imatrix o) {
-        matrixOp.sigmoid(o);
+        getMatrixOp().sigmoid(o);
     }
 
     public static void dsigmoid(imatrix o) {
-        matrixOp.dsigmoid(o);
+        getMatrixOp().dsigmoid(o);
     }
 
     public static void batchConvolve(imatrix input, imatrix filter, int stride, imatrix output) {
-        matrixOp.batchConvolve(input, filter, stride, output);
+        getMatrixOp().batchConvolve(input, filter, stride, output);
     }
 
     public static void deltasBatchConvolve(imatrix input, imatrix deltas, int stride, imatrix kernel) {
-        matrixOp.deltasBatchConvolve(input, deltas, stride, kernel);
+        getMatrixOp().deltasBatchConvolve(input, deltas, stride, kernel);
     }
 
     public static void sumPerSlice(imatrix src, imatrix dst) {
-        matrixOp.sumPerSlice(src, dst);
+        getMatrixOp().sumPerSlice(src, dst);
     }
 
     public static void batchConvolveBias(imatrix input, imatrix filter, imatrix bias, int stride, imatrix output) {
-        matrixOp.batchConvolve(input, filter, bias, stride, output);
+        getMatrixOp().batchConvolve(input, filter, bias, stride, output);
     }
 
     public static void batchCorrelate(imatrix input, imatrix filter, int stride, imatrix output) {
-        matrixOp.batchCorrelate(input, filter, stride, output);
+        getMatrixOp().batchCorrelate(input, filter, stride, output);
     }
 
     public static void batchBackpropCorrelate(imatrix input, imatrix filter, int stride, imatrix output) {
-        matrixOp.batchBackpropCorrelate(input, filter, stride, output);
+        getMatrixOp().batchBackpropCorrelate(input, filter, stride, output);
+    }
+
+    public static void batchCrossConvolve(imatrix input, imatrix filter, imatrix bias, int stride, imatrix output) {
+        getMatrixOp().batchCrossConvolve(input, filter, bias, stride, output);
+    }
+
+    public static void deltasBatchCrossConvolve(imatrix input, imatrix deltas, int stride, imatrix kernel) {
+        getMatrixOp().deltasBatchCrossConvolve(input, deltas, stride, kernel);
+    }
+
+    public static void batchBackpropCrossCorrelate(imatrix input, imatrix filter, int stride, imatrix output) {
+        getMatrixOp().batchBackpropCrossCorrelate(input, filter, stride, output);
     }
 
     public static void convolve(imatrix input, imatrix filter, int stride, imatrix output) {
-        matrixOp.convolve(input, filter, stride, output);
+        getMatrixOp().convolve(input, filter, stride, output);
     }
 
     /**
@@ -1126,7 +1306,7 @@ public class fmatrix implements imatrix {
      * @param output the fuzzified input.
      */
     public static void fuzzyFunction(imatrix input, int classes, imatrix a, imatrix b, imatrix output) {
-        matrixOp.fuzzyFunction(input, classes, a, b, output);
+        getMatrixOp().fuzzyFunction(input, classes, a, b, output);
     }
 
     /**
@@ -1145,7 +1325,7 @@ public class fmatrix implements imatrix {
      * @param output the output matrix which is also a row vector.
      */
     public static void fuzzyShiftMinus(imatrix input, int classes, imatrix output) {
-        matrixOp.fuzzyShiftMinus(input, classes, output);
+        getMatrixOp().fuzzyShiftMinus(input, classes, output);
     }
 
     /**
@@ -1155,7 +1335,7 @@ public class fmatrix implements imatrix {
      * @param output
      */
     public static void fuzzyShiftDeltas(imatrix input, int classes, imatrix output) {
-        matrixOp.fuzzyShiftDeltas(input, classes, output);
+        getMatrixOp().fuzzyShiftDeltas(input, classes, output);
     }
 
     /**
@@ -1167,11 +1347,11 @@ public class fmatrix implements imatrix {
      * @param output the output, in batch.
      */
     public static void fuzzyBackProp(imatrix input, imatrix weights, int classes, imatrix output) {
-        matrixOp.fuzzyBackProp(input, weights, classes, output);
+        getMatrixOp().fuzzyBackProp(input, weights, classes, output);
     }
 
     public static void fuzzyInputAdd(fmatrix inputs, imatrix weights, int classes, imatrix deltas) {
-        matrixOp.fuzzyInputAdd(inputs, weights, classes, deltas);
+        getMatrixOp().fuzzyInputAdd(inputs, weights, classes, deltas);
     }
 
     /**
@@ -1185,12 +1365,11 @@ public class fmatrix implements imatrix {
      *
      * @param input the input matrix.
      * @param output the output matrix.
-     * @param maskLayer a matrix with the same dimension as the input layer
-     * which can be used to determine which input pixels contributed to the
-     * output.
+     * @param maskLayer a matrix with the dimensions of the pooled matrix that
+     * stores the location of the maximum in every pool window.
      */
-    public static void batchMaxPool(imatrix input, imatrix output, intmatrix maskLayer) {
-        matrixOp.batchMaxPool(input, output, maskLayer);
+    public static void batchMaxPool(imatrix input, imatrix output, bytematrix maskLayer) {
+        getMatrixOp().batchMaxPool(input, output, maskLayer);
     }
 
     /**
@@ -1198,20 +1377,61 @@ public class fmatrix implements imatrix {
      * the cells that are defined in the masking layer are applied to output.
      *
      * @param input the input matrix.
-     * @param maskLayer a matrix with the same dimension as the input layer
-     * which can be used to determine which input pixels contributed to the
-     * output.
+     * @param maskLayer a matrix with the dimensions of the pooled matrix that
+     * stores the location of the maximum in every pool window.
      * @param scaleX the x-scale of the pool layer.
      * @param scaleY the y-scale of the pool layer.
      * @param output the output matrix.
      *
      */
-    public static void batchBackpropMaxPool(imatrix input, intmatrix maskLayer, int scaleX, int scaleY, imatrix output) {
-        matrixOp.batchBackpropMaxPool(input, maskLayer, scaleX, scaleY, output);
+    public static void batchBackpropMaxPool(imatrix input, bytematrix maskLayer, int scaleX, int scaleY, imatrix output) {
+        getMatrixOp().batchBackpropMaxPool(input, maskLayer, scaleX, scaleY, output);
     }
 
-    public static void maxRotationPool(imatrix input, imatrix output, intmatrix maskLayer) {
-        matrixOp.maxRotationPool(input, output, maskLayer);
+    /**
+     * Convolves the input with the filters, adds the bias, applies the
+     * activation function and max pools the result in one pass. The full
+     * resolution feature map of the convolution is never stored, only the
+     * pooled output and the mask are written.
+     *
+     * The filters are applied as in batchConvolve, with
+     * filter.getNrOfSlices() / input.getNrOfSlices() filters per input slice.
+     * The scale of the pool is the ratio between the dimensions of the
+     * convolution result and the dimensions of the output matrix. The
+     * activation function must be non decreasing (softmax is not supported),
+     * so that the maximum can be taken before the activation.
+     *
+     * @param input the zero padded input matrix.
+     * @param filter the filters to apply.
+     * @param bias a row matrix with a bias term per filter slice.
+     * @param stride the stride with which to advance the filter.
+     * @param function the activation function.
+     * @param output the pooled output matrix.
+     * @param maskLayer a matrix with the dimensions of the output matrix that
+     * stores the location of the maximum in every pool window.
+     */
+    public static void batchConvolveMaxPool(imatrix input, imatrix filter, imatrix bias, int stride, ActivationFunction function, imatrix output, bytematrix maskLayer) {
+        getMatrixOp().batchConvolveMaxPool(input, filter, bias, stride, function, output, maskLayer);
+    }
+
+    /**
+     * Back propagates the errors of a pooled and activated convolution to the
+     * deltas of the convolution. The deltas are zero, except in the cells that
+     * are defined in the mask layer where they are set to the error multiplied
+     * with the derivative of the activation function.
+     *
+     * @param errors the errors of the pooled output.
+     * @param outputs the pooled output (after the activation function).
+     * @param maskLayer the mask layer of the forward pass.
+     * @param function the activation function.
+     * @param deltas the deltas of the convolution, at full resolution.
+     */
+    public static void batchBackpropMaxPoolActivation(imatrix errors, imatrix outputs, bytematrix maskLayer, ActivationFunction function, imatrix deltas) {
+        getMatrixOp().batchBackpropMaxPoolActivation(errors, outputs, maskLayer, function, deltas);
+    }
+
+    public static void maxRotationPool(imatrix input, imatrix output, bytematrix maskLayer) {
+        getMatrixOp().maxRotationPool(input, output, maskLayer);
     }
 
     /**
@@ -1223,8 +1443,8 @@ public class fmatrix implements imatrix {
      * output matrix.
      * @param output the output matrix.
      */
-    public static void backpropMaxRotationPool(imatrix input, intmatrix maskLayer, imatrix output) {
-        matrixOp.backpropMaxRotationPool(input, maskLayer, output);
+    public static void backpropMaxRotationPool(imatrix input, bytematrix maskLayer, imatrix output) {
+        getMatrixOp().backpropMaxRotationPool(input, maskLayer, output);
     }
 
     /**
@@ -1235,7 +1455,7 @@ public class fmatrix implements imatrix {
      * @param m the matrix to apply the activation function to.
      */
     public static void applyActivation(ActivationFunction function, fmatrix m) {
-        matrixOp.applyActivation(function, m);
+        getMatrixOp().applyActivation(function, m);
     }
 
     /**
@@ -1246,7 +1466,57 @@ public class fmatrix implements imatrix {
      * @param m the matrix to apply the activation function to.
      */
     public static void applyDerivedActivation(ActivationFunction function, fmatrix m) {
-        matrixOp.applyDerivedActivation(function, m);
+        getMatrixOp().applyDerivedActivation(function, m);
+    }
+
+    /**
+     * Adds the bias of the slice to every cell and applies the activation
+     * function in one pass over the matrix.
+     *
+     * @param function the activation function, softmax is not supported.
+     * @param bias a row matrix with a bias per slice, or null if only the
+     * activation function needs to be applied.
+     * @param m the matrix to apply the bias and the activation function to.
+     */
+    public static void applyBiasActivation(ActivationFunction function, imatrix bias, imatrix m) {
+        getMatrixOp().applyBiasActivation(function, bias, m);
+    }
+
+    /**
+     * Applies the softmax function to every column of every slice in the
+     * matrix, with the backend of the current thread.
+     *
+     * @param m the matrix to apply the softmax function to.
+     */
+    public static void softMax(imatrix m) {
+        getMatrixOp().softMax(m);
+    }
+
+    /**
+     * Applies the softmax function to every column of the logits and
+     * calculates the cross entropy loss and the deltas in one pass.
+     *
+     * @param m the logits, the softmax of the logits is stored back into this
+     * matrix.
+     * @param y the desired output.
+     * @param loss a row matrix with the loss per column, can be null.
+     * @param deltas the deltas of the logits: softmax(m) - y.
+     */
+    public static void softMaxCrossEntropy(imatrix m, imatrix y, imatrix loss, imatrix deltas) {
+        getMatrixOp().softMaxCrossEntropy(m, y, loss, deltas);
+    }
+
+    /**
+     * Calculates the deltas of a layer in one pass: deltas = errors *
+     * f'(outputs).
+     *
+     * @param function the activation function of the layer.
+     * @param errors the errors of the layer.
+     * @param outputs the outputs of the layer.
+     * @param deltas the matrix to store the deltas in.
+     */
+    public static void applyDerivedActivation(ActivationFunction function, imatrix errors, imatrix outputs, imatrix deltas) {
+        getMatrixOp().applyDerivedActivation(function, errors, outputs, deltas);
     }
 
     /**
@@ -1261,7 +1531,7 @@ public class fmatrix implements imatrix {
      * @param output the output of the rotation.
      */
     public static void rotateKernels(imatrix filter, int nrOfRotations, float minAngle, float maxAngle, imatrix output) {
-        matrixOp.rotateKernels(filter, nrOfRotations, minAngle, maxAngle, output);
+        getMatrixOp().rotateKernels(filter, nrOfRotations, minAngle, maxAngle, output);
     }
 
     /**
@@ -1275,7 +1545,7 @@ public class fmatrix implements imatrix {
      * @param kernelOutput the output of the rotation.
      */
     public static void accumulateRotateKernels(imatrix rotatedOutput, int nrOfRotations, float minAngle, float maxAngle, imatrix kernelOutput) {
-        matrixOp.accumulateRotateKernels(rotatedOutput, nrOfRotations, minAngle, maxAngle, kernelOutput);
+        getMatrixOp().accumulateRotateKernels(rotatedOutput, nrOfRotations, minAngle, maxAngle, kernelOutput);
     }
 
     /**
@@ -1290,7 +1560,7 @@ public class fmatrix implements imatrix {
      * @param output the output of this function.
      */
     public static void maxRotation(imatrix input, int nrOfFeatures, int nrOfRotations, float minAngle, float maxAngle, imatrix output, imatrix rotOutput) {
-        matrixOp.maxRotation(input, nrOfFeatures, nrOfRotations, minAngle, maxAngle, output, rotOutput);
+        getMatrixOp().maxRotation(input, nrOfFeatures, nrOfRotations, minAngle, maxAngle, output, rotOutput);
     }
 
     /**
@@ -1306,7 +1576,7 @@ public class fmatrix implements imatrix {
      * @param output the result of the inverse operation.
      */
     public static void maxInverseRotation(imatrix valInput, imatrix rotInput, int nrOfFeatures, int nrOfRotations, float minAngle, float maxAngle, imatrix output) {
-        matrixOp.maxInverseRotation(valInput, rotInput, nrOfFeatures, nrOfRotations, minAngle, maxAngle, output);
+        getMatrixOp().maxInverseRotation(valInput, rotInput, nrOfFeatures, nrOfRotations, minAngle, maxAngle, output);
     }
 
     /**
@@ -1322,7 +1592,7 @@ public class fmatrix implements imatrix {
      * to the slices in the output.
      */
     public static void forwardPancake(imatrix input, int slicesPerGroup, imatrix weights, imatrix bias, imatrix output) {
-        matrixOp.forwardPancake(input, slicesPerGroup, weights, bias, output);
+        getMatrixOp().forwardPancake(input, slicesPerGroup, weights, bias, output);
     }
 
     /**
@@ -1337,7 +1607,7 @@ public class fmatrix implements imatrix {
      * @param biasDeltas the bias deltas.
      */
     public static void deltasPancake(imatrix input, imatrix deltas, int slicesPerGroup, imatrix weightDeltas, imatrix biasDeltas) {
-        matrixOp.deltasPancake(input, deltas, slicesPerGroup, weightDeltas, biasDeltas);
+        getMatrixOp().deltasPancake(input, deltas, slicesPerGroup, weightDeltas, biasDeltas);
     }
 
     /**
@@ -1356,7 +1626,7 @@ public class fmatrix implements imatrix {
      * slices equal to the input matrix, but a batch size of one.
      */
     public static void batchLC(imatrix input, imatrix lcVector, imatrix output) {
-        matrixOp.batchLC(input, lcVector, output);
+        getMatrixOp().batchLC(input, lcVector, output);
     }
 
     /**
@@ -1368,7 +1638,7 @@ public class fmatrix implements imatrix {
      * @param output the error output of the backpropagation.
      */
     public static void backpropPancake(imatrix deltas, imatrix weights, int slicesPerGroup, imatrix output) {
-        matrixOp.backpropPancake(deltas, weights, slicesPerGroup, output);
+        getMatrixOp().backpropPancake(deltas, weights, slicesPerGroup, output);
     }
 
     public static fmatrix dotdivide(fmatrix op1, fmatrix op2) {
@@ -1387,6 +1657,15 @@ public class fmatrix implements imatrix {
         return result;
     }
 
+    /**
+     * Calculates the element by element addition of op1 and op2 into a new
+     * matrix. Use dotadd(result, op1, op2) in code that runs every training
+     * step.
+     *
+     * @param op1 the first operand.
+     * @param op2 the second operand.
+     * @return a new matrix with the sum.
+     */
     public static fmatrix dotadd(imatrix op1, imatrix op2) {
         if (!equalDimension(op1, op2)) {
             System.out.println("DotAdd Error , matrix dimension are not the same " + op1.getSizeAsString() + " != " + op2.getSizeAsString());
@@ -1431,7 +1710,7 @@ public class fmatrix implements imatrix {
         if (!equalDimension(op1, op2) || !equalDimension(result, op1)) {
             return null;
         }
-        return matrixOp.dotadd(result, op1, op2);
+        return getMatrixOp().dotadd(result, op1, op2);
     }
 
     /**
@@ -1449,7 +1728,7 @@ public class fmatrix implements imatrix {
         if (!equalDimension(op1, op2) || !equalDimension(result, op1)) {
             return null;
         }
-        return matrixOp.dotadd(result, factor1, op1, factor2, op2);
+        return getMatrixOp().dotadd(result, factor1, op1, factor2, op2);
     }
 
     public static imatrix dotaddrow(int rrow, imatrix result, int row1, imatrix op1, int row2, imatrix op2) {
@@ -1477,6 +1756,15 @@ public class fmatrix implements imatrix {
         return result;
     }
 
+    /**
+     * Calculates the element by element subtraction of op1 and op2 into a new
+     * matrix. Use dotsubtract(result, op1, op2) in code that runs every
+     * training step.
+     *
+     * @param op1 the first operand.
+     * @param op2 the second operand.
+     * @return a new matrix with the difference.
+     */
     public static imatrix dotsubtract(imatrix op1, imatrix op2) {
         if (!equalDimension(op1, op2)) {
             return null;
@@ -1489,7 +1777,7 @@ public class fmatrix implements imatrix {
         if (!equalDimension(op1, op2) || !equalDimension(result, op1)) {
             return null;
         } else {
-            return matrixOp.dotsubtract(result, op1, op2);
+            return getMatrixOp().dotsubtract(result, op1, op2);
         }
     }
 
@@ -1505,11 +1793,61 @@ public class fmatrix implements imatrix {
     }
 
     public static void adamVelocity(imatrix velocity, float beta2, imatrix previousVelocity, imatrix deltaWeights) {
-        matrixOp.adamVelocity(velocity, beta2, previousVelocity, deltaWeights);
+        getMatrixOp().adamVelocity(velocity, beta2, previousVelocity, deltaWeights);
     }
 
     public static void adamAdaptWeights(imatrix weights, float factor, float beta1, float beta2, float epsilon, imatrix moment, imatrix velocity) {
-        matrixOp.adamAdaptWeights(weights, factor, beta1, beta2, epsilon, moment, velocity);
+        getMatrixOp().adamAdaptWeights(weights, factor, beta1, beta2, epsilon, moment, velocity);
+    }
+
+    /**
+     * Executes one step of the adam algorithm in a single pass over a list of
+     * weight matrices.
+     *
+     * @param weights the weight segments.
+     * @param gradients the gradient per segment.
+     * @param moments the moment per segment.
+     * @param velocities the velocity per segment.
+     * @param eta the learning rate.
+     * @param beta1 the decay of the moment.
+     * @param beta2 the decay of the velocity.
+     * @param beta1Corr the bias correction of the moment.
+     * @param beta2Corr the bias correction of the velocity.
+     * @param epsilon the epsilon value.
+     * @param weightDecay the decoupled weight decay (adamw), 0 for adam.
+     */
+    public static void adamStep(imatrix[] weights, imatrix[] gradients, imatrix[] moments, imatrix[] velocities,
+            float eta, float beta1, float beta2, float beta1Corr, float beta2Corr, float epsilon, float weightDecay) {
+        getMatrixOp().adamStep(weights, gradients, moments, velocities, eta, beta1, beta2, beta1Corr, beta2Corr, epsilon, weightDecay);
+    }
+
+    /**
+     * Executes one step of gradient descent with momentum in a single pass
+     * over a list of weight matrices.
+     *
+     * @param weights the weight segments.
+     * @param gradients the gradient per segment.
+     * @param velocities the velocity per segment.
+     * @param eta the learning rate.
+     * @param momentum the momentum.
+     */
+    public static void momentumStep(imatrix[] weights, imatrix[] gradients, imatrix[] velocities, float eta, float momentum) {
+        getMatrixOp().momentumStep(weights, gradients, velocities, eta, momentum);
+    }
+
+    /**
+     * Executes one step of the rmsprop algorithm in a single pass over a list
+     * of weight matrices.
+     *
+     * @param weights the weight segments.
+     * @param gradients the gradient per segment.
+     * @param meanSquares the running mean of the squared gradient per segment.
+     * @param eta the learning rate.
+     * @param decay the decay of the mean square.
+     * @param epsilon the epsilon value.
+     */
+    public static void rmsPropStep(imatrix[] weights, imatrix[] gradients, imatrix[] meanSquares, float eta, float decay, float epsilon) {
+        getMatrixOp().rmsPropStep(weights, gradients, meanSquares, eta, decay, epsilon);
     }
 
     public static imatrix mergeRows(imatrix op1, imatrix op2) {
@@ -1562,15 +1900,15 @@ public class fmatrix implements imatrix {
     }
 
     public static void sumPerRow(fmatrix source, fmatrix sums) {
-        matrixOp.sumPerRow(source, sums);
+        getMatrixOp().sumPerRow(source, sums);
     }
 
     public static void copyInto(imatrix toCopy, imatrix dest) {
-        matrixOp.copyInto(toCopy, dest);
+        getMatrixOp().copyInto(toCopy, dest);
     }
 
     public static void copyIntoSlice(imatrix toCopy, imatrix dest) {
-        matrixOp.copyIntoSlice(toCopy, dest);
+        getMatrixOp().copyIntoSlice(toCopy, dest);
     }
 
     /**
@@ -1583,7 +1921,7 @@ public class fmatrix implements imatrix {
      * @param dest the destination matrix.
      */
     public static void zip(imatrix matrix1, imatrix matrix2, imatrix dest) {
-        matrixOp.zip(matrix1, matrix2, dest);
+        getMatrixOp().zip(matrix1, matrix2, dest);
     }
     
     /**
@@ -1595,7 +1933,7 @@ public class fmatrix implements imatrix {
      * @param dest the destination matrix.
      */
     public static void zip(List<imatrix> srcMatrices, imatrix dest) {
-        matrixOp.zip(srcMatrices, dest);
+        getMatrixOp().zip(srcMatrices, dest);
     }
 
     /**
@@ -1608,7 +1946,7 @@ public class fmatrix implements imatrix {
      * @param dest2 the second destination matrix.
      */
     public static void unzip(imatrix src, imatrix dest1, imatrix dest2) {
-        matrixOp.unzip(src, dest1, dest2);
+        getMatrixOp().unzip(src, dest1, dest2);
     }
     
     /**
@@ -1619,7 +1957,7 @@ public class fmatrix implements imatrix {
      * @param dst the list of matrix to unzip the errors into.
      */
     public static void unzip(imatrix src, ArrayList<imatrix> dst) {
-       matrixOp.unzip(src, dst);
+       getMatrixOp().unzip(src, dst);
     }
 
     /**
@@ -1632,6 +1970,17 @@ public class fmatrix implements imatrix {
         return new fmatrix(d.getRows(), d.getColumns(), d.getSlices(), d.getHyperSlices());
     }
 
+    /**
+     * Creates a matrix with the given dimension and layout.
+     *
+     * @param d the dimension of the matrix.
+     * @param layout the layout of the cells in the host buffer.
+     * @return the new matrix.
+     */
+    public static imatrix create(Dimension d, MatrixLayout layout) {
+        return new fmatrix(d.getRows(), d.getColumns(), d.getSlices(), d.getHyperSlices(), 0, layout);
+    }
+
     /**
      * Copies the first row of every hyperslice of the source matrix into the
      * destination matrix according to a column major ordering.
@@ -1674,8 +2023,8 @@ public class fmatrix implements imatrix {
         FloatBuffer src = source.getHostData();
         FloatBuffer dst = dest.getHostData();
         int copies = Math.min(source.getSize(), dest.getNrOfColumns() * dest.getNrOfHyperSlices());
-        dst.rewind();
-        dst.put(src.array(), 0, copies);
+        HostBuffers.copy(src, 0, dst, 0, copies);
+        dest.markModified();
     }
 
     public static String print(imatrix m) {
@@ -1777,11 +2126,33 @@ public class fmatrix implements imatrix {
         this.applyFunction(x -> (r.nextFloat() * (max - min)) + min);
     }
 
+    /**
+     * Returns the device buffer of this matrix. The device buffer is created
+     * the first time it is requested, matrices that stay on the cpu do not
+     * have one. Only planar matrices can be used on the device.
+     *
+     * @return the device buffer.
+     */
     @Override
     public FloatDeviceBuffer getDeviceBuffer() {
+        if (deviceBuffer == null) {
+            if (layout != MatrixLayout.PLANAR) {
+                throw new UnsupportedOperationException("The " + layout + " layout is only supported on the cpu.");
+            }
+            deviceBuffer = new FloatDeviceBuffer(this);
+        }
         return deviceBuffer;
     }
 
+    /**
+     * Checks if a device buffer was created for this matrix.
+     *
+     * @return true if the matrix has a device buffer, false otherwise.
+     */
+    public boolean hasDeviceBuffer() {
+        return deviceBuffer != null;
+    }
+
     public static void writeAs2DImage(imatrix m, Path location) {
         writeAs2DImage(m, m.getNrOfRows(), m.getNrOfColumns(), location);
     }
@@ -1905,12 +2276,30 @@ public class fmatrix implements imatrix {
      */
     @Override
     public void sync() {
-        this.deviceBuffer.syncHost();
+        if (deviceBuffer != null) {
+            deviceBuffer.syncHost();
+        }
     }
 
+    /**
+     * Makes the host buffer the most current. This has no effect if the
+     * matrix does not have a device buffer.
+     */
     @Override
     public void makeMaster() {
-        deviceBuffer.markCpuAsMaster();
+        if (deviceBuffer != null) {
+            deviceBuffer.markCpuAsMaster();
+        }
+    }
+
+    @Override
+    public long getModificationCount() {
+        return modificationCount;
+    }
+
+    @Override
+    public void markModified() {
+        ++modificationCount;
     }
 
 }
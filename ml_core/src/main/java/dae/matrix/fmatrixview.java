@@ -29,6 +29,7 @@ public class fmatrixview implements imatrix {
     private final int hyperSliceSize;
 
     private String name;
+    private StridedView stridedView;
 
     public fmatrixview(int rows, int columns, int slices, imatrix source) {
         this.rows = rows;
@@ -116,17 +117,32 @@ public class fmatrixview implements imatrix {
 
     @Override
     public void set(int row, int column, float value) {
-
+        set(row, column, 0, 0, value);
     }
 
     @Override
     public void set(int row, int column, int slice, float value) {
-
+        set(row, column, slice, 0, value);
     }
 
+    /**
+     * Sets a cell of the source matrix through this view, cells outside the
+     * dimensions of the view are ignored.
+     *
+     * @param row the row of the cell.
+     * @param column the column of the cell.
+     * @param slice the slice of the cell.
+     * @param hyperslice the hyperslice of the cell.
+     * @param value the new value of the cell.
+     */
     @Override
     public void set(int row, int column, int slice, int hyperslice, float value) {
-
+        if (row >= 0 && row < rows && column >= 0 && column < columns
+                && slice >= 0 && slice < slices
+                && hyperslice >= 0 && hyperslice < source.getNrOfHyperSlices()) {
+            source.getHostData().put(rcshToIndex(row, column, slice, hyperslice), value);
+            source.markModified();
+        }
     }
 
     @Override
@@ -263,6 +279,23 @@ public class fmatrixview implements imatrix {
         return source.getHostData();
     }
 
+    /**
+     * Returns the layout of this view, the cells of the host buffer of the
+     * source are interpreted in column major order with the dimensions of this
+     * view.
+     *
+     * @return the strided view.
+     */
+    @Override
+    public StridedView getStridedView() {
+        FloatBuffer data = source.getHostData();
+        if (stridedView == null || stridedView.getData() != data) {
+            stridedView = StridedView.columnMajor(data, 0, rows, columns, slices,
+                    source.getNrOfHyperSlices(), source.getZeroPadding());
+        }
+        return stridedView;
+    }
+
     @Override
     public boolean isTransposed() {
         return source.isTransposed();
@@ -283,6 +316,16 @@ public class fmatrixview implements imatrix {
         source.makeMaster();
     }
 
+    @Override
+    public long getModificationCount() {
+        return source.getModificationCount();
+    }
+
+    @Override
+    public void markModified() {
+        source.markModified();
+    }
+
     @Override
     public String toString() {
         return source.toString();
@@ -318,6 +318,21 @@ public class fsubmatrix implements imatrix {
         return source.getHostData();
     }
 
+    /**
+     * Returns the layout of this sub matrix. Only a sub matrix that starts at
+     * the first cell of its source can be described with strides.
+     *
+     * @return the strided view or null if the sub matrix has no strided view.
+     */
+    @Override
+    public StridedView getStridedView() {
+        StridedView sourceView = source.getStridedView();
+        if (sourceView == null || rb != 0 || cb != 0 || sb != 0 || hb != 0) {
+            return null;
+        }
+        return sourceView.block(0, 0, 0, 0, rows, columns, slices, hyperslices);
+    }
+
     /**
      * Returns the DeviceBuffer object.
      *
@@ -344,6 +359,16 @@ public class fsubmatrix implements imatrix {
         source.makeMaster();
     }
 
+    @Override
+    public long getModificationCount() {
+        return source.getModificationCount();
+    }
+
+    @Override
+    public void markModified() {
+        source.markModified();
+    }
+
     @Override
     public boolean isTransposed() {
         return source.isTransposed();
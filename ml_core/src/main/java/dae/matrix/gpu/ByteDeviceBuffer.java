@@ -0,0 +1,144 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.gpu;
+
+import dae.matrix.BufferSyncState;
+import dae.matrix.integer.bytematrix;
+import java.nio.ByteBuffer;
+import static org.jocl.CL.CL_MEM_READ_WRITE;
+import static org.jocl.CL.CL_TRUE;
+import static org.jocl.CL.clCreateBuffer;
+import static org.jocl.CL.clEnqueueReadBuffer;
+import static org.jocl.CL.clEnqueueWriteBuffer;
+import org.jocl.Pointer;
+import org.jocl.cl_mem;
+
+/**
+ * The device buffer of a bytematrix. A bytematrix has no zero padding, so the
+ * buffer on the device is a plain copy of the host buffer, padded at the end
+ * to a multiple of the work group size.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public class ByteDeviceBuffer {
+
+    private static final int LOCALSIZE = OpenCLKernel.DEFAULTWORKSIZE;
+
+    private final bytematrix cpuBuffer;
+
+    private cl_mem mem;
+    private final int deviceSize;
+    private final long[] globalWorkSize = new long[1];
+    private final int[] dimensions = new int[3];
+
+    private BufferSyncState cpuBufferState = BufferSyncState.UPTODATE;
+    private BufferSyncState gpuBufferState = BufferSyncState.OUTOFDATE;
+
+    public ByteDeviceBuffer(bytematrix cpuBuffer) {
+        this.cpuBuffer = cpuBuffer;
+
+        dimensions[0] = cpuBuffer.getNrOfRows();
+        dimensions[1] = cpuBuffer.getSliceSize();
+        dimensions[2] = cpuBuffer.getHyperSliceSize();
+
+        int totalSize = cpuBuffer.getSize();
+        int padding = LOCALSIZE - (totalSize % LOCALSIZE);
+        globalWorkSize[0] = totalSize + padding;
+        deviceSize = totalSize + padding;
+    }
+
+    /**
+     * Returns the size in bytes of the buffer on the device.
+     *
+     * @return the device size.
+     */
+    public int getDeviceSize() {
+        return deviceSize;
+    }
+
+    /**
+     * Returns the global work size for this buffer.
+     *
+     * @return the global work size for the buffer.
+     */
+    public long[] getGlobalWorkSize() {
+        return globalWorkSize;
+    }
+
+    /**
+     * Returns an array of 3 elements with the size of the different dimensions.
+     * the first element is the number of rows. the second element is the size
+     * of one slice (rows*columns) the third element is the size of one hyper
+     * slice (rows*columns*slices).
+     *
+     * @return an array with sizes of the dimensions of this matrix.
+     */
+    public int[] getDimensionSizes() {
+        return dimensions;
+    }
+
+    public cl_mem getMem() {
+        if (mem == null) {
+            mem = clCreateBuffer(GPU.CL_CONTEXT, CL_MEM_READ_WRITE, deviceSize, null, null);
+        }
+        return mem;
+    }
+
+    /**
+     * Checks if the memory for this buffer was created on the device.
+     *
+     * @return true if the buffer exists on the device, false otherwise.
+     */
+    public boolean isAllocated() {
+        return mem != null;
+    }
+
+    public cl_mem upload() {
+        cl_mem dmem = getMem();
+        if (gpuBufferState == BufferSyncState.OUTOFDATE) {
+            clEnqueueWriteBuffer(GPU.CL_COMMAND_QUEUE, dmem, CL_TRUE, 0, cpuBuffer.getSize(),
+                    getCLPointer(), 0, null, null);
+            gpuBufferState = BufferSyncState.UPTODATE;
+        }
+        return dmem;
+    }
+
+    public void download() {
+        if (isAllocated() && cpuBufferState == BufferSyncState.OUTOFDATE) {
+            clEnqueueReadBuffer(GPU.CL_COMMAND_QUEUE, mem, CL_TRUE, 0, cpuBuffer.getSize(),
+                    getCLPointer(), 0, null, null);
+            cpuBufferState = BufferSyncState.UPTODATE;
+        }
+    }
+
+    public Pointer getCLPointer() {
+        byte[] array = cpuBuffer.getHostArray();
+        if (array != null) {
+            return Pointer.to(array);
+        }
+        // direct buffers are passed without a copy.
+        ByteBuffer view = cpuBuffer.getHostData().duplicate();
+        view.rewind();
+        return Pointer.to(view);
+    }
+
+    /**
+     * Synchronizes the host with the buffer that is stored on the gpu if
+     * necessary.
+     */
+    public void syncHost() {
+        download();
+    }
+
+    public void markGpuAsMaster() {
+        this.cpuBufferState = BufferSyncState.OUTOFDATE;
+        this.gpuBufferState = BufferSyncState.UPTODATE;
+    }
+
+    public void markCpuAsMaster() {
+        this.cpuBufferState = BufferSyncState.UPTODATE;
+        this.gpuBufferState = BufferSyncState.OUTOFDATE;
+    }
+}
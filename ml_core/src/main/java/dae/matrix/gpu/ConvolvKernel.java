@@ -4,8 +4,11 @@
  */
 package dae.matrix.gpu;
 
+import dae.matrix.cpu.PoolKernels;
 import dae.matrix.fmatrix;
 import dae.matrix.imatrix;
+import dae.matrix.integer.bytematrix;
+import dae.neuralnet.activation.ActivationFunction;
 import static org.jocl.CL.CL_KERNEL_NUM_ARGS;
 import static org.jocl.CL.clEnqueueNDRangeKernel;
 import static org.jocl.CL.clGetKernelInfo;
@@ -30,6 +33,15 @@ public class ConvolvKernel extends OpenCLKernel {
     
     private cl_kernel batchCorrelation;
     private cl_kernel batchBackpropCorrelation;
+
+    private cl_kernel batchCrossConvolution;
+    private cl_kernel deltasBatchCrossConvolution;
+    private cl_kernel batchBackpropCrossCorrelation;
+
+    private cl_kernel batchConvolutionMaxPool;
+    private cl_kernel backpropMaxPoolActivation;
+    private cl_kernel biasActivation;
+    private cl_kernel deltasActivation;
     
     private cl_kernel rotateKernel;
     private cl_kernel accumulateRotateKernel;
@@ -66,6 +78,13 @@ public class ConvolvKernel extends OpenCLKernel {
         deltasBatchConvolution = this.createKernel("deltasBatchConvolution");
         batchCorrelation = this.createKernel("batchCorrelate");
         batchBackpropCorrelation = this.createKernel("batchBackpropCorrelate");
+        batchCrossConvolution = this.createKernel("batchCrossConvolution");
+        deltasBatchCrossConvolution = this.createKernel("deltasBatchCrossConvolution");
+        batchBackpropCrossCorrelation = this.createKernel("batchBackpropCrossCorrelate");
+        batchConvolutionMaxPool = this.createKernel("batchConvolutionMaxPool");
+        backpropMaxPoolActivation = this.createKernel("backpropMaxPoolActivation");
+        biasActivation = this.createKernel("biasActivation");
+        deltasActivation = this.createKernel("deltasActivation");
         rotateKernel = this.createKernel("rotateKernels");
         accumulateRotateKernel = this.createKernel("accumulateRotateKernels");
         maxRotation = this.createKernel("maxRotation");
@@ -310,6 +329,313 @@ public class ConvolvKernel extends OpenCLKernel {
         outputDB.markGpuAsMaster();
     }
 
+    public void batchCrossConvolve(imatrix input, imatrix filter, imatrix bias, int stride, imatrix output) {
+        int[] fDim = new int[]{filter.getNrOfRows(), filter.getNrOfColumns()};
+        int[] ps = new int[]{stride};
+        int[] inputSlices = new int[]{input.getNrOfSlices()};
+
+        FloatDeviceBuffer inputDB = input.getDeviceBuffer();
+        if (input.getZeroPadding() > 0) {
+            GPU.zeroFill(input);
+        }
+        cl_mem memInput = inputDB.upload();
+
+        FloatDeviceBuffer filterDB = filter.getDeviceBuffer();
+        cl_mem memFilter = filterDB.upload();
+
+        FloatDeviceBuffer biasDB = bias.getDeviceBuffer();
+        cl_mem memBias = biasDB.upload();
+
+        FloatDeviceBuffer outputDB = output.getDeviceBuffer();
+        cl_mem memOutput = outputDB.getMem();
+
+        clSetKernelArg(batchCrossConvolution, 0, Sizeof.cl_mem, Pointer.to(memInput));
+        clSetKernelArg(batchCrossConvolution, 1, Sizeof.cl_mem, Pointer.to(memFilter));
+        clSetKernelArg(batchCrossConvolution, 2, Sizeof.cl_mem, Pointer.to(memBias));
+        clSetKernelArg(batchCrossConvolution, 3, Sizeof.cl_mem, Pointer.to(memOutput));
+        clSetKernelArg(batchCrossConvolution, 4, Sizeof.cl_int4, Pointer.to(inputDB.getDimensionSizes()));
+        clSetKernelArg(batchCrossConvolution, 5, Sizeof.cl_int2, Pointer.to(fDim));
+        clSetKernelArg(batchCrossConvolution, 6, Sizeof.cl_int4, Pointer.to(outputDB.getDimensionSizes()));
+        clSetKernelArg(batchCrossConvolution, 7, Sizeof.cl_int, Pointer.to(inputSlices));
+        clSetKernelArg(batchCrossConvolution, 8, Sizeof.cl_int, Pointer.to(ps));
+        clSetKernelArg(batchCrossConvolution, 9, Sizeof.cl_int, Pointer.to(new int[]{output.getSize()}));
+
+        clEnqueueNDRangeKernel(
+                commandQueue,
+                batchCrossConvolution,
+                1,
+                null,
+                outputDB.getGlobalWorkSize(),
+                localWorkSize,
+                0,
+                null,
+                null);
+
+        outputDB.markGpuAsMaster();
+    }
+
+    public void deltasBatchCrossConvolve(imatrix input, imatrix deltas, int stride, imatrix kernel) {
+        int[] ps = new int[]{stride};
+        int[] inputSlices = new int[]{input.getNrOfSlices()};
+
+        FloatDeviceBuffer inputDB = input.getDeviceBuffer();
+        if (input.getZeroPadding() > 0) {
+            GPU.zeroFill(input);
+        }
+        cl_mem memInput = inputDB.upload();
+
+        FloatDeviceBuffer deltasDB = deltas.getDeviceBuffer();
+        cl_mem memDeltas = deltasDB.upload();
+
+        FloatDeviceBuffer outputDB = kernel.getDeviceBuffer();
+        cl_mem memOutput = outputDB.getMem();
+
+        clSetKernelArg(deltasBatchCrossConvolution, 0, Sizeof.cl_mem, Pointer.to(memInput));
+        clSetKernelArg(deltasBatchCrossConvolution, 1, Sizeof.cl_int4, Pointer.to(inputDB.getDimensionSizes()));
+        clSetKernelArg(deltasBatchCrossConvolution, 2, Sizeof.cl_mem, Pointer.to(memDeltas));
+        clSetKernelArg(deltasBatchCrossConvolution, 3, Sizeof.cl_int4, Pointer.to(deltasDB.getDimensionSizes()));
+        clSetKernelArg(deltasBatchCrossConvolution, 4, Sizeof.cl_mem, Pointer.to(memOutput));
+        clSetKernelArg(deltasBatchCrossConvolution, 5, Sizeof.cl_int4, Pointer.to(outputDB.getDimensionSizes()));
+        clSetKernelArg(deltasBatchCrossConvolution, 6, Sizeof.cl_int, Pointer.to(inputSlices));
+        clSetKernelArg(deltasBatchCrossConvolution, 7, Sizeof.cl_int, Pointer.to(ps));
+        clSetKernelArg(deltasBatchCrossConvolution, 8, Sizeof.cl_int, Pointer.to(new int[]{kernel.getSize()}));
+
+        clEnqueueNDRangeKernel(
+                commandQueue,
+                deltasBatchCrossConvolution,
+                1,
+                null,
+                outputDB.getGlobalWorkSize(),
+                localWorkSize,
+                0,
+                null,
+                null);
+
+        outputDB.markGpuAsMaster();
+    }
+
+    public void batchBackpropCrossCorrelate(imatrix input, imatrix filter, int stride, imatrix output) {
+        int[] fDim = new int[]{filter.getNrOfRows(), filter.getNrOfColumns()};
+        int[] ps = new int[]{stride};
+        int[] features = new int[]{input.getNrOfSlices()};
+
+        FloatDeviceBuffer inputDB = input.getDeviceBuffer();
+        if (input.getZeroPadding() > 0) {
+            GPU.zeroFill(input);
+        }
+        inputDB.markCpuAsMaster();
+        cl_mem memInput = inputDB.upload();
+
+        FloatDeviceBuffer filterDB = filter.getDeviceBuffer();
+        cl_mem memFilter = filterDB.upload();
+
+        FloatDeviceBuffer outputDB = output.getDeviceBuffer();
+        cl_mem memOutput = outputDB.getMem();
+
+        clSetKernelArg(batchBackpropCrossCorrelation, 0, Sizeof.cl_mem, Pointer.to(memInput));
+        clSetKernelArg(batchBackpropCrossCorrelation, 1, Sizeof.cl_mem, Pointer.to(memFilter));
+        clSetKernelArg(batchBackpropCrossCorrelation, 2, Sizeof.cl_mem, Pointer.to(memOutput));
+        clSetKernelArg(batchBackpropCrossCorrelation, 3, Sizeof.cl_int4, Pointer.to(inputDB.getDimensionSizes()));
+        clSetKernelArg(batchBackpropCrossCorrelation, 4, Sizeof.cl_int2, Pointer.to(fDim));
+        clSetKernelArg(batchBackpropCrossCorrelation, 5, Sizeof.cl_int4, Pointer.to(outputDB.getDimensionSizes()));
+        clSetKernelArg(batchBackpropCrossCorrelation, 6, Sizeof.cl_int, Pointer.to(features));
+        clSetKernelArg(batchBackpropCrossCorrelation, 7, Sizeof.cl_int, Pointer.to(ps));
+        clSetKernelArg(batchBackpropCrossCorrelation, 8, Sizeof.cl_int, Pointer.to(new int[]{output.getSize()}));
+
+        clEnqueueNDRangeKernel(
+                commandQueue,
+                batchBackpropCrossCorrelation,
+                1,
+                null,
+                outputDB.getGlobalWorkSize(),
+                this.localWorkSize,
+                0,
+                null,
+                null);
+
+        outputDB.markGpuAsMaster();
+    }
+
+    public void batchConvolveMaxPool(imatrix input, imatrix filter, imatrix bias, int stride, ActivationFunction function, imatrix output, bytematrix maskLayer) {
+        if (!function.isNonDecreasing()) {
+            throw new IllegalArgumentException("The " + function + " activation is not non decreasing and can not be fused with a max pool.");
+        }
+        int zp = input.getZeroPadding();
+        int convRows = 1 + (input.getNrOfRows() + 2 * zp - filter.getNrOfRows()) / stride;
+        int convColumns = 1 + (input.getNrOfColumns() + 2 * zp - filter.getNrOfColumns()) / stride;
+        int[] fDim = new int[]{filter.getNrOfRows(), filter.getNrOfColumns()};
+        int[] pDim = new int[]{convRows / output.getNrOfRows(), convColumns / output.getNrOfColumns()};
+        PoolKernels.checkWindow(pDim[1], pDim[0]);
+        int[] ps = new int[]{stride};
+        int[] fps = new int[]{filter.getNrOfSlices() / input.getNrOfSlices()};
+
+        FloatDeviceBuffer inputDB = input.getDeviceBuffer();
+        if (zp > 0) {
+            GPU.zeroFill(input);
+        }
+        cl_mem memInput = inputDB.upload();
+
+        FloatDeviceBuffer filterDB = filter.getDeviceBuffer();
+        cl_mem memFilter = filterDB.upload();
+
+        FloatDeviceBuffer biasDB = bias.getDeviceBuffer();
+        cl_mem memBias = biasDB.upload();
+
+        FloatDeviceBuffer outputDB = output.getDeviceBuffer();
+        cl_mem memOutput = outputDB.getMem();
+
+        ByteDeviceBuffer maskDB = maskLayer.getDeviceBuffer();
+        cl_mem memMask = maskDB.getMem();
+
+        clSetKernelArg(batchConvolutionMaxPool, 0, Sizeof.cl_mem, Pointer.to(memInput));
+        clSetKernelArg(batchConvolutionMaxPool, 1, Sizeof.cl_mem, Pointer.to(memFilter));
+        clSetKernelArg(batchConvolutionMaxPool, 2, Sizeof.cl_mem, Pointer.to(memBias));
+        clSetKernelArg(batchConvolutionMaxPool, 3, Sizeof.cl_mem, Pointer.to(memOutput));
+        clSetKernelArg(batchConvolutionMaxPool, 4, Sizeof.cl_mem, Pointer.to(memMask));
+        clSetKernelArg(batchConvolutionMaxPool, 5, Sizeof.cl_int4, Pointer.to(inputDB.getDimensionSizes()));
+        clSetKernelArg(batchConvolutionMaxPool, 6, Sizeof.cl_int2, Pointer.to(fDim));
+        clSetKernelArg(batchConvolutionMaxPool, 7, Sizeof.cl_int4, Pointer.to(outputDB.getDimensionSizes()));
+        clSetKernelArg(batchConvolutionMaxPool, 8, Sizeof.cl_int2, Pointer.to(pDim));
+        clSetKernelArg(batchConvolutionMaxPool, 9, Sizeof.cl_int, Pointer.to(fps));
+        clSetKernelArg(batchConvolutionMaxPool, 10, Sizeof.cl_int, Pointer.to(ps));
+        clSetKernelArg(batchConvolutionMaxPool, 11, Sizeof.cl_int, Pointer.to(new int[]{activationCode(function)}));
+        clSetKernelArg(batchConvolutionMaxPool, 12, Sizeof.cl_int, Pointer.to(new int[]{output.getSize()}));
+
+        clEnqueueNDRangeKernel(
+                commandQueue,
+                batchConvolutionMaxPool,
+                1,
+                null,
+                outputDB.getGlobalWorkSize(),
+                this.localWorkSize,
+                0,
+                null,
+                null);
+
+        outputDB.markGpuAsMaster();
+        maskDB.markGpuAsMaster();
+    }
+
+    public void backpropMaxPoolActivation(imatrix errors, imatrix outputs, bytematrix maskLayer, ActivationFunction function, imatrix deltas) {
+        int[] pDim = new int[]{deltas.getNrOfRows() / errors.getNrOfRows(), deltas.getNrOfColumns() / errors.getNrOfColumns()};
+
+        FloatDeviceBuffer errorsDB = errors.getDeviceBuffer();
+        cl_mem memErrors = errorsDB.upload();
+
+        FloatDeviceBuffer outputsDB = outputs.getDeviceBuffer();
+        cl_mem memOutputs = outputsDB.upload();
+
+        ByteDeviceBuffer maskDB = maskLayer.getDeviceBuffer();
+        cl_mem memMask = maskDB.upload();
+
+        FloatDeviceBuffer deltasDB = deltas.getDeviceBuffer();
+        cl_mem memDeltas = deltasDB.getMem();
+
+        clSetKernelArg(backpropMaxPoolActivation, 0, Sizeof.cl_mem, Pointer.to(memErrors));
+        clSetKernelArg(backpropMaxPoolActivation, 1, Sizeof.cl_mem, Pointer.to(memOutputs));
+        clSetKernelArg(backpropMaxPoolActivation, 2, Sizeof.cl_mem, Pointer.to(memMask));
+        clSetKernelArg(backpropMaxPoolActivation, 3, Sizeof.cl_mem, Pointer.to(memDeltas));
+        clSetKernelArg(backpropMaxPoolActivation, 4, Sizeof.cl_int4, Pointer.to(errorsDB.getDimensionSizes()));
+        clSetKernelArg(backpropMaxPoolActivation, 5, Sizeof.cl_int2, Pointer.to(pDim));
+        clSetKernelArg(backpropMaxPoolActivation, 6, Sizeof.cl_int4, Pointer.to(deltasDB.getDimensionSizes()));
+        clSetKernelArg(backpropMaxPoolActivation, 7, Sizeof.cl_int, Pointer.to(new int[]{activationCode(function)}));
+        clSetKernelArg(backpropMaxPoolActivation, 8, Sizeof.cl_int, Pointer.to(new int[]{deltas.getSize()}));
+
+        clEnqueueNDRangeKernel(
+                commandQueue,
+                backpropMaxPoolActivation,
+                1,
+                null,
+                deltasDB.getGlobalWorkSize(),
+                this.localWorkSize,
+                0,
+                null,
+                null);
+
+        deltasDB.markGpuAsMaster();
+    }
+
+    public void biasActivation(ActivationFunction function, imatrix bias, imatrix m) {
+        FloatDeviceBuffer mDB = m.getDeviceBuffer();
+        cl_mem memM = mDB.upload();
+        // the bias argument can not be empty, the matrix itself is passed when there is no bias.
+        cl_mem memBias = bias != null ? bias.getDeviceBuffer().upload() : memM;
+
+        clSetKernelArg(biasActivation, 0, Sizeof.cl_mem, Pointer.to(memM));
+        clSetKernelArg(biasActivation, 1, Sizeof.cl_mem, Pointer.to(memBias));
+        clSetKernelArg(biasActivation, 2, Sizeof.cl_int4, Pointer.to(mDB.getDimensionSizes()));
+        clSetKernelArg(biasActivation, 3, Sizeof.cl_int, Pointer.to(new int[]{bias != null ? 1 : 0}));
+        clSetKernelArg(biasActivation, 4, Sizeof.cl_int, Pointer.to(new int[]{activationCode(function)}));
+        clSetKernelArg(biasActivation, 5, Sizeof.cl_int, Pointer.to(new int[]{m.getSize()}));
+
+        clEnqueueNDRangeKernel(
+                commandQueue,
+                biasActivation,
+                1,
+                null,
+                mDB.getGlobalWorkSize(),
+                this.localWorkSize,
+                0,
+                null,
+                null);
+
+        mDB.markGpuAsMaster();
+    }
+
+    public void deltasActivation(ActivationFunction function, imatrix errors, imatrix outputs, imatrix deltas) {
+        FloatDeviceBuffer errorsDB = errors.getDeviceBuffer();
+        cl_mem memErrors = errorsDB.upload();
+
+        FloatDeviceBuffer outputsDB = outputs.getDeviceBuffer();
+        cl_mem memOutputs = outputsDB.upload();
+
+        FloatDeviceBuffer deltasDB = deltas.getDeviceBuffer();
+        cl_mem memDeltas = deltasDB.getMem();
+
+        clSetKernelArg(deltasActivation, 0, Sizeof.cl_mem, Pointer.to(memErrors));
+        clSetKernelArg(deltasActivation, 1, Sizeof.cl_mem, Pointer.to(memOutputs));
+        clSetKernelArg(deltasActivation, 2, Sizeof.cl_mem, Pointer.to(memDeltas));
+        clSetKernelArg(deltasActivation, 3, Sizeof.cl_int, Pointer.to(new int[]{activationCode(function)}));
+        clSetKernelArg(deltasActivation, 4, Sizeof.cl_int, Pointer.to(new int[]{deltas.getSize()}));
+
+        clEnqueueNDRangeKernel(
+                commandQueue,
+                deltasActivation,
+                1,
+                null,
+                deltasDB.getGlobalWorkSize(),
+                this.localWorkSize,
+                0,
+                null,
+                null);
+
+        deltasDB.markGpuAsMaster();
+    }
+
+    /**
+     * Returns the code of the activation function in the fused kernels, the
+     * codes are defined at the top of the kernel file.
+     *
+     * @param function the activation function.
+     * @return the code of the activation function.
+     */
+    private static int activationCode(ActivationFunction function) {
+        switch (function) {
+            case SIGMOID:
+                return 1;
+            case CESIGMOID:
+                return 2;
+            case TANH:
+                return 3;
+            case RELU:
+                return 4;
+            case LEAKYRELU:
+                return 5;
+            default:
+                return 0;
+        }
+    }
+
     fmatrix sincos;
 
     public void rotateKernels(imatrix filter, int nrOfRotations, float minAngle, float maxAngle, imatrix output) {
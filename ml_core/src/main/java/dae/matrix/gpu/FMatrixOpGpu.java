@@ -2,18 +2,21 @@ package dae.matrix.gpu;
 
 import dae.matrix.fmatrix;
 import dae.matrix.imatrix;
-import dae.matrix.integer.intmatrix;
+import dae.matrix.integer.bytematrix;
 import dae.matrix.mdim2D;
 import dae.matrix.op.FMatrixOp;
 import dae.neuralnet.activation.ActivationFunction;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import static org.jocl.CL.clCreateBuffer;
 import static org.jocl.CL.clReleaseCommandQueue;
 import static org.jocl.CL.clReleaseContext;
 import org.jocl.Sizeof;
 import org.jocl.blast.CLBlast;
 import static org.jocl.blast.CLBlast.CLBlastSgemm;
+import static org.jocl.blast.CLBlast.CLBlastSgemmBatched;
 import static org.jocl.blast.CLBlastLayout.CLBlastLayoutColMajor;
 import static org.jocl.blast.CLBlastTranspose.*;
 import org.jocl.cl_event;
@@ -73,6 +76,106 @@ public class FMatrixOpGpu implements FMatrixOp {
         CDB.markGpuAsMaster();
     }
 
+    /**
+     * Calculates a strided batched matrix product, every hyperslice of the
+     * matrices is one entry of the batch : C[h] = alpha * A[h] * B[h] + beta *
+     * C[h]. A matrix with a single hyperslice is shared by all the entries in
+     * the batch, if C has a single hyperslice the products are accumulated into
+     * C.
+     *
+     * @param alpha a float value that defines the alpha value.
+     * @param A the matrix A.
+     * @param B the matrix B.
+     * @param beta a float value that defines the beta value.
+     * @param C the matrix C, where the result will be stored.
+     */
+    @Override
+    public void batchedSgemm(float alpha, imatrix A, imatrix B, float beta, imatrix C) {
+        if (isFoldable(A, B, C)) {
+            // the batch can be folded into the N or K dimension of one product.
+            sgemm(alpha, A, B, beta, C);
+            return;
+        }
+        int M = C.getNrOfRows();
+        int N = C.getNrOfColumns();
+        int K = A.getNrOfColumns();
+        int lda = A.isTransposed() ? K : M;
+        int ldb = B.isTransposed() ? N : K;
+        int batch = Math.max(A.getNrOfHyperSlices(), Math.max(B.getNrOfHyperSlices(), C.getNrOfHyperSlices()));
+
+        FloatDeviceBuffer ADB = A.getDeviceBuffer();
+        FloatDeviceBuffer BDB = B.getDeviceBuffer();
+        FloatDeviceBuffer CDB = C.getDeviceBuffer();
+        cl_mem memA = ADB.upload();
+        cl_mem memB = BDB.upload();
+        cl_mem memC = CDB.upload();
+
+        long strideA = A.getNrOfHyperSlices() > 1 ? A.getHyperSliceSize() : 0;
+        long strideB = B.getNrOfHyperSlices() > 1 ? B.getHyperSliceSize() : 0;
+        long strideC = C.getNrOfHyperSlices() > 1 ? C.getHyperSliceSize() : 0;
+        int aTranspose = A.isTransposed() ? CLBlastTransposeYes : CLBlastTransposeNo;
+        int bTranspose = B.isTransposed() ? CLBlastTransposeYes : CLBlastTransposeNo;
+        if (strideC == 0) {
+            // the entries write to the same C matrix, accumulate one by one.
+            for (int h = 0; h < batch; ++h) {
+                CLBlastSgemm(CLBlastLayoutColMajor, aTranspose, bTranspose,
+                        M, N, K,
+                        alpha,
+                        memA, h * strideA, lda,
+                        memB, h * strideB, ldb,
+                        h == 0 ? beta : 1,
+                        memC, 0, M,
+                        GPU.CL_COMMAND_QUEUE, null);
+            }
+        } else {
+            float[] alphas = new float[batch];
+            float[] betas = new float[batch];
+            long[] aOffsets = new long[batch];
+            long[] bOffsets = new long[batch];
+            long[] cOffsets = new long[batch];
+            for (int h = 0; h < batch; ++h) {
+                alphas[h] = alpha;
+                betas[h] = beta;
+                aOffsets[h] = h * strideA;
+                bOffsets[h] = h * strideB;
+                cOffsets[h] = h * strideC;
+            }
+            CLBlastSgemmBatched(CLBlastLayoutColMajor, aTranspose, bTranspose,
+                    M, N, K,
+                    alphas,
+                    memA, aOffsets, lda,
+                    memB, bOffsets, ldb,
+                    betas,
+                    memC, cOffsets, M,
+                    batch, GPU.CL_COMMAND_QUEUE, null);
+        }
+        CDB.markGpuAsMaster();
+    }
+
+    /**
+     * Checks if a batched product can be calculated as a single sgemm
+     * operation. This is the case when a single A matrix is multiplied with a
+     * batch of column vectors, or when the outer products of two batches of
+     * vectors are accumulated into a single C matrix.
+     */
+    private boolean isFoldable(imatrix A, imatrix B, imatrix C) {
+        if (A.getNrOfHyperSlices() == 1) {
+            return isVectorBatch(B) && isVectorBatch(C) && !B.isTransposed() && !C.isTransposed();
+        } else if (C.getNrOfHyperSlices() == 1) {
+            return isVectorBatch(A) && isVectorBatch(B) && !A.isTransposed() && B.isTransposed();
+        } else {
+            return false;
+        }
+    }
+
+    private boolean isVectorBatch(imatrix m) {
+        if (m.isTransposed()) {
+            return m.getNrOfRows() == 1 && m.getNrOfSlices() == 1;
+        } else {
+            return m.getNrOfColumns() == 1 && m.getNrOfSlices() == 1;
+        }
+    }
+
     private void determineLayout(imatrix m, mdim2D dim) {
         if (m.isBatchMatrix()) {
             dim.transposed = m.isTransposed();
@@ -137,6 +240,35 @@ public class FMatrixOpGpu implements FMatrixOp {
         GPU.KERNEL_CONVOLV.deltasBatchConvolv(input, deltas, stride, kernel);
     }
     
+    /**
+     * Applies the softmax function to every column of every slice in the
+     * matrix.
+     *
+     * @param m the matrix to apply the softmax function to.
+     */
+    @Override
+    public void softMax(imatrix m) {
+        GPU.KERNEL_MATRIX_OP.softMax(m);
+    }
+
+    /**
+     * Applies the softmax function to every column of the logits and
+     * calculates the cross entropy loss and the deltas in one pass over every
+     * column.
+     *
+     * @param m the logits, the softmax of the logits is stored back into this
+     * matrix.
+     * @param y the desired output, with the dimensions of m.
+     * @param loss a matrix with one row that stores the loss per column of m,
+     * or null if the loss is not needed.
+     * @param deltas the matrix to store the deltas in, with the dimensions of
+     * m.
+     */
+    @Override
+    public void softMaxCrossEntropy(imatrix m, imatrix y, imatrix loss, imatrix deltas) {
+        GPU.KERNEL_MATRIX_OP.softMaxCrossEntropy(m, y, loss, deltas);
+    }
+
     @Override
     public void sumPerSlice(imatrix src, imatrix dst){
         GPU.KERNEL_MATRIX_OP.sumPerSlice(src,dst);
@@ -185,6 +317,46 @@ public class FMatrixOpGpu implements FMatrixOp {
         GPU.KERNEL_CONVOLV.batchBackpropCorrelate(input, filter, stride, output);
     }
 
+    /**
+     * Applies a cross channel convolution on the input matrix.
+     *
+     * @param input the matrix to convolve.
+     * @param filter the filter to apply.
+     * @param bias a row matrix with a bias term per output slice.
+     * @param stride the stride with which to advance the filter.
+     * @param output the matrix where the output is stored.
+     */
+    @Override
+    public void batchCrossConvolve(imatrix input, imatrix filter, imatrix bias, int stride, imatrix output) {
+        GPU.KERNEL_CONVOLV.batchCrossConvolve(input, filter, bias, stride, output);
+    }
+
+    /**
+     * Calculates the filter gradients of the cross channel convolution.
+     *
+     * @param input the input (with batch multiplicity).
+     * @param deltas the deltas (with batch multiplicity).
+     * @param stride the stride.
+     * @param kernel the kernel (with batch multiplicity).
+     */
+    @Override
+    public void deltasBatchCrossConvolve(imatrix input, imatrix deltas, int stride, imatrix kernel) {
+        GPU.KERNEL_CONVOLV.deltasBatchCrossConvolve(input, deltas, stride, kernel);
+    }
+
+    /**
+     * Back propagates the deltas of a cross channel convolution.
+     *
+     * @param input the zero padded deltas.
+     * @param filter the filter matrix.
+     * @param stride the stride.
+     * @param output the output matrix.
+     */
+    @Override
+    public void batchBackpropCrossCorrelate(imatrix input, imatrix filter, int stride, imatrix output) {
+        GPU.KERNEL_CONVOLV.batchBackpropCrossCorrelate(input, filter, stride, output);
+    }
+
     /**
      * Calculates the sigmoid activation function. The result is stored back
      * into the given matrix.
@@ -288,12 +460,11 @@ public class FMatrixOpGpu implements FMatrixOp {
      *
      * @param input the input matrix.
      * @param output the output matrix.
-     * @param maskLayer a matrix with the same dimension as the input layer
-     * which can be used to determine which input pixels contributed to the
-     * output.
+     * @param maskLayer a matrix with the dimensions of the pooled matrix that
+     * stores the location of the maximum in every pool window.
      */
     @Override
-    public void batchMaxPool(imatrix input, imatrix output, intmatrix maskLayer) {
+    public void batchMaxPool(imatrix input, imatrix output, bytematrix maskLayer) {
         GPU.KERNEL_POOL.maxPool(input, output, maskLayer);
     }
 
@@ -302,19 +473,50 @@ public class FMatrixOpGpu implements FMatrixOp {
      * the cells that are defined in the masking layer are applied to output.
      *
      * @param input the input matrix.
-     * @param maskLayer a matrix with the same dimension as the input layer
-     * which can be used to determine which input pixels contributed to the
-     * output.
+     * @param maskLayer a matrix with the dimensions of the pooled matrix that
+     * stores the location of the maximum in every pool window.
      * @param scaleX the x-scale of the pool layer.
      * @param scaleY the y-scale of the pool layer.
      * @param output the output matrix.
      *
      */
     @Override
-    public void batchBackpropMaxPool(imatrix input, intmatrix maskLayer, int scaleX, int scaleY, imatrix output) {
+    public void batchBackpropMaxPool(imatrix input, bytematrix maskLayer, int scaleX, int scaleY, imatrix output) {
         GPU.KERNEL_POOL.backpropMaxPool(input, maskLayer, scaleX, scaleY, output);
     }
 
+    /**
+     * Convolves, activates and max pools the input in one pass, every work
+     * item calculates the convolution cells of one pool window.
+     *
+     * @param input the zero padded input matrix.
+     * @param filter the filters to apply.
+     * @param bias a row matrix with a bias term per filter slice.
+     * @param stride the stride with which to advance the filter.
+     * @param function the activation function.
+     * @param output the pooled output matrix.
+     * @param maskLayer the location of the maximum in every pool window.
+     */
+    @Override
+    public void batchConvolveMaxPool(imatrix input, imatrix filter, imatrix bias, int stride, ActivationFunction function, imatrix output, bytematrix maskLayer) {
+        GPU.KERNEL_CONVOLV.batchConvolveMaxPool(input, filter, bias, stride, function, output, maskLayer);
+    }
+
+    /**
+     * Back propagates the errors of a pooled and activated convolution to the
+     * deltas of the convolution.
+     *
+     * @param errors the errors of the pooled output.
+     * @param outputs the pooled output (after the activation function).
+     * @param maskLayer the mask layer of the forward pass.
+     * @param function the activation function.
+     * @param deltas the deltas of the convolution, at full resolution.
+     */
+    @Override
+    public void batchBackpropMaxPoolActivation(imatrix errors, imatrix outputs, bytematrix maskLayer, ActivationFunction function, imatrix deltas) {
+        GPU.KERNEL_CONVOLV.backpropMaxPoolActivation(errors, outputs, maskLayer, function, deltas);
+    }
+
     /**
      * The input contains data per two slices. The even slices contain the value
      * data, the oneven slices contain the rotation data. The max pooling is
@@ -326,7 +528,7 @@ public class FMatrixOpGpu implements FMatrixOp {
      * value.
      */
     @Override
-    public void maxRotationPool(imatrix input, imatrix output, intmatrix maskLayer) {
+    public void maxRotationPool(imatrix input, imatrix output, bytematrix maskLayer) {
         GPU.KERNEL_POOL.maxRotationPool(input, output, maskLayer);
     }
 
@@ -340,7 +542,7 @@ public class FMatrixOpGpu implements FMatrixOp {
      * @param output the output matrix.
      */
     @Override
-    public void backpropMaxRotationPool(imatrix input, intmatrix maskLayer, imatrix output) {
+    public void backpropMaxRotationPool(imatrix input, bytematrix maskLayer, imatrix output) {
         GPU.KERNEL_POOL.backpropMaxRotationPool(input, maskLayer, output);
     }
 
@@ -534,6 +736,66 @@ public class FMatrixOpGpu implements FMatrixOp {
         return GPU.KERNEL_MATRIX_OP.adamAdaptWeights(weights, eta, beta1, beta2, epsilon, moment, velocity);
     }
 
+    /**
+     * Executes one step of the adam algorithm over a list of weight matrices,
+     * with one fused kernel per segment.
+     *
+     * @param weights the weight segments.
+     * @param gradients the gradient per segment.
+     * @param moments the moment per segment.
+     * @param velocities the velocity per segment.
+     * @param eta the learning rate.
+     * @param beta1 the decay of the moment.
+     * @param beta2 the decay of the velocity.
+     * @param beta1Corr the bias correction of the moment.
+     * @param beta2Corr the bias correction of the velocity.
+     * @param epsilon the epsilon value.
+     * @param weightDecay the decoupled weight decay (adamw), 0 for adam.
+     */
+    @Override
+    public void adamStep(imatrix[] weights, imatrix[] gradients, imatrix[] moments, imatrix[] velocities,
+            float eta, float beta1, float beta2, float beta1Corr, float beta2Corr, float epsilon, float weightDecay) {
+        for (int i = 0; i < weights.length; ++i) {
+            GPU.KERNEL_MATRIX_OP.adamStep(weights[i], gradients[i], moments[i], velocities[i],
+                    eta, beta1, beta2, beta1Corr, beta2Corr, epsilon, weightDecay);
+        }
+    }
+
+    /**
+     * Executes one step of gradient descent with momentum over a list of
+     * weight matrices, with one fused kernel per segment.
+     *
+     * @param weights the weight segments.
+     * @param gradients the gradient per segment.
+     * @param velocities the velocity per segment.
+     * @param eta the learning rate.
+     * @param momentum the momentum.
+     */
+    @Override
+    public void momentumStep(imatrix[] weights, imatrix[] gradients, imatrix[] velocities, float eta, float momentum) {
+        for (int i = 0; i < weights.length; ++i) {
+            GPU.KERNEL_MATRIX_OP.momentumStep(weights[i], gradients[i], velocities[i], eta, momentum);
+        }
+    }
+
+    /**
+     * Executes one step of the rmsprop algorithm over a list of weight
+     * matrices, with one fused kernel per segment.
+     *
+     * @param weights the weight segments.
+     * @param gradients the gradient per segment.
+     * @param meanSquares the running mean of the squared gradient per segment.
+     * @param eta the learning rate.
+     * @param decay the decay of the mean square.
+     * @param epsilon the epsilon value.
+     */
+    @Override
+    public void rmsPropStep(imatrix[] weights, imatrix[] gradients, imatrix[] meanSquares, float eta, float decay, float epsilon) {
+        for (int i = 0; i < weights.length; ++i) {
+            GPU.KERNEL_MATRIX_OP.rmsPropStep(weights[i], gradients[i], meanSquares[i], eta, decay, epsilon);
+        }
+    }
+
     /**
      * Copies one matrix into another matrix. The number of rows,columns slices
      * and hyperslices copied is the minimum of the corresponding dimensions of
@@ -671,6 +933,37 @@ public class FMatrixOpGpu implements FMatrixOp {
         }
     }
 
+    /**
+     * Adds the bias of the slice to every cell and applies the activation
+     * function in one pass over the matrix.
+     *
+     * @param function the activation function.
+     * @param bias a row matrix with a bias per slice, or null if only the
+     * activation function needs to be applied.
+     * @param m the matrix to apply the bias and the activation function to.
+     */
+    @Override
+    public void applyBiasActivation(ActivationFunction function, imatrix bias, imatrix m) {
+        if (function == ActivationFunction.SOFTMAX) {
+            throw new IllegalArgumentException("The softmax activation is applied per row, use softMaxPerRow.");
+        }
+        GPU.KERNEL_CONVOLV.biasActivation(function, bias, m);
+    }
+
+    /**
+     * Calculates the deltas of a layer in one pass: deltas = errors *
+     * f'(outputs).
+     *
+     * @param function the activation function of the layer.
+     * @param errors the errors of the layer.
+     * @param outputs the outputs of the layer.
+     * @param deltas the matrix to store the deltas in.
+     */
+    @Override
+    public void applyDerivedActivation(ActivationFunction function, imatrix errors, imatrix outputs, imatrix deltas) {
+        GPU.KERNEL_CONVOLV.deltasActivation(function, errors, outputs, deltas);
+    }
+
     /**
      * Rotates a kernel. The first slice will be preserved and rotated copies
      * will be generated in the subsequent slices. The start angle indicates the
@@ -834,6 +1127,23 @@ public class FMatrixOpGpu implements FMatrixOp {
         GPU.KERNEL_MATRIX_OP.randomize(m, min, max);
     }
 
+    /**
+     * Checks if an OpenCL device can be initialized. This forces the static
+     * initialization of the GPU class, any failure (for example a missing
+     * native library) is caught and reported as unavailable.
+     *
+     * @return true if the gpu backend can be used, false otherwise.
+     */
+    public static boolean isAvailable() {
+        try {
+            Class.forName(GPU.class.getName(), true, FMatrixOpGpu.class.getClassLoader());
+            return true;
+        } catch (Throwable t) {
+            Logger.getLogger(FMatrixOpGpu.class.getName()).log(Level.INFO, "OpenCL is not available : {0}", t.toString());
+            return false;
+        }
+    }
+
     public static void cleanup() {
         clReleaseCommandQueue(GPU.CL_COMMAND_QUEUE);
         clReleaseContext(GPU.CL_CONTEXT);
@@ -7,6 +7,7 @@ package dae.matrix.gpu;
 import dae.matrix.BufferSyncState;
 import dae.matrix.imatrix;
 import static org.jocl.CL.CL_MEM_READ_WRITE;
+import java.nio.FloatBuffer;
 import org.jocl.Pointer;
 import org.jocl.Sizeof;
 import org.jocl.cl_mem;
@@ -151,14 +152,32 @@ public class FloatDeviceBuffer {
     }
 
     public void download() {
-        if (cpuBufferState == BufferSyncState.OUTOFDATE) {
+        if (isAllocated() && cpuBufferState == BufferSyncState.OUTOFDATE) {
             GPU.download(cpuBuffer);
+            cpuBuffer.markModified();
             cpuBufferState = BufferSyncState.UPTODATE;
         }
     }
 
+    /**
+     * Checks if the memory for this buffer was created on the device. The sync
+     * states are only relevant for buffers that exist on the device.
+     *
+     * @return true if the buffer exists on the device, false otherwise.
+     */
+    public boolean isAllocated() {
+        return memPadded != null;
+    }
+
     public Pointer getCLPointer() {
-        return Pointer.to(cpuBuffer.getHostData().array());
+        FloatBuffer data = cpuBuffer.getHostData();
+        if (data.hasArray() && data.arrayOffset() == 0) {
+            return Pointer.to(data.array());
+        }
+        // direct buffers are passed without a copy.
+        FloatBuffer view = data.duplicate();
+        view.rewind();
+        return Pointer.to(view);
     }
 
     /**
@@ -7,6 +7,7 @@ package dae.matrix.gpu;
 import dae.matrix.BufferSyncState;
 import dae.matrix.integer.intmatrix;
 import org.jocl.CL;
+import java.nio.IntBuffer;
 import org.jocl.Pointer;
 import org.jocl.Sizeof;
 import org.jocl.cl_mem;
@@ -180,7 +181,7 @@ public class IntDeviceBuffer {
     }
 
     public void downloadMatrix() {
-        if (cpuBufferState == BufferSyncState.OUTOFDATE) {
+        if (isAllocated() && cpuBufferState == BufferSyncState.OUTOFDATE) {
             if (rGPUBufferState == BufferSyncState.UPTODATE) {
                 GPU.downloadRMatrix(cpuBuffer);
             } else {
@@ -190,8 +191,26 @@ public class IntDeviceBuffer {
         }
     }
 
+    /**
+     * Checks if the read only or the read write memory for this buffer was
+     * created on the device. The sync states are only relevant for buffers
+     * that exist on the device.
+     *
+     * @return true if the buffer exists on the device, false otherwise.
+     */
+    public boolean isAllocated() {
+        return rMemPadded != null || rwMemPadded != null;
+    }
+
     public Pointer getCLPointer() {
-        return Pointer.to(cpuBuffer.getHostData().array());
+        IntBuffer data = cpuBuffer.getHostData();
+        if (data.hasArray() && data.arrayOffset() == 0) {
+            return Pointer.to(data.array());
+        }
+        // direct buffers are passed without a copy.
+        IntBuffer view = data.duplicate();
+        view.rewind();
+        return Pointer.to(view);
     }
 
     /**
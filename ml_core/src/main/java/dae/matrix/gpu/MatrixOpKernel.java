@@ -33,7 +33,12 @@ public class MatrixOpKernel extends OpenCLKernel {
     cl_kernel random;
     cl_kernel adamVelocity;
     cl_kernel adamAdaptWeights;
+    cl_kernel adamStep;
+    cl_kernel momentumStep;
+    cl_kernel rmsPropStep;
     cl_kernel sumPerSlice;
+    cl_kernel softMax;
+    cl_kernel softMaxCrossEntropy;
 
     private long[] localWorkSize = new long[]{OpenCLKernel.DEFAULTWORKSIZE};
 
@@ -60,7 +65,12 @@ public class MatrixOpKernel extends OpenCLKernel {
         random = this.createKernel("rnd_1");
         adamVelocity = this.createKernel("adamVelocity");
         adamAdaptWeights = this.createKernel("adamAdaptWeights");
+        adamStep = this.createKernel("adamStep");
+        momentumStep = this.createKernel("momentumStep");
+        rmsPropStep = this.createKernel("rmsPropStep");
         sumPerSlice = this.createKernel("sumPerSlice");
+        softMax = this.createKernel("softMax");
+        softMaxCrossEntropy = this.createKernel("softMaxCrossEntropy");
 
         super.releaseProgram();
     }
@@ -199,6 +209,101 @@ public class MatrixOpKernel extends OpenCLKernel {
         return weights;
     }
 
+    public void adamStep(imatrix weights, imatrix gradient, imatrix moment, imatrix velocity,
+            float eta, float beta1, float beta2, float beta1Corr, float beta2Corr, float epsilon, float weightDecay) {
+        FloatDeviceBuffer wDB = weights.getDeviceBuffer();
+        float[] parameters = new float[]{eta, beta1, beta2, epsilon};
+        float[] corrections = new float[]{1f / (1 - beta1Corr), 1f / (1 - beta2Corr)};
+        cl_mem memWeights = wDB.upload();
+        FloatDeviceBuffer mDB = moment.getDeviceBuffer();
+        cl_mem memMoment = mDB.upload();
+        FloatDeviceBuffer vDB = velocity.getDeviceBuffer();
+        cl_mem memVelocity = vDB.upload();
+        cl_mem memGradient = gradient.getDeviceBuffer().upload();
+
+        clSetKernelArg(adamStep, 0, Sizeof.cl_float4, Pointer.to(parameters));
+        clSetKernelArg(adamStep, 1, Sizeof.cl_float2, Pointer.to(corrections));
+        clSetKernelArg(adamStep, 2, Sizeof.cl_float, Pointer.to(new float[]{weightDecay}));
+        clSetKernelArg(adamStep, 3, Sizeof.cl_mem, Pointer.to(memGradient));
+        clSetKernelArg(adamStep, 4, Sizeof.cl_mem, Pointer.to(memMoment));
+        clSetKernelArg(adamStep, 5, Sizeof.cl_mem, Pointer.to(memVelocity));
+        clSetKernelArg(adamStep, 6, Sizeof.cl_mem, Pointer.to(memWeights));
+        clSetKernelArg(adamStep, 7, Sizeof.cl_int, Pointer.to(new int[]{weights.getSize()}));
+
+        clEnqueueNDRangeKernel(
+                commandQueue,
+                adamStep,
+                1,
+                null,
+                wDB.getGlobalWorkSize(),
+                this.localWorkSize,
+                0,
+                null,
+                null);
+
+        wDB.markGpuAsMaster();
+        mDB.markGpuAsMaster();
+        vDB.markGpuAsMaster();
+    }
+
+    public void momentumStep(imatrix weights, imatrix gradient, imatrix velocity, float eta, float momentum) {
+        FloatDeviceBuffer wDB = weights.getDeviceBuffer();
+        cl_mem memWeights = wDB.upload();
+        FloatDeviceBuffer vDB = velocity.getDeviceBuffer();
+        cl_mem memVelocity = vDB.upload();
+        cl_mem memGradient = gradient.getDeviceBuffer().upload();
+
+        clSetKernelArg(momentumStep, 0, Sizeof.cl_float, Pointer.to(new float[]{eta}));
+        clSetKernelArg(momentumStep, 1, Sizeof.cl_float, Pointer.to(new float[]{momentum}));
+        clSetKernelArg(momentumStep, 2, Sizeof.cl_mem, Pointer.to(memGradient));
+        clSetKernelArg(momentumStep, 3, Sizeof.cl_mem, Pointer.to(memVelocity));
+        clSetKernelArg(momentumStep, 4, Sizeof.cl_mem, Pointer.to(memWeights));
+        clSetKernelArg(momentumStep, 5, Sizeof.cl_int, Pointer.to(new int[]{weights.getSize()}));
+
+        clEnqueueNDRangeKernel(
+                commandQueue,
+                momentumStep,
+                1,
+                null,
+                wDB.getGlobalWorkSize(),
+                this.localWorkSize,
+                0,
+                null,
+                null);
+
+        wDB.markGpuAsMaster();
+        vDB.markGpuAsMaster();
+    }
+
+    public void rmsPropStep(imatrix weights, imatrix gradient, imatrix meanSquare, float eta, float decay, float epsilon) {
+        FloatDeviceBuffer wDB = weights.getDeviceBuffer();
+        float[] parameters = new float[]{eta, decay, epsilon, 0};
+        cl_mem memWeights = wDB.upload();
+        FloatDeviceBuffer sDB = meanSquare.getDeviceBuffer();
+        cl_mem memMeanSquare = sDB.upload();
+        cl_mem memGradient = gradient.getDeviceBuffer().upload();
+
+        clSetKernelArg(rmsPropStep, 0, Sizeof.cl_float4, Pointer.to(parameters));
+        clSetKernelArg(rmsPropStep, 1, Sizeof.cl_mem, Pointer.to(memGradient));
+        clSetKernelArg(rmsPropStep, 2, Sizeof.cl_mem, Pointer.to(memMeanSquare));
+        clSetKernelArg(rmsPropStep, 3, Sizeof.cl_mem, Pointer.to(memWeights));
+        clSetKernelArg(rmsPropStep, 4, Sizeof.cl_int, Pointer.to(new int[]{weights.getSize()}));
+
+        clEnqueueNDRangeKernel(
+                commandQueue,
+                rmsPropStep,
+                1,
+                null,
+                wDB.getGlobalWorkSize(),
+                this.localWorkSize,
+                0,
+                null,
+                null);
+
+        wDB.markGpuAsMaster();
+        sDB.markGpuAsMaster();
+    }
+
     public imatrix dotsubtract(imatrix O, imatrix op1, imatrix op2) {
         FloatDeviceBuffer oDB = O.getDeviceBuffer();
         cl_mem memOutput = oDB.getMem();
@@ -312,6 +417,86 @@ public class MatrixOpKernel extends OpenCLKernel {
         dstDB.markGpuAsMaster();
     }
 
+    /**
+     * Applies the softmax function to every column of every slice, with one
+     * work item per column.
+     *
+     * @param m the matrix to apply the softmax function to.
+     */
+    public void softMax(imatrix m) {
+        FloatDeviceBuffer mDB = m.getDeviceBuffer();
+        cl_mem memM = mDB.upload();
+        int columns = m.getNrOfColumns() * m.getNrOfSlices() * m.getNrOfHyperSlices();
+
+        clSetKernelArg(softMax, 0, Sizeof.cl_mem, Pointer.to(memM));
+        clSetKernelArg(softMax, 1, Sizeof.cl_int4, Pointer.to(mDB.getDimensionSizes()));
+        clSetKernelArg(softMax, 2, Sizeof.cl_int2, Pointer.to(new int[]{m.getNrOfColumns(), m.getNrOfSlices()}));
+        clSetKernelArg(softMax, 3, Sizeof.cl_int, Pointer.to(new int[]{m.getNrOfRows()}));
+        clSetKernelArg(softMax, 4, Sizeof.cl_int, Pointer.to(new int[]{columns}));
+
+        clEnqueueNDRangeKernel(
+                commandQueue,
+                softMax,
+                1,
+                null,
+                mDB.getGlobalWorkSize(),
+                this.localWorkSize,
+                0,
+                null,
+                null);
+
+        mDB.markGpuAsMaster();
+    }
+
+    /**
+     * Applies the softmax function to every column of the logits and
+     * calculates the cross entropy loss and the deltas, with one work item
+     * per column.
+     *
+     * @param m the logits, the softmax is stored back into this matrix.
+     * @param y the desired output.
+     * @param loss a row matrix with the loss per column, can be null.
+     * @param deltas the matrix to store the deltas in.
+     */
+    public void softMaxCrossEntropy(imatrix m, imatrix y, imatrix loss, imatrix deltas) {
+        FloatDeviceBuffer mDB = m.getDeviceBuffer();
+        cl_mem memM = mDB.upload();
+        cl_mem memY = y.getDeviceBuffer().upload();
+        FloatDeviceBuffer dDB = deltas.getDeviceBuffer();
+        cl_mem memDeltas = dDB.getMem();
+        // without a loss matrix the deltas are passed as a placeholder.
+        FloatDeviceBuffer lDB = loss != null ? loss.getDeviceBuffer() : null;
+        cl_mem memLoss = lDB != null ? lDB.getMem() : memDeltas;
+        int columns = m.getNrOfColumns() * m.getNrOfSlices() * m.getNrOfHyperSlices();
+
+        clSetKernelArg(softMaxCrossEntropy, 0, Sizeof.cl_mem, Pointer.to(memM));
+        clSetKernelArg(softMaxCrossEntropy, 1, Sizeof.cl_mem, Pointer.to(memY));
+        clSetKernelArg(softMaxCrossEntropy, 2, Sizeof.cl_mem, Pointer.to(memDeltas));
+        clSetKernelArg(softMaxCrossEntropy, 3, Sizeof.cl_mem, Pointer.to(memLoss));
+        clSetKernelArg(softMaxCrossEntropy, 4, Sizeof.cl_int4, Pointer.to(mDB.getDimensionSizes()));
+        clSetKernelArg(softMaxCrossEntropy, 5, Sizeof.cl_int2, Pointer.to(new int[]{m.getNrOfColumns(), m.getNrOfSlices()}));
+        clSetKernelArg(softMaxCrossEntropy, 6, Sizeof.cl_int, Pointer.to(new int[]{m.getNrOfRows()}));
+        clSetKernelArg(softMaxCrossEntropy, 7, Sizeof.cl_int, Pointer.to(new int[]{lDB != null ? 1 : 0}));
+        clSetKernelArg(softMaxCrossEntropy, 8, Sizeof.cl_int, Pointer.to(new int[]{columns}));
+
+        clEnqueueNDRangeKernel(
+                commandQueue,
+                softMaxCrossEntropy,
+                1,
+                null,
+                mDB.getGlobalWorkSize(),
+                this.localWorkSize,
+                0,
+                null,
+                null);
+
+        mDB.markGpuAsMaster();
+        dDB.markGpuAsMaster();
+        if (lDB != null) {
+            lDB.markGpuAsMaster();
+        }
+    }
+
     private intmatrix seedMatrix;
 
     public void randomize(imatrix m, float min, float max) {
@@ -4,8 +4,9 @@
  */
 package dae.matrix.gpu;
 
+import dae.matrix.cpu.PoolKernels;
 import dae.matrix.imatrix;
-import dae.matrix.integer.intmatrix;
+import dae.matrix.integer.bytematrix;
 import static org.jocl.CL.clEnqueueNDRangeKernel;
 import static org.jocl.CL.clSetKernelArg;
 import org.jocl.Pointer;
@@ -43,16 +44,17 @@ public class PoolKernel extends OpenCLKernel {
         super.releaseProgram();
     }
 
-    public void maxPool(imatrix input, imatrix output, intmatrix maskLayer) {
+    public void maxPool(imatrix input, imatrix output, bytematrix maskLayer) {
         FloatDeviceBuffer inputDB = input.getDeviceBuffer();
         FloatDeviceBuffer outputDB = output.getDeviceBuffer();
-        IntDeviceBuffer maskDB = maskLayer.getDeviceBuffer();
+        ByteDeviceBuffer maskDB = maskLayer.getDeviceBuffer();
 
         int scaleX = input.getNrOfColumns() / output.getNrOfColumns();
         int scaleY = input.getNrOfRows() / output.getNrOfRows();
-        int[] fDim = new int[]{scaleX, scaleY};
+        PoolKernels.checkWindow(scaleX, scaleY);
+        int[] fDim = new int[]{scaleY, scaleX};
         cl_mem memInput = inputDB.upload();
-        cl_mem memMask = maskDB.getRWMem();
+        cl_mem memMask = maskDB.getMem();
         cl_mem memOutput = outputDB.getMem();
 
         clSetKernelArg(maxPool, 0, Sizeof.cl_mem, Pointer.to(memInput));
@@ -74,17 +76,18 @@ public class PoolKernel extends OpenCLKernel {
                 null);
         
         outputDB.markGpuAsMaster();
-        maskDB.markRWMatrixAsMaster();
+        maskDB.markGpuAsMaster();
     }
 
-    public void backpropMaxPool(imatrix input, intmatrix maskLayer, int scaleX, int scaleY, imatrix output) {
+    public void backpropMaxPool(imatrix input, bytematrix maskLayer, int scaleX, int scaleY, imatrix output) {
         FloatDeviceBuffer inputDB = input.getDeviceBuffer();
-        IntDeviceBuffer maskDB = maskLayer.getDeviceBuffer();
+        ByteDeviceBuffer maskDB = maskLayer.getDeviceBuffer();
         FloatDeviceBuffer outputDB = output.getDeviceBuffer();
 
-        int[] fDim = new int[]{scaleX, scaleY};
+        PoolKernels.checkWindow(scaleX, scaleY);
+        int[] fDim = new int[]{scaleY, scaleX};
         cl_mem memInput = inputDB.upload();
-        cl_mem memMask = maskDB.uploadRMatrix();
+        cl_mem memMask = maskDB.upload();
         cl_mem memOutput = outputDB.getMem();
 
 //        int[] iDim = inputDB.getDimensionSizes();
@@ -96,6 +99,7 @@ public class PoolKernel extends OpenCLKernel {
         clSetKernelArg(bpMaxPool, 3, Sizeof.cl_int4, Pointer.to(inputDB.getDimensionSizes()));
         clSetKernelArg(bpMaxPool, 4, Sizeof.cl_int2, Pointer.to(fDim));
         clSetKernelArg(bpMaxPool, 5, Sizeof.cl_int4, Pointer.to(outputDB.getDimensionSizes()));
+        clSetKernelArg(bpMaxPool, 6, Sizeof.cl_int4, Pointer.to(maskDB.getDimensionSizes()));
 
         clEnqueueNDRangeKernel(
                 commandQueue,
@@ -109,19 +113,19 @@ public class PoolKernel extends OpenCLKernel {
                 null);
 
         outputDB.markGpuAsMaster();
-        maskDB.markRWMatrixAsMaster();
     }
     
-    public void maxRotationPool(imatrix input, imatrix output, intmatrix maskLayer){
+    public void maxRotationPool(imatrix input, imatrix output, bytematrix maskLayer){
         FloatDeviceBuffer inputDB = input.getDeviceBuffer();
         FloatDeviceBuffer outputDB = output.getDeviceBuffer();
-        IntDeviceBuffer maskDB = maskLayer.getDeviceBuffer();
+        ByteDeviceBuffer maskDB = maskLayer.getDeviceBuffer();
 
         int scaleX = input.getNrOfColumns() / output.getNrOfColumns();
         int scaleY = input.getNrOfRows() / output.getNrOfRows();
-        int[] fDim = new int[]{scaleX, scaleY};
+        PoolKernels.checkWindow(scaleX, scaleY);
+        int[] fDim = new int[]{scaleY, scaleX};
         cl_mem memInput = inputDB.upload();
-        cl_mem memMask = maskDB.getRWMem();
+        cl_mem memMask = maskDB.getMem();
         cl_mem memOutput = outputDB.getMem();
 
         clSetKernelArg(maxRotationPool, 0, Sizeof.cl_mem, Pointer.to(memInput));
@@ -146,19 +150,20 @@ public class PoolKernel extends OpenCLKernel {
                 null);
         
         outputDB.markGpuAsMaster();
-        maskDB.markRWMatrixAsMaster();
+        maskDB.markGpuAsMaster();
     }
     
-    public void backpropMaxRotationPool(imatrix input, intmatrix maskLayer, imatrix output) {
+    public void backpropMaxRotationPool(imatrix input, bytematrix maskLayer, imatrix output) {
         FloatDeviceBuffer inputDB = input.getDeviceBuffer();
-        IntDeviceBuffer maskDB = maskLayer.getDeviceBuffer();
+        ByteDeviceBuffer maskDB = maskLayer.getDeviceBuffer();
         FloatDeviceBuffer outputDB = output.getDeviceBuffer();
 
         int scaleX = output.getNrOfColumns() / input.getNrOfColumns();
         int scaleY = output.getNrOfRows() / input.getNrOfRows();
-        int[] fDim = new int[]{scaleX, scaleY};
+        PoolKernels.checkWindow(scaleX, scaleY);
+        int[] fDim = new int[]{scaleY, scaleX};
         cl_mem memInput = inputDB.upload();
-        cl_mem memMask = maskDB.uploadRMatrix();
+        cl_mem memMask = maskDB.upload();
         cl_mem memOutput = outputDB.getMem();
 
         clSetKernelArg(bpMaxRotationPool, 0, Sizeof.cl_mem, Pointer.to(memInput));
@@ -181,6 +186,5 @@ public class PoolKernel extends OpenCLKernel {
                 null);
 
         outputDB.markGpuAsMaster();
-        maskDB.markRWMatrixAsMaster();
     }
 }
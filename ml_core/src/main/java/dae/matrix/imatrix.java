@@ -275,6 +275,14 @@ public interface imatrix {
      */
     public FloatBuffer getHostData();
 
+    /**
+     * Describes the layout of the cells of this matrix in its host buffer.
+     *
+     * @return the strided view or null if the cells of the matrix can not be
+     * described with strides.
+     */
+    public StridedView getStridedView();
+
     /**
      * Checks if this is a transposed view on the source data.
      *
@@ -299,6 +307,22 @@ public interface imatrix {
      */
     public void makeMaster();
 
+    /**
+     * Returns the number of times the cells of this matrix were modified. The
+     * count only increases, so a result that is derived from the cells stays
+     * valid as long as the count does not change. A view returns the count of
+     * the matrix that owns the data.
+     *
+     * @return the modification count.
+     */
+    public long getModificationCount();
+
+    /**
+     * Increases the modification count of this matrix. Code that writes the
+     * host buffer directly instead of with set calls this method.
+     */
+    public void markModified();
+
     
 
 }
@@ -0,0 +1,273 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.integer;
+
+import dae.matrix.gpu.ByteDeviceBuffer;
+import dae.matrix.memory.MatrixAllocator;
+import dae.matrix.memory.MatrixAllocators;
+import java.nio.ByteBuffer;
+
+/**
+ * A matrix of unsigned bytes, with the same column major layout as an
+ * intmatrix but without zero padding. A cell contains a value between 0 and
+ * MAXVALUE.
+ *
+ * The pooling layers use a bytematrix as mask layer: a cell stores the
+ * location of the maximum inside its pool window, which needs a quarter of the
+ * memory of an intmatrix.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public class bytematrix implements AutoCloseable {
+
+    /**
+     * The largest value that can be stored in a cell.
+     */
+    public static final int MAXVALUE = 255;
+
+    private String name = "bytematrix" + (count++);
+    private static int count = 0;
+
+    private final int rows;
+    private final int columns;
+    private final int slices;
+    private final int hyperslices;
+
+    private final int sliceSize;
+    private final int hyperSliceSize;
+    private final int size;
+
+    private ByteBuffer data;
+    /**
+     * The allocator that owns the data, null if the data was released.
+     */
+    private MatrixAllocator allocator;
+    private ByteDeviceBuffer deviceBuffer;
+
+    /**
+     * Creates a new bytematrix object with the given rows, columns, slices and
+     * hyperslices.
+     *
+     * @param rows the number of rows in the matrix.
+     * @param columns the number of columns in the matrix.
+     * @param slices the number of slices in the matrix.
+     * @param hyperslices the number of hyperslices in the matrix.
+     */
+    public bytematrix(int rows, int columns, int slices, int hyperslices) {
+        this(rows, columns, slices, hyperslices, MatrixAllocators.getCurrent());
+    }
+
+    /**
+     * Creates a new bytematrix object with the given dimensions, the data of
+     * the matrix is provided by the given allocator.
+     *
+     * @param rows the number of rows in the matrix.
+     * @param columns the number of columns in the matrix.
+     * @param slices the number of slices in the matrix.
+     * @param hyperslices the number of hyperslices in the matrix.
+     * @param allocator the allocator for the data of the matrix.
+     */
+    public bytematrix(int rows, int columns, int slices, int hyperslices, MatrixAllocator allocator) {
+        this.rows = rows;
+        this.columns = columns;
+        this.slices = slices;
+        this.hyperslices = hyperslices;
+        this.sliceSize = this.rows * this.columns;
+        this.hyperSliceSize = sliceSize * this.slices;
+        this.size = hyperSliceSize * hyperslices;
+        this.allocator = allocator;
+        data = allocator.allocateBytes(size);
+    }
+
+    /**
+     * Returns the name of this byte matrix.
+     *
+     * @return the name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the raw data of the matrix.
+     *
+     * @return the raw data.
+     */
+    public ByteBuffer getHostData() {
+        return data;
+    }
+
+    /**
+     * Returns the array of the host buffer if the buffer is backed by an array
+     * that starts with the first cell of this matrix.
+     *
+     * @return the host array or null if the cells must be accessed one by
+     * one.
+     */
+    public byte[] getHostArray() {
+        return data.hasArray() && data.arrayOffset() == 0 ? data.array() : null;
+    }
+
+    /**
+     * Sets all the elements in this matrix to zero.
+     */
+    public void reset() {
+        for (int i = 0; i < data.limit(); ++i) {
+            data.put(i, (byte) 0);
+        }
+    }
+
+    private int rcshToIndex(int r, int c, int s, int h) {
+        return r + c * rows + s * sliceSize + h * hyperSliceSize;
+    }
+
+    /**
+     * Sets a cell in this matrix to the given value.
+     *
+     * @param row the row to set.
+     * @param column the column to set.
+     * @param slice the slice to set.
+     * @param h the hyperslice.
+     * @param value the new value for the cell, between 0 and MAXVALUE.
+     */
+    public void set(int row, int column, int slice, int h, int value) {
+        data.put(rcshToIndex(row, column, slice, h), (byte) value);
+    }
+
+    /**
+     * Gets the value of a cell.
+     *
+     * @param row the row of the cell.
+     * @param column the column of the cell.
+     * @param slice the slice of the cell.
+     * @param hyperslice the hyperslice of the cell.
+     * @return the value of the cell, between 0 and MAXVALUE.
+     */
+    public int get(int row, int column, int slice, int hyperslice) {
+        int index = rcshToIndex(row, column, slice, hyperslice);
+        if (index < data.limit()) {
+            return data.get(index) & 0xFF;
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return the number of rows.
+     */
+    public int getNrOfRows() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of columns.
+     *
+     * @return the number of columns.
+     */
+    public int getNrOfColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns the number of slices in the matrix.
+     *
+     * @return the number of slices.
+     */
+    public int getNrOfSlices() {
+        return slices;
+    }
+
+    /**
+     * Returns the number of hyperslices in the matrix.
+     *
+     * @return the number of hyperslices.
+     */
+    public int getNrOfHyperSlices() {
+        return hyperslices;
+    }
+
+    /**
+     * Returns the total number of cells in this matrix in a single slice.
+     *
+     * @return the total number of cells in the matrix in a single slice.
+     */
+    public int getSliceSize() {
+        return sliceSize;
+    }
+
+    /**
+     * Returns the total number of cells in a single hyperslice.
+     *
+     * @return the total number of cells in a single hyperslice.
+     */
+    public int getHyperSliceSize() {
+        return hyperSliceSize;
+    }
+
+    /**
+     * Returns the size of the matrix.
+     *
+     * @return the size of the matrix.
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * Releases the data of this matrix to the allocator that provided it. The
+     * matrix is empty after it is closed: reading a cell returns zero and
+     * writing a cell throws an exception. Closing a matrix more than once has
+     * no effect.
+     */
+    @Override
+    public void close() {
+        if (allocator != null) {
+            allocator.release(data);
+            allocator = null;
+        }
+        data = ByteBuffer.allocate(0);
+    }
+
+    /**
+     * Returns the device buffer of this matrix. The device buffer is created
+     * the first time it is requested.
+     *
+     * @return the device buffer.
+     */
+    public ByteDeviceBuffer getDeviceBuffer() {
+        if (deviceBuffer == null) {
+            deviceBuffer = new ByteDeviceBuffer(this);
+        }
+        return deviceBuffer;
+    }
+
+    /**
+     * Synchronizes the host buffer with the device buffer if necessary.
+     */
+    public void sync() {
+        if (deviceBuffer != null) {
+            deviceBuffer.syncHost();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (int h = 0; h < hyperslices; ++h) {
+            for (int slice = 0; slice < slices; ++slice) {
+                result.append("| Hyperslice ").append(h + 1).append(", slice ").append(slice + 1).append(" |\n");
+                for (int row = 0; row < rows; ++row) {
+                    for (int column = 0; column < columns; ++column) {
+                        result.append(get(row, column, slice, h)).append('\t');
+                    }
+                    result.append('\n');
+                }
+            }
+        }
+        return result.toString();
+    }
+}
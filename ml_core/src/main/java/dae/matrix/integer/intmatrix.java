@@ -5,6 +5,8 @@
 package dae.matrix.integer;
 
 import dae.matrix.gpu.IntDeviceBuffer;
+import dae.matrix.memory.MatrixAllocator;
+import dae.matrix.memory.MatrixAllocators;
 import dae.neuralnet.activation.Function;
 import java.nio.IntBuffer;
 import java.util.Random;
@@ -14,7 +16,7 @@ import org.jocl.Pointer;
  *
  * @author Koen Samyn <samyn.koen@gmail.com>
  */
-public class intmatrix {
+public class intmatrix implements AutoCloseable {
 
     private String name = "intmatrix" + (count++);
     private static int count = 0;
@@ -31,8 +33,12 @@ public class intmatrix {
     private final int size;
 
     // private float[] data;
-    private final IntBuffer data;
-    private final IntDeviceBuffer deviceBuffer;
+    private IntBuffer data;
+    /**
+     * The allocator that owns the data, null if the data was released.
+     */
+    private MatrixAllocator allocator;
+    private IntDeviceBuffer deviceBuffer;
 
     /**
      * Creates a new intmatrix object with the given rows and columns and 1
@@ -86,6 +92,21 @@ public class intmatrix {
      * @param zeropadding the zero padding to add around this matrix.
      */
     public intmatrix(int rows, int columns, int slices, int hyperslices, int zeropadding) {
+        this(rows, columns, slices, hyperslices, zeropadding, MatrixAllocators.getCurrent());
+    }
+
+    /**
+     * Creates a new intmatrix object with the given dimensions, the data of
+     * the matrix is provided by the given allocator.
+     *
+     * @param rows the number of rows in the matrix.
+     * @param columns the number of columns in the matrix.
+     * @param slices the number of slices in the matrix.
+     * @param hyperslices the number of hyperslices in the matrix.
+     * @param zeropadding the zero padding to add around this matrix.
+     * @param allocator the allocator for the data of the matrix.
+     */
+    public intmatrix(int rows, int columns, int slices, int hyperslices, int zeropadding, MatrixAllocator allocator) {
         this.rows = rows;
         this.columns = columns;
         this.slices = slices;
@@ -94,8 +115,8 @@ public class intmatrix {
         this.sliceSize = this.rows * this.columns;
         this.hyperSliceSize = sliceSize * this.slices;
         this.size = hyperSliceSize * hyperslices;
-        data = IntBuffer.allocate(size);
-        deviceBuffer = new IntDeviceBuffer(this);
+        this.allocator = allocator;
+        data = allocator.allocateInts(size);
     }
 
     /**
@@ -416,15 +437,53 @@ public class intmatrix {
     }
 
     public Pointer getCLPointer() {
-        return Pointer.to(data.array());
+        return getDeviceBuffer().getCLPointer();
+    }
+
+    /**
+     * Releases the data of this matrix to the allocator that provided it.
+     * The matrix is empty after it is closed: reading a cell returns zero and
+     * writing a cell throws an exception. Closing a matrix more than once has
+     * no effect.
+     */
+    @Override
+    public void close() {
+        if (allocator != null) {
+            allocator.release(data);
+            allocator = null;
+        }
+        data = IntBuffer.allocate(0);
     }
 
+    /**
+     * Returns the device buffer of this matrix. The device buffer is created
+     * the first time it is requested.
+     *
+     * @return the device buffer.
+     */
     public IntDeviceBuffer getDeviceBuffer() {
+        if (deviceBuffer == null) {
+            deviceBuffer = new IntDeviceBuffer(this);
+        }
         return deviceBuffer;
     }
 
+    /**
+     * Checks if a device buffer was created for this matrix.
+     *
+     * @return true if the matrix has a device buffer, false otherwise.
+     */
+    public boolean hasDeviceBuffer() {
+        return deviceBuffer != null;
+    }
+
+    /**
+     * Synchronizes the host buffer with the device buffer if necessary.
+     */
     public void sync() {
-        deviceBuffer.syncHost();
+        if (deviceBuffer != null) {
+            deviceBuffer.syncHost();
+        }
     }
 
     @Override
@@ -15,10 +15,15 @@ public class mdim2D {
     public int columns;
     public boolean transposed;
     public int ld;
+    /**
+     * The index of the first cell in the host array.
+     */
+    public int offset;
 
     public String toString() {
         return "Dimension\n[rows,columns]=[ " + rows + "," + columns + " ]"
                 + "\ntranspose = " + transposed
-                + "\nleading = " + ld + "\n";
+                + "\nleading = " + ld
+                + "\noffset = " + offset + "\n";
     }
 }
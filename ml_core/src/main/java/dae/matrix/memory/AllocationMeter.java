@@ -0,0 +1,57 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.memory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures the number of bytes that the current thread allocates on the java
+ * heap. This is used to check that a steady state training step stays within
+ * its allocation budget.
+ *
+ * The measurement relies on the com.sun.management extension of the thread
+ * bean, which is available on HotSpot and OpenJ9.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public final class AllocationMeter {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private AllocationMeter() {
+
+    }
+
+    /**
+     * Checks if the allocations of a thread can be measured on this virtual
+     * machine.
+     *
+     * @return true if the allocations can be measured.
+     */
+    public static boolean isSupported() {
+        try {
+            return THREADS instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported()
+                    && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemoryEnabled();
+        } catch (LinkageError ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the total number of bytes that the current thread has allocated
+     * since it was started.
+     *
+     * @return the number of allocated bytes or -1 if the allocations can not
+     * be measured.
+     */
+    public static long getAllocatedBytes() {
+        if (!isSupported()) {
+            return -1;
+        }
+        return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
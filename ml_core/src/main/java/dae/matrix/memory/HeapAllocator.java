@@ -0,0 +1,49 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.memory;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Allocates the storage of the matrices on the java heap. The buffers are
+ * backed by an array and are reclaimed by the garbage collector, releasing a
+ * buffer has no effect.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public final class HeapAllocator implements MatrixAllocator {
+
+    /**
+     * The shared instance.
+     */
+    public static final HeapAllocator INSTANCE = new HeapAllocator();
+
+    private HeapAllocator() {
+
+    }
+
+    @Override
+    public FloatBuffer allocateFloats(int size) {
+        return FloatBuffer.allocate(size);
+    }
+
+    @Override
+    public IntBuffer allocateInts(int size) {
+        return IntBuffer.allocate(size);
+    }
+
+    @Override
+    public ByteBuffer allocateBytes(int size) {
+        return ByteBuffer.allocate(size);
+    }
+
+    @Override
+    public void release(Buffer buffer) {
+        // the garbage collector reclaims the array.
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.memory;
+
+import dae.matrix.StridedView;
+import dae.matrix.imatrix;
+import java.nio.FloatBuffer;
+
+/**
+ * Bulk operations on host buffers that work for heap and for direct buffers.
+ * The positions and limits of the buffers are not modified.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public final class HostBuffers {
+
+    private HostBuffers() {
+
+    }
+
+    /**
+     * Copies a range of floats from one buffer to another buffer.
+     *
+     * @param src the source buffer.
+     * @param srcIndex the index of the first float to copy.
+     * @param dst the destination buffer.
+     * @param dstIndex the index in the destination buffer.
+     * @param length the number of floats to copy.
+     */
+    public static void copy(FloatBuffer src, int srcIndex, FloatBuffer dst, int dstIndex, int length) {
+        if (src.hasArray() && dst.hasArray()) {
+            System.arraycopy(src.array(), src.arrayOffset() + srcIndex,
+                    dst.array(), dst.arrayOffset() + dstIndex, length);
+        } else {
+            FloatBuffer from = src.duplicate();
+            from.limit(srcIndex + length);
+            from.position(srcIndex);
+            FloatBuffer to = dst.duplicate();
+            to.position(dstIndex);
+            to.put(from);
+        }
+    }
+
+    /**
+     * Returns the host buffer of a matrix if the cells of the matrix are
+     * stored in column major order from the start of that buffer. This is the
+     * case for a planar fmatrix and for the views whose strided view has the same
+     * layout, for example a view that reshapes an fmatrix.
+     *
+     * @param m the matrix to check.
+     * @return the host buffer or null if the cells of the matrix must be
+     * accessed one by one.
+     */
+    public static FloatBuffer contiguous(imatrix m) {
+        StridedView view = m.getStridedView();
+        return view != null && view.isContiguous() ? view.getData() : null;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.memory;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Provides the host storage of fmatrix, intmatrix and bytematrix objects.
+ *
+ * The buffers that are returned have a capacity and a limit that is equal to
+ * the requested size, a position of zero and contain only zeros. A buffer can
+ * be handed back to the allocator with the release method when the matrix is
+ * no longer used, the buffer must not be accessed after it is released.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public interface MatrixAllocator {
+
+    /**
+     * Allocates a buffer for the given number of floats.
+     *
+     * @param size the number of floats.
+     * @return the new buffer.
+     */
+    public FloatBuffer allocateFloats(int size);
+
+    /**
+     * Allocates a buffer for the given number of integers.
+     *
+     * @param size the number of integers.
+     * @return the new buffer.
+     */
+    public IntBuffer allocateInts(int size);
+
+    /**
+     * Allocates a buffer for the given number of bytes.
+     *
+     * @param size the number of bytes.
+     * @return the new buffer.
+     */
+    public ByteBuffer allocateBytes(int size);
+
+    /**
+     * Releases a buffer that was allocated by this allocator.
+     *
+     * @param buffer the buffer to release.
+     */
+    public void release(Buffer buffer);
+}
@@ -0,0 +1,103 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.memory;
+
+/**
+ * Selects the allocator that provides the storage of new matrices.
+ *
+ * The default allocator is the heap allocator. An allocator, for example a
+ * MatrixArena, can also be bound to the current thread.
+ *
+ * The array kernels and convolution engines of the cpu backend need storage
+ * that is backed by an array, a matrix on direct storage takes the cell by
+ * cell paths and is a lot slower. The shared pool of direct buffers is
+ * therefore not offered as a default for the matrices of the layers, it is
+ * meant for the matrices that are shared with native code. These matrices
+ * pass the pool, or an arena on top of it, to their constructor.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public final class MatrixAllocators {
+
+    private static final PooledDirectAllocator DIRECT_ALLOCATOR = new PooledDirectAllocator();
+
+    private static volatile MatrixAllocator defaultAllocator = HeapAllocator.INSTANCE;
+    private static final ThreadLocal<MatrixAllocator> CURRENT = new ThreadLocal<>();
+
+    private MatrixAllocators() {
+
+    }
+
+    /**
+     * Returns the allocator that allocates the matrices on the java heap.
+     *
+     * @return the heap allocator.
+     */
+    public static MatrixAllocator getHeap() {
+        return HeapAllocator.INSTANCE;
+    }
+
+    /**
+     * Returns the shared pool of direct buffers. The pool is meant for the
+     * matrices that are shared with native code, the cpu kernels only take
+     * their fast paths on heap storage.
+     *
+     * @return the direct allocator.
+     */
+    public static PooledDirectAllocator getDirect() {
+        return DIRECT_ALLOCATOR;
+    }
+
+    /**
+     * Sets the default allocator. The default allocator provides the storage
+     * of the matrices of the layers, so it should allocate buffers that are
+     * backed by an array.
+     *
+     * @param allocator the new default allocator.
+     */
+    public static void setDefault(MatrixAllocator allocator) {
+        if (allocator == null) {
+            throw new IllegalArgumentException("The default allocator can not be null.");
+        }
+        defaultAllocator = allocator;
+    }
+
+    /**
+     * Returns the default allocator.
+     *
+     * @return the default allocator.
+     */
+    public static MatrixAllocator getDefault() {
+        return defaultAllocator;
+    }
+
+    /**
+     * Returns the allocator for the current thread. If no allocator was bound
+     * to this thread, the default allocator is returned.
+     *
+     * @return the current allocator.
+     */
+    public static MatrixAllocator getCurrent() {
+        MatrixAllocator allocator = CURRENT.get();
+        return allocator != null ? allocator : defaultAllocator;
+    }
+
+    /**
+     * Binds an allocator to the current thread. A null value removes the
+     * binding so that the default allocator is used again.
+     *
+     * @param allocator the allocator to bind.
+     * @return the allocator that was bound previously, can be null.
+     */
+    public static MatrixAllocator bind(MatrixAllocator allocator) {
+        MatrixAllocator previous = CURRENT.get();
+        if (allocator == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(allocator);
+        }
+        return previous;
+    }
+}
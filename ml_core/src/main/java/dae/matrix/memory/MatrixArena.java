@@ -0,0 +1,142 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.memory;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Keeps track of all the buffers that are allocated through it and releases
+ * them at once when the arena is closed. An arena on top of the shared pool of
+ * direct buffers is used for the matrices that are shared with native code,
+ * the matrices pass the arena to their constructor:
+ *
+ * <pre>
+ * try (MatrixArena arena = new MatrixArena()) {
+ *     fmatrix input = new fmatrix(rows, columns, slices, hyperSlices, 0, arena);
+ *     // hand input.getHostData() to native code.
+ * }
+ * </pre>
+ *
+ * The cpu kernels only take their fast paths on heap storage, so an arena on
+ * top of the direct pool should not be bound to the thread that creates a
+ * network.
+ *
+ * The matrices that were allocated in the arena must not be used after the
+ * arena is closed.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public class MatrixArena implements MatrixAllocator, AutoCloseable {
+
+    private final MatrixAllocator parent;
+    private final Set<Buffer> buffers = Collections.newSetFromMap(new IdentityHashMap<>());
+    private boolean closed;
+
+    /**
+     * Creates a new arena on top of the shared pool of direct buffers.
+     */
+    public MatrixArena() {
+        this(MatrixAllocators.getDirect());
+    }
+
+    /**
+     * Creates a new arena.
+     *
+     * @param parent the allocator that provides the buffers of this arena.
+     */
+    public MatrixArena(MatrixAllocator parent) {
+        if (parent == null) {
+            throw new IllegalArgumentException("The parent allocator of an arena can not be null.");
+        }
+        this.parent = parent;
+    }
+
+    @Override
+    public synchronized FloatBuffer allocateFloats(int size) {
+        checkOpen();
+        FloatBuffer buffer = parent.allocateFloats(size);
+        buffers.add(buffer);
+        return buffer;
+    }
+
+    @Override
+    public synchronized IntBuffer allocateInts(int size) {
+        checkOpen();
+        IntBuffer buffer = parent.allocateInts(size);
+        buffers.add(buffer);
+        return buffer;
+    }
+
+    @Override
+    public synchronized ByteBuffer allocateBytes(int size) {
+        checkOpen();
+        ByteBuffer buffer = parent.allocateBytes(size);
+        buffers.add(buffer);
+        return buffer;
+    }
+
+    /**
+     * Releases a buffer before the arena is closed.
+     *
+     * @param buffer the buffer to release.
+     * @throws IllegalArgumentException if the buffer does not belong to this
+     * arena.
+     */
+    @Override
+    public synchronized void release(Buffer buffer) {
+        if (!buffers.remove(buffer)) {
+            throw new IllegalArgumentException("The buffer does not belong to this arena.");
+        }
+        parent.release(buffer);
+    }
+
+    /**
+     * Returns the number of buffers that are allocated in this arena and not
+     * yet released.
+     *
+     * @return the number of live buffers.
+     */
+    public synchronized int getNrOfBuffers() {
+        return buffers.size();
+    }
+
+    /**
+     * Checks if this arena is closed.
+     *
+     * @return true if the arena is closed, false otherwise.
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Releases all the buffers of this arena. No buffers can be allocated
+     * after the arena is closed.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Buffer buffer : new ArrayList<>(buffers)) {
+            parent.release(buffer);
+        }
+        buffers.clear();
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The matrix arena is closed.");
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.memory;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Allocates the storage of the matrices outside of the java heap, in direct
+ * buffers with the native byte order. Direct buffers can be handed to native
+ * code (OpenCL, BLAS) without a copy.
+ *
+ * Released buffers are kept in a pool per size class (a power of two number
+ * of bytes) and are reused by later allocations of the same size class, which
+ * avoids the cost of allocating direct memory for every exchange with native
+ * code. The pool keeps at most maxPooledBytes bytes, blocks that do not fit
+ * are left to the garbage collector.
+ *
+ * Direct buffers have no backing array, the cpu kernels access the matrices
+ * on direct storage cell by cell. The allocator is meant for interop, the
+ * matrices of the layers use the heap allocator.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public class PooledDirectAllocator implements MatrixAllocator {
+
+    /**
+     * The default maximum number of bytes that is kept in the pool.
+     */
+    public static final long DEFAULT_MAX_POOLED_BYTES = 256L * 1024 * 1024;
+    /**
+     * The smallest size class, 2^8 bytes.
+     */
+    private static final int MIN_SIZE_CLASS = 8;
+    /**
+     * The largest size class that is pooled, 2^30 bytes.
+     */
+    private static final int MAX_SIZE_CLASS = 30;
+
+    private static final byte[] ZEROS = new byte[4096];
+
+    private final long maxPooledBytes;
+    private final List<ArrayDeque<ByteBuffer>> freeBlocks = new ArrayList<>(MAX_SIZE_CLASS + 1);
+    private final Map<Buffer, ByteBuffer> blocksInUse = new IdentityHashMap<>();
+
+    private long pooledBytes;
+    private long bytesInUse;
+
+    /**
+     * Creates a new allocator with the default maximum pool size.
+     */
+    public PooledDirectAllocator() {
+        this(DEFAULT_MAX_POOLED_BYTES);
+    }
+
+    /**
+     * Creates a new allocator.
+     *
+     * @param maxPooledBytes the maximum number of bytes that is kept in the
+     * pool.
+     */
+    public PooledDirectAllocator(long maxPooledBytes) {
+        if (maxPooledBytes < 0) {
+            throw new IllegalArgumentException("The maximum pool size can not be negative : " + maxPooledBytes);
+        }
+        this.maxPooledBytes = maxPooledBytes;
+        // one free list per size class, indexed by the size class.
+        for (int i = 0; i <= MAX_SIZE_CLASS; ++i) {
+            freeBlocks.add(new ArrayDeque<>());
+        }
+    }
+
+    @Override
+    public FloatBuffer allocateFloats(int size) {
+        int bytes = byteSize(size, Float.BYTES);
+        ByteBuffer block = acquire(bytes);
+        FloatBuffer buffer = view(block, bytes).asFloatBuffer();
+        register(buffer, block);
+        return buffer;
+    }
+
+    @Override
+    public IntBuffer allocateInts(int size) {
+        int bytes = byteSize(size, Integer.BYTES);
+        ByteBuffer block = acquire(bytes);
+        IntBuffer buffer = view(block, bytes).asIntBuffer();
+        register(buffer, block);
+        return buffer;
+    }
+
+    @Override
+    public ByteBuffer allocateBytes(int size) {
+        int bytes = byteSize(size, Byte.BYTES);
+        ByteBuffer block = acquire(bytes);
+        ByteBuffer buffer = view(block, bytes);
+        register(buffer, block);
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool.
+     *
+     * @param buffer the buffer to release.
+     * @throws IllegalArgumentException if the buffer was not allocated by this
+     * allocator or was already released.
+     */
+    @Override
+    public synchronized void release(Buffer buffer) {
+        ByteBuffer block = blocksInUse.remove(buffer);
+        if (block == null) {
+            throw new IllegalArgumentException("The buffer was not allocated by this allocator or was already released.");
+        }
+        bytesInUse -= block.capacity();
+        int sizeClass = sizeClass(block.capacity());
+        if (sizeClass <= MAX_SIZE_CLASS
+                && block.capacity() == 1 << sizeClass
+                && pooledBytes + block.capacity() <= maxPooledBytes) {
+            freeBlocks.get(sizeClass).push(block);
+            pooledBytes += block.capacity();
+        }
+    }
+
+    /**
+     * Removes all the free blocks from the pool, the memory is reclaimed when
+     * the garbage collector collects the blocks.
+     */
+    public synchronized void trim() {
+        for (int i = MIN_SIZE_CLASS; i <= MAX_SIZE_CLASS; ++i) {
+            freeBlocks.get(i).clear();
+        }
+        pooledBytes = 0;
+    }
+
+    /**
+     * Returns the number of bytes in the free blocks of the pool.
+     *
+     * @return the number of pooled bytes.
+     */
+    public synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    /**
+     * Returns the number of bytes in the blocks that are allocated and not yet
+     * released.
+     *
+     * @return the number of bytes in use.
+     */
+    public synchronized long getBytesInUse() {
+        return bytesInUse;
+    }
+
+    /**
+     * Returns the maximum number of bytes that is kept in the pool.
+     *
+     * @return the maximum number of pooled bytes.
+     */
+    public long getMaxPooledBytes() {
+        return maxPooledBytes;
+    }
+
+    /**
+     * Takes a zeroed block from the pool or allocates a new block.
+     *
+     * @param bytes the minimum size of the block in bytes.
+     * @return the block.
+     */
+    private ByteBuffer acquire(int bytes) {
+        int sizeClass = sizeClass(bytes);
+        if (sizeClass > MAX_SIZE_CLASS) {
+            return ByteBuffer.allocateDirect(bytes);
+        }
+        ByteBuffer block;
+        synchronized (this) {
+            block = freeBlocks.get(sizeClass).poll();
+            if (block != null) {
+                pooledBytes -= block.capacity();
+            }
+        }
+        if (block != null) {
+            clear(block, bytes);
+            return block;
+        } else {
+            return ByteBuffer.allocateDirect(1 << sizeClass);
+        }
+    }
+
+    private synchronized void register(Buffer buffer, ByteBuffer block) {
+        blocksInUse.put(buffer, block);
+        bytesInUse += block.capacity();
+    }
+
+    private static int byteSize(int size, int elementSize) {
+        if (size < 0 || size > Integer.MAX_VALUE / elementSize) {
+            throw new IllegalArgumentException("Invalid buffer size : " + size);
+        }
+        return size * elementSize;
+    }
+
+    /**
+     * Returns a view on the first bytes of a block, in the native byte order.
+     *
+     * @param block the block.
+     * @param bytes the size of the view in bytes.
+     * @return the view.
+     */
+    private static ByteBuffer view(ByteBuffer block, int bytes) {
+        ByteBuffer view = block.duplicate();
+        view.clear();
+        view.limit(bytes);
+        return view.slice().order(ByteOrder.nativeOrder());
+    }
+
+    private static int sizeClass(int bytes) {
+        return Math.max(MIN_SIZE_CLASS, 32 - Integer.numberOfLeadingZeros(Math.max(bytes, 1) - 1));
+    }
+
+    private static void clear(ByteBuffer block, int bytes) {
+        ByteBuffer target = block.duplicate();
+        target.clear();
+        while (target.position() < bytes) {
+            target.put(ZEROS, 0, Math.min(ZEROS.length, bytes - target.position()));
+        }
+    }
+}
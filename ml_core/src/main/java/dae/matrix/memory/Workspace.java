@@ -0,0 +1,126 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.memory;
+
+import dae.matrix.fmatrix;
+import java.util.ArrayList;
+
+/**
+ * A per thread store of scratch arrays and temporary matrices. Operations
+ * borrow their temporaries from the workspace of the current thread and give
+ * them back when they are done, so that a steady state training step does not
+ * allocate.
+ *
+ * The content of a borrowed array or matrix is undefined. An object that is
+ * not given back is simply left to the garbage collector.
+ *
+ * <pre>
+ * Workspace workspace = Workspace.get();
+ * float[] scratch = workspace.borrowFloats(n);
+ * try {
+ *     ...
+ * } finally {
+ *     workspace.giveBack(scratch);
+ * }
+ * </pre>
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public final class Workspace {
+
+    /**
+     * The maximum number of free arrays and free matrices that are kept per
+     * thread.
+     */
+    private static final int MAX_FREE = 16;
+
+    private static final ThreadLocal<Workspace> CURRENT = ThreadLocal.withInitial(Workspace::new);
+
+    private final ArrayList<float[]> freeFloats = new ArrayList<>(MAX_FREE);
+    private final ArrayList<fmatrix> freeMatrices = new ArrayList<>(MAX_FREE);
+
+    private Workspace() {
+
+    }
+
+    /**
+     * Returns the workspace of the current thread.
+     *
+     * @return the workspace.
+     */
+    public static Workspace get() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Borrows an array with at least the given number of elements. The
+     * smallest free array that is large enough is returned.
+     *
+     * @param size the minimum number of elements.
+     * @return the array.
+     */
+    public float[] borrowFloats(int size) {
+        int best = -1;
+        for (int i = 0; i < freeFloats.size(); ++i) {
+            int length = freeFloats.get(i).length;
+            if (length >= size && (best < 0 || length < freeFloats.get(best).length)) {
+                best = i;
+            }
+        }
+        return best >= 0 ? freeFloats.remove(best) : new float[size];
+    }
+
+    /**
+     * Gives a borrowed array back to the workspace.
+     *
+     * @param array the array to give back.
+     */
+    public void giveBack(float[] array) {
+        if (freeFloats.size() < MAX_FREE) {
+            freeFloats.add(array);
+        }
+    }
+
+    /**
+     * Borrows a matrix with the given dimensions. The matrix is allocated on
+     * the heap, independent of the allocator of the current thread, because
+     * it outlives the scope in which it is used.
+     *
+     * @param rows the number of rows.
+     * @param columns the number of columns.
+     * @param slices the number of slices.
+     * @param hyperSlices the number of hyperslices.
+     * @return the matrix.
+     */
+    public fmatrix borrowMatrix(int rows, int columns, int slices, int hyperSlices) {
+        for (int i = 0; i < freeMatrices.size(); ++i) {
+            fmatrix m = freeMatrices.get(i);
+            if (m.getNrOfRows() == rows && m.getNrOfColumns() == columns
+                    && m.getNrOfSlices() == slices && m.getNrOfHyperSlices() == hyperSlices) {
+                return freeMatrices.remove(i);
+            }
+        }
+        return new fmatrix(rows, columns, slices, hyperSlices, 0, MatrixAllocators.getHeap());
+    }
+
+    /**
+     * Gives a borrowed matrix back to the workspace.
+     *
+     * @param m the matrix to give back.
+     */
+    public void giveBack(fmatrix m) {
+        if (freeMatrices.size() < MAX_FREE) {
+            freeMatrices.add(m);
+        }
+    }
+
+    /**
+     * Removes all the free arrays and matrices of the current thread.
+     */
+    public void clear() {
+        freeFloats.clear();
+        freeMatrices.clear();
+    }
+}
@@ -6,7 +6,7 @@ package dae.matrix.op;
 
 import dae.matrix.fmatrix;
 import dae.matrix.imatrix;
-import dae.matrix.integer.intmatrix;
+import dae.matrix.integer.bytematrix;
 import dae.neuralnet.activation.ActivationFunction;
 import java.util.ArrayList;
 import java.util.List;
@@ -29,6 +29,21 @@ public interface FMatrixOp {
      */
     public void sgemm(float alpha, imatrix A, imatrix B, float beta, imatrix C);
 
+    /**
+     * Calculates a strided batched matrix product, every hyperslice of the
+     * matrices is one entry of the batch : C[h] = alpha * A[h] * B[h] + beta *
+     * C[h]. A matrix with a single hyperslice is shared by all the entries in
+     * the batch, if C has a single hyperslice the products of all the entries
+     * are accumulated into C.
+     *
+     * @param alpha a float value that defines the alpha value.
+     * @param A the matrix A.
+     * @param B the matrix B.
+     * @param beta a float value that defines the beta value.
+     * @param C the matrix C, where the result will be stored.
+     */
+    public void batchedSgemm(float alpha, imatrix A, imatrix B, float beta, imatrix C);
+
     /**
      * Applies a convolution filter on the input matrix.
      *
@@ -94,37 +109,115 @@ public interface FMatrixOp {
      */
     public void batchBackpropCorrelate(imatrix input, imatrix filter, int stride, imatrix output);
 
+    /**
+     * Applies a cross channel convolution on the input matrix: every output
+     * slice f is the sum of the convolutions of all the input slices s with
+     * filter slice f * inputSlices + s, plus the bias term of output slice f.
+     * The number of filter slices is the number of input slices times the
+     * number of output slices.
+     *
+     * @param input the matrix to convolve.
+     * @param filter the filter to apply.
+     * @param bias a row matrix with a bias term per output slice.
+     * @param stride the stride with which to advance the filter.
+     * @param output the matrix where the output is stored.
+     */
+    public void batchCrossConvolve(imatrix input, imatrix filter, imatrix bias, int stride, imatrix output);
+
+    /**
+     * Calculates the filter gradients of the cross channel convolution for
+     * every entry in the batch. Kernel slice f * inputSlices + s is the
+     * correlation of input slice s with deltas slice f.
+     *
+     * @param input the input (with batch multiplicity).
+     * @param deltas the deltas (with batch multiplicity).
+     * @param stride the stride.
+     * @param kernel the kernel (with batch multiplicity).
+     */
+    public void deltasBatchCrossConvolve(imatrix input, imatrix deltas, int stride, imatrix kernel);
+
+    /**
+     * Back propagates the deltas of a cross channel convolution: every output
+     * slice s is the sum of the correlations of all the deltas slices f with
+     * the flipped filter slice f * outputSlices + s.
+     *
+     * @param input the zero padded deltas.
+     * @param filter the filter matrix.
+     * @param stride the stride.
+     * @param output the output matrix.
+     */
+    public void batchBackpropCrossCorrelate(imatrix input, imatrix filter, int stride, imatrix output);
+
     /**
      * Applies a max pool on the input matrix and stores it into the output
      * matrix. It is assumed that the dimensions of the output matrix are
      * dividers of the dimensions of the input matrix.
      *
      * The resulting maskLayer can be used to back propagate deltas to the
-     * previous layer. The maskLayer will be filled with zeros and the location
-     * of the maximum per filter will be set to 1.
+     * previous layer. A cell of the mask layer contains the location r + c *
+     * scaleY of the maximum in row r and column c of its pool window, a pool
+     * window can contain at most 256 cells.
      *
      * @param input the input matrix.
      * @param output the output matrix.
-     * @param maskLayer a matrix with the same dimension as the input layer
-     * which can be used to determine which input pixels contributed to the
-     * output.
+     * @param maskLayer a matrix with the dimensions of the pooled matrix that
+     * stores the location of the maximum in every pool window.
      */
-    public void batchMaxPool(imatrix input, imatrix output, intmatrix maskLayer);
+    public void batchMaxPool(imatrix input, imatrix output, bytematrix maskLayer);
 
     /**
      * Scales up the input matrix to the dimensions of the output matrix. Only
-     * the cells that are defined in the masking layer are applied to output.
+     * the cells that are defined in the masking layer are applied to output,
+     * the other cells of the output are set to zero.
      *
      * @param input the input matrix.
-     * @param maskLayer a matrix with the same dimension as the input layer
-     * which can be used to determine which input pixels contributed to the
-     * output.
+     * @param maskLayer a matrix with the dimensions of the pooled matrix that
+     * stores the location of the maximum in every pool window.
      * @param scaleX the x-scale of the pool layer.
      * @param scaleY the y-scale of the pool layer.
      * @param output the output matrix.
      *
      */
-    public void batchBackpropMaxPool(imatrix input, intmatrix maskLayer, int scaleX, int scaleY, imatrix output);
+    public void batchBackpropMaxPool(imatrix input, bytematrix maskLayer, int scaleX, int scaleY, imatrix output);
+
+    /**
+     * Convolves the input with the filters, adds the bias, applies the
+     * activation function and max pools the result in one pass. The full
+     * resolution feature map of the convolution is never stored, only the
+     * pooled output and the mask are written.
+     *
+     * The filters are applied as in batchConvolve, with
+     * filter.getNrOfSlices() / input.getNrOfSlices() filters per input slice.
+     * The scale of the pool is the ratio between the dimensions of the
+     * convolution result and the dimensions of the output matrix. The
+     * activation function must be non decreasing, so that the maximum can be
+     * taken before the activation, see ActivationFunction.isNonDecreasing().
+     * Other activation functions throw an IllegalArgumentException.
+     *
+     * @param input the zero padded input matrix.
+     * @param filter the filters to apply.
+     * @param bias a row matrix with a bias term per filter slice.
+     * @param stride the stride with which to advance the filter.
+     * @param function the activation function.
+     * @param output the pooled output matrix.
+     * @param maskLayer a matrix with the dimensions of the output matrix that
+     * stores the location of the maximum in every pool window.
+     */
+    public void batchConvolveMaxPool(imatrix input, imatrix filter, imatrix bias, int stride, ActivationFunction function, imatrix output, bytematrix maskLayer);
+
+    /**
+     * Back propagates the errors of a pooled and activated convolution to the
+     * deltas of the convolution. The deltas are zero, except in the cells that
+     * are defined in the mask layer where they are set to the error multiplied
+     * with the derivative of the activation function.
+     *
+     * @param errors the errors of the pooled output.
+     * @param outputs the pooled output (after the activation function).
+     * @param maskLayer the mask layer of the forward pass.
+     * @param function the activation function.
+     * @param deltas the deltas of the convolution, at full resolution.
+     */
+    public void batchBackpropMaxPoolActivation(imatrix errors, imatrix outputs, bytematrix maskLayer, ActivationFunction function, imatrix deltas);
 
     /**
      * The input contains data per two slices. The even slices contain the value
@@ -136,7 +229,7 @@ public interface FMatrixOp {
      * @param maskLayer the layer that contains the cells with the maximum
      * value.
      */
-    public void maxRotationPool(imatrix input, imatrix output, intmatrix maskLayer);
+    public void maxRotationPool(imatrix input, imatrix output, bytematrix maskLayer);
 
     /**
      * Transfers the maximum values into the output matrix at the correct cell
@@ -147,7 +240,7 @@ public interface FMatrixOp {
      * output matrix.
      * @param output the output matrix.
      */
-    public void backpropMaxRotationPool(imatrix input, intmatrix maskLayer, imatrix output);
+    public void backpropMaxRotationPool(imatrix input, bytematrix maskLayer, imatrix output);
 
     /**
      * Calculates a fuzzification layer.
@@ -361,6 +454,63 @@ public interface FMatrixOp {
      */
     public void applyDerivedActivation(ActivationFunction function, fmatrix m);
 
+    /**
+     * Adds the bias of the slice to every cell and applies the activation
+     * function in one pass over the matrix. This is the epilogue of the
+     * convolution and pancake operations. The softmax activation normalizes
+     * per row and is not supported.
+     *
+     * @param function the activation function.
+     * @param bias a row matrix with a bias per slice, or null if only the
+     * activation function needs to be applied.
+     * @param m the matrix to apply the bias and the activation function to.
+     */
+    public void applyBiasActivation(ActivationFunction function, imatrix bias, imatrix m);
+
+    /**
+     * Calculates the deltas of a layer in one pass: deltas = errors *
+     * f'(outputs). The derivative of the activation function is expressed in
+     * terms of the outputs of the layer.
+     *
+     * @param function the activation function of the layer.
+     * @param errors the errors of the layer.
+     * @param outputs the outputs of the layer.
+     * @param deltas the matrix to store the deltas in.
+     */
+    public void applyDerivedActivation(ActivationFunction function, imatrix errors, imatrix outputs, imatrix deltas);
+
+    /**
+     * Applies the softmax function to every column of every slice in the
+     * matrix. The maximum of the column is subtracted before the exponential
+     * is calculated, so large inputs do not overflow.
+     *
+     * @param m the matrix to apply the softmax function to.
+     */
+    public void softMax(imatrix m);
+
+    /**
+     * Applies the softmax function to every column of the logits and
+     * calculates the cross entropy loss and the deltas of the softmax inputs,
+     * in one pass over every column:
+     *
+     * <pre>
+     * p = exp(x - lse(x)), loss = -sum(y * (x - lse(x))), deltas = p - y
+     * </pre>
+     *
+     * with lse(x) = max(x) + log(sum(exp(x - max(x)))), so the loss is finite
+     * for every probability that underflows.
+     *
+     * @param m the logits, the softmax of the logits is stored back into this
+     * matrix.
+     * @param y the desired output, with the dimensions of m.
+     * @param loss a matrix with one row and the columns, slices and
+     * hyperslices of m that stores the loss per column of m, or null if the
+     * loss is not needed.
+     * @param deltas the matrix to store the deltas in, with the dimensions of
+     * m.
+     */
+    public void softMaxCrossEntropy(imatrix m, imatrix y, imatrix loss, imatrix deltas);
+
     /**
      * Resets a matrix to zero.
      *
@@ -406,6 +556,81 @@ public interface FMatrixOp {
      */
     public imatrix adamAdaptWeights(imatrix weights, float eta, float beta1, float beta2, float epsilon, imatrix moment, imatrix velocity);
 
+    /**
+     * Executes one step of the adam algorithm in a single pass over a list of
+     * weight matrices (segments). The moment and the velocity are updated with
+     * the gradient, and the weights are adapted with the bias corrected moment
+     * and velocity:
+     *
+     * <pre>
+     * m = beta1 * m + (1 - beta1) * g
+     * v = beta2 * v + (1 - beta2) * g * g
+     * w = w + eta * (m / (1 - beta1Corr) / (sqrt(v / (1 - beta2Corr)) + epsilon) - weightDecay * w)
+     * </pre>
+     *
+     * The gradients are the negative gradients of the cost and eta is the
+     * positive learning rate, so the moment term moves the weights along the
+     * gradient and the weight decay term pulls the weights towards zero.
+     *
+     * Every segment has its own gradient, moment and velocity with the
+     * dimensions of the weights.
+     *
+     * @param weights the weight segments.
+     * @param gradients the gradient per segment.
+     * @param moments the moment per segment.
+     * @param velocities the velocity per segment.
+     * @param eta the learning rate.
+     * @param beta1 the decay of the moment.
+     * @param beta2 the decay of the velocity.
+     * @param beta1Corr the bias correction of the moment.
+     * @param beta2Corr the bias correction of the velocity.
+     * @param epsilon the epsilon value.
+     * @param weightDecay the decoupled weight decay (adamw), 0 for adam.
+     */
+    public void adamStep(imatrix[] weights, imatrix[] gradients, imatrix[] moments, imatrix[] velocities,
+            float eta, float beta1, float beta2, float beta1Corr, float beta2Corr, float epsilon, float weightDecay);
+
+    /**
+     * Executes one step of gradient descent with momentum in a single pass
+     * over a list of weight matrices (segments):
+     *
+     * <pre>
+     * v = momentum * v + g
+     * w = w + eta * v
+     * </pre>
+     *
+     * The gradients are the negative gradients of the cost and eta is the
+     * positive learning rate.
+     *
+     * @param weights the weight segments.
+     * @param gradients the gradient per segment.
+     * @param velocities the velocity per segment.
+     * @param eta the learning rate.
+     * @param momentum the momentum.
+     */
+    public void momentumStep(imatrix[] weights, imatrix[] gradients, imatrix[] velocities, float eta, float momentum);
+
+    /**
+     * Executes one step of the rmsprop algorithm in a single pass over a list
+     * of weight matrices (segments):
+     *
+     * <pre>
+     * s = decay * s + (1 - decay) * g * g
+     * w = w + eta * g / (sqrt(s) + epsilon)
+     * </pre>
+     *
+     * The gradients are the negative gradients of the cost and eta is the
+     * positive learning rate.
+     *
+     * @param weights the weight segments.
+     * @param gradients the gradient per segment.
+     * @param meanSquares the running mean of the squared gradient per segment.
+     * @param eta the learning rate.
+     * @param decay the decay of the mean square.
+     * @param epsilon the epsilon value.
+     */
+    public void rmsPropStep(imatrix[] weights, imatrix[] gradients, imatrix[] meanSquares, float eta, float decay, float epsilon);
+
     /**
      * Rotates a kernel. The start angle indicates the angle of the first slice.
      *
@@ -0,0 +1,201 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.op;
+
+import dae.matrix.cpu.FMatrixOpCpu;
+import dae.matrix.gpu.FMatrixOpGpu;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of the available FMatrixOp backends and selects the backend that
+ * is used by the static operations in fmatrix.
+ *
+ * The default backend is resolved once, in the following order:
+ * <ol>
+ * <li>a backend set with setDefault(...)</li>
+ * <li>the system property dae.matrix.backend (cpu, cpufast, gpu or auto)</li>
+ * <li>autodetection, which tries the gpu backend and falls back to the cpu
+ * backend when no OpenCL device can be initialized.</li>
+ * </ol>
+ *
+ * The gpu backend is only created through its supplier, so selecting the cpu
+ * backend never loads or initializes OpenCL.
+ *
+ * A backend can also be bound to the current thread, which allows multiple
+ * networks with a different backend to coexist in the same process.
+ *
+ * The cpufast backend is the cpu backend in fast math mode, the sigmoid, tanh
+ * and softmax activations use the approximations of FastMath. A network
+ * selects it with DeepLayer.setMatrixOp("cpufast").
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public class FMatrixOpRegistry {
+
+    /**
+     * The system property that selects the backend.
+     */
+    public static final String BACKEND_PROPERTY = "dae.matrix.backend";
+    public static final String CPU = "cpu";
+    public static final String CPUFAST = "cpufast";
+    public static final String GPU = "gpu";
+    public static final String AUTO = "auto";
+
+    private static final Map<String, Supplier<FMatrixOp>> SUPPLIERS = new LinkedHashMap<>();
+    private static final Map<String, FMatrixOp> INSTANCES = new LinkedHashMap<>();
+
+    private static FMatrixOp defaultOp;
+    private static final ThreadLocal<FMatrixOp> CURRENT = new ThreadLocal<>();
+
+    static {
+        register(CPU, FMatrixOpCpu::new);
+        register(CPUFAST, () -> new FMatrixOpCpu(true));
+        register(GPU, FMatrixOpRegistry::createGpuBackend);
+    }
+
+    private FMatrixOpRegistry() {
+
+    }
+
+    /**
+     * Registers a new backend under the given name. An existing backend with
+     * the same name is replaced.
+     *
+     * @param name the name of the backend.
+     * @param supplier the supplier that creates the backend.
+     */
+    public static synchronized void register(String name, Supplier<FMatrixOp> supplier) {
+        String key = name.toLowerCase();
+        SUPPLIERS.put(key, supplier);
+        INSTANCES.remove(key);
+    }
+
+    /**
+     * Checks if a backend with the given name is registered.
+     *
+     * @param name the name of the backend.
+     * @return true if the backend is registered, false otherwise.
+     */
+    public static synchronized boolean isRegistered(String name) {
+        return SUPPLIERS.containsKey(name.toLowerCase());
+    }
+
+    /**
+     * Returns the backend with the given name. The backend is created the first
+     * time it is requested.
+     *
+     * @param name the name of the backend.
+     * @return the backend.
+     * @throws IllegalArgumentException if no backend with that name is
+     * registered or if the backend could not be created.
+     */
+    public static synchronized FMatrixOp get(String name) {
+        String key = name.toLowerCase();
+        FMatrixOp op = INSTANCES.get(key);
+        if (op == null) {
+            Supplier<FMatrixOp> supplier = SUPPLIERS.get(key);
+            if (supplier == null) {
+                throw new IllegalArgumentException("No matrix backend registered with name : " + name);
+            }
+            op = supplier.get();
+            if (op == null) {
+                throw new IllegalArgumentException("Matrix backend " + name + " is not available.");
+            }
+            INSTANCES.put(key, op);
+        }
+        return op;
+    }
+
+    /**
+     * Sets the default backend. This overrides the system property and the
+     * autodetection.
+     *
+     * @param op the new default backend.
+     */
+    public static synchronized void setDefault(FMatrixOp op) {
+        defaultOp = op;
+    }
+
+    /**
+     * Sets the default backend by name.
+     *
+     * @param name the name of the backend.
+     */
+    public static void setDefault(String name) {
+        setDefault(get(name));
+    }
+
+    /**
+     * Returns the default backend.
+     *
+     * @return the default backend.
+     */
+    public static synchronized FMatrixOp getDefault() {
+        if (defaultOp == null) {
+            defaultOp = resolveDefault();
+        }
+        return defaultOp;
+    }
+
+    /**
+     * Returns the backend for the current thread. If no backend was bound to
+     * this thread, the default backend is returned.
+     *
+     * @return the current backend.
+     */
+    public static FMatrixOp getCurrent() {
+        FMatrixOp op = CURRENT.get();
+        return op != null ? op : getDefault();
+    }
+
+    /**
+     * Binds a backend to the current thread. A null value removes the binding
+     * so that the default backend is used again.
+     *
+     * @param op the backend to bind.
+     * @return the backend that was bound previously, can be null.
+     */
+    public static FMatrixOp bind(FMatrixOp op) {
+        FMatrixOp previous = CURRENT.get();
+        if (op == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(op);
+        }
+        return previous;
+    }
+
+    private static FMatrixOp resolveDefault() {
+        String backend = System.getProperty(BACKEND_PROPERTY, AUTO).trim().toLowerCase();
+        if (!AUTO.equals(backend)) {
+            return get(backend);
+        }
+        try {
+            return get(GPU);
+        } catch (IllegalArgumentException | LinkageError ex) {
+            Logger.getLogger(FMatrixOpRegistry.class.getName()).log(Level.INFO,
+                    "No OpenCL device available, falling back to the cpu backend.");
+            return get(CPU);
+        }
+    }
+
+    /**
+     * Creates the gpu backend. The gpu classes are only loaded when this
+     * method is called.
+     *
+     * @return the gpu backend or null if OpenCL could not be initialized.
+     */
+    private static FMatrixOp createGpuBackend() {
+        if (FMatrixOpGpu.isAvailable()) {
+            return new FMatrixOpGpu();
+        } else {
+            return null;
+        }
+    }
+}
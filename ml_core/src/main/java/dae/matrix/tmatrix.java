@@ -15,6 +15,9 @@ public class tmatrix implements imatrix {
     private final static tmatrix HELPER = new tmatrix(null);
     private String name;
 
+    private StridedView stridedSource;
+    private StridedView stridedView;
+
     public tmatrix(imatrix source) {
         this.source = source;
     }
@@ -65,6 +68,15 @@ public class tmatrix implements imatrix {
         return source.isBatchMatrix();
     }
 
+    /**
+     * Returns the matrix that is transposed by this view.
+     *
+     * @return the source matrix.
+     */
+    public imatrix getSource() {
+        return source;
+    }
+
     public void setSource(imatrix source) {
         this.source = source;
     }
@@ -81,7 +93,7 @@ public class tmatrix implements imatrix {
 
     @Override
     public void set(int row, int column, int slice, int hyperslice, float value) {
-        source.set(column, row, hyperslice, slice, value);
+        source.set(column, row, slice, hyperslice, value);
     }
 
     @Override
@@ -220,6 +232,25 @@ public class tmatrix implements imatrix {
         return source.getHostData();
     }
 
+    /**
+     * Returns the layout of the source matrix with the row and column strides
+     * swapped.
+     *
+     * @return the strided view or null if the source has no strided view.
+     */
+    @Override
+    public StridedView getStridedView() {
+        StridedView sourceView = source.getStridedView();
+        if (sourceView == null) {
+            return null;
+        }
+        if (stridedView == null || stridedSource != sourceView) {
+            stridedView = sourceView.transpose();
+            stridedSource = sourceView;
+        }
+        return stridedView;
+    }
+
     /**
      * Returns the DeviceBuffer object.
      *
@@ -246,6 +277,16 @@ public class tmatrix implements imatrix {
         source.makeMaster();
     }
 
+    @Override
+    public long getModificationCount() {
+        return source.getModificationCount();
+    }
+
+    @Override
+    public void markModified() {
+        source.markModified();
+    }
+
     /**
      * Checks if this is a transposed view on the source data.
      */
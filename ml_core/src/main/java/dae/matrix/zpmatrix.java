@@ -24,6 +24,9 @@ public class zpmatrix implements imatrix {
     private final int[] padding = new int[2];
     private String name;
 
+    private StridedView stridedSource;
+    private StridedView stridedView;
+
     public zpmatrix(imatrix source, int zp) {
         this.source = source;
         this.zeroPadding = zp;
@@ -31,6 +34,15 @@ public class zpmatrix implements imatrix {
         padding[1] = 2 * zeroPadding + 32 - ((source.getNrOfRows() + 2 * zeroPadding) % 32);
     }
 
+    /**
+     * Returns the matrix that is wrapped by this zero padding view.
+     *
+     * @return the source matrix.
+     */
+    public imatrix getSource() {
+        return source;
+    }
+
     /**
      * Returns a name for the matrix object.
      *
@@ -225,6 +237,25 @@ public class zpmatrix implements imatrix {
         return source.getHostData();
     }
 
+    /**
+     * Returns the layout of the source matrix with the zero padding of this
+     * view.
+     *
+     * @return the strided view or null if the source has no strided view.
+     */
+    @Override
+    public StridedView getStridedView() {
+        StridedView sourceView = source.getStridedView();
+        if (sourceView == null) {
+            return null;
+        }
+        if (stridedView == null || stridedSource != sourceView) {
+            stridedView = sourceView.pad(zeroPadding);
+            stridedSource = sourceView;
+        }
+        return stridedView;
+    }
+
     /**
      * Returns the DeviceBuffer object.
      *
@@ -251,6 +282,16 @@ public class zpmatrix implements imatrix {
         source.makeMaster();
     }
 
+    @Override
+    public long getModificationCount() {
+        return source.getModificationCount();
+    }
+
+    @Override
+    public void markModified() {
+        source.markModified();
+    }
+
     @Override
     public boolean isTransposed() {
         return source.isTransposed();
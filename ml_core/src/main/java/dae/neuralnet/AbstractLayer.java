@@ -30,7 +30,6 @@ public abstract class AbstractLayer implements ILayer {
     protected final fmatrix outputs;
 
     protected final fmatrix deltas;
-    protected final fmatrix derivatives;
 
     protected final fmatrix errors;
 
@@ -80,7 +79,6 @@ public abstract class AbstractLayer implements ILayer {
         this.tinputs = new tmatrix(this.inputs);
 
         this.deltas = new fmatrix(nrOfOutputs, 1, 1, batchSize);
-        this.derivatives = new fmatrix(nrOfOutputs, 1, 1, batchSize);
 
         this.outputs = new fmatrix(nrOfOutputs, 1, 1, batchSize);
         this.errors = new fmatrix(nrOfOutputs, 1, 1, batchSize);
@@ -246,17 +244,11 @@ public abstract class AbstractLayer implements ILayer {
     @Override
     public void backpropagate(float learningRate) {
 
-        // 1. multiply with derivative of activation function. 
+        // 1. multiply the errors with the derivative of activation function.
         // Note: derivative is f'(net input) but this is typically expressed
         // in terms of the output of the activation function.
-        // 1.a copy the outputs into the derivatives matrix.
-        fmatrix.copyInto(this.outputs, this.derivatives);
-        // 1.b apply the derivative of the activation function to the output.
-        fmatrix.applyDerivedActivation(this.function, derivatives);
-
-        // 2. multiply the derivatives with the errors.
-        fmatrix.dotmultiply(deltas, errors, derivatives);
-        // 3. Calculate the new weights
+        fmatrix.applyDerivedActivation(this.function, errors, outputs, deltas);
+        // 2. Calculate the new weights
         calculateNewWeights(learningRate);
     }
 
@@ -8,6 +8,7 @@ import dae.matrix.Dimension;
 import dae.matrix.fmatrix;
 import dae.matrix.imatrix;
 import dae.neuralnet.activation.ActivationFunction;
+import dae.neuralnet.gradient.FusedGradientAlgorithm;
 import java.util.Random;
 
 /**
@@ -189,6 +190,12 @@ public class CompositeLayer implements ILayer {
         layer2.adaptWeights(factor);
     }
 
+    @Override
+    public void registerWeights(FusedGradientAlgorithm algorithm) {
+        layer1.registerWeights(algorithm);
+        layer2.registerWeights(algorithm);
+    }
+
     @Override
     public void randomizeWeights(Random r, float min, float max) {
         layer1.randomizeWeights(r, min, max);
@@ -9,6 +9,7 @@ import dae.neuralnet.activation.ActivationFunction;
 import dae.neuralnet.analysis.WeightAnalysis;
 import dae.neuralnet.analysis.WeightAnalyzer;
 import dae.neuralnet.gradient.AdamGradientAlgorithm;
+import dae.neuralnet.gradient.FusedGradientAlgorithm;
 import dae.neuralnet.gradient.GradientAlgorithm;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
@@ -86,10 +87,6 @@ public class ConvolutionLayer implements ILayer {
      * The deltas with zero padding.
      */
     private final imatrix zpDeltas;
-    /**
-     * The derivatives of the output.
-     */
-    private final fmatrix derivatives;
 
     /**
      * A utility matrix to store the backpropagation result.
@@ -164,14 +161,16 @@ public class ConvolutionLayer implements ILayer {
         // filter weights are shared.
 
         this.weights = weights;
-        this.gradientAlgorithm = new AdamGradientAlgorithm(weights);
+        // the weights and the biases are updated in one pass.
+        AdamGradientAlgorithm adam = new AdamGradientAlgorithm();
+        this.gradientAlgorithm = adam.register(weights);
         newWeights = new fmatrix(filter, filter, sInputs * features);
         newWeightsBatch = new fmatrix(filter, filter, sInputs * features, batchSize);
         batchVector = new fmatrix(batchSize, 1, 1, 1);
         batchVector.applyFunction(x -> 1);
 
         bias = new fmatrix(sInputs * features, 1);
-        this.biasGradientAlgorithm = new AdamGradientAlgorithm(bias);
+        this.biasGradientAlgorithm = adam.register(bias);
         newBiases = new fmatrix(sInputs * features, 1);
         biasBatch = new fmatrix(sInputs * features, batchSize);
         biasBatchVector = new fmatrix(batchSize, 1);
@@ -197,7 +196,6 @@ public class ConvolutionLayer implements ILayer {
         deltas = new fmatrix(oR, oC, sInputs * features, batchSize);
         zpDeltas = new zpmatrix(deltas, padding);
 
-        derivatives = new fmatrix(oR, oC, sInputs * features, batchSize);
         function = af;
 
         this.batchSize = batchSize;
@@ -292,14 +290,14 @@ public class ConvolutionLayer implements ILayer {
 
     @Override
     public void forward() {
-        fmatrix.batchConvolveBias(inputs, this.weights, this.bias, stride, this.outputs);
-
         switch (function) {
             case SOFTMAX:
+                fmatrix.batchConvolveBias(inputs, this.weights, this.bias, stride, this.outputs);
                 fmatrix.softMaxPerRow(outputs);
                 break;
             default:
-                outputs.applyFunction(this.function.getActivation());
+                fmatrix.batchConvolve(inputs, this.weights, stride, this.outputs);
+                fmatrix.applyBiasActivation(function, this.bias, outputs);
         }
         fmatrix.copyIntoSlice(outputs, outputVector);
     }
@@ -338,6 +336,12 @@ public class ConvolutionLayer implements ILayer {
         biasGradientAlgorithm.adaptWeights(newBiases, factor);
     }
 
+    @Override
+    public void registerWeights(FusedGradientAlgorithm algorithm) {
+        gradientAlgorithm = algorithm.register(weights);
+        biasGradientAlgorithm = algorithm.register(bias);
+    }
+
     @Override
     public void writeWeightImage(String file) {
         Path p = Paths.get(file);
@@ -375,22 +379,15 @@ public class ConvolutionLayer implements ILayer {
 
     @Override
     public void backpropagate(float learningRate) {
-        // 2. multiply with derivative of activation function. 
-        // Note: derivative is f'(net input) but this is typically expressed
-        // in terms of the output of the activation function.
-        // 2.a copy the outputs into the derivatives matrix.
-        fmatrix.copyInto(this.outputs, this.derivatives);
-
-        // 2.b apply the derivative of the activation function to the output.
-        fmatrix.applyDerivedActivation(function, derivatives);
-
         // 1. copy output - ideal (target) into deltas.
         // todo is it necessary to have a convolution layer as last layer?
         //        if (calculateErrors) {
         //            fmatrix.dotsubtract(errors, this.outputs, this.ideal);
         //        }
-        // 3. multiply the derivatives with the errors.
-        fmatrix.dotmultiply(deltas, errors, derivatives);
+        // 2. multiply the errors with the derivative of activation function.
+        // Note: derivative is f'(net input) but this is typically expressed
+        // in terms of the output of the activation function.
+        fmatrix.applyDerivedActivation(function, errors, outputs, deltas);
 
         // 4. Calculate the new weights
         calculateNewWeights(learningRate);
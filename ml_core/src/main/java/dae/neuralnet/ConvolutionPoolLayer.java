@@ -0,0 +1,376 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.neuralnet;
+
+import dae.matrix.fmatrix;
+import dae.matrix.fmatrixview;
+import dae.matrix.imatrix;
+import dae.matrix.integer.bytematrix;
+import dae.matrix.zpmatrix;
+import dae.neuralnet.activation.ActivationFunction;
+import dae.neuralnet.analysis.WeightAnalysis;
+import dae.neuralnet.analysis.WeightAnalyzer;
+import dae.neuralnet.gradient.AdamGradientAlgorithm;
+import dae.neuralnet.gradient.FusedGradientAlgorithm;
+import dae.neuralnet.gradient.GradientAlgorithm;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * A convolution layer followed by a max pool, in one layer. The result is the
+ * same as a ConvolutionLayer followed by a PoolLayer, but the full resolution
+ * feature maps are never stored in the forward pass: the convolution, the bias,
+ * the activation function and the max pool are calculated per tile and only
+ * the pooled outputs and the mask are kept.
+ *
+ * The backward pass goes from the pooled errors directly to the deltas of the
+ * convolution, the derivative of the activation function is only evaluated for
+ * the pooled cells.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public class ConvolutionPoolLayer implements ILayer {
+
+    private String name;
+    /**
+     * The number of features per input slice.
+     */
+    private final int features;
+    /**
+     * The size of the rectangular filter.
+     */
+    private final int filterSize;
+    /**
+     * The stride of the convolution.
+     */
+    private final int stride;
+    /**
+     * The scale of the max pool.
+     */
+    private final int scaleX;
+    private final int scaleY;
+    /**
+     * The batch size of the layer.
+     */
+    private final int batchSize;
+    /**
+     * The weights, features filter slices per input slice.
+     */
+    private final imatrix weights;
+    private final fmatrix newWeights;
+    private final fmatrix newWeightsBatch;
+    private final fmatrix batchVector;
+    /**
+     * The biases, one per filter slice.
+     */
+    private final imatrix bias;
+    private final imatrix newBiases;
+    private final imatrix biasBatch;
+
+    /**
+     * The zero padded inputs for this layer and a flat view on the inputs.
+     */
+    private final fmatrix inputs;
+    private final imatrix inputVector;
+    /**
+     * The pooled outputs of this layer and a flat view on the outputs.
+     */
+    private final fmatrix outputs;
+    private final imatrix outputVector;
+    /**
+     * The location of the maximum in every pool window.
+     */
+    private final bytematrix maskLayer;
+    /**
+     * The errors of the pooled outputs.
+     */
+    private final fmatrix errors;
+    private final imatrix flatErrorView;
+    /**
+     * The deltas of the convolution and the zero padded view on the deltas.
+     */
+    private final fmatrix deltas;
+    private final imatrix zpDeltas;
+    /**
+     * A utility matrix to store the backpropagation result and a flat view
+     * on that matrix.
+     */
+    private final fmatrix backpropErrors;
+    private final imatrix backpropVector;
+
+    private final ActivationFunction function;
+
+    private GradientAlgorithm gradientAlgorithm;
+    private GradientAlgorithm biasGradientAlgorithm;
+
+    /**
+     * Creates a new convolution and pool layer.
+     *
+     * @param wInputs The number of inputs in the x direction.
+     * @param hInputs The number of inputs in the y direction.
+     * @param sInputs The number of slices in the input matrix.
+     * @param features The number of features per input slice.
+     * @param filter the size of the filter.
+     * @param stride the stride to slide the filter with.
+     * @param scaleX the x-scale of the max pool.
+     * @param scaleY the y-scale of the max pool.
+     * @param batchSize the batch size of the layer.
+     * @param af the activation function, it must be non decreasing.
+     */
+    public ConvolutionPoolLayer(int wInputs, int hInputs, int sInputs, int features, int filter, int stride, int scaleX, int scaleY, int batchSize, ActivationFunction af) {
+        this(wInputs, hInputs, sInputs, features, filter, stride, scaleX, scaleY, batchSize, af,
+                new fmatrix(filter, filter, sInputs * features), new fmatrix(sInputs * features, 1));
+    }
+
+    /**
+     * Creates a new convolution and pool layer with the given weights and
+     * biases.
+     *
+     * @param wInputs The number of inputs in the x direction.
+     * @param hInputs The number of inputs in the y direction.
+     * @param sInputs The number of slices in the input matrix.
+     * @param features The number of features per input slice.
+     * @param filter the size of the filter.
+     * @param stride the stride to slide the filter with.
+     * @param scaleX the x-scale of the max pool.
+     * @param scaleY the y-scale of the max pool.
+     * @param batchSize the batch size of the layer.
+     * @param af the activation function, it must be non decreasing.
+     * @param weights the weights with sInputs * features slices.
+     * @param bias a row matrix with a bias per filter slice.
+     */
+    public ConvolutionPoolLayer(int wInputs, int hInputs, int sInputs, int features, int filter, int stride, int scaleX, int scaleY, int batchSize, ActivationFunction af, imatrix weights, imatrix bias) {
+        if (!af.isNonDecreasing()) {
+            throw new IllegalArgumentException("The " + af + " activation is not non decreasing and can not be fused with a max pool.");
+        }
+        if (weights.getNrOfSlices() != sInputs * features) {
+            throw new IllegalArgumentException("The weights need " + (sInputs * features) + " slices, not " + weights.getNrOfSlices());
+        }
+        this.weights = weights;
+        // the weights and the biases are updated in one pass.
+        AdamGradientAlgorithm adam = new AdamGradientAlgorithm();
+        this.gradientAlgorithm = adam.register(weights);
+        newWeights = new fmatrix(filter, filter, sInputs * features);
+        newWeightsBatch = new fmatrix(filter, filter, sInputs * features, batchSize);
+        batchVector = new fmatrix(batchSize, 1, 1, 1);
+        // the gradient algorithms expect the negative gradient, like Layer.
+        batchVector.applyFunction(x -> -1);
+
+        this.bias = bias;
+        this.biasGradientAlgorithm = adam.register(bias);
+        newBiases = new fmatrix(sInputs * features, 1);
+        biasBatch = new fmatrix(sInputs * features, 1, 1, batchSize);
+
+        int padding = (filter - 1) / 2;
+        this.filterSize = filter;
+        this.stride = stride;
+        this.scaleX = scaleX;
+        this.scaleY = scaleY;
+        this.features = features;
+        this.batchSize = batchSize;
+
+        inputs = new fmatrix(wInputs, hInputs, sInputs, batchSize, padding);
+        inputVector = new fmatrixview(inputs.getHyperSliceSize(), 1, 1, inputs);
+        backpropErrors = new fmatrix(wInputs, hInputs, sInputs, batchSize);
+        backpropVector = new fmatrixview(backpropErrors.getHyperSliceSize(), 1, 1, backpropErrors);
+
+        int oR = 1 + (wInputs - filter + padding * 2) / stride;
+        int oC = 1 + (hInputs - filter + padding * 2) / stride;
+
+        deltas = new fmatrix(oR, oC, sInputs * features, batchSize);
+        zpDeltas = new zpmatrix(deltas, padding);
+
+        outputs = new fmatrix(oR / scaleY, oC / scaleX, sInputs * features, batchSize);
+        outputVector = new fmatrixview(outputs.getHyperSliceSize(), 1, 1, outputs);
+        maskLayer = new bytematrix(oR / scaleY, oC / scaleX, sInputs * features, batchSize);
+        errors = new fmatrix(oR / scaleY, oC / scaleX, sInputs * features, batchSize);
+        flatErrorView = new fmatrixview(errors.getHyperSliceSize(), 1, 1, errors);
+        function = af;
+    }
+
+    /**
+     * Duplicates this layer.
+     *
+     * @return the duplicated layer.
+     */
+    @Override
+    public ILayer duplicate() {
+        return new ConvolutionPoolLayer(getNrOfWInputs(), getNrOfHInputs(), getNrOfSInputs(),
+                features, filterSize, stride, scaleX, scaleY, batchSize, function);
+    }
+
+    @Override
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getNrOfInputs() {
+        return inputs.getHyperSliceSize();
+    }
+
+    @Override
+    public int getNrOfOutputs() {
+        return outputVector.getHyperSliceSize();
+    }
+
+    @Override
+    public ActivationFunction getActivationFunction() {
+        return function;
+    }
+
+    public int getNrOfFeatures() {
+        return features;
+    }
+
+    public int getNrOfWInputs() {
+        return inputs.getNrOfRows();
+    }
+
+    public int getNrOfHInputs() {
+        return inputs.getNrOfColumns();
+    }
+
+    public int getNrOfSInputs() {
+        return inputs.getNrOfSlices();
+    }
+
+    public int getFilterSize() {
+        return filterSize;
+    }
+
+    public int getFilterStride() {
+        return stride;
+    }
+
+    public int getScaleX() {
+        return scaleX;
+    }
+
+    public int getScaleY() {
+        return scaleY;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public imatrix getWeights() {
+        return weights;
+    }
+
+    public imatrix getBias() {
+        return bias;
+    }
+
+    @Override
+    public void forward() {
+        fmatrix.batchConvolveMaxPool(inputs, weights, bias, stride, function, outputs, maskLayer);
+    }
+
+    /**
+     * Sets the inputs of this layer, the input can be the slices of the
+     * previous layer or a flat vector per entry in the batch.
+     *
+     * @param input the new input.
+     */
+    @Override
+    public void setInputs(imatrix input) {
+        fmatrix.copyIntoSlice(input, input.getSliceSize() == inputs.getSliceSize() ? inputs : inputVector);
+    }
+
+    @Override
+    public imatrix getInputs() {
+        return inputs;
+    }
+
+    @Override
+    public void setIdeal(imatrix ideals) {
+
+    }
+
+    @Override
+    public imatrix getErrors() {
+        return flatErrorView;
+    }
+
+    @Override
+    public imatrix getOutputs() {
+        return outputVector;
+    }
+
+    @Override
+    public void backpropagate(float learningRate) {
+        fmatrix.batchBackpropMaxPoolActivation(errors, outputs, maskLayer, function, deltas);
+        calculateNewWeights(learningRate);
+    }
+
+    @Override
+    public void calculateNewWeights(float learningRate) {
+        newWeights.reset();
+        fmatrix.deltasBatchConvolve(inputs, deltas, stride, newWeightsBatch);
+        fmatrix.batchLC(newWeightsBatch, batchVector, newWeights);
+
+        newBiases.reset();
+        fmatrix.sumPerSlice(deltas, biasBatch);
+        fmatrix.batchLC(biasBatch, batchVector, newBiases);
+    }
+
+    @Override
+    public void calculateErrors(imatrix errors) {
+        fmatrix.batchBackpropCorrelate(zpDeltas, weights, stride, backpropErrors);
+        fmatrix.copyIntoSlice(errors.getSliceSize() == backpropErrors.getSliceSize() ? backpropErrors : backpropVector, errors);
+    }
+
+    @Override
+    public void adaptWeights(float factor) {
+        gradientAlgorithm.adaptWeights(newWeights, factor);
+        biasGradientAlgorithm.adaptWeights(newBiases, factor);
+    }
+
+    @Override
+    public void registerWeights(FusedGradientAlgorithm algorithm) {
+        gradientAlgorithm = algorithm.register(weights);
+        biasGradientAlgorithm = algorithm.register(bias);
+    }
+
+    @Override
+    public void randomizeWeights(Random r, float min, float max) {
+        weights.applyFunction(x -> min + r.nextFloat() * (max - min));
+    }
+
+    @Override
+    public void analyzeWeights() {
+        WeightAnalysis wa = WeightAnalyzer.analyzeMatrix(weights);
+        System.out.println("weight analysis of " + name);
+        System.out.println(wa);
+    }
+
+    @Override
+    public void writeWeightImage(String file) {
+        Path p = Paths.get(file);
+        fmatrix.writeAs3DImage(weights, (int) (Math.sqrt(weights.getNrOfSlices()) + 1), 5, p);
+    }
+
+    @Override
+    public void writeOutputImage(String file) {
+
+    }
+
+    /**
+     * Syncs the matrices with the matrices on the gpu.
+     */
+    @Override
+    public void sync() {
+        weights.sync();
+        bias.sync();
+    }
+}
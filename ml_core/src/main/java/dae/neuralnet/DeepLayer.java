@@ -2,8 +2,14 @@ package dae.neuralnet;
 
 import dae.matrix.fmatrix;
 import dae.matrix.imatrix;
+import dae.matrix.op.FMatrixOp;
+import dae.matrix.op.FMatrixOpRegistry;
+import dae.neuralnet.activation.ActivationFunction;
 import dae.neuralnet.cost.CostFunction;
+import dae.neuralnet.cost.CrossEntropyCostFunction;
 import dae.neuralnet.cost.QuadraticCostFunction;
+import dae.neuralnet.gradient.AdamGradientAlgorithm;
+import dae.neuralnet.gradient.FusedGradientAlgorithm;
 import dae.neuralnet.io.DeepLayerMetaData;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -20,8 +26,22 @@ public class DeepLayer {
     private boolean validNetwork;
     private LearningRate learningRate;
     private CostFunction costFunction = new QuadraticCostFunction();
+    /**
+     * The gradient algorithm that adapts the weights of all the layers in one
+     * pass per training step.
+     */
+    private FusedGradientAlgorithm gradientAlgorithm = new AdamGradientAlgorithm();
 
     private DeepLayerMetaData metadata = new DeepLayerMetaData();
+    /**
+     * The matrix backend for this network, null if the default backend should
+     * be used.
+     */
+    private FMatrixOp matrixOp;
+    /**
+     * The cross entropy loss per batch entry of the last training step.
+     */
+    private fmatrix loss;
 
     /**
      * Creates an empty DeepLayer object.
@@ -43,6 +63,7 @@ public class DeepLayer {
         this.layers = layers;
         validNetwork = true;
         checkLayers();
+        registerWeights();
     }
 
     private void checkLayers() throws IllegalArgumentException {
@@ -73,6 +94,45 @@ public class DeepLayer {
         this.layers = new ILayer[layers.size()];
         layers.toArray(this.layers);
         checkLayers();
+        registerWeights();
+    }
+
+    /**
+     * Registers the weights of all the layers with the gradient algorithm of
+     * this deep layer.
+     */
+    private void registerWeights() {
+        for (ILayer layer : layers) {
+            layer.registerWeights(gradientAlgorithm);
+        }
+    }
+
+    /**
+     * Sets the gradient algorithm that adapts the weights of all the layers.
+     * The weights of every layer are registered as segments of the algorithm,
+     * so the algorithm can not be shared with another network.
+     *
+     * @param algorithm a gradient algorithm without segments.
+     */
+    public void setGradientAlgorithm(FusedGradientAlgorithm algorithm) {
+        if (algorithm.getNrOfSegments() > 0) {
+            throw new IllegalArgumentException("The gradient algorithm already has "
+                    + algorithm.getNrOfSegments() + " segments.");
+        }
+        this.gradientAlgorithm = algorithm;
+        if (layers != null) {
+            registerWeights();
+        }
+    }
+
+    /**
+     * Returns the gradient algorithm that adapts the weights of all the
+     * layers.
+     *
+     * @return the gradient algorithm.
+     */
+    public FusedGradientAlgorithm getGradientAlgorithm() {
+        return gradientAlgorithm;
     }
 
     /**
@@ -113,6 +173,60 @@ public class DeepLayer {
         return costFunction;
     }
 
+    /**
+     * Checks if the training step can fuse the softmax of the last layer with
+     * the cross entropy cost function.
+     *
+     * @return true if the last layer is a softmax Layer and the cost function
+     * is the cross entropy cost function.
+     */
+    private boolean isSoftMaxCrossEntropy() {
+        ILayer last = getLastLayer();
+        return costFunction instanceof CrossEntropyCostFunction && last instanceof Layer
+                && last.getActivationFunction() == ActivationFunction.SOFTMAX;
+    }
+
+    /**
+     * Returns the cross entropy loss per batch entry of the last training
+     * step. The loss is calculated during training when the last layer is a
+     * softmax Layer and the cost function is the cross entropy cost function.
+     *
+     * @return a row matrix with the loss per batch entry, or null if no loss
+     * was calculated.
+     */
+    public imatrix getLoss() {
+        return loss;
+    }
+
+    /**
+     * Binds a matrix backend to this deep layer. The backend is active for the
+     * duration of the forward, train and adaptWeights calls.
+     *
+     * @param op the backend to use, or null to use the default backend.
+     */
+    public void setMatrixOp(FMatrixOp op) {
+        this.matrixOp = op;
+    }
+
+    /**
+     * Binds a matrix backend to this deep layer by name.
+     *
+     * @param backend the name of the backend, for example "cpu" or "gpu".
+     */
+    public void setMatrixOp(String backend) {
+        this.matrixOp = FMatrixOpRegistry.get(backend);
+    }
+
+    /**
+     * Returns the matrix backend of this deep layer.
+     *
+     * @return the matrix backend, or the default backend if no backend was
+     * bound.
+     */
+    public FMatrixOp getMatrixOp() {
+        return matrixOp != null ? matrixOp : FMatrixOpRegistry.getDefault();
+    }
+
     /**
      * Randomize all the weights.
      *
@@ -186,12 +300,32 @@ public class DeepLayer {
      * @param mode
      */
     public void train(int iteration, imatrix input, imatrix target, TrainingMode mode) {
+        FMatrixOp previous = FMatrixOpRegistry.bind(getMatrixOp());
+        try {
+            doTrain(iteration, input, target);
+        } finally {
+            FMatrixOpRegistry.bind(previous);
+        }
+    }
+
+    private void doTrain(int iteration, imatrix input, imatrix target) {
         setTarget(target);
-        forward(input);
         float lr = this.learningRate.getLearningRate(iteration);
 
         ILayer last = getLastLayer();
-        this.costFunction.calculateDerivedCost(last.getErrors(), last.getOutputs(), target);
+        if (isSoftMaxCrossEntropy()) {
+            // the softmax, the loss and the derived cost in one pass.
+            doForward(input, layers.length - 1);
+            Layer head = (Layer) last;
+            if (loss == null) {
+                imatrix outputs = head.getOutputs();
+                loss = new fmatrix(1, outputs.getNrOfColumns(), outputs.getNrOfSlices(), outputs.getNrOfHyperSlices());
+            }
+            head.forwardCrossEntropy(loss);
+        } else {
+            doForward(input);
+            this.costFunction.calculateDerivedCost(last.getErrors(), last.getOutputs(), target);
+        }
         for (int i = layers.length; i > 0; --i) {
             ILayer current = layers[i - 1];
             // only calculate deltas for last layer.
@@ -206,18 +340,46 @@ public class DeepLayer {
         for (int i = 0; i < layers.length; ++i) {
             layers[i].adaptWeights(this.learningRate.getLearningRate(iteration));
         }
+        // updates the segments that received a gradient, in one step.
+        gradientAlgorithm.flush();
     }
 
     public void adaptWeights(int iteration, int batchSize) {
-        float lr = this.learningRate.getLearningRate(iteration);
-        for (int i = 0; i < layers.length; ++i) {
-            layers[i].adaptWeights(lr);
+        FMatrixOp previous = FMatrixOpRegistry.bind(getMatrixOp());
+        try {
+            float lr = this.learningRate.getLearningRate(iteration);
+            for (int i = 0; i < layers.length; ++i) {
+                layers[i].adaptWeights(lr);
+            }
+            gradientAlgorithm.flush();
+        } finally {
+            FMatrixOpRegistry.bind(previous);
         }
     }
 
     public void forward(imatrix input) {
+        FMatrixOp previous = FMatrixOpRegistry.bind(getMatrixOp());
+        try {
+            doForward(input);
+        } finally {
+            FMatrixOpRegistry.bind(previous);
+        }
+    }
+
+    private void doForward(imatrix input) {
+        doForward(input, layers.length);
+    }
+
+    /**
+     * Sets the input and executes the forward pass of the first layers.
+     *
+     * @param input the input of the network.
+     * @param nrOfLayers the number of layers to execute, the inputs of the
+     * next layer are set.
+     */
+    private void doForward(imatrix input, int nrOfLayers) {
         setInputs(input);
-        for (int i = 0; i < layers.length; ++i) {
+        for (int i = 0; i < nrOfLayers; ++i) {
             layers[i].forward();
             if (i + 1 < layers.length) {
                 imatrix outputs = layers[i].getOutputs();
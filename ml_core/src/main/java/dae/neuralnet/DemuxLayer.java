@@ -7,6 +7,7 @@ package dae.neuralnet;
 import dae.matrix.fmatrix;
 import dae.matrix.imatrix;
 import dae.neuralnet.activation.ActivationFunction;
+import dae.neuralnet.gradient.FusedGradientAlgorithm;
 import java.util.ArrayList;
 import java.util.Random;
 
@@ -188,6 +189,15 @@ public class DemuxLayer implements ILayer {
         }
     }
 
+    @Override
+    public void registerWeights(FusedGradientAlgorithm algorithm) {
+        for (int l = 0; l < numLayers; ++l) {
+            for (int muxi = 0; muxi < mux; ++muxi) {
+                layers[l][muxi].registerWeights(algorithm);
+            }
+        }
+    }
+
     @Override
     public void randomizeWeights(Random r, float min, float max) {
         for (int l = 0; l < numLayers; ++l) {
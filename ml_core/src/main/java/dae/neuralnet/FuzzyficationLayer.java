@@ -9,6 +9,9 @@ import dae.matrix.imatrix;
 import dae.neuralnet.activation.ActivationFunction;
 import dae.neuralnet.analysis.WeightAnalysis;
 import dae.neuralnet.analysis.WeightAnalyzer;
+import dae.neuralnet.gradient.AdamGradientAlgorithm;
+import dae.neuralnet.gradient.FusedGradientAlgorithm;
+import dae.neuralnet.gradient.GradientAlgorithm;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Random;
@@ -42,19 +45,9 @@ public class FuzzyficationLayer implements ILayer {
     private final fmatrix outputs;
     private final fmatrix errors;
 
-    // Adam support
-    // todo : split out into design
-    private final float beta1 = 0.9f;
-    private float beta1Corr = beta1;
-    private final float beta2 = 0.999f;
-    private float beta2Corr = beta2;
-    private final float epsilon = 1e-8f;
-
-    private fmatrix aMoment;
-    private fmatrix aVelocity;
-
-    private fmatrix bMoment;
-    private fmatrix bVelocity;
+    // the a and b weights share one adam algorithm and are updated in one pass.
+    private GradientAlgorithm aGradientAlgorithm;
+    private GradientAlgorithm bGradientAlgorithm;
 
     private ActivationFunction function;
 
@@ -76,13 +69,13 @@ public class FuzzyficationLayer implements ILayer {
         this.aWeights = weightA;
         this.aWeightDeltas = new fmatrix(nrOfInputs * (classes - 1), 1);
         this.aWeightDeltasBatch = new fmatrix(nrOfInputs * (classes - 1), 1, 1, batchSize);
-        this.aMoment = new fmatrix(nrOfInputs * (classes - 1), 1);
-        this.aVelocity = new fmatrix(nrOfInputs * (classes - 1), 1);
 
         this.bWeights = weightB;
         this.bWeightDeltas = new fmatrix(nrOfInputs * (classes - 1), 1);
-        this.bMoment = new fmatrix(nrOfInputs * (classes - 1), 1);
-        this.bVelocity = new fmatrix(nrOfInputs * (classes - 1), 1);
+
+        AdamGradientAlgorithm adam = new AdamGradientAlgorithm();
+        this.aGradientAlgorithm = adam.register(aWeights);
+        this.bGradientAlgorithm = adam.register(bWeights);
 
         this.sublayerOutputs = new fmatrix(nrOfInputs * (classes - 1), 1, 1, batchSize);
         this.deltas = new fmatrix(nrOfInputs * (classes - 1), 1, 1, batchSize);
@@ -213,23 +206,14 @@ public class FuzzyficationLayer implements ILayer {
     public void adaptWeights(float factor) {
         //fmatrix.dotadd(aWeights, 1, aWeights, -factor, aWeightDeltas);
         //fmatrix.dotadd(bWeights, 1, bWeights, -factor, bWeightDeltas);
-        adaptAWeights(factor);
-        adaptBWeights(factor);
-        beta1Corr *= 0.9f;
-        beta2Corr *= 0.9f;
+        aGradientAlgorithm.adaptWeights(aWeightDeltas, factor);
+        bGradientAlgorithm.adaptWeights(bWeightDeltas, factor);
     }
 
-    private void adaptAWeights(float factor) {
-        fmatrix.dotadd(aMoment, beta1, aMoment, 1 - beta1, aWeightDeltas);
-        fmatrix.adamVelocity(aVelocity, beta2, aVelocity, aWeightDeltas);
-        fmatrix.adamAdaptWeights(aWeights, -factor, beta1Corr, beta2Corr, epsilon, aMoment, aVelocity);
-    }
-
-    private void adaptBWeights(float factor) {
-        fmatrix.dotadd(bMoment, beta1, bMoment, 1 - beta1, bWeightDeltas);
-        fmatrix.adamVelocity(bVelocity, beta2, bVelocity, bWeightDeltas);
-        fmatrix.adamAdaptWeights(bWeights, -factor, beta1Corr, beta2Corr, epsilon, bMoment, bVelocity);
-
+    @Override
+    public void registerWeights(FusedGradientAlgorithm algorithm) {
+        aGradientAlgorithm = algorithm.register(aWeights);
+        bGradientAlgorithm = algorithm.register(bWeights);
     }
 
     @Override
@@ -3,6 +3,7 @@ package dae.neuralnet;
 import dae.matrix.fmatrix;
 import dae.matrix.imatrix;
 import dae.neuralnet.activation.ActivationFunction;
+import dae.neuralnet.gradient.FusedGradientAlgorithm;
 import java.util.Random;
 
 /**
@@ -124,6 +125,15 @@ public interface ILayer {
      */
     public void adaptWeights(float factor);
 
+    /**
+     * Registers the weights of this layer as segments of a gradient algorithm
+     * that is shared by all the layers of a network. From then on the layer
+     * adapts its weights through the segments of the shared algorithm.
+     *
+     * @param algorithm the shared gradient algorithm.
+     */
+    public void registerWeights(FusedGradientAlgorithm algorithm);
+
     /**
      * Randomize all the weights.
      *
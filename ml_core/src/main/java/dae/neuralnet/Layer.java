@@ -8,6 +8,7 @@ import dae.neuralnet.activation.ActivationFunction;
 import dae.neuralnet.analysis.WeightAnalysis;
 import dae.neuralnet.analysis.WeightAnalyzer;
 import dae.neuralnet.gradient.AdamGradientAlgorithm;
+import dae.neuralnet.gradient.FusedGradientAlgorithm;
 import dae.neuralnet.gradient.GradientAlgorithm;
 import java.nio.file.Paths;
 import java.util.Random;
@@ -197,11 +198,44 @@ public class Layer extends AbstractLayer {
     }
 
     /**
-     * Multiplies the input matrix with the weight matrix and stores the result
-     * in the output matrix.
+     * Multiplies the input matrix with the weight matrix, stores the result
+     * in the output matrix and applies the activation function.
      */
     @Override
     public void forward() {
+        forwardNet();
+        switch (function) {
+            case SOFTMAX:
+                fmatrix.softMax(outputs);
+                break;
+
+            default:
+                fmatrix.applyActivation(this.function, outputs);
+        }
+    }
+
+    /**
+     * Calculates the outputs of this softmax layer together with the cross
+     * entropy loss and the errors of the outputs (outputs - ideal), in one
+     * pass over the outputs of every batch entry. The ideal values must be
+     * set before this method is called.
+     *
+     * @param loss a row matrix with the loss per batch entry, or null if the
+     * loss is not needed.
+     */
+    public void forwardCrossEntropy(imatrix loss) {
+        if (function != ActivationFunction.SOFTMAX) {
+            throw new IllegalArgumentException("The cross entropy forward pass needs a softmax layer, not " + function);
+        }
+        forwardNet();
+        fmatrix.softMaxCrossEntropy(outputs, ideal, loss, errors);
+    }
+
+    /**
+     * Multiplies the input matrix with the weight matrix and stores the net
+     * input of the activation function in the output matrix.
+     */
+    private void forwardNet() {
         //outputs.reset();
         imatrix weightMatrix = tweights;
         if (dropRateSet) {
@@ -210,24 +244,13 @@ public class Layer extends AbstractLayer {
             fmatrix.dotmultiply(dropWeightMatrix, constraint, weights);
             weightMatrix = tDropWeightMatrix;
         }
-        fmatrix.sgemm(1, weightMatrix, inputs, 0, outputs);
+        fmatrix.batchedSgemm(1, weightMatrix, inputs, 0, outputs);
         //fmatrix.sgemm(1, inputs, weightMatrix, 0, outputs);
-
-        switch (function) {
-            case SOFTMAX:
-                outputs.sync();
-                fmatrix.softMaxPerRow(outputs);
-                outputs.makeMaster();
-                break;
-
-            default:
-                fmatrix.applyActivation(this.function, outputs);
-        }
     }
 
     @Override
     public void calculateNewWeights(float learningRate) {
-        fmatrix.sgemm(-1, inputs, tdeltas, 0, deltaWeights);
+        fmatrix.batchedSgemm(-1, inputs, tdeltas, 0, deltaWeights);
         if (dropRateSet) {
             fmatrix.dotmultiply(deltaWeights, deltaWeights, constraint);
         }
@@ -245,7 +268,7 @@ public class Layer extends AbstractLayer {
         if (dropRateSet) {
             t = dropWeightMatrix;
         }
-        fmatrix.sgemm(1, t, deltas, 0, errors);
+        fmatrix.batchedSgemm(1, t, deltas, 0, errors);
         //fmatrix.multiply(deltas, this.deltas, this.tweights);
     }
 
@@ -254,6 +277,11 @@ public class Layer extends AbstractLayer {
         gradientAlgorithm.adaptWeights(deltaWeights, factor);
     }
 
+    @Override
+    public void registerWeights(FusedGradientAlgorithm algorithm) {
+        gradientAlgorithm = algorithm.register(weights);
+    }
+
     /**
      * Randomize all the weights.
      *
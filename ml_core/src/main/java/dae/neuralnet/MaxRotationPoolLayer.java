@@ -8,8 +8,9 @@ import dae.matrix.Dimension;
 import dae.matrix.fmatrix;
 import dae.matrix.fmatrixview;
 import dae.matrix.imatrix;
-import dae.matrix.integer.intmatrix;
+import dae.matrix.integer.bytematrix;
 import dae.neuralnet.activation.ActivationFunction;
+import dae.neuralnet.gradient.FusedGradientAlgorithm;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -37,7 +38,7 @@ public class MaxRotationPoolLayer implements ILayer {
     /**
      * The mask layer helps to propagate the deltas to the previous layer.
      */
-    private final intmatrix maskLayer;
+    private final bytematrix maskLayer;
     /**
      * The output matrix.
      */
@@ -58,7 +59,7 @@ public class MaxRotationPoolLayer implements ILayer {
         this.scaleY = scaleY;
         inputDimension = new Dimension(iWidth, iHeight, iSlices, batchSize);
         inputs = new fmatrix(iHeight, iWidth, iSlices, batchSize);
-        maskLayer = new intmatrix(iHeight / scaleY, iWidth / scaleX, iSlices / 2, batchSize);
+        maskLayer = new bytematrix(iHeight / scaleY, iWidth / scaleX, iSlices / 2, batchSize);
         outputs = new fmatrix(iHeight / scaleY, iWidth / scaleX, iSlices, batchSize);
         deltas = new fmatrix(iHeight / scaleY, iWidth / scaleX, iSlices, batchSize);
         errors = new fmatrix(iHeight / scaleY, iWidth / scaleX, iSlices, batchSize);
@@ -199,6 +200,11 @@ public class MaxRotationPoolLayer implements ILayer {
         // no weights in this layer.
     }
 
+    @Override
+    public void registerWeights(FusedGradientAlgorithm algorithm) {
+        // no weights in this layer.
+    }
+
     @Override
     public void randomizeWeights(Random r, float min, float max) {
         // no weights in this layer.
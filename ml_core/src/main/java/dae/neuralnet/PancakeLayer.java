@@ -5,12 +5,14 @@
 package dae.neuralnet;
 
 import dae.matrix.Dimension;
+import dae.matrix.MatrixLayout;
 import dae.matrix.fmatrix;
 import dae.matrix.imatrix;
 import dae.neuralnet.activation.ActivationFunction;
 import dae.neuralnet.analysis.WeightAnalysis;
 import dae.neuralnet.analysis.WeightAnalyzer;
 import dae.neuralnet.gradient.AdamGradientAlgorithm;
+import dae.neuralnet.gradient.FusedGradientAlgorithm;
 import dae.neuralnet.gradient.GradientAlgorithm;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -26,6 +28,7 @@ public class PancakeLayer implements ILayer {
 
     private final Dimension inputDimension;
     private final Dimension outputDimension;
+    private final MatrixLayout layout;
 
     private String name;
 
@@ -44,8 +47,8 @@ public class PancakeLayer implements ILayer {
     private final imatrix biasesBatch;
     private final imatrix biasVector;
 
-    private final GradientAlgorithm weightGradient;
-    private final GradientAlgorithm biasGradient;
+    private GradientAlgorithm weightGradient;
+    private GradientAlgorithm biasGradient;
 
     private final imatrix errors;
 
@@ -60,7 +63,24 @@ public class PancakeLayer implements ILayer {
      * @param function the activation function of this pancake layer.
      */
     public PancakeLayer(Dimension inputDimension, boolean bias, int slicesPerGroup, ActivationFunction function) {
+        this(inputDimension, bias, slicesPerGroup, function, MatrixLayout.PLANAR);
+    }
+
+    /**
+     * Creates a new pancake layer that stores its inputs and weights in the
+     * given layout. The inputs are converted to this layout when they are set
+     * and the outputs and errors stay planar. The layout does not make the
+     * layer faster, the conversion costs a copy of the inputs.
+     *
+     * @param inputDimension the dimensions of the input.
+     * @param bias true if a bias should be added to the result.
+     * @param slicesPerGroup the slicesPerGroup.
+     * @param function the activation function of this pancake layer.
+     * @param layout the layout of the inputs and the weights.
+     */
+    public PancakeLayer(Dimension inputDimension, boolean bias, int slicesPerGroup, ActivationFunction function, MatrixLayout layout) {
         this.inputDimension = inputDimension;
+        this.layout = layout;
         this.outputDimension = Dimension.Dim(
                 inputDimension.getRows(),
                 inputDimension.getColumns(),
@@ -69,12 +89,12 @@ public class PancakeLayer implements ILayer {
         useBias = bias;
         this.slicesPerGroup = slicesPerGroup;
 
-        inputs = fmatrix.create(inputDimension);
+        inputs = fmatrix.create(inputDimension, layout);
         outputs = (fmatrix) fmatrix.create(outputDimension);
         deltas = (fmatrix) fmatrix.create(outputDimension);
         errors = fmatrix.create(outputDimension);
 
-        weights = fmatrix.create(new Dimension(inputDimension.r, inputDimension.c, inputDimension.s, 1));
+        weights = fmatrix.create(new Dimension(inputDimension.r, inputDimension.c, inputDimension.s, 1), layout);
         biases = fmatrix.create(new Dimension(outputDimension.r, outputDimension.c, outputDimension.s, 1));
         weights.applyFunction(x -> 1);
 
@@ -103,7 +123,7 @@ public class PancakeLayer implements ILayer {
      */
     @Override
     public ILayer duplicate() {
-        return new PancakeLayer(inputDimension, useBias, this.slicesPerGroup, function);
+        return new PancakeLayer(inputDimension, useBias, this.slicesPerGroup, function, layout);
     }
 
     @Override
@@ -166,9 +186,7 @@ public class PancakeLayer implements ILayer {
     @Override
     public void backpropagate(float learningRate) {
         //errors.sync();
-        fmatrix.copyInto(outputs, deltas);
-        fmatrix.applyDerivedActivation(function, deltas);
-        fmatrix.dotmultiply(deltas, deltas, errors);
+        fmatrix.applyDerivedActivation(function, errors, outputs, deltas);
 
         calculateNewWeights(learningRate);
 
@@ -193,6 +211,12 @@ public class PancakeLayer implements ILayer {
         //this.biasGradient.adaptWeights(deltaBias, factor);
     }
 
+    @Override
+    public void registerWeights(FusedGradientAlgorithm algorithm) {
+        weightGradient = algorithm.register(weights);
+        biasGradient = algorithm.register(biases);
+    }
+
     @Override
     public void randomizeWeights(Random r, float min, float max) {
         //fmatrix.randomize(weights, r, min, max);
@@ -11,6 +11,7 @@ import dae.neuralnet.activation.ActivationFunction;
 import dae.neuralnet.analysis.WeightAnalysis;
 import dae.neuralnet.analysis.WeightAnalyzer;
 import dae.neuralnet.gradient.AdamGradientAlgorithm;
+import dae.neuralnet.gradient.FusedGradientAlgorithm;
 import dae.neuralnet.gradient.GradientAlgorithm;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
@@ -96,10 +97,6 @@ public class RotationConvolutionLayer implements ILayer {
      * The deltas with zero padding.
      */
     private final imatrix zpDeltas;
-    /**
-     * The derivatives of the output.
-     */
-    private final fmatrix derivatives;
 
     /**
      * A utility matrix to store the backpropagation result.
@@ -181,8 +178,10 @@ public class RotationConvolutionLayer implements ILayer {
         this.biasesBatchVector = new fmatrix(batchSize, 1);
         biasesBatchVector.applyFunction(x -> 1.0f);
 
-        this.gradientAlgorithmWeights = new AdamGradientAlgorithm(weights);
-        this.gradientAlgorithmBiases = new AdamGradientAlgorithm(biases);
+        // the weights and the biases are updated in one pass.
+        AdamGradientAlgorithm adam = new AdamGradientAlgorithm();
+        this.gradientAlgorithmWeights = adam.register(weights);
+        this.gradientAlgorithmBiases = adam.register(biases);
 
         this.newWeights = new fmatrix(filter, filter, sInputs * features);
         this.rotatedKernels = new fmatrix(filter, filter, sInputs * features * rotations);
@@ -213,7 +212,6 @@ public class RotationConvolutionLayer implements ILayer {
         deltas = new fmatrix(oR, oC, sInputs * features * rotations, batchSize);
         zpDeltas = new zpmatrix(deltas, padding);
 
-        derivatives = new fmatrix(oR, oC, sInputs * features * rotations, batchSize);
         function = af;
 
         this.batchSize = batchSize;
@@ -337,13 +335,14 @@ public class RotationConvolutionLayer implements ILayer {
             fmatrix.dotadd(rotatedKernels, rotatedKernels, this.rotatedKernelsBias);
         }
 
-        fmatrix.batchConvolveBias(inputs, this.rotatedKernels, this.biases, stride, this.outputs);
         switch (function) {
             case SOFTMAX:
+                fmatrix.batchConvolveBias(inputs, this.rotatedKernels, this.biases, stride, this.outputs);
                 fmatrix.softMaxPerRow(outputs);
                 break;
             default:
-                outputs.applyFunction(this.function.getActivation());
+                fmatrix.batchConvolve(inputs, this.rotatedKernels, stride, this.outputs);
+                fmatrix.applyBiasActivation(function, this.biases, outputs);
         }
     }
 
@@ -389,6 +388,12 @@ public class RotationConvolutionLayer implements ILayer {
         gradientAlgorithmBiases.adaptWeights(newBiases, factor);
     }
 
+    @Override
+    public void registerWeights(FusedGradientAlgorithm algorithm) {
+        gradientAlgorithmWeights = algorithm.register(weights);
+        gradientAlgorithmBiases = algorithm.register(biases);
+    }
+
     @Override
     public void writeWeightImage(String file) {
         Path p = Paths.get(file + "_original");
@@ -434,23 +439,16 @@ public class RotationConvolutionLayer implements ILayer {
 
     @Override
     public void backpropagate(float learningRate) {
-        // 2. multiply with derivative of activation function. 
-        // Note: derivative is f'(net input) but this is typically expressed
-        // in terms of the output of the activation function.
-        // 2.a copy the outputs into the derivatives matrix.
-        this.outputs.sync();
-        fmatrix.copyInto(this.outputs, this.derivatives);
-
-        // 2.b apply the derivative of the activation function to the output.
-        fmatrix.applyDerivedActivation(function, derivatives);
-
         // 1. copy output - ideal (target) into deltas.
         // todo is it necessary to have a convolution layer as last layer?
         //        if (calculateErrors) {
         //            fmatrix.dotsubtract(errors, this.outputs, this.ideal);
         //        }
-        // 3. multiply the derivatives with the errors.
-        fmatrix.dotmultiply(deltas, errors, derivatives);
+        // 2. multiply the errors with the derivative of activation function.
+        // Note: derivative is f'(net input) but this is typically expressed
+        // in terms of the output of the activation function.
+        this.outputs.sync();
+        fmatrix.applyDerivedActivation(function, errors, outputs, deltas);
         // 4. Calculate the new weights
         calculateNewWeights(learningRate);
     }
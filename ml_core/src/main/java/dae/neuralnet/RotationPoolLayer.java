@@ -8,6 +8,7 @@ import dae.matrix.fmatrix;
 import dae.matrix.fmatrixview;
 import dae.matrix.imatrix;
 import dae.neuralnet.activation.ActivationFunction;
+import dae.neuralnet.gradient.FusedGradientAlgorithm;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -190,6 +191,11 @@ public class RotationPoolLayer implements ILayer {
         // no weights in this layer.
     }
 
+    @Override
+    public void registerWeights(FusedGradientAlgorithm algorithm) {
+        // no weights in this layer.
+    }
+
     @Override
     public void randomizeWeights(Random r, float min, float max) {
         // no weights in this layer.
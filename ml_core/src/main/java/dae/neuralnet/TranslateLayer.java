@@ -5,6 +5,7 @@ import dae.matrix.imatrix;
 import dae.neuralnet.activation.ActivationFunction;
 import dae.neuralnet.analysis.WeightAnalysis;
 import dae.neuralnet.analysis.WeightAnalyzer;
+import dae.neuralnet.gradient.FusedGradientAlgorithm;
 import java.util.Random;
 
 /**
@@ -82,6 +83,11 @@ public class TranslateLayer extends AbstractLayer {
         fmatrix.copyInto(newWeights, weights);
     }
 
+    @Override
+    public void registerWeights(FusedGradientAlgorithm algorithm) {
+        // the new weights are copied, this layer has no gradient algorithm.
+    }
+
     /**
      * Randomize all the weights.
      *
@@ -49,4 +49,26 @@ public enum ActivationFunction {
     public Function getDerivedActivation() {
         return da;
     }
+
+    /**
+     * Checks if the activation function never decreases when its argument
+     * increases. The maximum of the activated values is then the activation
+     * of the maximum, so a max pool can be applied before the activation.
+     *
+     * @return true if the activation function is non decreasing.
+     */
+    public boolean isNonDecreasing() {
+        switch (this) {
+            case TANH:
+            case IDENTITY:
+            case SIGMOID:
+            case CESIGMOID:
+            case LEAKYRELU:
+            case RELU:
+                return true;
+            default:
+                // softmax normalizes over the slice, it is not element wise.
+                return false;
+        }
+    }
 }
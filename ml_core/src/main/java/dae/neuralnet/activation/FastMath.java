@@ -0,0 +1,105 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.neuralnet.activation;
+
+/**
+ * Fast single precision approximations of the transcendental functions that
+ * are used by the activation functions and the fuzzy membership functions.
+ *
+ * The exponential function reduces the argument to x = n * ln(2) + r with |r|
+ * &lt;= ln(2) / 2, approximates e^r with a polynomial of degree 7 (the
+ * minimax coefficients of the cephes library) and builds 2^n directly in the
+ * exponent bits of the result. All the calculations are done in float
+ * precision, without a conversion to double and without branches, so the
+ * loops that use these functions can be vectorized.
+ *
+ * The arguments of exp are clamped to [MINEXP, MAXEXP], the result is
+ * therefore never infinite. The maximum errors, measured against the double
+ * precision functions of java.lang.Math, are:
+ * <ul>
+ * <li>exp : a relative error of EXPERROR</li>
+ * <li>sigmoid : an absolute error of SIGMOIDERROR</li>
+ * <li>tanh : an absolute error of TANHERROR</li>
+ * </ul>
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public final class FastMath {
+
+    /**
+     * The maximum relative error of exp for arguments in [MINEXP, MAXEXP].
+     */
+    public static final float EXPERROR = 2e-7f;
+    /**
+     * The maximum absolute error of sigmoid.
+     */
+    public static final float SIGMOIDERROR = 2e-7f;
+    /**
+     * The maximum absolute error of tanh.
+     */
+    public static final float TANHERROR = 2e-7f;
+    /**
+     * The smallest argument of exp, smaller arguments are clamped.
+     */
+    public static final float MINEXP = -87f;
+    /**
+     * The largest argument of exp, larger arguments are clamped.
+     */
+    public static final float MAXEXP = 88f;
+
+    private static final float LOG2E = 1.44269504088896341f;
+    /**
+     * ln(2) split in a part that is exact in float precision and a
+     * correction.
+     */
+    private static final float LN2HI = 0.693359375f;
+    private static final float LN2LO = -2.12194440e-4f;
+
+    private FastMath() {
+
+    }
+
+    /**
+     * Calculates e^x.
+     *
+     * @param x the argument.
+     * @return an approximation of e^x.
+     */
+    public static float exp(float x) {
+        x = Math.min(Math.max(x, MINEXP), MAXEXP);
+        // the argument of the cast is positive, so the cast rounds down.
+        int n = (int) (LOG2E * x + 127.5f) - 127;
+        float r = x - n * LN2HI - n * LN2LO;
+        float p = 1.9875691500e-4f;
+        p = p * r + 1.3981999507e-3f;
+        p = p * r + 8.3334519073e-3f;
+        p = p * r + 4.1665795894e-2f;
+        p = p * r + 1.6666665459e-1f;
+        p = p * r + 5.0000001201e-1f;
+        p = p * r * r + r + 1;
+        return p * Float.intBitsToFloat((n + 127) << 23);
+    }
+
+    /**
+     * Calculates the logistic sigmoid 1 / (1 + e^-x).
+     *
+     * @param x the argument.
+     * @return an approximation of the sigmoid of x.
+     */
+    public static float sigmoid(float x) {
+        return 1 / (1 + exp(-x));
+    }
+
+    /**
+     * Calculates the hyperbolic tangent.
+     *
+     * @param x the argument.
+     * @return an approximation of tanh(x).
+     */
+    public static float tanh(float x) {
+        float t = 1 - 2 / (exp(2 * Math.abs(x)) + 1);
+        return Math.copySign(t, x);
+    }
+}
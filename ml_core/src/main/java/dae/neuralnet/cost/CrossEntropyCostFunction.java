@@ -4,18 +4,36 @@
  */
 package dae.neuralnet.cost;
 
+import dae.matrix.expr.Expr;
 import dae.matrix.fmatrix;
 import dae.matrix.imatrix;
 
 /**
+ * The cross entropy cost function. The derived cost x - y is the derived cost
+ * with respect to the inputs of a softmax (or cesigmoid) output layer.
+ *
+ * A DeepLayer with a softmax Layer as last layer does not use this class to
+ * calculate the cost, the softmax, the loss and the derived cost are then
+ * calculated in one pass from the inputs of the softmax, see
+ * fmatrix.softMaxCrossEntropy.
  *
  * @author Koen Samyn <samyn.koen@gmail.com>
  */
 public class CrossEntropyCostFunction implements CostFunction {
 
+    /**
+     * Calculates the loss matrix -y * log(x), given the output of the neural
+     * network x and the desired output y. The outputs are clamped to the
+     * smallest normal float, so an output that underflowed to zero gives a
+     * finite loss.
+     *
+     * @param loss the loss matrix to calculate.
+     * @param x the output x of the neural network.
+     * @param y the desired output of the neural network.
+     */
     @Override
     public void calculateCost(imatrix loss, imatrix x, imatrix y) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        Expr.of(y).mul(Expr.of(x).max(Float.MIN_NORMAL).log()).neg().into(loss);
     }
 
     @Override
@@ -4,6 +4,7 @@
  */
 package dae.neuralnet.cost;
 
+import dae.matrix.expr.Expr;
 import dae.matrix.fmatrix;
 import dae.matrix.imatrix;
 
@@ -23,10 +24,7 @@ public class QuadraticCostFunction implements CostFunction {
      */
     @Override
     public void calculateCost(imatrix loss, imatrix x, imatrix y) {
-
-        fmatrix.copyInto(x, loss);
-        fmatrix.dotsubtract(loss, loss, y);
-        loss.applyFunction(xv -> xv * xv);
+        Expr.of(x).sub(y).square().into(loss);
     }
 
     /**
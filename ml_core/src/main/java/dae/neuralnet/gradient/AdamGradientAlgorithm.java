@@ -8,15 +8,12 @@ import dae.matrix.fmatrix;
 import dae.matrix.imatrix;
 
 /**
+ * The adam gradient algorithm, the moment, the velocity and the weights are
+ * updated in one fused pass.
  *
  * @author Koen Samyn <samyn.koen@gmail.com>
  */
-public class AdamGradientAlgorithm implements GradientAlgorithm {
-
-    private final fmatrix M;
-    private final fmatrix V;
-
-    private final imatrix W;
+public class AdamGradientAlgorithm extends FusedGradientAlgorithm {
 
     private final float beta1;
     private final float beta2;
@@ -25,38 +22,47 @@ public class AdamGradientAlgorithm implements GradientAlgorithm {
 
     private final float epsilon = 1e-8f;
     private final float betaDecay = .9f;
+    private final float weightDecay;
+
+    /**
+     * Creates an adam algorithm that is shared by the weight matrices that
+     * are registered with register.
+     */
+    public AdamGradientAlgorithm() {
+        this(0.9f, 0.999f, 0);
+    }
 
     public AdamGradientAlgorithm(imatrix W) {
         this(W, 0.9f, 0.999f);
     }
 
     public AdamGradientAlgorithm(imatrix W, float beta1, float beta2) {
-        this.W = W;
-        M = new fmatrix(W.getNrOfRows(), W.getNrOfColumns(), W.getNrOfSlices());
-        V = new fmatrix(W.getNrOfRows(), W.getNrOfColumns(), W.getNrOfSlices());
+        this(beta1, beta2, 0);
+        register(W);
+    }
 
+    /**
+     * Creates an adam algorithm without segments.
+     *
+     * @param beta1 the decay of the moment.
+     * @param beta2 the decay of the velocity.
+     * @param weightDecay the decoupled weight decay, 0 for adam.
+     */
+    protected AdamGradientAlgorithm(float beta1, float beta2, float weightDecay) {
+        super(2);
         this.beta1 = beta1;
         this.beta2 = beta2;
         this.beta1Corr = beta1;
         this.beta2Corr = beta2;
+        this.weightDecay = weightDecay;
     }
 
-    /**
-     * Adapts the weights in the weight matrix according to the gradient.
-     *
-     * @param g the current gradient matrix.
-     * @param learningRate the current learning rate.
-     */
     @Override
-    public void adaptWeights(imatrix g, float learningRate) {
-        fmatrix.dotadd(M, beta1, M, 1 - beta1, g);
-        fmatrix.adamVelocity(V, beta2, V, g);
-
+    protected void step(imatrix[] weights, imatrix[] gradients, imatrix[][] states, float learningRate) {
+        fmatrix.adamStep(weights, gradients, states[0], states[1],
+                learningRate, beta1, beta2, beta1Corr, beta2Corr, epsilon, weightDecay);
         // beta1 and beta2 need to die out.
-        fmatrix.adamAdaptWeights(W, -learningRate, beta1Corr, beta2Corr, epsilon, M, V);
-        //fmatrix.dotadd(weights, 1, weights, factor, deltaWeights);
         beta1Corr *= betaDecay;
         beta2Corr *= betaDecay;
     }
-
 }
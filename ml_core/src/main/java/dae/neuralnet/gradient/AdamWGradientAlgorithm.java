@@ -0,0 +1,32 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.neuralnet.gradient;
+
+import dae.matrix.imatrix;
+
+/**
+ * The adam gradient algorithm with a decoupled weight decay: the weights are
+ * pulled to zero with the learning rate times the weight decay, independent of
+ * the moment and the velocity.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public class AdamWGradientAlgorithm extends AdamGradientAlgorithm {
+
+    /**
+     * Creates an adamw algorithm that is shared by the weight matrices that
+     * are registered with register.
+     *
+     * @param weightDecay the weight decay.
+     */
+    public AdamWGradientAlgorithm(float weightDecay) {
+        super(0.9f, 0.999f, weightDecay);
+    }
+
+    public AdamWGradientAlgorithm(imatrix W, float weightDecay) {
+        this(weightDecay);
+        register(W);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.neuralnet.gradient;
+
+import dae.matrix.fmatrix;
+import dae.matrix.imatrix;
+import java.util.Arrays;
+
+/**
+ * A gradient algorithm that updates the weights and its state in one fused
+ * pass over the cells.
+ *
+ * The algorithm can be created for a single weight matrix, or it can be shared
+ * by several weight matrices (segments), for example the weights and the
+ * biases of all the layers of a DeepLayer. Every segment is registered with register, which returns
+ * the gradient algorithm for that segment. The segments are updated together,
+ * in a single parallel pass, as soon as every segment received its gradient.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public abstract class FusedGradientAlgorithm implements GradientAlgorithm {
+
+    private final int nrOfStates;
+    private imatrix[] weights = new imatrix[0];
+    private imatrix[] gradients = new imatrix[0];
+    private imatrix[][] states;
+    private int nrOfGradients;
+    private float learningRate;
+
+    /**
+     * Creates a new fused gradient algorithm without segments.
+     *
+     * @param nrOfStates the number of state matrices per segment, for example
+     * the moment and the velocity of adam.
+     */
+    protected FusedGradientAlgorithm(int nrOfStates) {
+        this.nrOfStates = nrOfStates;
+        this.states = new imatrix[nrOfStates][0];
+    }
+
+    /**
+     * Adds a weight matrix to the segments of this algorithm.
+     *
+     * @param W the weight matrix.
+     * @return the gradient algorithm of the segment.
+     */
+    public final GradientAlgorithm register(imatrix W) {
+        int segment = weights.length;
+        weights = Arrays.copyOf(weights, segment + 1);
+        weights[segment] = W;
+        gradients = Arrays.copyOf(gradients, segment + 1);
+        for (int i = 0; i < nrOfStates; ++i) {
+            states[i] = Arrays.copyOf(states[i], segment + 1);
+            states[i][segment] = new fmatrix(W.getNrOfRows(), W.getNrOfColumns(), W.getNrOfSlices(), W.getNrOfHyperSlices());
+        }
+        return (gradient, lr) -> setGradient(segment, gradient, lr);
+    }
+
+    /**
+     * Returns the number of weight matrices that are registered with this
+     * algorithm.
+     *
+     * @return the number of segments.
+     */
+    public int getNrOfSegments() {
+        return weights.length;
+    }
+
+    /**
+     * Adapts the weights in the weight matrix according to the gradient. This
+     * is only possible if the algorithm has exactly one segment.
+     *
+     * @param gradient the current gradient matrix.
+     * @param learningRate the current learning rate.
+     */
+    @Override
+    public void adaptWeights(imatrix gradient, float learningRate) {
+        if (weights.length != 1) {
+            throw new UnsupportedOperationException("A shared gradient algorithm adapts the weights through the gradient algorithms of its segments.");
+        }
+        setGradient(0, gradient, learningRate);
+    }
+
+    private void setGradient(int segment, imatrix gradient, float lr) {
+        if (gradients[segment] == null) {
+            ++nrOfGradients;
+        }
+        gradients[segment] = gradient;
+        learningRate = lr;
+        if (nrOfGradients == gradients.length) {
+            flush();
+        }
+    }
+
+    /**
+     * Updates the segments that received a gradient since the last update,
+     * the other segments keep their weights and state.
+     */
+    public void flush() {
+        if (nrOfGradients == 0) {
+            return;
+        }
+        if (nrOfGradients == gradients.length) {
+            step(weights, gradients, states, learningRate);
+        } else {
+            imatrix[] w = new imatrix[nrOfGradients];
+            imatrix[] g = new imatrix[nrOfGradients];
+            imatrix[][] s = new imatrix[nrOfStates][nrOfGradients];
+            int index = 0;
+            for (int segment = 0; segment < gradients.length; ++segment) {
+                if (gradients[segment] != null) {
+                    w[index] = weights[segment];
+                    g[index] = gradients[segment];
+                    for (int i = 0; i < nrOfStates; ++i) {
+                        s[i][index] = states[i][segment];
+                    }
+                    ++index;
+                }
+            }
+            step(w, g, s, learningRate);
+        }
+        Arrays.fill(gradients, null);
+        nrOfGradients = 0;
+    }
+
+    /**
+     * Updates the weights and the state of the given segments in one pass.
+     *
+     * @param weights the weight segments.
+     * @param gradients the gradient per segment.
+     * @param states the state matrices, per state a matrix per segment.
+     * @param learningRate the current learning rate.
+     */
+    protected abstract void step(imatrix[] weights, imatrix[] gradients, imatrix[][] states, float learningRate);
+}
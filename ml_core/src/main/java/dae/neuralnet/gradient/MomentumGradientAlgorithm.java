@@ -0,0 +1,40 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.neuralnet.gradient;
+
+import dae.matrix.fmatrix;
+import dae.matrix.imatrix;
+
+/**
+ * Stochastic gradient descent with momentum, the velocity and the weights are
+ * updated in one fused pass.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public class MomentumGradientAlgorithm extends FusedGradientAlgorithm {
+
+    private final float momentum;
+
+    /**
+     * Creates a momentum algorithm that is shared by the weight matrices that
+     * are registered with register.
+     *
+     * @param momentum the momentum, 0 for plain gradient descent.
+     */
+    public MomentumGradientAlgorithm(float momentum) {
+        super(1);
+        this.momentum = momentum;
+    }
+
+    public MomentumGradientAlgorithm(imatrix W, float momentum) {
+        this(momentum);
+        register(W);
+    }
+
+    @Override
+    protected void step(imatrix[] weights, imatrix[] gradients, imatrix[][] states, float learningRate) {
+        fmatrix.momentumStep(weights, gradients, states[0], learningRate, momentum);
+    }
+}
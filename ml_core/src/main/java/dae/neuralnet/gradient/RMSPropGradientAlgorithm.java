@@ -0,0 +1,53 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.neuralnet.gradient;
+
+import dae.matrix.fmatrix;
+import dae.matrix.imatrix;
+
+/**
+ * The rmsprop gradient algorithm, the mean square of the gradient and the
+ * weights are updated in one fused pass.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public class RMSPropGradientAlgorithm extends FusedGradientAlgorithm {
+
+    private final float decay;
+    private final float epsilon = 1e-8f;
+
+    /**
+     * Creates an rmsprop algorithm that is shared by the weight matrices that
+     * are registered with register.
+     */
+    public RMSPropGradientAlgorithm() {
+        this(0.9f);
+    }
+
+    /**
+     * Creates an rmsprop algorithm that is shared by the weight matrices that
+     * are registered with register.
+     *
+     * @param decay the decay of the mean square.
+     */
+    public RMSPropGradientAlgorithm(float decay) {
+        super(1);
+        this.decay = decay;
+    }
+
+    public RMSPropGradientAlgorithm(imatrix W) {
+        this(W, 0.9f);
+    }
+
+    public RMSPropGradientAlgorithm(imatrix W, float decay) {
+        this(decay);
+        register(W);
+    }
+
+    @Override
+    protected void step(imatrix[] weights, imatrix[] gradients, imatrix[][] states, float learningRate) {
+        fmatrix.rmsPropStep(weights, gradients, states[0], learningRate, decay, epsilon);
+    }
+}
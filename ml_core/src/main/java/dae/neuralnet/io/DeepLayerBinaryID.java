@@ -27,6 +27,8 @@ public class DeepLayerBinaryID {
     public static final int LAYERCONVOLUTION = 301;
     public static final int LAYERMAXPOOL = 302;
     public static final int LAYERFUZZY = 303;
+    public static final int LAYERCROSSCONVOLUTION = 304;
+    public static final int LAYERCONVOLUTIONPOOL = 305;
 
     public static final int LAYERNAME = 400;
     public static final int LAYERINPUTS = 401;
@@ -44,6 +46,7 @@ public class DeepLayerBinaryID {
     public static final int LAYERFILTERSIZEY = 413;
     public static final int LAYERFUZZYCLASSES = 414;
     public static final int LAYERBATCHSIZE = 415;
+    public static final int LAYERBIASWEIGHTS = 416;
 
     public static final int ACTIVATIONFUNCTION = 500;
     public static final int ACTIVATIONFUNCTIONTANH = 501;
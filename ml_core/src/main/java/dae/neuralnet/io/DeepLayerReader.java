@@ -7,6 +7,8 @@ package dae.neuralnet.io;
 import dae.matrix.fmatrix;
 import dae.matrix.imatrix;
 import dae.neuralnet.ConvolutionLayer;
+import dae.neuralnet.ConvolutionPoolLayer;
+import dae.neuralnet.CrossConvolutionLayer;
 import dae.neuralnet.DeepLayer;
 import dae.neuralnet.FuzzyficationLayer;
 import dae.neuralnet.ILayer;
@@ -138,6 +140,14 @@ public class DeepLayerReader {
                     ILayer lc = readLayerConvolution(dis);
                     layers.add(lc);
                     break;
+                case LAYERCROSSCONVOLUTION:
+                    ILayer lcc = readLayerCrossConvolution(dis);
+                    layers.add(lcc);
+                    break;
+                case LAYERCONVOLUTIONPOOL:
+                    ILayer lcp = readLayerConvolutionPool(dis);
+                    layers.add(lcp);
+                    break;
                 case LAYERMAXPOOL:
                     ILayer lp = readLayerMaxpool(dis);
                     layers.add(lp);
@@ -245,6 +255,125 @@ public class DeepLayerReader {
         return cl;
     }
 
+    private ILayer readLayerCrossConvolution(DataInputStream dis) throws IOException {
+        int nrOfBlocks = dis.readInt();
+        int wInputs = 0, hInputs = 0, sInputs = 0;
+        int features = 0, filterSize = 0, filterStride = 1;
+        int batchSize = 1;
+        String layerName = "crossconvolution";
+        ActivationFunction function = ActivationFunction.IDENTITY;
+        imatrix weights = null;
+        imatrix bias = null;
+
+        for (int i = 0; i < nrOfBlocks; ++i) {
+            int type = dis.readInt();
+            switch (type) {
+                case LAYERNAME:
+                    layerName = dis.readUTF();
+                    break;
+                case LAYERINPUTDIMENSION:
+                    wInputs = dis.readInt();
+                    hInputs = dis.readInt();
+                    sInputs = dis.readInt();
+                    break;
+                case LAYERBATCHSIZE:
+                    batchSize = dis.readInt();
+                    break;
+                case LAYERFEATURES:
+                    features = dis.readInt();
+                    break;
+                case LAYERFILTERSIZE:
+                    filterSize = dis.readInt();
+                    break;
+                case LAYERFILTERSTRIDE:
+                    filterStride = dis.readInt();
+                    break;
+                case ACTIVATIONFUNCTION:
+                    int afType = dis.readInt();
+                    function = parseActivationFunction(afType);
+                    break;
+                case LAYERWEIGHTS:
+                    weights = readMatrix(dis);
+                    break;
+                case LAYERBIASWEIGHTS:
+                    bias = readMatrix(dis);
+                    break;
+            }
+        }
+        if (weights == null) {
+            weights = new fmatrix(filterSize, filterSize, sInputs * features);
+        }
+        if (bias == null) {
+            bias = new fmatrix(features, 1);
+        }
+        CrossConvolutionLayer cl = new CrossConvolutionLayer(wInputs, hInputs, sInputs, features, filterSize, filterStride, batchSize, function, weights, bias);
+        cl.setName(layerName);
+        return cl;
+    }
+
+    private ILayer readLayerConvolutionPool(DataInputStream dis) throws IOException {
+        int nrOfBlocks = dis.readInt();
+        int wInputs = 0, hInputs = 0, sInputs = 0;
+        int features = 0, filterSize = 0, filterStride = 1;
+        int scaleX = 1, scaleY = 1;
+        int batchSize = 1;
+        String layerName = "convolutionpool";
+        ActivationFunction function = ActivationFunction.IDENTITY;
+        imatrix weights = null;
+        imatrix bias = null;
+
+        for (int i = 0; i < nrOfBlocks; ++i) {
+            int type = dis.readInt();
+            switch (type) {
+                case LAYERNAME:
+                    layerName = dis.readUTF();
+                    break;
+                case LAYERINPUTDIMENSION:
+                    wInputs = dis.readInt();
+                    hInputs = dis.readInt();
+                    sInputs = dis.readInt();
+                    break;
+                case LAYERBATCHSIZE:
+                    batchSize = dis.readInt();
+                    break;
+                case LAYERFEATURES:
+                    features = dis.readInt();
+                    break;
+                case LAYERFILTERSIZE:
+                    filterSize = dis.readInt();
+                    break;
+                case LAYERFILTERSTRIDE:
+                    filterStride = dis.readInt();
+                    break;
+                case LAYERFILTERSIZEX:
+                    scaleX = dis.readInt();
+                    break;
+                case LAYERFILTERSIZEY:
+                    scaleY = dis.readInt();
+                    break;
+                case ACTIVATIONFUNCTION:
+                    int afType = dis.readInt();
+                    function = parseActivationFunction(afType);
+                    break;
+                case LAYERWEIGHTS:
+                    weights = readMatrix(dis);
+                    break;
+                case LAYERBIASWEIGHTS:
+                    bias = readMatrix(dis);
+                    break;
+            }
+        }
+        if (weights == null) {
+            weights = new fmatrix(filterSize, filterSize, sInputs * features);
+        }
+        if (bias == null) {
+            bias = new fmatrix(sInputs * features, 1);
+        }
+        ConvolutionPoolLayer cpl = new ConvolutionPoolLayer(wInputs, hInputs, sInputs, features, filterSize, filterStride, scaleX, scaleY, batchSize, function, weights, bias);
+        cpl.setName(layerName);
+        return cpl;
+    }
+
     private ILayer readLayerMaxpool(DataInputStream dis) throws IOException {
         int nrOfBlocks = dis.readInt();
         int wInputs = 0, hInputs = 0, sInputs = 0;
@@ -6,6 +6,8 @@ package dae.neuralnet.io;
 
 import dae.matrix.imatrix;
 import dae.neuralnet.ConvolutionLayer;
+import dae.neuralnet.ConvolutionPoolLayer;
+import dae.neuralnet.CrossConvolutionLayer;
 import dae.neuralnet.DeepLayer;
 import dae.neuralnet.FuzzyficationLayer;
 import dae.neuralnet.ILayer;
@@ -135,6 +137,10 @@ public class DeepLayerWriter {
             writeLayer(dos, (Layer) l);
         } else if (l instanceof ConvolutionLayer) {
             writeLayer(dos, (ConvolutionLayer) l);
+        } else if (l instanceof CrossConvolutionLayer) {
+            writeLayer(dos, (CrossConvolutionLayer) l);
+        } else if (l instanceof ConvolutionPoolLayer) {
+            writeLayer(dos, (ConvolutionPoolLayer) l);
         } else if (l instanceof PoolLayer) {
             writeLayer(dos, (PoolLayer) l);
         } else if (l instanceof FuzzyficationLayer) {
@@ -244,6 +250,62 @@ public class DeepLayerWriter {
         writeMatrix(dos, l.getWeights());
     }
 
+    private void writeLayer(DataOutputStream dos, CrossConvolutionLayer l) throws IOException {
+        dos.writeInt(LAYERCROSSCONVOLUTION);
+        // nrofblocks
+        dos.writeInt(9);
+        dos.writeInt(LAYERNAME);
+        dos.writeUTF(l.getName() != null ? l.getName() : "crossconvolution");
+        dos.writeInt(LAYERINPUTDIMENSION);
+        dos.writeInt(l.getNrOfWInputs());
+        dos.writeInt(l.getNrOfHInputs());
+        dos.writeInt(l.getNrOfSInputs());
+        dos.writeInt(LAYERBATCHSIZE);
+        dos.writeInt(l.getBatchSize());
+        dos.writeInt(LAYERFEATURES);
+        dos.writeInt(l.getNrOfFeatures());
+        dos.writeInt(LAYERFILTERSIZE);
+        dos.writeInt(l.getFilterSize());
+        dos.writeInt(LAYERFILTERSTRIDE);
+        dos.writeInt(l.getFilterStride());
+        dos.writeInt(ACTIVATIONFUNCTION);
+        writeActivationFunction(l.getActivationFunction(), dos);
+        dos.writeInt(LAYERWEIGHTS);
+        writeMatrix(dos, l.getWeights());
+        dos.writeInt(LAYERBIASWEIGHTS);
+        writeMatrix(dos, l.getBias());
+    }
+
+    private void writeLayer(DataOutputStream dos, ConvolutionPoolLayer l) throws IOException {
+        dos.writeInt(LAYERCONVOLUTIONPOOL);
+        // nrofblocks
+        dos.writeInt(11);
+        dos.writeInt(LAYERNAME);
+        dos.writeUTF(l.getName() != null ? l.getName() : "convolutionpool");
+        dos.writeInt(LAYERINPUTDIMENSION);
+        dos.writeInt(l.getNrOfWInputs());
+        dos.writeInt(l.getNrOfHInputs());
+        dos.writeInt(l.getNrOfSInputs());
+        dos.writeInt(LAYERBATCHSIZE);
+        dos.writeInt(l.getBatchSize());
+        dos.writeInt(LAYERFEATURES);
+        dos.writeInt(l.getNrOfFeatures());
+        dos.writeInt(LAYERFILTERSIZE);
+        dos.writeInt(l.getFilterSize());
+        dos.writeInt(LAYERFILTERSTRIDE);
+        dos.writeInt(l.getFilterStride());
+        dos.writeInt(LAYERFILTERSIZEX);
+        dos.writeInt(l.getScaleX());
+        dos.writeInt(LAYERFILTERSIZEY);
+        dos.writeInt(l.getScaleY());
+        dos.writeInt(ACTIVATIONFUNCTION);
+        writeActivationFunction(l.getActivationFunction(), dos);
+        dos.writeInt(LAYERWEIGHTS);
+        writeMatrix(dos, l.getWeights());
+        dos.writeInt(LAYERBIASWEIGHTS);
+        writeMatrix(dos, l.getBias());
+    }
+
     private void writeLayer(DataOutputStream dos, PoolLayer l) throws IOException {
         dos.writeInt(LAYERMAXPOOL);
         // nrofblocks
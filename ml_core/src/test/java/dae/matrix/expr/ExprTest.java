@@ -0,0 +1,80 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.expr;
+
+import dae.matrix.fmatrix;
+import dae.matrix.tmatrix;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public class ExprTest {
+
+    public ExprTest() {
+    }
+
+    @Test
+    public void testAdamMoments() {
+        // more cells than one block, the last block is not full.
+        fmatrix m = new fmatrix(17, 13, 3);
+        m.randomize(-1, 1);
+        fmatrix g = new fmatrix(17, 13, 3);
+        g.randomize(-1, 1);
+        fmatrix v = new fmatrix(17, 13, 3);
+        v.randomize(0, 1);
+        float beta1 = 0.9f;
+
+        fmatrix expected = new fmatrix(17, 13, 3);
+        fmatrix.dotadd(expected, beta1, m, 1 - beta1, g);
+        Expr.of(m).mul(beta1).add(Expr.of(g).mul(1 - beta1)).into(m);
+        assertArrayEquals(expected.getHostData().array(), m.getHostData().array(), 1e-6f);
+
+        // a deeper tree: m / (sqrt(v) + eps) - |g| * g
+        fmatrix result = new fmatrix(17, 13, 3);
+        Expr.of(m).div(Expr.of(v).sqrt().add(1e-8f)).sub(Expr.of(g).abs().mul(g)).into(result);
+        for (int i = 0; i < result.getSize(); ++i) {
+            float mi = m.getHostData().get(i);
+            float vi = v.getHostData().get(i);
+            float gi = g.getHostData().get(i);
+            float e = mi / ((float) Math.sqrt(vi) + 1e-8f) - Math.abs(gi) * gi;
+            assertEquals(e, result.getHostData().get(i), 1e-4f);
+        }
+    }
+
+    @Test
+    public void testViews() {
+        fmatrix a = new fmatrix(5, 7, 2);
+        a.randomize(-1, 1);
+        fmatrix b = new fmatrix(7, 5, 2);
+        b.randomize(-1, 1);
+        tmatrix bt = new tmatrix(b);
+
+        // the transposed operand and destination are accessed cell by cell.
+        fmatrix result = new fmatrix(5, 7, 2);
+        Expr.of(a).sub(bt).square().max(0.25f).into(result);
+        fmatrix transposed = new fmatrix(7, 5, 2);
+        Expr.of(a).sub(bt).square().max(0.25f).into(new tmatrix(transposed));
+        for (int s = 0; s < 2; ++s) {
+            for (int c = 0; c < 7; ++c) {
+                for (int r = 0; r < 5; ++r) {
+                    float d = a.get(r, c, s) - b.get(c, r, s);
+                    float e = Math.max(0.25f, d * d);
+                    assertEquals(e, result.get(r, c, s), 1e-6f);
+                    assertEquals(e, transposed.get(c, r, s), 1e-6f);
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDimensions() {
+        fmatrix a = new fmatrix(5, 7);
+        fmatrix b = new fmatrix(7, 5);
+        Expr.of(a).add(b).into(a);
+    }
+}
@@ -6,7 +6,7 @@ package dae.matrix.gpu;
 
 import dae.matrix.cpu.FMatrixOpCpu;
 import dae.matrix.fmatrix;
-import dae.matrix.integer.intmatrix;
+import dae.matrix.integer.bytematrix;
 import java.nio.FloatBuffer;
 import java.util.Random;
 import org.junit.After;
@@ -410,8 +410,8 @@ public class FMatrixOpTest {
 
         fmatrix input = new fmatrix(rows, columns, slices, batchSize);
         input.randomize(-3, 3);
-        intmatrix maskLayer1 = new intmatrix(rows / 2, columns / 2, slices, batchSize);
-        intmatrix maskLayer2 = new intmatrix(rows / 2, columns / 2, slices, batchSize);
+        bytematrix maskLayer1 = new bytematrix(rows / 2, columns / 2, slices, batchSize);
+        bytematrix maskLayer2 = new bytematrix(rows / 2, columns / 2, slices, batchSize);
 
         fmatrix output1 = new fmatrix(rows / 2, columns / 2, slices, batchSize);
         fmatrix output2 = new fmatrix(rows / 2, columns / 2, slices, batchSize);
@@ -823,10 +823,10 @@ public class FMatrixOpTest {
         src.randomize(-1, 1);
 
         fmatrix gpuDest = new fmatrix(rows / 2, columns / 2, slices, batchSize);
-        intmatrix gpuMask = new intmatrix(rows / 2, columns / 2, slices / 2, batchSize);
+        bytematrix gpuMask = new bytematrix(rows / 2, columns / 2, slices / 2, batchSize);
 
         fmatrix cpuDest = new fmatrix(rows / 2, columns / 2, slices, batchSize);
-        intmatrix cpuMask = new intmatrix(rows / 2, columns / 2, slices / 2, batchSize);
+        bytematrix cpuMask = new bytematrix(rows / 2, columns / 2, slices / 2, batchSize);
 
         gpu.maxRotationPool(src, gpuDest, gpuMask);
         cpu.maxRotationPool(src, cpuDest, cpuMask);
@@ -5,6 +5,7 @@
 package dae.matrix.gpu;
 
 import dae.matrix.imatrix;
+import dae.matrix.integer.bytematrix;
 import dae.matrix.integer.intmatrix;
 import static org.junit.Assert.assertEquals;
 
@@ -39,4 +40,18 @@ public class MatrixTestUtil {
             }
         }
     }
+
+    public static void assertMatrixEquals(bytematrix output1, bytematrix output2) {
+        for (int h = 0; h < output1.getNrOfHyperSlices(); ++h) {
+            for (int s = 0; s < output1.getNrOfSlices(); ++s) {
+                for (int r = 0; r < output1.getNrOfRows(); ++r) {
+                    for (int c = 0; c < output1.getNrOfColumns(); ++c) {
+                        int v1 = output1.get(r, c, s, h);
+                        int v2 = output2.get(r, c, s, h);
+                        assertEquals("error on : [" + r + "," + c + "," + s + "," + h + "] ", v1, v2);
+                    }
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,150 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.memory;
+
+import dae.matrix.cpu.FMatrixOpCpu;
+import dae.matrix.fmatrix;
+import dae.matrix.integer.bytematrix;
+import dae.matrix.integer.intmatrix;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public class MatrixArenaTest {
+
+    public MatrixArenaTest() {
+    }
+
+    @Test
+    public void testPooledAllocator() {
+        PooledDirectAllocator allocator = new PooledDirectAllocator();
+        FloatBuffer first = allocator.allocateFloats(100);
+        assertTrue(first.isDirect());
+        assertEquals(100, first.capacity());
+        assertEquals(100, first.limit());
+        first.put(42, 3.0f);
+        assertEquals(512, allocator.getBytesInUse());
+
+        allocator.release(first);
+        assertEquals(0, allocator.getBytesInUse());
+        assertEquals(512, allocator.getPooledBytes());
+
+        // the block is reused and cleared.
+        FloatBuffer second = allocator.allocateFloats(120);
+        assertEquals(0, allocator.getPooledBytes());
+        for (int i = 0; i < second.limit(); ++i) {
+            assertEquals(0, second.get(i), 0);
+        }
+        allocator.release(second);
+        allocator.trim();
+        assertEquals(0, allocator.getPooledBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDoubleRelease() {
+        PooledDirectAllocator allocator = new PooledDirectAllocator();
+        FloatBuffer buffer = allocator.allocateFloats(10);
+        allocator.release(buffer);
+        allocator.release(buffer);
+    }
+
+    @Test
+    public void testArena() {
+        PooledDirectAllocator pool = new PooledDirectAllocator();
+        MatrixArena arena = new MatrixArena(pool);
+        MatrixAllocator previous = MatrixAllocators.bind(arena);
+        fmatrix a;
+        fmatrix b;
+        intmatrix mask;
+        bytematrix poolMask;
+        try {
+            a = new fmatrix(10, 10, 2);
+            b = new fmatrix(10, 10, 2);
+            mask = new intmatrix(5, 5);
+            poolMask = new bytematrix(5, 5, 1, 1);
+        } finally {
+            MatrixAllocators.bind(previous);
+        }
+        assertTrue(a.getHostData().isDirect());
+        assertTrue(mask.getHostData().isDirect());
+        assertTrue(poolMask.getHostData().isDirect());
+        assertEquals(4, arena.getNrOfBuffers());
+
+        b.close();
+        b.close();
+        assertEquals(3, arena.getNrOfBuffers());
+
+        arena.close();
+        assertTrue(arena.isClosed());
+        assertEquals(0, arena.getNrOfBuffers());
+        assertEquals(0, pool.getBytesInUse());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosedArena() {
+        MatrixArena arena = new MatrixArena(new PooledDirectAllocator());
+        arena.close();
+        arena.allocateFloats(10);
+    }
+
+    @Test
+    public void testDirectOperations() {
+        FMatrixOpCpu cpu = new FMatrixOpCpu();
+        try (MatrixArena arena = new MatrixArena(new PooledDirectAllocator())) {
+            fmatrix input = new fmatrix(12, 12, 2, 1, 1);
+            fmatrix filter = new fmatrix(3, 3, 4);
+            input.randomize(-1, 1);
+            filter.randomize(-1, 1);
+            fmatrix expected = new fmatrix(12, 12, 4, 1);
+            cpu.batchConvolve(input, filter, 1, expected);
+
+            fmatrix directInput = new fmatrix(12, 12, 2, 1, 1, arena);
+            fmatrix directFilter = new fmatrix(3, 3, 4, 1, 0, arena);
+            fmatrix output = new fmatrix(12, 12, 4, 1, 0, arena);
+            fmatrix.copyInto(input, directInput);
+            fmatrix.copyInto(filter, directFilter);
+            cpu.batchConvolve(directInput, directFilter, 1, output);
+            for (int i = 0; i < expected.getSize(); ++i) {
+                assertEquals(expected.getHostData().get(i), output.getHostData().get(i), 0.0001f);
+            }
+
+            fmatrix sum = new fmatrix(12, 12, 4, 1, 0, arena);
+            cpu.dotadd(sum, output, output);
+            for (int i = 0; i < expected.getSize(); ++i) {
+                assertEquals(2 * expected.getHostData().get(i), sum.getHostData().get(i), 0.0001f);
+            }
+        }
+    }
+
+    @Test
+    public void testWrap() {
+        ByteBuffer bytes = ByteBuffer.allocateDirect(Float.BYTES * 20).order(ByteOrder.nativeOrder());
+        FloatBuffer data = bytes.asFloatBuffer();
+        for (int i = 0; i < 20; ++i) {
+            data.put(i, i);
+        }
+        data.position(4);
+        fmatrix m = new fmatrix(data, 2, 3, 2, 1);
+        assertEquals(4, m.get(0, 0), 0);
+        assertEquals(7, m.get(1, 1), 0);
+        assertEquals(15, m.get(1, 2, 1, 0), 0);
+        m.set(0, 0, 0, 0, -1);
+        assertEquals(-1, data.get(4), 0);
+        // the data is owned by the caller.
+        m.close();
+        assertEquals(-1, data.get(4), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrapTooSmall() {
+        fmatrix m = new fmatrix(FloatBuffer.allocate(5), 2, 3, 1, 1);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrix.op;
+
+import dae.matrix.cpu.FMatrixOpCpu;
+import dae.matrix.fmatrix;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public class FMatrixOpRegistryTest {
+
+    public FMatrixOpRegistryTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+        FMatrixOpRegistry.bind(null);
+    }
+
+    @Test
+    public void testCpuBackend() {
+        FMatrixOp cpu = FMatrixOpRegistry.get(FMatrixOpRegistry.CPU);
+        assertTrue(cpu instanceof FMatrixOpCpu);
+        assertSame(cpu, FMatrixOpRegistry.get("CPU"));
+    }
+
+    @Test
+    public void testBind() {
+        FMatrixOp cpu = new FMatrixOpCpu();
+        FMatrixOp previous = FMatrixOpRegistry.bind(cpu);
+        assertNull(previous);
+        assertSame(cpu, fmatrix.getMatrixOp());
+
+        fmatrix a = new fmatrix(2, 2);
+        a.set(0, 0, 1);
+        a.set(1, 1, 2);
+        fmatrix b = new fmatrix(2, 2);
+        b.set(0, 0, 3);
+        b.set(1, 1, 4);
+        fmatrix c = new fmatrix(2, 2);
+        fmatrix.sgemm(1, a, b, 0, c);
+        assertEquals(3, c.get(0, 0), 0.0001f);
+        assertEquals(8, c.get(1, 1), 0.0001f);
+
+        FMatrixOpRegistry.bind(null);
+        assertSame(FMatrixOpRegistry.getDefault(), fmatrix.getMatrixOp());
+    }
+
+    @Test
+    public void testRegister() {
+        FMatrixOp custom = new FMatrixOpCpu();
+        FMatrixOpRegistry.register("custom", () -> custom);
+        assertTrue(FMatrixOpRegistry.isRegistered("custom"));
+        assertSame(custom, FMatrixOpRegistry.get("custom"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownBackend() {
+        FMatrixOpRegistry.get("unknown");
+    }
+}
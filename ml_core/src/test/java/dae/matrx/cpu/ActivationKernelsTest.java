@@ -0,0 +1,83 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrx.cpu;
+
+import dae.matrix.cpu.ActivationKernel;
+import dae.matrix.cpu.ActivationKernels;
+import dae.neuralnet.activation.ActivationFunction;
+import dae.neuralnet.activation.Function;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public class ActivationKernelsTest {
+
+    public ActivationKernelsTest() {
+    }
+
+    /**
+     * The specialized kernels must give the same result as the functions of
+     * the activation functions.
+     */
+    @Test
+    public void testKernels() {
+        Random r = new Random(7);
+        float[] x = new float[97];
+        float[] e = new float[x.length];
+        for (int i = 0; i < x.length; ++i) {
+            x[i] = r.nextFloat() * 8 - 4;
+            e[i] = r.nextFloat() * 2 - 1;
+        }
+        float bias = 0.25f;
+        for (ActivationFunction af : ActivationFunction.values()) {
+            ActivationKernel kernel = ActivationKernels.get(af);
+            Function f = af.getActivation();
+            Function df = af.getDerivedActivation();
+
+            float[] a = x.clone();
+            kernel.activate(a, bias, 0, a.length);
+            float[] d = new float[x.length];
+            kernel.derive(e, a, d, 0, a.length);
+            for (int i = 0; i < x.length; ++i) {
+                float expected = f.evaluate(x[i] + bias);
+                assertEquals(af + " activation", expected, a[i], 1e-5f * Math.max(1, Math.abs(expected)));
+                assertEquals(af + " derivative", e[i] * df.evaluate(a[i]), d[i], 1e-5f);
+            }
+        }
+    }
+
+    @Test
+    public void testRegister() {
+        ActivationKernel doubling = new ActivationKernel() {
+            @Override
+            public void activate(float[] a, float bias, int from, int to) {
+                for (int i = from; i < to; ++i) {
+                    a[i] = 2 * (a[i] + bias);
+                }
+            }
+
+            @Override
+            public void derive(float[] e, float[] o, float[] r, int from, int to) {
+                for (int i = from; i < to; ++i) {
+                    r[i] = 2 * e[i];
+                }
+            }
+        };
+        ActivationKernels.register(ActivationFunction.IDENTITY, doubling);
+        try {
+            assertSame(doubling, ActivationKernels.get(ActivationFunction.IDENTITY));
+            float[] a = {1, 2, 3};
+            ActivationKernels.get(ActivationFunction.IDENTITY).activate(a, 1, 1, 3);
+            assertArrayEquals(new float[]{1, 6, 8}, a, 0);
+        } finally {
+            ActivationKernels.reset(ActivationFunction.IDENTITY);
+        }
+        assertNotSame(doubling, ActivationKernels.get(ActivationFunction.IDENTITY));
+    }
+}
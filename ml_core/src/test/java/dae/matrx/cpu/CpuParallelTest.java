@@ -0,0 +1,94 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.matrx.cpu;
+
+import dae.matrix.cpu.CpuParallel;
+import dae.matrix.cpu.DirectConvolution;
+import dae.matrix.cpu.FMatrixOpCpu;
+import dae.matrix.cpu.WinogradConvolution;
+import dae.matrix.fmatrix;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public class CpuParallelTest {
+
+    private long grainSize;
+
+    public CpuParallelTest() {
+    }
+
+    @Before
+    public void setUp() {
+        grainSize = CpuParallel.getGrainSize();
+        // split every loop as much as possible.
+        CpuParallel.setGrainSize(1);
+    }
+
+    @After
+    public void tearDown() {
+        CpuParallel.setGrainSize(grainSize);
+    }
+
+    @Test
+    public void testForEach() {
+        AtomicIntegerArray visits = new AtomicIntegerArray(1000);
+        CpuParallel.forEach(1000, 1, (start, end) -> {
+            for (int i = start; i < end; ++i) {
+                visits.incrementAndGet(i);
+            }
+        });
+        for (int i = 0; i < visits.length(); ++i) {
+            assertEquals(1, visits.get(i));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidGrainSize() {
+        CpuParallel.setGrainSize(0);
+    }
+
+    @Test
+    public void testBatchOperations() {
+        FMatrixOpCpu cpu = new FMatrixOpCpu();
+        fmatrix op1 = new fmatrix(7, 5, 3, 4);
+        fmatrix op2 = new fmatrix(7, 5, 3, 4);
+        op1.randomize(-1, 1);
+        op2.randomize(-1, 1);
+        fmatrix result = new fmatrix(7, 5, 3, 4);
+        cpu.dotadd(result, op1, op2);
+        for (int h = 0; h < 4; ++h) {
+            for (int s = 0; s < 3; ++s) {
+                for (int c = 0; c < 5; ++c) {
+                    for (int r = 0; r < 7; ++r) {
+                        assertEquals(op1.get(r, c, s, h) + op2.get(r, c, s, h), result.get(r, c, s, h), 0.00001f);
+                    }
+                }
+            }
+        }
+        cpu.dotmultiply(result, op1, op2);
+        for (int h = 0; h < 4; ++h) {
+            for (int s = 0; s < 3; ++s) {
+                for (int c = 0; c < 5; ++c) {
+                    for (int r = 0; r < 7; ++r) {
+                        assertEquals(op1.get(r, c, s, h) * op2.get(r, c, s, h), result.get(r, c, s, h), 0.00001f);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testParallelConvolution() {
+        FMatrixOpTest.checkConvolutionEngine(new DirectConvolution(), 9, 3);
+        FMatrixOpTest.checkConvolutionEngine(new WinogradConvolution(), 9, 3);
+    }
+}
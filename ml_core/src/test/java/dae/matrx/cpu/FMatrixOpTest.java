@@ -4,8 +4,25 @@
  */
 package dae.matrx.cpu;
 
+import dae.matrix.cpu.ConvolutionEngine;
+import dae.matrix.cpu.DirectConvolution;
 import dae.matrix.cpu.FMatrixOpCpu;
+import dae.matrix.cpu.FftConvolution;
+import dae.matrix.cpu.Im2ColConvolution;
+import dae.matrix.cpu.WinogradConvolution;
+import dae.matrix.MatrixLayout;
+import dae.matrix.StridedView;
 import dae.matrix.fmatrix;
+import dae.matrix.fmatrixview;
+import dae.matrix.gpu.MatrixTestUtil;
+import dae.matrix.imatrix;
+import dae.matrix.integer.bytematrix;
+import dae.matrix.memory.MatrixAllocators;
+import dae.matrix.tmatrix;
+import dae.matrix.zpmatrix;
+import dae.neuralnet.activation.ActivationFunction;
+import dae.neuralnet.cost.CrossEntropyCostFunction;
+import java.util.Arrays;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -50,4 +67,1025 @@ public class FMatrixOpTest {
          
          System.out.println(output);
      }
+
+    private static float naiveProduct(imatrix a, imatrix b, int row, int column) {
+        float sum = 0;
+        for (int k = 0; k < a.getNrOfColumns(); ++k) {
+            sum += a.get(row, k) * b.get(k, column);
+        }
+        return sum;
+    }
+
+    @Test
+    public void testSgemm() {
+        FMatrixOpCpu cpu = new FMatrixOpCpu();
+        int[][] sizes = {{3, 4, 5}, {67, 131, 29}, {130, 70, 300}};
+        for (int[] size : sizes) {
+            int M = size[0];
+            int N = size[1];
+            int K = size[2];
+            fmatrix a = new fmatrix(M, K);
+            fmatrix b = new fmatrix(K, N);
+            fmatrix at = new fmatrix(K, M);
+            fmatrix bt = new fmatrix(N, K);
+            a.randomize(-1, 1);
+            b.randomize(-1, 1);
+            fmatrix.copyInto(new tmatrix(a), at);
+            fmatrix.copyInto(new tmatrix(b), bt);
+
+            imatrix[][] operands = {{a, b}, {new tmatrix(at), b}, {a, new tmatrix(bt)}, {new tmatrix(at), new tmatrix(bt)}};
+            for (imatrix[] ops : operands) {
+                fmatrix c = new fmatrix(M, N);
+                c.applyFunction(x -> 1);
+                cpu.sgemm(2, ops[0], ops[1], 0.5f, c);
+                for (int row = 0; row < M; ++row) {
+                    for (int column = 0; column < N; ++column) {
+                        float expected = 2 * naiveProduct(a, b, row, column) + 0.5f;
+                        assertEquals(expected, c.get(row, column), 0.001f * K);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSgemmBatch() {
+        FMatrixOpCpu cpu = new FMatrixOpCpu();
+        int inputs = 13;
+        int outputs = 7;
+        int batch = 5;
+        fmatrix weights = new fmatrix(inputs, outputs);
+        weights.randomize(-1, 1);
+        fmatrix in = new fmatrix(inputs, 1, 1, batch);
+        in.randomize(-1, 1);
+        fmatrix out = new fmatrix(outputs, 1, 1, batch);
+        cpu.sgemm(1, new tmatrix(weights), in, 0, out);
+
+        for (int h = 0; h < batch; ++h) {
+            for (int o = 0; o < outputs; ++o) {
+                float expected = 0;
+                for (int i = 0; i < inputs; ++i) {
+                    expected += weights.get(i, o) * in.get(i, 0, 0, h);
+                }
+                assertEquals(expected, out.get(o, 0, 0, h), 0.0001f);
+            }
+        }
+    }
+
+    @Test
+    public void testBatchedSgemm() {
+        FMatrixOpCpu cpu = new FMatrixOpCpu();
+        int batch = 3;
+        fmatrix a = new fmatrix(3, 4, 1, batch);
+        fmatrix b = new fmatrix(4, 2, 1, batch);
+        fmatrix shared = new fmatrix(4, 2);
+        a.randomize(-1, 1);
+        b.randomize(-1, 1);
+        shared.randomize(-1, 1);
+
+        fmatrix c = new fmatrix(3, 2, 1, batch);
+        cpu.batchedSgemm(1, a, b, 0, c);
+        fmatrix cShared = new fmatrix(3, 2, 1, batch);
+        cpu.batchedSgemm(1, a, shared, 0, cShared);
+        fmatrix cSum = new fmatrix(3, 2);
+        cpu.batchedSgemm(1, a, b, 0, cSum);
+
+        for (int row = 0; row < 3; ++row) {
+            for (int column = 0; column < 2; ++column) {
+                float sum = 0;
+                for (int h = 0; h < batch; ++h) {
+                    float expected = 0;
+                    float expectedShared = 0;
+                    for (int k = 0; k < 4; ++k) {
+                        expected += a.get(row, k, 0, h) * b.get(k, column, 0, h);
+                        expectedShared += a.get(row, k, 0, h) * shared.get(k, column);
+                    }
+                    assertEquals(expected, c.get(row, column, 0, h), 0.0001f);
+                    assertEquals(expectedShared, cShared.get(row, column, 0, h), 0.0001f);
+                    sum += expected;
+                }
+                assertEquals(sum, cSum.get(row, column), 0.0001f);
+            }
+        }
+    }
+
+    @Test
+    public void testBatchedSgemmOuterProduct() {
+        FMatrixOpCpu cpu = new FMatrixOpCpu();
+        int batch = 4;
+        fmatrix inputs = new fmatrix(5, 1, 1, batch);
+        fmatrix deltas = new fmatrix(3, 1, 1, batch);
+        inputs.randomize(-1, 1);
+        deltas.randomize(-1, 1);
+        fmatrix deltaWeights = new fmatrix(5, 3);
+        cpu.batchedSgemm(-1, inputs, new tmatrix(deltas), 0, deltaWeights);
+
+        for (int i = 0; i < 5; ++i) {
+            for (int o = 0; o < 3; ++o) {
+                float expected = 0;
+                for (int h = 0; h < batch; ++h) {
+                    expected -= inputs.get(i, 0, 0, h) * deltas.get(o, 0, 0, h);
+                }
+                assertEquals(expected, deltaWeights.get(i, o), 0.0001f);
+            }
+        }
+    }
+
+    private static float paddedGet(imatrix m, int row, int column, int slice, int h) {
+        if (row < 0 || column < 0 || row >= m.getNrOfRows() || column >= m.getNrOfColumns()) {
+            return 0;
+        }
+        return m.get(row, column, slice, h);
+    }
+
+    /**
+     * Checks a convolution engine against a straightforward implementation of
+     * the forward, filter gradient and backpropagation operations.
+     *
+     * @param engine the engine to check.
+     * @param size the size of the input.
+     * @param filterSize the size of the filter.
+     */
+    public static void checkConvolutionEngine(ConvolutionEngine engine, int size, int filterSize) {
+        FMatrixOpCpu cpu = new FMatrixOpCpu();
+        cpu.setConvolutionEngine(engine);
+        int slices = 2;
+        int features = 3;
+        int batch = 3;
+        int zp = (filterSize - 1) / 2;
+        fmatrix input = new fmatrix(size, size, slices, batch, zp);
+        fmatrix filter = new fmatrix(filterSize, filterSize, slices * features);
+        fmatrix bias = new fmatrix(slices * features, 1);
+        input.randomize(-1, 1);
+        filter.randomize(-1, 1);
+        bias.randomize(-1, 1);
+        int outputSize = 1 + (size - filterSize + 2 * zp);
+        fmatrix output = new fmatrix(outputSize, outputSize, slices * features, batch);
+        cpu.batchConvolve(input, filter, bias, 1, output);
+
+        for (int h = 0; h < batch; ++h) {
+            for (int fs = 0; fs < slices * features; ++fs) {
+                for (int r = 0; r < outputSize; ++r) {
+                    for (int c = 0; c < outputSize; ++c) {
+                        float expected = bias.get(fs, 0);
+                        for (int fr = 0; fr < filterSize; ++fr) {
+                            for (int fc = 0; fc < filterSize; ++fc) {
+                                expected += paddedGet(input, r + fr - zp, c + fc - zp, fs / features, h) * filter.get(fr, fc, fs);
+                            }
+                        }
+                        assertEquals(expected, output.get(r, c, fs, h), 0.001f);
+                    }
+                }
+            }
+        }
+
+        fmatrix deltas = new fmatrix(outputSize, outputSize, slices * features, batch);
+        deltas.randomize(-1, 1);
+        fmatrix kernel = new fmatrix(filterSize, filterSize, slices * features, batch);
+        cpu.deltasBatchConvolve(input, deltas, 1, kernel);
+        for (int h = 0; h < batch; ++h) {
+            for (int fs = 0; fs < slices * features; ++fs) {
+                for (int kr = 0; kr < filterSize; ++kr) {
+                    for (int kc = 0; kc < filterSize; ++kc) {
+                        float expected = 0;
+                        for (int r = 0; r < outputSize; ++r) {
+                            for (int c = 0; c < outputSize; ++c) {
+                                expected += paddedGet(input, r + kr - zp, c + kc - zp, fs / features, h) * deltas.get(r, c, fs, h);
+                            }
+                        }
+                        assertEquals(expected, kernel.get(kr, kc, fs, h), 0.001f);
+                    }
+                }
+            }
+        }
+
+        zpmatrix zpDeltas = new zpmatrix(deltas, zp);
+        fmatrix backprop = new fmatrix(size, size, slices, batch);
+        cpu.batchBackpropCorrelate(zpDeltas, filter, 1, backprop);
+        for (int h = 0; h < batch; ++h) {
+            for (int s = 0; s < slices; ++s) {
+                for (int r = 0; r < size; ++r) {
+                    for (int c = 0; c < size; ++c) {
+                        float expected = 0;
+                        for (int f = 0; f < features; ++f) {
+                            int fs = s * features + f;
+                            for (int fr = 0; fr < filterSize; ++fr) {
+                                for (int fc = 0; fc < filterSize; ++fc) {
+                                    expected += paddedGet(deltas, r + fr - zp, c + fc - zp, fs, h)
+                                            * filter.get(filterSize - fr - 1, filterSize - fc - 1, fs);
+                                }
+                            }
+                        }
+                        assertEquals(expected, backprop.get(r, c, s, h), 0.001f);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that an engine that caches the transformed filters uses the new
+     * weights after the filter was changed with set and with an optimizer
+     * step.
+     *
+     * @param engine the engine to check.
+     * @param size the size of the input.
+     * @param filterSize the size of the filter.
+     */
+    public static void checkFilterCache(ConvolutionEngine engine, int size, int filterSize) {
+        FMatrixOpCpu cpu = new FMatrixOpCpu();
+        cpu.setConvolutionEngine(engine);
+        FMatrixOpCpu direct = new FMatrixOpCpu();
+        direct.setConvolutionEngine(new DirectConvolution());
+        int zp = (filterSize - 1) / 2;
+        fmatrix input = new fmatrix(size, size, 1, 1, zp);
+        fmatrix filter = new fmatrix(filterSize, filterSize, 2);
+        fmatrix bias = new fmatrix(2, 1);
+        input.randomize(-1, 1);
+        filter.randomize(-1, 1);
+        fmatrix output = new fmatrix(size, size, 2, 1);
+        fmatrix expected = new fmatrix(size, size, 2, 1);
+
+        cpu.batchConvolve(input, filter, bias, 1, output);
+        direct.batchConvolve(input, filter, bias, 1, expected);
+        MatrixTestUtil.assertMatrixEquals(expected, output);
+
+        filter.set(1, 1, 0, 5);
+        cpu.batchConvolve(input, filter, bias, 1, output);
+        direct.batchConvolve(input, filter, bias, 1, expected);
+        MatrixTestUtil.assertMatrixEquals(expected, output);
+
+        fmatrix gradient = new fmatrix(filterSize, filterSize, 2);
+        fmatrix velocity = new fmatrix(filterSize, filterSize, 2);
+        gradient.randomize(-1, 1);
+        cpu.momentumStep(new imatrix[]{filter}, new imatrix[]{gradient}, new imatrix[]{velocity}, 0.5f, 0.9f);
+        cpu.batchConvolve(input, filter, bias, 1, output);
+        direct.batchConvolve(input, filter, bias, 1, expected);
+        MatrixTestUtil.assertMatrixEquals(expected, output);
+    }
+
+    @Test
+    public void testIm2ColConvolution() {
+        checkConvolutionEngine(new Im2ColConvolution(), 7, 3);
+        checkConvolutionEngine(new Im2ColConvolution(), 12, 5);
+    }
+
+    @Test
+    public void testDirectConvolution() {
+        checkConvolutionEngine(new DirectConvolution(), 7, 3);
+        checkConvolutionEngine(new DirectConvolution(), 12, 5);
+        checkConvolutionEngine(new DirectConvolution(), 9, 7);
+        checkConvolutionEngine(new DirectConvolution(), 3, 5);
+    }
+
+    @Test
+    public void testWinogradConvolution() {
+        WinogradConvolution winograd = new WinogradConvolution();
+        checkConvolutionEngine(winograd, 7, 3);
+        checkConvolutionEngine(winograd, 8, 3);
+        // other filter sizes use the fallback engine.
+        checkConvolutionEngine(winograd, 12, 5);
+        checkFilterCache(winograd, 8, 3);
+    }
+
+    @Test
+    public void testFftConvolution() {
+        FftConvolution fft = new FftConvolution(new DirectConvolution(), 0, 0);
+        checkConvolutionEngine(fft, 7, 3);
+        checkConvolutionEngine(fft, 12, 5);
+        checkConvolutionEngine(fft, 20, 9);
+        checkFilterCache(fft, 12, 5);
+
+        // compare the correlation and strided convolution with the reference implementation.
+        FMatrixOpCpu reference = new FMatrixOpCpu();
+        reference.setConvolutionEngine(null);
+        // the reference filter gradient does not support strides, use the direct engine.
+        FMatrixOpCpu direct = new FMatrixOpCpu();
+        direct.setConvolutionEngine(new DirectConvolution());
+        FMatrixOpCpu cpu = new FMatrixOpCpu();
+        cpu.setConvolutionEngine(fft);
+        fmatrix input = new fmatrix(17, 17, 2, 1, 3);
+        fmatrix filter = new fmatrix(7, 7, 4);
+        input.randomize(-1, 1);
+        filter.randomize(-1, 1);
+        for (int stride = 1; stride <= 2; ++stride) {
+            int outputSize = 1 + (17 - 7 + 6) / stride;
+            fmatrix expected = new fmatrix(outputSize, outputSize, 4);
+            fmatrix output = new fmatrix(outputSize, outputSize, 4);
+            reference.batchCorrelate(input, filter, stride, expected);
+            cpu.batchCorrelate(input, filter, stride, output);
+            assertArrayEquals(expected.getHostData().array(), output.getHostData().array(), 0.001f);
+
+            reference.batchConvolve(input, filter, stride, expected);
+            cpu.batchConvolve(input, filter, stride, output);
+            assertArrayEquals(expected.getHostData().array(), output.getHostData().array(), 0.001f);
+
+            fmatrix deltas = new fmatrix(outputSize, outputSize, 4);
+            deltas.randomize(-1, 1);
+            fmatrix expectedKernel = new fmatrix(7, 7, 4);
+            fmatrix kernel = new fmatrix(7, 7, 4);
+            direct.deltasBatchConvolve(input, deltas, stride, expectedKernel);
+            cpu.deltasBatchConvolve(input, deltas, stride, kernel);
+            assertArrayEquals(expectedKernel.getHostData().array(), kernel.getHostData().array(), 0.001f);
+        }
+    }
+
+    @Test
+    public void testElementKernels() {
+        // a zero padded view with a padding of zero forces the cell by cell path.
+        FMatrixOpCpu cpu = new FMatrixOpCpu();
+        fmatrix op1 = new fmatrix(9, 7, 3, 5);
+        fmatrix op2 = new fmatrix(9, 7, 3, 5);
+        op1.randomize(-1, 1);
+        op2.randomize(0.1f, 1);
+        zpmatrix view1 = new zpmatrix(op1, 0);
+        zpmatrix view2 = new zpmatrix(op2, 0);
+        fmatrix expected = new fmatrix(9, 7, 3, 5);
+        fmatrix result = new fmatrix(9, 7, 3, 5);
+
+        cpu.dotadd(expected, view1, view2);
+        cpu.dotadd(result, op1, op2);
+        assertArrayEquals(expected.getHostData().array(), result.getHostData().array(), 0.00001f);
+
+        cpu.dotadd(expected, 0.3f, view1, -2f, view2);
+        cpu.dotadd(result, 0.3f, op1, -2f, op2);
+        assertArrayEquals(expected.getHostData().array(), result.getHostData().array(), 0.00001f);
+
+        cpu.dotsubtract(expected, view1, view2);
+        cpu.dotsubtract(result, op1, op2);
+        assertArrayEquals(expected.getHostData().array(), result.getHostData().array(), 0.00001f);
+
+        cpu.dotmultiply(expected, view1, 0.7f);
+        cpu.dotmultiply(result, op1, 0.7f);
+        assertArrayEquals(expected.getHostData().array(), result.getHostData().array(), 0.00001f);
+
+        cpu.adamVelocity(expected, 0.999f, view2, view1);
+        cpu.adamVelocity(result, 0.999f, op2, op1);
+        assertArrayEquals(expected.getHostData().array(), result.getHostData().array(), 0.00001f);
+
+        fmatrix expectedWeights = new fmatrix(op1);
+        fmatrix weights = new fmatrix(op1);
+        cpu.adamAdaptWeights(new zpmatrix(expectedWeights, 0), 0.01f, 0.9f, 0.999f, 1e-8f, view1, view2);
+        cpu.adamAdaptWeights(weights, 0.01f, 0.9f, 0.999f, 1e-8f, op1, op2);
+        assertArrayEquals(expectedWeights.getHostData().array(), weights.getHostData().array(), 0.0001f);
+
+        fmatrix lc = new fmatrix(5, 1);
+        lc.randomize(-1, 1);
+        fmatrix expectedLC = new fmatrix(9, 7, 3);
+        fmatrix outputLC = new fmatrix(9, 7, 3);
+        cpu.batchLC(view1, lc, expectedLC);
+        cpu.batchLC(op1, lc, outputLC);
+        assertArrayEquals(expectedLC.getHostData().array(), outputLC.getHostData().array(), 0.00001f);
+
+        fmatrix sums = new fmatrix(3, 1, 1, 5);
+        cpu.sumPerSlice(op1, sums);
+        for (int h = 0; h < 5; ++h) {
+            for (int s = 0; s < 3; ++s) {
+                float sum = 0;
+                for (int c = 0; c < 7; ++c) {
+                    for (int r = 0; r < 9; ++r) {
+                        sum += op1.get(r, c, s, h);
+                    }
+                }
+                assertEquals(sum, sums.get(s, 0, 0, h), 0.0001f);
+            }
+        }
+
+        fmatrix column = new fmatrix(9, 1, 1, 5);
+        column.randomize(-1, 1);
+        fmatrix expectedRows = new fmatrix(9, 1);
+        fmatrix rows = new fmatrix(9, 1);
+        cpu.sumPerRow(new zpmatrix(column, 0), expectedRows);
+        cpu.sumPerRow(column, rows);
+        assertArrayEquals(expectedRows.getHostData().array(), rows.getHostData().array(), 0.00001f);
+
+        fmatrix activated = new fmatrix(op1);
+        cpu.sigmoid(activated);
+        for (int i = 0; i < activated.getSize(); ++i) {
+            float x = op1.getHostData().get(i);
+            assertEquals(1 / (1 + (float) Math.exp(-x)), activated.getHostData().get(i), 0.00001f);
+        }
+    }
+
+    @Test
+    public void testBulkCopies() {
+        // a zero padded view with a padding of zero forces the cell by cell path.
+        FMatrixOpCpu cpu = new FMatrixOpCpu();
+        fmatrix op1 = new fmatrix(6, 5, 3, 4);
+        fmatrix op2 = new fmatrix(6, 5, 3, 4);
+        op1.randomize(-1, 1);
+        op2.randomize(-1, 1);
+
+        fmatrix expected = new fmatrix(6, 7, 2, 3);
+        fmatrix result = new fmatrix(6, 7, 2, 3);
+        cpu.copyInto(new zpmatrix(op1, 0), new zpmatrix(expected, 0));
+        cpu.copyInto(op1, result);
+        assertArrayEquals(expected.getHostData().array(), result.getHostData().array(), 0);
+
+        fmatrix expectedSlices = new fmatrix(10, 3, 2, 3);
+        fmatrix slices = new fmatrix(10, 3, 2, 3);
+        cpu.copyIntoSlice(new zpmatrix(op1, 0), new zpmatrix(expectedSlices, 0));
+        cpu.copyIntoSlice(op1, slices);
+        assertArrayEquals(expectedSlices.getHostData().array(), slices.getHostData().array(), 0);
+
+        fmatrix expectedZip = new fmatrix(6, 5, 6, 4);
+        fmatrix zip = new fmatrix(6, 5, 6, 4);
+        cpu.zip(new zpmatrix(op1, 0), new zpmatrix(op2, 0), new zpmatrix(expectedZip, 0));
+        cpu.zip(op1, op2, zip);
+        assertArrayEquals(expectedZip.getHostData().array(), zip.getHostData().array(), 0);
+
+        fmatrix expected1 = new fmatrix(6, 5, 3, 4);
+        fmatrix expected2 = new fmatrix(6, 5, 3, 4);
+        fmatrix unzip1 = new fmatrix(6, 5, 3, 4);
+        fmatrix unzip2 = new fmatrix(6, 5, 3, 4);
+        cpu.unzip(new zpmatrix(zip, 0), new zpmatrix(expected1, 0), new zpmatrix(expected2, 0));
+        cpu.unzip(zip, unzip1, unzip2);
+        assertArrayEquals(op1.getHostData().array(), expected1.getHostData().array(), 0);
+        assertArrayEquals(op1.getHostData().array(), unzip1.getHostData().array(), 0);
+        assertArrayEquals(op2.getHostData().array(), unzip2.getHostData().array(), 0);
+
+        fmatrix m1 = new fmatrix(6, 5, 1, 4);
+        fmatrix m2 = new fmatrix(6, 5, 1, 4);
+        fmatrix m3 = new fmatrix(6, 5, 1, 4);
+        m1.randomize(-1, 1);
+        m2.randomize(-1, 1);
+        m3.randomize(-1, 1);
+        fmatrix expectedMux = new fmatrix(6, 5, 3, 4);
+        fmatrix mux = new fmatrix(6, 5, 3, 4);
+        cpu.zip(Arrays.asList(new zpmatrix(m1, 0), new zpmatrix(m2, 0), new zpmatrix(m3, 0)), new zpmatrix(expectedMux, 0));
+        cpu.zip(Arrays.asList(m1, m2, m3), mux);
+        assertArrayEquals(expectedMux.getHostData().array(), mux.getHostData().array(), 0);
+
+        fmatrix d1 = new fmatrix(6, 5, 1, 4);
+        fmatrix d2 = new fmatrix(6, 5, 1, 4);
+        fmatrix d3 = new fmatrix(6, 5, 1, 4);
+        cpu.unzip(mux, Arrays.asList(d1, d2, d3));
+        assertArrayEquals(m1.getHostData().array(), d1.getHostData().array(), 0);
+        assertArrayEquals(m3.getHostData().array(), d3.getHostData().array(), 0);
+
+        fmatrix hyperSlice = new fmatrix(30, 1, 3, 2);
+        op1.getHyperSlice(2, 1, hyperSlice);
+        for (int s = 0; s < 3; ++s) {
+            for (int i = 0; i < 30; ++i) {
+                assertEquals(op1.get(i % 6, i / 6, s, 2), hyperSlice.get(i, 0, s, 1), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testStridedViews() {
+        FMatrixOpCpu cpu = new FMatrixOpCpu();
+        fmatrix a = new fmatrix(5, 6, 2, 3);
+        a.randomize(-1, 1);
+
+        StridedView view = new tmatrix(a).getStridedView();
+        assertEquals(6, view.getNrOfRows());
+        assertEquals(5, view.getNrOfColumns());
+        assertFalse(view.isContiguous());
+        assertEquals(a.get(3, 4, 1, 2), view.get(4, 3, 1, 2), 0);
+        assertEquals(0, view.get(6, 0, 0, 0), 0);
+        assertTrue(new zpmatrix(a, 2).getStridedView().isContiguous());
+        assertTrue(new fmatrixview(30, 1, 2, a).getStridedView().isContiguous());
+
+        // the transposed view is copied through its strides.
+        fmatrix at = new fmatrix(6, 5, 2, 3);
+        cpu.copyInto(new tmatrix(a), at);
+        for (int h = 0; h < 3; ++h) {
+            for (int s = 0; s < 2; ++s) {
+                for (int r = 0; r < 6; ++r) {
+                    for (int c = 0; c < 5; ++c) {
+                        assertEquals(a.get(c, r, s, h), at.get(r, c, s, h), 0);
+                    }
+                }
+            }
+        }
+
+        // the products run directly on the padded view and on the reshaped view.
+        fmatrix weights = new fmatrix(4, 30);
+        weights.randomize(-1, 1);
+        fmatrix expected = new fmatrix(4, 1, 1, 3);
+        fmatrix result = new fmatrix(4, 1, 1, 3);
+        fmatrix columns = new fmatrix(30, 1, 1, 3);
+        for (int h = 0; h < 3; ++h) {
+            for (int i = 0; i < 30; ++i) {
+                columns.set(i, 0, 0, h, a.get(i % 5, i / 5, 0, h));
+            }
+        }
+        cpu.batchedSgemm(1, weights, columns, 0, expected);
+        cpu.batchedSgemm(1, new zpmatrix(weights, 1), new fmatrixview(30, 1, 2, a), 0, result);
+        assertArrayEquals(expected.getHostData().array(), result.getHostData().array(), 0.0001f);
+    }
+
+    @Test
+    public void testInterleavedLayout() {
+        FMatrixOpCpu cpu = new FMatrixOpCpu();
+        fmatrix planar = new fmatrix(6, 5, 4, 2);
+        planar.randomize(-1, 1);
+        fmatrix interleaved = new fmatrix(6, 5, 4, 2, 0, MatrixLayout.INTERLEAVED);
+        cpu.copyInto(planar, interleaved);
+
+        StridedView view = interleaved.getStridedView();
+        assertEquals(4, view.getRowStride());
+        assertEquals(24, view.getColumnStride());
+        assertEquals(1, view.getSliceStride());
+        assertFalse(view.isContiguous());
+        assertEquals(planar.get(3, 2, 1, 1), interleaved.getHostData().get(120 + 2 * 24 + 3 * 4 + 1), 0);
+        for (int h = 0; h < 2; ++h) {
+            for (int s = 0; s < 4; ++s) {
+                for (int r = 0; r < 6; ++r) {
+                    for (int c = 0; c < 5; ++c) {
+                        assertEquals(planar.get(r, c, s, h), interleaved.get(r, c, s, h), 0);
+                    }
+                }
+            }
+        }
+
+        // the pancake kernel combines the slices of a cell through the slice stride.
+        fmatrix weights = new fmatrix(6, 5, 4);
+        weights.randomize(-1, 1);
+        fmatrix bias = new fmatrix(6, 5, 2);
+        bias.randomize(-1, 1);
+        fmatrix expected = new fmatrix(6, 5, 2, 2);
+        fmatrix result = new fmatrix(6, 5, 2, 2, 0, MatrixLayout.INTERLEAVED);
+        cpu.forwardPancake(planar, 2, weights, bias, expected);
+        cpu.forwardPancake(interleaved, 2, weights, bias, result);
+        fmatrix sums = new fmatrix(2, 1, 1, 2);
+        fmatrix interleavedSums = new fmatrix(2, 1, 1, 2);
+        cpu.sumPerSlice(expected, sums);
+        cpu.sumPerSlice(result, interleavedSums);
+        assertArrayEquals(sums.getHostData().array(), interleavedSums.getHostData().array(), 0.0001f);
+        fmatrix converted = new fmatrix(6, 5, 2, 2);
+        cpu.copyInto(result, converted);
+        assertArrayEquals(expected.getHostData().array(), converted.getHostData().array(), 0.0001f);
+
+        // the convolution converts an interleaved input to the planar layout.
+        fmatrix filter = new fmatrix(3, 3, 8);
+        filter.randomize(-1, 1);
+        fmatrix convolved = new fmatrix(6, 5, 8, 2);
+        fmatrix interleavedConvolved = new fmatrix(6, 5, 8, 2, 0, MatrixLayout.INTERLEAVED);
+        cpu.batchConvolve(new zpmatrix(planar, 1), filter, 1, convolved);
+        cpu.batchConvolve(new zpmatrix(interleaved, 1), filter, 1, interleavedConvolved);
+        fmatrix back = new fmatrix(6, 5, 8, 2);
+        cpu.copyInto(interleavedConvolved, back);
+        assertArrayEquals(convolved.getHostData().array(), back.getHostData().array(), 0.0001f);
+    }
+
+    @Test
+    public void testCrossConvolution() {
+        FMatrixOpCpu cpu = new FMatrixOpCpu();
+        int S = 3, F = 4, B = 2;
+        fmatrix input = new fmatrix(6, 5, S, B, 1);
+        input.randomize(-1, 1);
+        fmatrix filter = new fmatrix(3, 3, S * F);
+        filter.randomize(-1, 1);
+        fmatrix bias = new fmatrix(F, 1);
+        bias.randomize(-1, 1);
+
+        // the same filters, grouped per input slice as a ConvolutionLayer stores them.
+        fmatrix grouped = new fmatrix(3, 3, S * F);
+        for (int s = 0; s < S; ++s) {
+            for (int f = 0; f < F; ++f) {
+                copySlice(filter, f * S + s, 0, grouped, s * F + f, 0);
+            }
+        }
+
+        // forward: a convolution followed by the sum of the slices of every feature.
+        fmatrix convolved = new fmatrix(6, 5, S * F, B);
+        cpu.batchConvolve(input, grouped, 1, convolved);
+        fmatrix output = new fmatrix(6, 5, F, B);
+        cpu.batchCrossConvolve(input, filter, bias, 1, output);
+        for (int h = 0; h < B; ++h) {
+            for (int f = 0; f < F; ++f) {
+                for (int c = 0; c < 5; ++c) {
+                    for (int r = 0; r < 6; ++r) {
+                        float expected = bias.get(f, 0);
+                        for (int s = 0; s < S; ++s) {
+                            expected += convolved.get(r, c, s * F + f, h);
+                        }
+                        assertEquals(expected, output.get(r, c, f, h), 0.0001f);
+                    }
+                }
+            }
+        }
+
+        // weight gradients: the deltas of a feature are shared by all the input slices.
+        fmatrix deltas = new fmatrix(6, 5, F, B);
+        deltas.randomize(-1, 1);
+        fmatrix expandedDeltas = new fmatrix(6, 5, S * F, B);
+        for (int h = 0; h < B; ++h) {
+            for (int s = 0; s < S; ++s) {
+                for (int f = 0; f < F; ++f) {
+                    copySlice(deltas, f, h, expandedDeltas, s * F + f, h);
+                }
+            }
+        }
+        fmatrix groupedKernel = new fmatrix(3, 3, S * F, B);
+        cpu.deltasBatchConvolve(input, expandedDeltas, 1, groupedKernel);
+        fmatrix kernel = new fmatrix(3, 3, S * F, B);
+        cpu.deltasBatchCrossConvolve(input, deltas, 1, kernel);
+        for (int h = 0; h < B; ++h) {
+            for (int s = 0; s < S; ++s) {
+                for (int f = 0; f < F; ++f) {
+                    for (int i = 0; i < 9; ++i) {
+                        assertEquals(groupedKernel.get(i % 3, i / 3, s * F + f, h), kernel.get(i % 3, i / 3, f * S + s, h), 0.0001f);
+                    }
+                }
+            }
+        }
+
+        // back propagation: every input slice collects the deltas of all the features.
+        fmatrix expectedErrors = new fmatrix(6, 5, S, B);
+        cpu.batchBackpropCorrelate(new zpmatrix(expandedDeltas, 1), grouped, 1, expectedErrors);
+        fmatrix errors = new fmatrix(6, 5, S, B);
+        cpu.batchBackpropCrossCorrelate(new zpmatrix(deltas, 1), filter, 1, errors);
+        assertArrayEquals(expectedErrors.getHostData().array(), errors.getHostData().array(), 0.0001f);
+
+        // operands that are not planar give the same result.
+        fmatrix interleaved = new fmatrix(6, 5, S, B, 1, MatrixLayout.INTERLEAVED);
+        cpu.copyInto(input, interleaved);
+        fmatrix interleavedOutput = new fmatrix(6, 5, F, B, 0, MatrixLayout.INTERLEAVED);
+        cpu.batchCrossConvolve(interleaved, filter, bias, 1, interleavedOutput);
+        fmatrix converted = new fmatrix(6, 5, F, B);
+        cpu.copyInto(interleavedOutput, converted);
+        assertArrayEquals(output.getHostData().array(), converted.getHostData().array(), 0.0001f);
+    }
+
+    @Test
+    public void testConvolutionMaxPool() {
+        FMatrixOpCpu cpu = new FMatrixOpCpu();
+        int S = 2, F = 3, B = 2;
+        fmatrix input = new fmatrix(8, 6, S, B, 1);
+        input.randomize(-1, 1);
+        fmatrix filter = new fmatrix(3, 3, S * F);
+        filter.randomize(-1, 1);
+        fmatrix bias = new fmatrix(S * F, 1);
+        bias.randomize(-1, 1);
+
+        // forward: a convolution, the activation and a max pool.
+        fmatrix convolved = new fmatrix(8, 6, S * F, B);
+        cpu.batchConvolve(input, filter, bias, 1, convolved);
+        cpu.applyActivation(ActivationFunction.SIGMOID, convolved);
+        fmatrix expected = new fmatrix(4, 3, S * F, B);
+        bytematrix expectedMask = new bytematrix(4, 3, S * F, B);
+        cpu.batchMaxPool(convolved, expected, expectedMask);
+
+        fmatrix pooled = new fmatrix(4, 3, S * F, B);
+        bytematrix mask = new bytematrix(4, 3, S * F, B);
+        cpu.batchConvolveMaxPool(input, filter, bias, 1, ActivationFunction.SIGMOID, pooled, mask);
+        assertArrayEquals(expected.getHostData().array(), pooled.getHostData().array(), 0.0001f);
+        assertArrayEquals(expectedMask.getHostData().array(), mask.getHostData().array());
+
+        // backward: the errors times the derivative, scattered to the maximum of every window.
+        fmatrix errors = new fmatrix(4, 3, S * F, B);
+        errors.randomize(-1, 1);
+        fmatrix derivatives = new fmatrix(4, 3, S * F, B);
+        cpu.copyInto(expected, derivatives);
+        cpu.applyDerivedActivation(ActivationFunction.SIGMOID, derivatives);
+        cpu.dotmultiply(derivatives, errors, derivatives);
+        fmatrix expectedDeltas = new fmatrix(8, 6, S * F, B);
+        cpu.batchBackpropMaxPool(derivatives, expectedMask, 2, 2, expectedDeltas);
+
+        fmatrix deltas = new fmatrix(8, 6, S * F, B);
+        deltas.randomize(-1, 1);
+        cpu.batchBackpropMaxPoolActivation(errors, pooled, mask, ActivationFunction.SIGMOID, deltas);
+        assertArrayEquals(expectedDeltas.getHostData().array(), deltas.getHostData().array(), 0.0001f);
+
+        // the maximum of a softmax is not the softmax of the maximum.
+        try {
+            cpu.batchConvolveMaxPool(input, filter, bias, 1, ActivationFunction.SOFTMAX, pooled, mask);
+            fail("A softmax activation can not be fused with a max pool.");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    @Test
+    public void testMaxPool() {
+        FMatrixOpCpu cpu = new FMatrixOpCpu();
+        int S = 3, B = 2;
+        // a pool window of 2 rows and 3 columns.
+        fmatrix input = new fmatrix(6, 9, S, B);
+        input.randomize(-1, 1);
+        fmatrix pooled = new fmatrix(3, 3, S, B);
+        bytematrix mask = new bytematrix(3, 3, S, B);
+        cpu.batchMaxPool(input, pooled, mask);
+        assertEquals(pooled.getHyperSliceSize() * B, mask.getHostData().capacity());
+
+        fmatrix errors = new fmatrix(6, 9, S, B);
+        errors.randomize(-1, 1);
+        cpu.batchBackpropMaxPool(pooled, mask, 3, 2, errors);
+        for (int h = 0; h < B; ++h) {
+            for (int s = 0; s < S; ++s) {
+                for (int pc = 0; pc < 3; ++pc) {
+                    for (int pr = 0; pr < 2; ++pr) {
+                        float max = -Float.MAX_VALUE;
+                        int cell = 0;
+                        for (int c = 0; c < 3; ++c) {
+                            for (int r = 0; r < 2; ++r) {
+                                float v = input.get(pr * 2 + r, pc * 3 + c, s, h);
+                                if (v > max) {
+                                    max = v;
+                                    cell = r + c * 2;
+                                }
+                            }
+                        }
+                        assertEquals(max, pooled.get(pr, pc, s, h), 0);
+                        assertEquals(cell, mask.get(pr, pc, s, h));
+                        for (int c = 0; c < 3; ++c) {
+                            for (int r = 0; r < 2; ++r) {
+                                float expected = r + c * 2 == cell ? max : 0;
+                                assertEquals(expected, errors.get(pr * 2 + r, pc * 3 + c, s, h), 0);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        // a mask in direct memory is accessed cell by cell.
+        fmatrix pooled2 = new fmatrix(3, 3, S, B);
+        bytematrix mask2 = new bytematrix(3, 3, S, B, MatrixAllocators.getDirect());
+        cpu.batchMaxPool(input, pooled2, mask2);
+        assertArrayEquals(pooled.getHostData().array(), pooled2.getHostData().array(), 0);
+        fmatrix errors2 = new fmatrix(6, 9, S, B);
+        errors2.randomize(-1, 1);
+        cpu.batchBackpropMaxPool(pooled2, mask2, 3, 2, errors2);
+        assertArrayEquals(errors.getHostData().array(), errors2.getHostData().array(), 0);
+        mask2.close();
+
+        try {
+            cpu.batchMaxPool(new fmatrix(17, 16, 1, 1), new fmatrix(1, 1, 1, 1), new bytematrix(1, 1, 1, 1));
+            fail("A window of 272 cells does not fit in a byte.");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    @Test
+    public void testMaxRotationPool() {
+        FMatrixOpCpu cpu = new FMatrixOpCpu();
+        int S = 2, B = 3;
+        fmatrix input = new fmatrix(6, 4, 2 * S, B);
+        input.randomize(-1, 1);
+        fmatrix pooled = new fmatrix(3, 2, 2 * S, B);
+        bytematrix mask = new bytematrix(3, 2, S, B);
+        cpu.maxRotationPool(input, pooled, mask);
+
+        fmatrix deltas = new fmatrix(6, 4, 2 * S, B);
+        cpu.backpropMaxRotationPool(pooled, mask, deltas);
+        for (int h = 0; h < B; ++h) {
+            for (int s = 0; s < S; ++s) {
+                for (int pc = 0; pc < 2; ++pc) {
+                    for (int pr = 0; pr < 3; ++pr) {
+                        int cell = mask.get(pr, pc, s, h);
+                        int r = pr * 2 + cell % 2;
+                        int c = pc * 2 + cell / 2;
+                        assertEquals(input.get(r, c, 2 * s, h), pooled.get(pr, pc, 2 * s, h), 0);
+                        assertEquals(input.get(r, c, 2 * s + 1, h), pooled.get(pr, pc, 2 * s + 1, h), 0);
+                        for (int i = 0; i < 4; ++i) {
+                            assertTrue(input.get(pr * 2 + i % 2, pc * 2 + i / 2, 2 * s, h) <= pooled.get(pr, pc, 2 * s, h));
+                            boolean max = i == cell;
+                            assertEquals(max ? pooled.get(pr, pc, 2 * s, h) : 0, deltas.get(pr * 2 + i % 2, pc * 2 + i / 2, 2 * s, h), 0);
+                            assertEquals(max ? pooled.get(pr, pc, 2 * s + 1, h) : 0, deltas.get(pr * 2 + i % 2, pc * 2 + i / 2, 2 * s + 1, h), 0);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The bilinear interpolation of one rotated cell, as the rotation was
+     * calculated before the interpolation tables.
+     */
+    private static float rotatedCell(imatrix m, int x, int y, int slice, float angle) {
+        float sa = (float) Math.sin(angle);
+        float ca = (float) Math.cos(angle);
+        float rcx = m.getNrOfRows() / 2.0f;
+        float rcy = m.getNrOfColumns() / 2.0f;
+        float rx = x - rcx;
+        float ry = y - rcy;
+        float ox = rcx + rx * ca - ry * sa;
+        float oy = rcy + rx * sa + ry * ca;
+        float xPerc = Math.abs(ox % 1);
+        float yPerc = Math.abs(oy % 1);
+        int sx = (int) ox;
+        int sy = (int) oy;
+        float[] a = {(1 - xPerc) * (1 - yPerc), (1 - xPerc) * yPerc, xPerc * (1 - yPerc), xPerc * yPerc};
+        int[][] taps = {{sx, sy}, {sx, sy + 1}, {sx + 1, sy}, {sx + 1, sy + 1}};
+        float norm = 0;
+        float value = 0;
+        for (int i = 0; i < 4; ++i) {
+            int tx = taps[i][0];
+            int ty = taps[i][1];
+            if (tx >= 0 && ty >= 0 && tx < m.getNrOfRows() && ty < m.getNrOfColumns()) {
+                norm += a[i];
+                value += a[i] * m.get(tx, ty, slice);
+            }
+        }
+        return Math.abs(norm) < 0.00001f ? value : value / norm;
+    }
+
+    @Test
+    public void testRotateKernels() {
+        FMatrixOpCpu cpu = new FMatrixOpCpu();
+        int size = 5, K = 3, N = 4;
+        float minAngle = 0;
+        float maxAngle = (float) (Math.PI - Math.PI / 8);
+        float step = (maxAngle - minAngle) / (N - 1);
+        fmatrix weights = new fmatrix(size, size, K);
+        fmatrix rotated = new fmatrix(size, size, K * N);
+        fmatrix accumulated = new fmatrix(size, size, K);
+        // the second pass uses the cached tables with new weights.
+        for (int pass = 0; pass < 2; ++pass) {
+            weights.randomize(-1, 1);
+            cpu.rotateKernels(weights, N, minAngle, maxAngle, rotated);
+            cpu.accumulateRotateKernels(rotated, N, minAngle, maxAngle, accumulated);
+            for (int k = 0; k < K; ++k) {
+                for (int y = 0; y < size; ++y) {
+                    for (int x = 0; x < size; ++x) {
+                        float angle = minAngle;
+                        float sum = 0;
+                        for (int rot = 0; rot < N; ++rot) {
+                            assertEquals(rotatedCell(weights, x, y, k, angle), rotated.get(x, y, k * N + rot), 1e-5f);
+                            sum += rotatedCell(rotated, x, y, k * N + rot, -angle);
+                            angle += step;
+                        }
+                        assertEquals(sum / N, accumulated.get(x, y, k), 1e-5f);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRotateKernelsConcurrently() throws InterruptedException {
+        FMatrixOpCpu shared = new FMatrixOpCpu();
+        int threads = 4, N = 4;
+        // the angles alternate, so the table of a kernel is replaced while the other threads use theirs.
+        float[] maxAngles = {(float) (Math.PI - Math.PI / 8), (float) (Math.PI / 2)};
+        String[] failures = new String[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; ++t) {
+            // every thread has its own kernel size, so a shared table gives wrong results.
+            fmatrix w = new fmatrix(3 + t, 3 + t, 2);
+            w.randomize(-1, 1);
+            float[][] expected = new float[maxAngles.length][];
+            for (int a = 0; a < maxAngles.length; ++a) {
+                fmatrix e = new fmatrix(3 + t, 3 + t, 2 * N);
+                new FMatrixOpCpu().rotateKernels(w, N, 0, maxAngles[a], e);
+                expected[a] = e.getHostData().array();
+            }
+            fmatrix r = new fmatrix(3 + t, 3 + t, 2 * N);
+            int thread = t;
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < 50 && failures[thread] == null; ++i) {
+                    int a = i % maxAngles.length;
+                    r.reset();
+                    shared.rotateKernels(w, N, 0, maxAngles[a], r);
+                    if (!Arrays.equals(expected[a], r.getHostData().array())) {
+                        failures[thread] = "iteration " + i + " of thread " + thread + " rotated the kernels wrong.";
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        for (String failure : failures) {
+            assertNull(failure, failure);
+        }
+    }
+
+    @Test
+    public void testFusedActivation() {
+        FMatrixOpCpu cpu = new FMatrixOpCpu();
+        int S = 3, B = 2;
+        fmatrix input = new fmatrix(5, 4, S, B);
+        input.randomize(-1, 1);
+        fmatrix bias = new fmatrix(S, 1);
+        bias.randomize(-1, 1);
+
+        for (ActivationFunction af : new ActivationFunction[]{ActivationFunction.SIGMOID, ActivationFunction.TANH, ActivationFunction.RELU, ActivationFunction.IDENTITY}) {
+            // epilogue: the bias of the slice and the activation function.
+            fmatrix expected = new fmatrix(5, 4, S, B);
+            for (int h = 0; h < B; ++h) {
+                for (int s = 0; s < S; ++s) {
+                    for (int c = 0; c < 4; ++c) {
+                        for (int r = 0; r < 5; ++r) {
+                            expected.set(r, c, s, h, input.get(r, c, s, h) + bias.get(s, 0));
+                        }
+                    }
+                }
+            }
+            cpu.applyActivation(af, expected);
+            fmatrix outputs = new fmatrix(5, 4, S, B);
+            cpu.copyInto(input, outputs);
+            cpu.applyBiasActivation(af, bias, outputs);
+            assertArrayEquals(expected.getHostData().array(), outputs.getHostData().array(), 0.0001f);
+
+            // gradient prologue: the errors times the derivative of the outputs.
+            fmatrix errors = new fmatrix(5, 4, S, B);
+            errors.randomize(-1, 1);
+            fmatrix derivatives = new fmatrix(5, 4, S, B);
+            cpu.copyInto(outputs, derivatives);
+            cpu.applyDerivedActivation(af, derivatives);
+            fmatrix expectedDeltas = new fmatrix(5, 4, S, B);
+            cpu.dotmultiply(expectedDeltas, errors, derivatives);
+
+            fmatrix deltas = new fmatrix(5, 4, S, B);
+            cpu.applyDerivedActivation(af, errors, outputs, deltas);
+            assertArrayEquals(expectedDeltas.getHostData().array(), deltas.getHostData().array(), 0.0001f);
+
+            // the same operations on a transposed view take the cell by cell path.
+            fmatrix transposed = new fmatrix(5, 4, S, B);
+            cpu.copyInto(input, transposed);
+            cpu.applyBiasActivation(af, bias, new tmatrix(new tmatrix(transposed)));
+            assertArrayEquals(expected.getHostData().array(), transposed.getHostData().array(), 0.0001f);
+        }
+    }
+
+    @Test
+    public void testSoftMaxCrossEntropy() {
+        FMatrixOpCpu cpu = new FMatrixOpCpu();
+        int R = 6, C = 2, S = 2, B = 3;
+        fmatrix logits = new fmatrix(R, C, S, B);
+        logits.randomize(-3, 3);
+        // logits that overflow a naive exponential.
+        logits.set(2, 1, 1, 2, 1000);
+        logits.set(4, 1, 1, 2, 990);
+        fmatrix y = new fmatrix(R, C, S, B);
+        for (int h = 0; h < B; ++h) {
+            for (int s = 0; s < S; ++s) {
+                for (int c = 0; c < C; ++c) {
+                    y.set((c + s + h) % R, c, s, h, 1);
+                }
+            }
+        }
+        fmatrix probabilities = new fmatrix(R, C, S, B);
+        cpu.copyInto(logits, probabilities);
+        cpu.softMax(probabilities);
+
+        fmatrix outputs = new fmatrix(R, C, S, B);
+        cpu.copyInto(logits, outputs);
+        fmatrix loss = new fmatrix(1, C, S, B);
+        fmatrix deltas = new fmatrix(R, C, S, B);
+        cpu.softMaxCrossEntropy(outputs, y, loss, deltas);
+
+        for (int h = 0; h < B; ++h) {
+            for (int s = 0; s < S; ++s) {
+                for (int c = 0; c < C; ++c) {
+                    double max = Double.NEGATIVE_INFINITY;
+                    for (int r = 0; r < R; ++r) {
+                        max = Math.max(max, logits.get(r, c, s, h));
+                    }
+                    double sum = 0;
+                    for (int r = 0; r < R; ++r) {
+                        sum += Math.exp(logits.get(r, c, s, h) - max);
+                    }
+                    double expectedLoss = 0;
+                    for (int r = 0; r < R; ++r) {
+                        double logp = logits.get(r, c, s, h) - max - Math.log(sum);
+                        double p = Math.exp(logp);
+                        expectedLoss -= y.get(r, c, s, h) * logp;
+                        assertEquals(p, probabilities.get(r, c, s, h), 1e-6);
+                        assertEquals(p, outputs.get(r, c, s, h), 1e-6);
+                        assertEquals(p - y.get(r, c, s, h), deltas.get(r, c, s, h), 1e-6);
+                    }
+                    assertEquals(expectedLoss, loss.get(0, c, s, h), 1e-4);
+                }
+            }
+        }
+        assertEquals(10, loss.get(0, 1, 1, 2), 1e-3);
+
+        // the cross entropy cost function calculates the loss per cell from the probabilities.
+        fmatrix cellLoss = new fmatrix(R, C, S, B);
+        new CrossEntropyCostFunction().calculateCost(cellLoss, probabilities, y);
+        for (int h = 0; h < B; ++h) {
+            for (int s = 0; s < S; ++s) {
+                for (int c = 0; c < C; ++c) {
+                    float sum = 0;
+                    for (int r = 0; r < R; ++r) {
+                        sum += cellLoss.get(r, c, s, h);
+                    }
+                    assertEquals(loss.get(0, c, s, h), sum, 1e-3);
+                }
+            }
+        }
+
+        // the cell by cell path without a loss matrix.
+        fmatrix transposed = new fmatrix(R, C, S, B);
+        cpu.copyInto(logits, transposed);
+        fmatrix tdeltas = new fmatrix(R, C, S, B);
+        cpu.softMaxCrossEntropy(new tmatrix(new tmatrix(transposed)), y, null, tdeltas);
+        assertArrayEquals(outputs.getHostData().array(), transposed.getHostData().array(), 1e-6f);
+        assertArrayEquals(deltas.getHostData().array(), tdeltas.getHostData().array(), 1e-6f);
+    }
+
+    private static void copySlice(imatrix src, int srcSlice, int srcH, imatrix dst, int dstSlice, int dstH) {
+        for (int c = 0; c < src.getNrOfColumns(); ++c) {
+            for (int r = 0; r < src.getNrOfRows(); ++r) {
+                dst.set(r, c, dstSlice, dstH, src.get(r, c, srcSlice, srcH));
+            }
+        }
+    }
 }
@@ -0,0 +1,78 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.neuralnet;
+
+import dae.matrix.fmatrix;
+import dae.matrix.memory.AllocationMeter;
+import dae.neuralnet.activation.ActivationFunction;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that a steady state training step of a DeepLayer stays within its
+ * allocation budget. The temporaries of the cpu operations come from the
+ * workspace of the thread, what remains are the small task objects of the
+ * parallel loops.
+ *
+ * The budget can be changed with the system property
+ * dae.neuralnet.allocationBudget (bytes per training step).
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public class TestAllocationBudget {
+
+    private static final long BUDGET = Long.getLong("dae.neuralnet.allocationBudget", 4096);
+    private static final int WARMUP = 2000;
+    private static final int STEPS = 100;
+
+    public TestAllocationBudget() {
+    }
+
+    @Before
+    public void setUp() {
+        assumeTrue(AllocationMeter.isSupported());
+    }
+
+    @Test
+    public void testFullyConnected() {
+        int batch = 4;
+        Layer l1 = new Layer(20, 1, 16, batch, ActivationFunction.SIGMOID);
+        Layer l2 = new Layer(16, 1, 10, batch, ActivationFunction.SIGMOID);
+        DeepLayer dl = new DeepLayer(i -> 0.1f, l1, l2);
+        checkBudget(dl, new fmatrix(20, 1, 1, batch), new fmatrix(10, 1, 1, batch));
+    }
+
+    @Test
+    public void testConvolution() {
+        ConvolutionLayer cl = new ConvolutionLayer(12, 12, 4, 3, 1, 1, ActivationFunction.RELU);
+        PoolLayer pl = new PoolLayer(12, 12, 4, 2, 2, 1);
+        DeepLayer dl = new DeepLayer(i -> 0.1f, cl, pl);
+        checkBudget(dl, new fmatrix(12, 12, 1, 1), new fmatrix(6, 6, 4, 1));
+    }
+
+    @Test
+    public void testRotationConvolution() {
+        RotationConvolutionLayer rl = new RotationConvolutionLayer(12, 12, 2, 4, 3, 1, 1, ActivationFunction.RELU);
+        DeepLayer dl = new DeepLayer(i -> 0.1f, rl);
+        checkBudget(dl, new fmatrix(12, 12, 1, 1), new fmatrix(12, 12, 8, 1));
+    }
+
+    private void checkBudget(DeepLayer dl, fmatrix input, fmatrix target) {
+        input.randomize(0, 1);
+        target.randomize(0, 1);
+        for (int i = 0; i < WARMUP; ++i) {
+            dl.train(i, input, target, TrainingMode.BATCH);
+        }
+        long start = AllocationMeter.getAllocatedBytes();
+        for (int i = 0; i < STEPS; ++i) {
+            dl.train(WARMUP + i, input, target, TrainingMode.BATCH);
+        }
+        long perStep = (AllocationMeter.getAllocatedBytes() - start) / STEPS;
+        assertTrue("A training step allocates " + perStep + " bytes, the budget is " + BUDGET,
+                perStep <= BUDGET);
+    }
+}
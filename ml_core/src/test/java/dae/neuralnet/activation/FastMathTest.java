@@ -0,0 +1,83 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.neuralnet.activation;
+
+import dae.matrix.cpu.FMatrixOpCpu;
+import dae.matrix.fmatrix;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the approximations of FastMath against the exact functions.
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public class FastMathTest {
+
+    public FastMathTest() {
+    }
+
+    @Test
+    public void testExp() {
+        for (float x = FastMath.MINEXP; x <= FastMath.MAXEXP; x += 1e-3f) {
+            double exact = Math.exp(x);
+            assertEquals("exp(" + x + ")", exact, FastMath.exp(x), exact * FastMath.EXPERROR);
+        }
+        // the arguments are clamped, so the result is always finite.
+        assertFalse(Float.isInfinite(FastMath.exp(1000)));
+        assertEquals(0, FastMath.exp(-1000), 1e-37f);
+        assertEquals(1, FastMath.exp(0), 0);
+    }
+
+    @Test
+    public void testSigmoid() {
+        for (float x = -100; x <= 100; x += 1e-3f) {
+            double exact = 1 / (1 + Math.exp(-x));
+            assertEquals("sigmoid(" + x + ")", exact, FastMath.sigmoid(x), FastMath.SIGMOIDERROR);
+        }
+    }
+
+    @Test
+    public void testTanh() {
+        for (float x = -100; x <= 100; x += 1e-3f) {
+            assertEquals("tanh(" + x + ")", Math.tanh(x), FastMath.tanh(x), FastMath.TANHERROR);
+        }
+        assertEquals(-1, FastMath.tanh(Float.NEGATIVE_INFINITY), 0);
+        assertEquals(1, FastMath.tanh(Float.POSITIVE_INFINITY), 0);
+    }
+
+    /**
+     * The activations of a backend in fast math mode stay within the
+     * documented error of the exact backend.
+     */
+    @Test
+    public void testFastMathBackend() {
+        FMatrixOpCpu exact = new FMatrixOpCpu();
+        FMatrixOpCpu fast = new FMatrixOpCpu(true);
+        assertTrue(fast.isFastMath());
+        assertFalse(exact.isFastMath());
+
+        Random r = new Random(11);
+        float[] input = new float[17 * 13 * 3 * 2];
+        for (int i = 0; i < input.length; ++i) {
+            input[i] = r.nextFloat() * 20 - 10;
+        }
+        fmatrix bias = new fmatrix(3, 1);
+        bias.applyFunction(x -> r.nextFloat() - 0.5f);
+
+        ActivationFunction[] functions = {ActivationFunction.SIGMOID, ActivationFunction.TANH, ActivationFunction.RELU};
+        float[] errors = {FastMath.SIGMOIDERROR, FastMath.TANHERROR, 0};
+        for (int i = 0; i < functions.length; ++i) {
+            fmatrix e = new fmatrix(17, 13, 3, 2);
+            fmatrix f = new fmatrix(17, 13, 3, 2);
+            e.getHostData().put(input);
+            f.getHostData().put(input);
+            exact.applyBiasActivation(functions[i], bias, e);
+            fast.applyBiasActivation(functions[i], bias, f);
+            assertArrayEquals(functions[i].toString(), e.getHostData().array(), f.getHostData().array(), 2 * errors[i]);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Digital Arts and Entertainment 2018.
+ * www.digitalartsandentertainment.be
+ */
+package dae.neuralnet.gradient;
+
+import dae.matrix.fmatrix;
+import dae.neuralnet.DeepLayer;
+import dae.neuralnet.Layer;
+import dae.neuralnet.TrainingMode;
+import dae.neuralnet.activation.ActivationFunction;
+import java.util.Random;
+import java.util.function.Supplier;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Koen Samyn <samyn.koen@gmail.com>
+ */
+public class GradientAlgorithmTest {
+
+    public GradientAlgorithmTest() {
+    }
+
+    @Test
+    public void testAdam() {
+        fmatrix w = new fmatrix(7, 5, 3);
+        w.randomize(-1, 1);
+        fmatrix expected = new fmatrix(7, 5, 3);
+        fmatrix.copyInto(w, expected);
+        fmatrix m = new fmatrix(7, 5, 3);
+        fmatrix v = new fmatrix(7, 5, 3);
+
+        AdamGradientAlgorithm adam = new AdamGradientAlgorithm(w);
+        float beta1Corr = 0.9f;
+        float beta2Corr = 0.999f;
+        for (int step = 0; step < 3; ++step) {
+            fmatrix g = new fmatrix(7, 5, 3);
+            g.randomize(-1, 1);
+            // the three passes of the unfused algorithm.
+            fmatrix.dotadd(m, 0.9f, m, 0.1f, g);
+            fmatrix.adamVelocity(v, 0.999f, v, g);
+            fmatrix.adamAdaptWeights(expected, -0.01f, beta1Corr, beta2Corr, 1e-8f, m, v);
+            beta1Corr *= .9f;
+            beta2Corr *= .9f;
+
+            adam.adaptWeights(g, 0.01f);
+            assertArrayEquals(expected.getHostData().array(), w.getHostData().array(), 1e-5f);
+        }
+    }
+
+    @Test
+    public void testSharedNetworkAlgorithm() {
+        checkSharedNetwork(AdamGradientAlgorithm::new);
+        checkSharedNetwork(() -> new MomentumGradientAlgorithm(0.9f));
+        checkSharedNetwork(RMSPropGradientAlgorithm::new);
+    }
+
+    /**
+     * Trains a network that adapts the weights of all its layers with one
+     * shared algorithm, and a copy of the network in which every weight matrix
+     * has its own algorithm. The weights of both networks must stay the same.
+     *
+     * @param algorithm creates the gradient algorithms.
+     */
+    private static void checkSharedNetwork(Supplier<FusedGradientAlgorithm> algorithm) {
+        int batch = 2;
+        Random r = new Random(7);
+        Layer[] shared = {
+            new Layer(6, 1, 5, batch, ActivationFunction.SIGMOID),
+            new Layer(5, 1, 4, batch, ActivationFunction.SIGMOID),
+            new Layer(4, 1, 3, batch, ActivationFunction.SIGMOID)
+        };
+        Layer[] single = new Layer[shared.length];
+        for (int i = 0; i < shared.length; ++i) {
+            shared[i].randomizeWeights(r, -1, 1);
+            single[i] = shared[i].duplicate();
+            fmatrix.copyInto(shared[i].getWeights(), single[i].getWeights());
+        }
+        DeepLayer sharedNetwork = new DeepLayer(iteration -> 0.01f, shared);
+        sharedNetwork.setGradientAlgorithm(algorithm.get());
+        assertEquals(shared.length, sharedNetwork.getGradientAlgorithm().getNrOfSegments());
+        DeepLayer singleNetwork = new DeepLayer(iteration -> 0.01f, single);
+        for (Layer layer : single) {
+            layer.registerWeights(algorithm.get());
+        }
+
+        fmatrix input = new fmatrix(6, 1, 1, batch);
+        fmatrix target = new fmatrix(3, 1, 1, batch);
+        input.randomize(0, 1);
+        target.randomize(0, 1);
+        for (int step = 0; step < 3; ++step) {
+            sharedNetwork.train(step, input, target, TrainingMode.BATCH);
+            singleNetwork.train(step, input, target, TrainingMode.BATCH);
+            for (int i = 0; i < shared.length; ++i) {
+                assertArrayEquals(single[i].getWeights().getHostData().array(),
+                        shared[i].getWeights().getHostData().array(), 1e-6f);
+            }
+        }
+    }
+
+    @Test
+    public void testSharedSegments() {
+        fmatrix w1 = new fmatrix(300, 1);
+        w1.randomize(-1, 1);
+        fmatrix w2 = new fmatrix(4, 4, 2);
+        w2.randomize(-1, 1);
+        fmatrix e1 = new fmatrix(300, 1);
+        fmatrix.copyInto(w1, e1);
+        fmatrix e2 = new fmatrix(4, 4, 2);
+        fmatrix.copyInto(w2, e2);
+        fmatrix g1 = new fmatrix(300, 1);
+        g1.randomize(-1, 1);
+        fmatrix g2 = new fmatrix(4, 4, 2);
+        g2.randomize(-1, 1);
+
+        RMSPropGradientAlgorithm shared = new RMSPropGradientAlgorithm();
+        GradientAlgorithm s1 = shared.register(w1);
+        GradientAlgorithm s2 = shared.register(w2);
+        GradientAlgorithm a1 = new RMSPropGradientAlgorithm(e1);
+        GradientAlgorithm a2 = new RMSPropGradientAlgorithm(e2);
+
+        for (int step = 0; step < 2; ++step) {
+            s1.adaptWeights(g1, 0.01f);
+            // the shared segments are only updated when all the gradients are known.
+            assertArrayEquals(e1.getHostData().array(), w1.getHostData().array(), 0);
+            a1.adaptWeights(g1, 0.01f);
+            s2.adaptWeights(g2, 0.01f);
+            a2.adaptWeights(g2, 0.01f);
+            assertArrayEquals(e1.getHostData().array(), w1.getHostData().array(), 1e-6f);
+            assertArrayEquals(e2.getHostData().array(), w2.getHostData().array(), 1e-6f);
+        }
+    }
+
+    @Test
+    public void testMomentumAndWeightDecay() {
+        fmatrix w = new fmatrix(6, 1);
+        w.applyFunction(x -> 1);
+        fmatrix g = new fmatrix(6, 1);
+        g.applyFunction(x -> 0.5f);
+
+        // the gradient algorithms expect the negative gradient.
+        MomentumGradientAlgorithm momentum = new MomentumGradientAlgorithm(w, 0.5f);
+        momentum.adaptWeights(g, 0.1f);
+        assertEquals(1.05f, w.get(0, 0), 1e-6f);
+        momentum.adaptWeights(g, 0.1f);
+        assertEquals(1.05f + 0.1f * 0.75f, w.get(0, 0), 1e-6f);
+
+        // without a gradient, adamw only decays the weights.
+        fmatrix d = new fmatrix(6, 1);
+        d.applyFunction(x -> 1);
+        AdamWGradientAlgorithm adamw = new AdamWGradientAlgorithm(d, 0.5f);
+        adamw.adaptWeights(new fmatrix(6, 1), 0.1f);
+        assertEquals(0.95f, d.get(0, 0), 1e-6f);
+    }
+
+    @Test
+    public void testAdamWDecay() {
+        fmatrix w = new fmatrix(4, 1);
+        for (int r = 0; r < 4; ++r) {
+            w.set(r, 0, r % 2 == 0 ? 1 + r : -1 - r);
+        }
+        fmatrix expected = new fmatrix(4, 1);
+        fmatrix.copyInto(w, expected);
+
+        // a zero gradient leaves only the weight decay, every weight shrinks towards zero.
+        AdamWGradientAlgorithm adamw = new AdamWGradientAlgorithm(w, 0.5f);
+        for (int step = 0; step < 3; ++step) {
+            adamw.adaptWeights(new fmatrix(4, 1), 0.1f);
+            for (int r = 0; r < 4; ++r) {
+                float previous = expected.get(r, 0);
+                expected.set(r, 0, previous * 0.95f);
+                assertEquals(expected.get(r, 0), w.get(r, 0), 1e-6f);
+                assertTrue(Math.abs(w.get(r, 0)) < Math.abs(previous));
+            }
+        }
+
+        // the fused step expects the positive learning rate.
+        fmatrix[] weights = {w};
+        fmatrix[] zeros = {new fmatrix(4, 1)};
+        fmatrix.adamStep(weights, zeros, new fmatrix[]{new fmatrix(4, 1)}, new fmatrix[]{new fmatrix(4, 1)},
+                0.1f, 0.9f, 0.999f, 0.9f, 0.999f, 1e-8f, 0.5f);
+        for (int r = 0; r < 4; ++r) {
+            assertEquals(expected.get(r, 0) * 0.95f, w.get(r, 0), 1e-6f);
+        }
+    }
+}
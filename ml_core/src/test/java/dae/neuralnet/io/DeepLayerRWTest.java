@@ -7,6 +7,8 @@ package dae.neuralnet.io;
 import dae.matrix.gpu.MatrixTestUtil;
 import dae.matrix.imatrix;
 import dae.neuralnet.ConvolutionLayer;
+import dae.neuralnet.ConvolutionPoolLayer;
+import dae.neuralnet.CrossConvolutionLayer;
 import dae.neuralnet.DeepLayer;
 import dae.neuralnet.FuzzyficationLayer;
 import dae.neuralnet.ILayer;
@@ -133,6 +135,70 @@ public class DeepLayerRWTest {
 
     }
 
+    @Test
+    public void testCrossConvolutionRW() throws IOException {
+        Random r = new Random(42);
+        CrossConvolutionLayer oc = new CrossConvolutionLayer(8, 8, 3, 4, 3, 1, 2, ActivationFunction.RELU);
+        oc.setName("cross1");
+        oc.randomizeWeights(r, -1, 1);
+        oc.getBias().applyFunction(x -> r.nextFloat());
+
+        DeepLayer dl = new DeepLayer(new LearningRateConst(.1f), oc);
+        Path file = Files.createTempFile("dae", ".nn");
+        new DeepLayerWriter().writeDeepLayer(file, dl);
+        DeepLayer dl2 = new DeepLayerReader().readDeepLayer(file);
+
+        assertNotNull(dl2);
+        assertEquals(1, dl2.getNrOfLayers());
+        assertTrue(dl2.getFirstLayer() instanceof CrossConvolutionLayer);
+        CrossConvolutionLayer rc = (CrossConvolutionLayer) dl2.getFirstLayer();
+        assertEquals(oc.getName(), rc.getName());
+        assertEquals(oc.getNrOfWInputs(), rc.getNrOfWInputs());
+        assertEquals(oc.getNrOfHInputs(), rc.getNrOfHInputs());
+        assertEquals(oc.getNrOfSInputs(), rc.getNrOfSInputs());
+        assertEquals(oc.getNrOfFeatures(), rc.getNrOfFeatures());
+        assertEquals(oc.getFilterSize(), rc.getFilterSize());
+        assertEquals(oc.getFilterStride(), rc.getFilterStride());
+        assertEquals(oc.getBatchSize(), rc.getBatchSize());
+        assertEquals(oc.getActivationFunction(), rc.getActivationFunction());
+        MatrixTestUtil.assertMatrixEquals(oc.getWeights(), rc.getWeights());
+        MatrixTestUtil.assertMatrixEquals(oc.getBias(), rc.getBias());
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testConvolutionPoolRW() throws IOException {
+        Random r = new Random(42);
+        ConvolutionPoolLayer oc = new ConvolutionPoolLayer(8, 8, 2, 3, 3, 1, 2, 2, 2, ActivationFunction.RELU);
+        oc.setName("convpool1");
+        oc.randomizeWeights(r, -1, 1);
+        oc.getBias().applyFunction(x -> r.nextFloat());
+
+        DeepLayer dl = new DeepLayer(new LearningRateConst(.1f), oc);
+        Path file = Files.createTempFile("dae", ".nn");
+        new DeepLayerWriter().writeDeepLayer(file, dl);
+        DeepLayer dl2 = new DeepLayerReader().readDeepLayer(file);
+
+        assertNotNull(dl2);
+        assertEquals(1, dl2.getNrOfLayers());
+        assertTrue(dl2.getFirstLayer() instanceof ConvolutionPoolLayer);
+        ConvolutionPoolLayer rc = (ConvolutionPoolLayer) dl2.getFirstLayer();
+        assertEquals(oc.getName(), rc.getName());
+        assertEquals(oc.getNrOfWInputs(), rc.getNrOfWInputs());
+        assertEquals(oc.getNrOfHInputs(), rc.getNrOfHInputs());
+        assertEquals(oc.getNrOfSInputs(), rc.getNrOfSInputs());
+        assertEquals(oc.getNrOfFeatures(), rc.getNrOfFeatures());
+        assertEquals(oc.getFilterSize(), rc.getFilterSize());
+        assertEquals(oc.getFilterStride(), rc.getFilterStride());
+        assertEquals(oc.getScaleX(), rc.getScaleX());
+        assertEquals(oc.getScaleY(), rc.getScaleY());
+        assertEquals(oc.getBatchSize(), rc.getBatchSize());
+        assertEquals(oc.getActivationFunction(), rc.getActivationFunction());
+        MatrixTestUtil.assertMatrixEquals(oc.getWeights(), rc.getWeights());
+        MatrixTestUtil.assertMatrixEquals(oc.getBias(), rc.getBias());
+        Files.deleteIfExists(file);
+    }
+
     private void assertLayerEquals(ConvolutionLayer oc, ConvolutionLayer rc) {
         assertEquals(oc.getName(), rc.getName());
         assertEquals(oc.getNrOfWInputs(), rc.getNrOfWInputs());
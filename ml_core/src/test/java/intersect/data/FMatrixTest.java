@@ -110,4 +110,22 @@ public class FMatrixTest {
         System.out.println("row1 :\n" + row1);
         System.out.println("column2 : \n" + op3.getColumn(2));
     }
+
+    @Test
+    public void testLazyDeviceBuffer() {
+        fmatrix m = new fmatrix(4, 3, 2);
+        assertFalse(m.hasDeviceBuffer());
+        // without a device copy these are no-ops.
+        m.sync();
+        m.makeMaster();
+        m.set(1, 1, 5);
+        assertFalse(m.hasDeviceBuffer());
+        assertEquals(5, m.get(1, 1), 0);
+
+        assertNotNull(m.getDeviceBuffer());
+        assertTrue(m.hasDeviceBuffer());
+        assertFalse(m.getDeviceBuffer().isAllocated());
+        m.sync();
+        assertEquals(5, m.get(1, 1), 0);
+    }
 }
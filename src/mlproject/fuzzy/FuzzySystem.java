@@ -22,6 +22,7 @@ public class FuzzySystem {
     private ArrayList<ChangeListener> ruleChangeListeners = new ArrayList<>();
     private boolean iterativeMode = false;
     private int maxIterations = 20;
+    private boolean fastMath = false;
 
     public FuzzySystem(String name, boolean createDefault) {
         this.name = name;
@@ -39,6 +40,7 @@ public class FuzzySystem {
      */
     public FuzzySystem clone() throws CloneNotSupportedException{
         FuzzySystem clone = new FuzzySystem(name, false);
+        clone.fastMath = fastMath;
         for( FuzzyVariable fv : this.getInputs())
         {
             FuzzyVariable varClone = fv.clone();
@@ -72,6 +74,7 @@ public class FuzzySystem {
     }
 
     public void addFuzzyInput(FuzzyVariable input) {
+        input.setFastMath(fastMath);
         fuzzyInputs.put(input.getName().toLowerCase(), input);
         fuzzyInputList.add(input);
     }
@@ -86,6 +89,7 @@ public class FuzzySystem {
     }
 
     public void addFuzzyOutput(FuzzyVariable output) {
+        output.setFastMath(fastMath);
         fuzzyOutputs.put(output.getName().toLowerCase(), output);
         fuzzyOutputList.add(output);
     }
@@ -246,6 +250,30 @@ public class FuzzySystem {
         this.iterativeMode = iterativeMode;
     }
 
+    /**
+     * Sets the fast math mode of the fuzzy system. In fast math mode the
+     * membership functions of all the variables are evaluated with the
+     * approximations of FastMath, see FastMath for the maximum errors.
+     * @param fastMath true for the fast approximations, false for the exact
+     * functions.
+     */
+    public void setFastMath(boolean fastMath) {
+        this.fastMath = fastMath;
+        for (FuzzyVariable fv : fuzzyInputList) {
+            fv.setFastMath(fastMath);
+        }
+        for (FuzzyVariable fv : fuzzyOutputList) {
+            fv.setFastMath(fastMath);
+        }
+    }
+
+    /**
+     * @return true if the fuzzy system is in fast math mode.
+     */
+    public boolean isFastMath() {
+        return fastMath;
+    }
+
     public int getMaxIterations() {
         return maxIterations;
     }
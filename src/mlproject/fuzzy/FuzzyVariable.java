@@ -37,6 +37,10 @@ public class FuzzyVariable {
      * The input value for this fuzzy variable.
      */
     private float inputValue;
+    /**
+     * True if the memberships are evaluated in fast math mode.
+     */
+    private boolean fastMath;
     
     /**
      * Creates a new fuzzy variable.
@@ -54,6 +58,7 @@ public class FuzzyVariable {
     public FuzzyVariable clone(){
         FuzzyVariable clone = new FuzzyVariable(name);
         clone.isInput = isInput;
+        clone.fastMath = fastMath;
         for( String key : memberShipFunctions.keySet())
         {
             MemberShip ms = memberShipFunctions.get(key);
@@ -93,6 +98,7 @@ public class FuzzyVariable {
     public void addMemberShip(MemberShip member){
         memberShipFunctions.put(member.getName(),member);
         member.setParent(this);
+        member.setFastMath(fastMath);
         if ( member.getColor() == null)
         {
             member.setColor(memberShipColors[memberShipFunctions.size() % memberShipColors.length]);
@@ -259,4 +265,26 @@ public class FuzzyVariable {
     public boolean hasMemberShip(String name) {
         return memberShipFunctions.containsKey(name);
     }
+
+    /**
+     * Sets the fast math mode of all the memberships of this variable,
+     * memberships that are added later get the same mode.
+     * @param fastMath true for the fast approximations, false for the exact
+     * functions.
+     */
+    public void setFastMath(boolean fastMath) {
+        this.fastMath = fastMath;
+        for (MemberShip ms : memberShipFunctions.values()) {
+            ms.setFastMath(fastMath);
+        }
+    }
+
+    /**
+     * Checks if the memberships of this variable are evaluated in fast math
+     * mode.
+     * @return true if the variable is in fast math mode.
+     */
+    public boolean isFastMath() {
+        return fastMath;
+    }
 }
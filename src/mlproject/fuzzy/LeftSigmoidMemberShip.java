@@ -87,7 +87,7 @@ public class LeftSigmoidMemberShip extends MemberShip implements Cloneable{
     @Override
     public float evaluate(float x){
        
-       float rightValue = 1/(1+(float)Math.exp(rightA*(x-rightB)));
+       float rightValue = 1/(1+exp(rightA*(x-rightB)));
        return  1 - rightValue;
     }
     
@@ -4,6 +4,7 @@
  */
 package mlproject.fuzzy;
 
+import dae.neuralnet.activation.FastMath;
 import java.awt.Color;
 import java.util.ArrayList;
 import javax.swing.event.ChangeEvent;
@@ -20,6 +21,7 @@ public class MemberShip {
     private float inputTestValue;
     private ArrayList<ChangeListener> listeners;
     private ChangeEvent changeEvent;
+    private boolean fastMath;
 
     public MemberShip(String name) {
         this.name = name.toLowerCase();
@@ -58,6 +60,37 @@ public class MemberShip {
         return 1.0f;
     }
 
+    /**
+     * Calculates e^x for the evaluation of the membership, with the fast
+     * approximation if this membership is in fast math mode.
+     *
+     * @param x the argument.
+     * @return e^x.
+     */
+    protected float exp(float x) {
+        return fastMath ? FastMath.exp(x) : (float) Math.exp(x);
+    }
+
+    /**
+     * Sets the fast math mode of this membership. In fast math mode the
+     * membership is evaluated with the approximations of FastMath.
+     *
+     * @param fastMath true for the fast approximations, false for the exact
+     * functions.
+     */
+    public void setFastMath(boolean fastMath) {
+        this.fastMath = fastMath;
+    }
+
+    /**
+     * Checks if this membership is evaluated in fast math mode.
+     *
+     * @return true if the membership is in fast math mode.
+     */
+    public boolean isFastMath() {
+        return fastMath;
+    }
+
     public String getName() {
         return name;
     }
@@ -76,7 +76,7 @@ public class RightSigmoidMemberShip extends MemberShip implements Cloneable {
 
     @Override
     public float evaluate(float x) {
-        float leftValue = 1 / (1 + (float) Math.exp(leftA * (x - leftB)));
+        float leftValue = 1 / (1 + exp(leftA * (x - leftB)));
         return leftValue;
     }
 
@@ -61,8 +61,8 @@ public class TrapezoidMemberShip extends MemberShip implements Cloneable {
 
     @Override
     public float evaluate(float x) {
-        float leftValue = 1 / (1 + (float) Math.exp(leftA * (x - leftB)));
-        float rightValue = 1 / (1 + (float) Math.exp(rightA * (x - rightB)));
+        float leftValue = 1 / (1 + exp(leftA * (x - leftB)));
+        float rightValue = 1 / (1 + exp(rightA * (x - rightB)));
         return leftValue - rightValue;
     }
 